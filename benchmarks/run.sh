@@ -0,0 +1,12 @@
+#!/bin/sh
+# Builds the application and the benchmarks, then runs them. Extra arguments go to JMH,
+# e.g. `benchmarks/run.sh GeoDistance -f 1`. Results are written to benchmarks/results/<commit>.json
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -q install -DskipTests
+mvn -q -f benchmarks/pom.xml package
+
+mkdir -p benchmarks/results
+commit=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+java -jar benchmarks/target/benchmarks.jar -rf json -rff "benchmarks/results/$commit.json" "$@"
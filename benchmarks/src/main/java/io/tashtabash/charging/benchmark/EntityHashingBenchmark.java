@@ -0,0 +1,73 @@
+package io.tashtabash.charging.benchmark;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link Station#hashCode()} and {@link Company#equals(Object)} for owners at the bottom of
+ * Company chains of different depths. Equal Companies are distinct instances, so a comparison
+ * walking the parents would have to visit the whole chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class EntityHashingBenchmark {
+    private static final int STATIONS = 1024;
+
+    @Param({"1", "8", "64"})
+    public int depth;
+
+    private Company company;
+
+    private Company equalCompany;
+
+    private Station[] stations;
+
+    private static Company chain(int depth) {
+        Company company = null;
+        for (int level = 0; level < depth; level++) {
+            company = new Company(level + 1, "Company " + level, company);
+        }
+
+        return company;
+    }
+
+    @Setup
+    public void createEntities() {
+        company = chain(depth);
+        equalCompany = chain(depth);
+        stations = new Station[STATIONS];
+        for (int i = 0; i < STATIONS; i++) {
+            stations[i] = new Station(i + 1, "Station " + i, i * 0.001, i * 0.002, company);
+        }
+    }
+
+    @Benchmark
+    public int stationHashCode() {
+        return stations[0].hashCode();
+    }
+
+    @Benchmark
+    public boolean companyEquals() {
+        return company.equals(equalCompany);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STATIONS)
+    public void hashSetOfStations(Blackhole blackhole) {
+        var set = new HashSet<Station>(STATIONS * 2);
+        for (var station : stations) {
+            set.add(station);
+        }
+        blackhole.consume(set);
+    }
+}
@@ -0,0 +1,173 @@
+package io.tashtabash.charging.benchmark;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Distance functions over the same seeded pairs of points. Besides the haversine formula of
+ * {@link GeoPoint}, reimplements the cheaper approximations and the two earthdistance semantics:
+ * {@code earth_distance(ll_to_earth(...))} used by the queries, and the point operator {@code <@>}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class GeoDistanceBenchmark {
+    private static final int PAIRS = 1024;
+
+    // earth() of the cube module, in meters
+    private static final double EARTHDISTANCE_CUBE_RADIUS_M = GeoPoint.EARTH_RADIUS_KM * 1000;
+
+    // Hardcoded in the point operator, in statute miles
+    private static final double EARTHDISTANCE_POINT_RADIUS_MILES = 3958.747716;
+
+    private static final double KM_PER_MILE = 1.609344;
+
+    public enum Spread {
+        /** Up to about 50 km apart, like a radius search */
+        LOCAL,
+        /** Anywhere on the globe */
+        GLOBAL
+    }
+
+    @Param
+    public Spread spread;
+
+    private final double[] latitudes1 = new double[PAIRS];
+
+    private final double[] longitudes1 = new double[PAIRS];
+
+    private final double[] latitudes2 = new double[PAIRS];
+
+    private final double[] longitudes2 = new double[PAIRS];
+
+    @Setup
+    public void generatePairs() {
+        var random = new SplittableRandom(42);
+
+        for (int i = 0; i < PAIRS; i++) {
+            latitudes1[i] = random.nextDouble(-85, 85);
+            longitudes1[i] = random.nextDouble(-180, 180);
+            if (spread == Spread.LOCAL) {
+                latitudes2[i] = latitudes1[i] + random.nextDouble(-0.3, 0.3);
+                longitudes2[i] = longitudes1[i] + random.nextDouble(-0.3, 0.3);
+            } else {
+                latitudes2[i] = random.nextDouble(-90, 90);
+                longitudes2[i] = random.nextDouble(-180, 180);
+            }
+        }
+    }
+
+    static double equirectangularKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double longitudeDelta = Math.toRadians(longitude2 - longitude1);
+        if (longitudeDelta > Math.PI) {
+            longitudeDelta -= 2 * Math.PI;
+        } else if (longitudeDelta < -Math.PI) {
+            longitudeDelta += 2 * Math.PI;
+        }
+        double x = longitudeDelta * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        double y = Math.toRadians(latitude2 - latitude1);
+
+        return GeoPoint.EARTH_RADIUS_KM * Math.sqrt(x * x + y * y);
+    }
+
+    static double sphericalLawOfCosinesKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double cosine = Math.sin(phi1) * Math.sin(phi2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.cos(Math.toRadians(longitude2 - longitude1));
+
+        return GeoPoint.EARTH_RADIUS_KM * Math.acos(Math.max(-1.0, Math.min(1.0, cosine)));
+    }
+
+    // Chord between the ll_to_earth() cube points, converted to the great circle distance
+    static double earthDistanceCubeKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double lambda1 = Math.toRadians(longitude1);
+        double lambda2 = Math.toRadians(longitude2);
+        double dx = Math.cos(phi1) * Math.cos(lambda1) - Math.cos(phi2) * Math.cos(lambda2);
+        double dy = Math.cos(phi1) * Math.sin(lambda1) - Math.cos(phi2) * Math.sin(lambda2);
+        double dz = Math.sin(phi1) - Math.sin(phi2);
+        double chord = EARTHDISTANCE_CUBE_RADIUS_M * Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        return 2 * EARTHDISTANCE_CUBE_RADIUS_M * Math.asin(Math.min(1.0, chord / (2 * EARTHDISTANCE_CUBE_RADIUS_M))) / 1000;
+    }
+
+    // Haversine on a sphere in miles, as the <@> operator computes it
+    static double earthDistancePointKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double latitudeDelta = Math.toRadians(Math.abs(latitude1 - latitude2));
+        double longitudeDelta = Math.toRadians(Math.abs(longitude1 - longitude2));
+        if (longitudeDelta > Math.PI) {
+            longitudeDelta = 2 * Math.PI - longitudeDelta;
+        }
+        double sine = Math.sqrt(
+                Math.sin(latitudeDelta / 2) * Math.sin(latitudeDelta / 2)
+                        + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                        * Math.sin(longitudeDelta / 2) * Math.sin(longitudeDelta / 2)
+        );
+
+        return 2 * EARTHDISTANCE_POINT_RADIUS_MILES * Math.asin(Math.min(1.0, sine)) * KM_PER_MILE;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double haversine() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += GeoPoint.distanceKm(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double equirectangular() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += equirectangularKm(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double sphericalLawOfCosines() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += sphericalLawOfCosinesKm(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double earthDistanceCube() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += earthDistanceCubeKm(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double earthDistancePoint() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += earthDistancePointKm(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,73 @@
+package io.tashtabash.charging.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Serialization of a page of Stations owned by the bottom of a Company chain: the flat and
+ * expanded responses, including the mapping to {@link StationDto}, and the entities themselves,
+ * which Jackson serializes with the whole parent chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class JsonSerializationBenchmark {
+    private static final int STATIONS = 100;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    // Configured like the application's one
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private List<Station> stations;
+
+    @Setup
+    public void createStations() {
+        Company company = null;
+        for (int level = 0; level < depth; level++) {
+            company = new Company(level + 1, "Company " + level, company);
+        }
+
+        stations = new ArrayList<>(STATIONS);
+        for (int i = 0; i < STATIONS; i++) {
+            stations.add(new Station(i + 1, "Station " + i, 52 + i * 0.001, 13 + i * 0.002, company));
+        }
+    }
+
+    private byte[] writeDtos(boolean expandCompany) throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(
+                stations.stream()
+                        .map(station -> StationDto.from(station, expandCompany))
+                        .toList()
+        );
+    }
+
+    @Benchmark
+    public byte[] flatDtos() throws JsonProcessingException {
+        return writeDtos(false);
+    }
+
+    @Benchmark
+    public byte[] expandedDtos() throws JsonProcessingException {
+        return writeDtos(true);
+    }
+
+    @Benchmark
+    public byte[] entityGraph() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(stations);
+    }
+}
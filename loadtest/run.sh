@@ -0,0 +1,26 @@
+#!/bin/sh
+# Usage: loadtest/run.sh generate|load|compare [--name=value...]
+# `generate` fills the database of the application with a synthetic dataset, `load` drives the running
+# application and writes the results to loadtest/results/<commit>.json, `compare` runs the searches served by both the
+# application and the reactive module against each and writes loadtest/results/<commit>-compare.json.
+# Pass the same dataset options to all of them.
+set -e
+cd "$(dirname "$0")/.."
+
+case "$1" in
+    generate) main=io.tashtabash.charging.loadtest.DatasetGenerator ;;
+    load) main=io.tashtabash.charging.loadtest.LoadTest ;;
+    compare) main=io.tashtabash.charging.loadtest.Comparison ;;
+    *) echo "Usage: $0 generate|load|compare [--name=value...]" >&2; exit 1 ;;
+esac
+shift
+
+mvn -q install -DskipTests
+mvn -q -f loadtest/pom.xml package -DskipTests
+
+commit=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+case "$main" in
+    *.LoadTest) set -- "--output=loadtest/results/$commit.json" "$@" ;;
+    *.Comparison) set -- "--output=loadtest/results/$commit-compare.json" "$@" ;;
+esac
+java -cp loadtest/target/loadtest.jar "$main" "$@"
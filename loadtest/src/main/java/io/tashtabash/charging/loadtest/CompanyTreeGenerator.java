@@ -0,0 +1,51 @@
+package io.tashtabash.charging.loadtest;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Skewed Company forest. A new Company becomes a root, continues the chain of the previous one
+ * or joins a parent picked proportionally to its children count, so a few Companies get most
+ * of the children while chains reach the maximal depth. Parents always precede their children.
+ */
+final class CompanyTreeGenerator {
+    static final double ROOT_SHARE = 0.005;
+
+    static final double CHAIN_PROBABILITY = 0.3;
+
+    private CompanyTreeGenerator() {}
+
+    /**
+     * @return parent index of each Company, -1 for roots
+     */
+    static int[] generate(int companies, int maxDepth, long seed) {
+        var random = new SplittableRandom(seed);
+        int[] parents = new int[companies];
+        int[] depths = new int[companies];
+        // Each Company appears once plus once per child, so uniform picks are preferential
+        int[] attachments = new int[2 * companies];
+        int attachmentCount = 0;
+
+        for (int i = 0; i < companies; i++) {
+            int parent = -1;
+            if (i > 0 && random.nextDouble() >= ROOT_SHARE) {
+                parent = random.nextDouble() < CHAIN_PROBABILITY
+                        ? i - 1
+                        : attachments[random.nextInt(attachmentCount)];
+                // Too deep parents are replaced by their ancestor at the last level allowing children
+                while (parent >= 0 && depths[parent] >= maxDepth - 1) {
+                    parent = parents[parent];
+                }
+            }
+
+            parents[i] = parent;
+            depths[i] = parent < 0 ? 0 : depths[parent] + 1;
+            attachments[attachmentCount++] = i;
+            if (parent >= 0) {
+                attachments[attachmentCount++] = parent;
+            }
+        }
+
+        return parents;
+    }
+}
@@ -0,0 +1,56 @@
+package io.tashtabash.charging.loadtest;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Runs the {@link LoadTest} requests which both the servlet application and the reactive module
+ * serve against one and then the other, and prints the results side by side. Both should use
+ * the same database and dataset, and shouldn't run at the same time as the other's load.
+ */
+public class Comparison {
+    private static final Set<String> SHARED_ENDPOINTS = Set.of("GET /station", "GET /company/{id}/station");
+
+    public record Result(LoadTest.Result servlet, LoadTest.Result reactive) {}
+
+    public static void main(String[] args) throws Exception {
+        var options = new Options(args);
+        String servletUrl = options.getString("servlet-url", "http://localhost:8080");
+        String reactiveUrl = options.getString("reactive-url", "http://localhost:8081");
+        List<LoadTest.Endpoint> endpoints = LoadTest.endpoints(options).stream()
+                .filter(endpoint -> SHARED_ENDPOINTS.contains(endpoint.name()))
+                .toList();
+
+        var result = new Result(
+                LoadTest.run(servletUrl, options, endpoints),
+                LoadTest.run(reactiveUrl, options, endpoints)
+        );
+        print(result);
+        LoadTest.save(Path.of(options.getString("output", "comparison-result.json")), result);
+    }
+
+    private static void print(Result result) {
+        System.out.printf("%-28s %-9s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "Endpoint", "Stack", "Requests", "Errors", "Req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Max ms");
+        for (int i = 0; i < result.servlet().endpoints().size(); i++) {
+            print("servlet", result.servlet().endpoints().get(i));
+            print("reactive", result.reactive().endpoints().get(i));
+        }
+    }
+
+    private static void print(String stack, LoadTest.EndpointResult endpoint) {
+        System.out.printf("%-28s %-9s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                endpoint.endpoint(),
+                stack,
+                endpoint.requests(),
+                endpoint.errors(),
+                endpoint.throughputPerSecond(),
+                endpoint.p50Ms(),
+                endpoint.p90Ms(),
+                endpoint.p99Ms(),
+                endpoint.p999Ms(),
+                endpoint.maxMs());
+    }
+}
@@ -0,0 +1,175 @@
+package io.tashtabash.charging.loadtest;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.SplittableRandom;
+
+
+/**
+ * Fills an empty database with a reproducible dataset: the same options and seed always produce
+ * the same rows, with ids starting from 1. Companies and Stations are copied in directly,
+ * then the application's schema.sql rebuilds the indexes, clusters, closure and change log.
+ * Run it before starting the application, whose in-memory structures are loaded on startup.
+ */
+public class DatasetGenerator {
+    static final int DEFAULT_COMPANIES = 100_000;
+
+    static final int DEFAULT_MAX_DEPTH = 10;
+
+    static final int DEFAULT_STATIONS = 1_000_000;
+
+    static final int DEFAULT_CITIES = 2_000;
+
+    static final long DEFAULT_SEED = 42;
+
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+    // Rebuilt by schema.sql once the rows are in, which is much faster than maintaining them per row
+    private static final String[] SECONDARY_INDEXES = {
+            "station_location_idx",
+            "station_latitude_longitude_idx",
+            "station_company_id_idx",
+            "company_parent_company_id_idx",
+            "company_closure_descendant_id_idx"
+    };
+
+    public static void main(String[] args) throws SQLException {
+        var options = new Options(args);
+        int companies = options.getInt("companies", DEFAULT_COMPANIES);
+        int maxDepth = options.getInt("max-depth", DEFAULT_MAX_DEPTH);
+        int stations = options.getInt("stations", DEFAULT_STATIONS);
+        int cities = options.getInt("cities", DEFAULT_CITIES);
+        long seed = options.getLong("seed", DEFAULT_SEED);
+
+        try (Connection connection = DriverManager.getConnection(
+                options.getString("url", "jdbc:postgresql://localhost:5432/charging"),
+                options.getString("user", "charging"),
+                options.getString("password", "test")
+        )) {
+            prepare(connection, options.getBoolean("truncate", false));
+
+            long start = System.nanoTime();
+            copyCompanies(connection, CompanyTreeGenerator.generate(companies, maxDepth, seed));
+            copyStations(connection, stations, companies, new StationLocationGenerator(cities, seed), seed);
+            System.out.printf("Copied %d Companies and %d Stations in %d s%n",
+                    companies, stations, (System.nanoTime() - start) / 1_000_000_000);
+
+            start = System.nanoTime();
+            rebuildDerivedData(connection);
+            System.out.printf("Rebuilt indexes and derived tables in %d s%n", (System.nanoTime() - start) / 1_000_000_000);
+        }
+    }
+
+    private static void prepare(Connection connection, boolean truncate) throws SQLException {
+        ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+
+        try (Statement statement = connection.createStatement()) {
+            if (truncate) {
+                statement.execute("TRUNCATE Company, Station, StationCluster, CompanyClosure, ChangeLog RESTART IDENTITY");
+            } else {
+                var resultSet = statement.executeQuery("SELECT EXISTS (SELECT 1 FROM Company)");
+                resultSet.next();
+                if (resultSet.getBoolean(1)) {
+                    throw new IllegalStateException("The database isn't empty, pass --truncate=true to replace its data");
+                }
+                // Leftovers of deleted rows would keep schema.sql from backfilling these tables
+                statement.execute("TRUNCATE StationCluster, CompanyClosure, ChangeLog RESTART IDENTITY");
+            }
+
+            for (String index : SECONDARY_INDEXES) {
+                statement.execute("DROP INDEX IF EXISTS " + index);
+            }
+        }
+    }
+
+    private static void copyCompanies(Connection connection, int[] parents) throws SQLException {
+        var copy = new CopyWriter(connection, "COPY Company (id, name, parent_company_id) FROM STDIN WITH (FORMAT csv)");
+
+        for (int i = 0; i < parents.length; i++) {
+            copy.append(i + 1).append(",Company ").append(i + 1).append(',');
+            if (parents[i] >= 0) {
+                copy.append(parents[i] + 1);
+            }
+            copy.append('\n');
+        }
+        copy.finish();
+    }
+
+    // Owners follow Zipf's law, so the first Companies, which are the roots and their children, are the largest
+    private static void copyStations(
+            Connection connection,
+            int stations,
+            int companies,
+            StationLocationGenerator locations,
+            long seed
+    ) throws SQLException {
+        var random = new SplittableRandom(seed + 1);
+        var owners = new ZipfSampler(companies, 1.0);
+        var copy = new CopyWriter(
+                connection,
+                "COPY Station (id, name, latitude, longitude, company_id) FROM STDIN WITH (FORMAT csv)"
+        );
+
+        for (int i = 0; i < stations; i++) {
+            GeoPoint location = locations.next(random);
+            copy.append(i + 1).append(",Station ").append(i + 1).append(',')
+                    .append(location.latitude()).append(',')
+                    .append(location.longitude()).append(',')
+                    .append(owners.next(random) + 1).append('\n');
+        }
+        copy.finish();
+    }
+
+    private static void rebuildDerivedData(Connection connection) throws SQLException {
+        // Also moves company_seq and station_seq past the explicitly copied ids
+        ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+    }
+
+    /**
+     * Buffers CSV rows and streams them into a COPY in large chunks.
+     */
+    private static class CopyWriter {
+        private final CopyIn copyIn;
+
+        private final StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE);
+
+        CopyWriter(Connection connection, String sql) throws SQLException {
+            copyIn = connection.unwrap(PGConnection.class)
+                    .getCopyAPI()
+                    .copyIn(sql);
+        }
+
+        CopyWriter append(Object value) throws SQLException {
+            buffer.append(value);
+            if (buffer.length() >= COPY_BUFFER_SIZE) {
+                flush();
+            }
+
+            return this;
+        }
+
+        private void flush() throws SQLException {
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+
+        void finish() throws SQLException {
+            flush();
+            copyIn.endCopy();
+        }
+    }
+}
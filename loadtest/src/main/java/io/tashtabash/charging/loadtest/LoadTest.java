@@ -0,0 +1,261 @@
+package io.tashtabash.charging.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+
+/**
+ * Closed-loop load against a running application over a dataset of {@link DatasetGenerator}:
+ * each worker sends its next request once the previous one is answered, picking the endpoint by
+ * weight. Query locations follow the Station distribution, so most searches hit dense areas.
+ * Latencies are recorded per endpoint after the warmup and reported with the throughput.
+ */
+public class LoadTest {
+    private static final double[] RADII_KM = {1, 5, 20, 50};
+
+    private static final int NEAREST_K = 10;
+
+    private static final int PAGE_SIZE = 100;
+
+    record Endpoint(String name, int weight, Function<SplittableRandom, String> path) {}
+
+    public record EndpointResult(
+            String endpoint,
+            long requests,
+            long errors,
+            double throughputPerSecond,
+            double p50Ms,
+            double p90Ms,
+            double p99Ms,
+            double p999Ms,
+            double maxMs
+    ) {}
+
+    public record Result(
+            Instant startedAt,
+            String baseUrl,
+            int concurrency,
+            long durationSeconds,
+            Map<String, Object> dataset,
+            List<EndpointResult> endpoints
+    ) {}
+
+    private static class EndpointStats {
+        // Up to a minute with 3 significant digits
+        private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+
+        private final AtomicLong errors = new AtomicLong();
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = new Options(args);
+        String baseUrl = options.getString("base-url", "http://localhost:8080");
+
+        Result result = run(baseUrl, options, endpoints(options));
+        print(result);
+        save(Path.of(options.getString("output", "loadtest-result.json")), result);
+    }
+
+    static List<Endpoint> endpoints(Options options) {
+        int companies = options.getInt("companies", DatasetGenerator.DEFAULT_COMPANIES);
+        int stations = options.getInt("stations", DatasetGenerator.DEFAULT_STATIONS);
+        int cities = options.getInt("cities", DatasetGenerator.DEFAULT_CITIES);
+        long seed = options.getLong("seed", DatasetGenerator.DEFAULT_SEED);
+
+        // Same cities as the dataset, but other points than its Stations
+        var locations = new StationLocationGenerator(cities, seed);
+        var companySampler = new ZipfSampler(companies, 1.0);
+
+        return List.of(
+                new Endpoint("GET /station", 40, random -> {
+                    GeoPoint center = locations.next(random);
+                    return "/station?latitude=" + center.latitude() + "&longitude=" + center.longitude()
+                            + "&radiusKm=" + RADII_KM[random.nextInt(RADII_KM.length)];
+                }),
+                new Endpoint("GET /station/nearest", 15, random -> {
+                    GeoPoint center = locations.next(random);
+                    return "/station/nearest?latitude=" + center.latitude() + "&longitude=" + center.longitude()
+                            + "&k=" + NEAREST_K;
+                }),
+                new Endpoint("GET /station/viewport", 15, random -> viewportPath(locations.next(random), random)),
+                new Endpoint("GET /station/{id}", 10, random -> "/station/" + (random.nextInt(stations) + 1)),
+                new Endpoint("GET /company/{id}", 5, random -> "/company/" + (random.nextInt(companies) + 1)),
+                new Endpoint("GET /company/{id}/station", 10, random ->
+                        "/company/" + (companySampler.next(random) + 1) + "/station?limit=" + PAGE_SIZE),
+                new Endpoint("GET /company", 5, random -> "/company?limit=" + PAGE_SIZE)
+        );
+    }
+
+    /**
+     * Runs the load of {@code options} against {@code baseUrl}, the same seed gives the same requests.
+     */
+    static Result run(String baseUrl, Options options, List<Endpoint> endpoints) throws InterruptedException {
+        int concurrency = options.getInt("concurrency", 32);
+        Duration warmup = options.getDuration("warmup", Duration.ofSeconds(30));
+        Duration duration = options.getDuration("duration", Duration.ofSeconds(120));
+        long seed = options.getLong("seed", DatasetGenerator.DEFAULT_SEED);
+
+        Map<String, Object> dataset = new LinkedHashMap<>();
+        dataset.put("companies", options.getInt("companies", DatasetGenerator.DEFAULT_COMPANIES));
+        dataset.put("stations", options.getInt("stations", DatasetGenerator.DEFAULT_STATIONS));
+        dataset.put("cities", options.getInt("cities", DatasetGenerator.DEFAULT_CITIES));
+        dataset.put("seed", seed);
+
+        return run(baseUrl, concurrency, warmup, duration, endpoints, seed, dataset);
+    }
+
+    static void save(Path output, Object result) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        new ObjectMapper()
+                .findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .writerWithDefaultPrettyPrinter()
+                .writeValue(output.toFile(), result);
+        System.out.println("Result is saved to " + output);
+    }
+
+    // A map of about 3x2 tiles at zoom 4 to 16, the deeper zooms return Stations instead of clusters
+    private static String viewportPath(GeoPoint center, SplittableRandom random) {
+        int zoom = 4 + random.nextInt(13);
+        double longitudeSpan = 360 / Math.pow(2, zoom) * 3;
+        double latitudeSpan = longitudeSpan / 2 * Math.cos(Math.toRadians(center.latitude()));
+
+        return "/station/viewport?minLat=" + Math.max(-90, center.latitude() - latitudeSpan / 2)
+                + "&minLon=" + Math.max(-180, center.longitude() - longitudeSpan / 2)
+                + "&maxLat=" + Math.min(90, center.latitude() + latitudeSpan / 2)
+                + "&maxLon=" + Math.min(180, center.longitude() + longitudeSpan / 2)
+                + "&zoom=" + zoom;
+    }
+
+    private static Result run(
+            String baseUrl,
+            int concurrency,
+            Duration warmup,
+            Duration duration,
+            List<Endpoint> endpoints,
+            long seed,
+            Map<String, Object> dataset
+    ) throws InterruptedException {
+        var client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        endpoints.forEach(endpoint -> stats.put(endpoint.name(), new EndpointStats()));
+        int totalWeight = endpoints.stream().mapToInt(Endpoint::weight).sum();
+
+        Instant startedAt = Instant.now();
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long measureUntil = measureFrom + duration.toNanos();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int worker = 0; worker < concurrency; worker++) {
+            var random = new SplittableRandom(seed + 100 + worker);
+            workers.execute(() -> {
+                while (System.nanoTime() < measureUntil) {
+                    Endpoint endpoint = pick(endpoints, totalWeight, random);
+                    var request = HttpRequest.newBuilder(URI.create(baseUrl + endpoint.path().apply(random)))
+                            .timeout(Duration.ofMinutes(1))
+                            .GET()
+                            .build();
+
+                    long start = System.nanoTime();
+                    boolean failed;
+                    try {
+                        failed = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 400;
+                    } catch (IOException e) {
+                        failed = true;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = System.nanoTime();
+
+                    if (start >= measureFrom && end <= measureUntil) {
+                        EndpointStats endpointStats = stats.get(endpoint.name());
+                        endpointStats.latencies.recordValue(Math.min(end - start, TimeUnit.MINUTES.toNanos(1)));
+                        if (failed) {
+                            endpointStats.errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(warmup.plus(duration).plusMinutes(2).toMillis(), TimeUnit.MILLISECONDS);
+
+        List<EndpointResult> endpointResults = new ArrayList<>();
+        double seconds = duration.toNanos() / 1e9;
+        stats.forEach((name, endpointStats) -> {
+            Histogram latencies = endpointStats.latencies;
+            endpointResults.add(new EndpointResult(
+                    name,
+                    latencies.getTotalCount(),
+                    endpointStats.errors.get(),
+                    latencies.getTotalCount() / seconds,
+                    millis(latencies.getValueAtPercentile(50)),
+                    millis(latencies.getValueAtPercentile(90)),
+                    millis(latencies.getValueAtPercentile(99)),
+                    millis(latencies.getValueAtPercentile(99.9)),
+                    millis(latencies.getMaxValue())
+            ));
+        });
+
+        return new Result(startedAt, baseUrl, concurrency, duration.toSeconds(), dataset, endpointResults);
+    }
+
+    private static Endpoint pick(List<Endpoint> endpoints, int totalWeight, SplittableRandom random) {
+        int target = random.nextInt(totalWeight);
+        for (Endpoint endpoint : endpoints) {
+            target -= endpoint.weight();
+            if (target < 0) {
+                return endpoint;
+            }
+        }
+
+        throw new IllegalStateException("Weights don't add up to " + totalWeight);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void print(Result result) {
+        System.out.printf("%-28s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Max ms");
+        for (EndpointResult endpoint : result.endpoints()) {
+            System.out.printf("%-28s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    endpoint.endpoint(),
+                    endpoint.requests(),
+                    endpoint.errors(),
+                    endpoint.throughputPerSecond(),
+                    endpoint.p50Ms(),
+                    endpoint.p90Ms(),
+                    endpoint.p99Ms(),
+                    endpoint.p999Ms(),
+                    endpoint.maxMs());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.tashtabash.charging.loadtest;
+
+import io.tashtabash.charging.geo.GeoPoint;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Station coordinates clustered around cities in a few populated regions. City sizes follow
+ * Zipf's law, bigger cities are also more spread out, and a share of the Stations lies
+ * along the roads between them, uniformly over the regions.
+ */
+final class StationLocationGenerator {
+    static final double RURAL_SHARE = 0.1;
+
+    private static final double KM_PER_LATITUDE_DEGREE = Math.toRadians(GeoPoint.EARTH_RADIUS_KM);
+
+    // Minimal and maximal latitudes and longitudes of Europe, North America, East Asia and Australia
+    private static final double[][] REGIONS = {
+            {36, 60, -10, 30},
+            {25, 50, -125, -70},
+            {20, 45, 100, 145},
+            {-38, -27, 140, 153}
+    };
+
+    private record City(GeoPoint center, double sigmaKm) {}
+
+    private final City[] cities;
+
+    private final ZipfSampler citySampler;
+
+    StationLocationGenerator(int cityCount, long seed) {
+        var random = new SplittableRandom(seed);
+        cities = new City[cityCount];
+        for (int i = 0; i < cityCount; i++) {
+            cities[i] = new City(uniformInRegion(random), 2 + 20 / Math.sqrt(i + 1));
+        }
+        citySampler = new ZipfSampler(cityCount, 1.0);
+    }
+
+    private static GeoPoint uniformInRegion(SplittableRandom random) {
+        double[] region = REGIONS[random.nextInt(REGIONS.length)];
+
+        return new GeoPoint(random.nextDouble(region[0], region[1]), random.nextDouble(region[2], region[3]));
+    }
+
+    GeoPoint next(SplittableRandom random) {
+        if (random.nextDouble() < RURAL_SHARE) {
+            return uniformInRegion(random);
+        }
+
+        var city = cities[citySampler.next(random)];
+        double latitude = city.center().latitude() + random.nextGaussian() * city.sigmaKm() / KM_PER_LATITUDE_DEGREE;
+        double longitudeDegreeKm = KM_PER_LATITUDE_DEGREE * Math.cos(Math.toRadians(city.center().latitude()));
+        double longitude = city.center().longitude() + random.nextGaussian() * city.sigmaKm() / longitudeDegreeKm;
+
+        return new GeoPoint(Math.max(-90, Math.min(90, latitude)), longitude);
+    }
+}
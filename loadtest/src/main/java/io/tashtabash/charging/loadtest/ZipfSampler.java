@@ -0,0 +1,29 @@
+package io.tashtabash.charging.loadtest;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * Samples indexes {@code 0..size-1} with weights {@code 1 / (index + 1)^exponent}.
+ */
+final class ZipfSampler {
+    private final double[] cumulativeWeights;
+
+    ZipfSampler(int size, double exponent) {
+        cumulativeWeights = new double[size];
+
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulativeWeights[i] = sum;
+        }
+    }
+
+    int next(SplittableRandom random) {
+        double target = random.nextDouble(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = Arrays.binarySearch(cumulativeWeights, target);
+
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
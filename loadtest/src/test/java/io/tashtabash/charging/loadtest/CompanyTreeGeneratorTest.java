@@ -0,0 +1,60 @@
+package io.tashtabash.charging.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class CompanyTreeGeneratorTest {
+    private static int[] depths(int[] parents) {
+        int[] depths = new int[parents.length];
+        for (int i = 0; i < parents.length; i++) {
+            depths[i] = parents[i] < 0 ? 0 : depths[parents[i]] + 1;
+        }
+
+        return depths;
+    }
+
+    @Test
+    void generateIsReproducible() {
+        assertArrayEquals(
+                CompanyTreeGenerator.generate(10_000, 10, 42),
+                CompanyTreeGenerator.generate(10_000, 10, 42)
+        );
+    }
+
+    @Test
+    void generatePutsParentsBeforeChildren() {
+        int[] parents = CompanyTreeGenerator.generate(10_000, 10, 42);
+
+        for (int i = 0; i < parents.length; i++) {
+            assertThat(parents[i]).isLessThan(i);
+        }
+    }
+
+    @Test
+    void generateReachesButDoesNotExceedMaxDepth() {
+        int[] depths = depths(CompanyTreeGenerator.generate(10_000, 10, 42));
+
+        assertEquals(9, Arrays.stream(depths).max().orElseThrow());
+    }
+
+    @Test
+    void generateSkewsChildrenCounts() {
+        int[] parents = CompanyTreeGenerator.generate(10_000, 10, 42);
+        int[] children = new int[parents.length];
+        for (int parent : parents) {
+            if (parent >= 0) {
+                children[parent]++;
+            }
+        }
+
+        int maxChildren = Arrays.stream(children).max().orElseThrow();
+        long leaves = Arrays.stream(children).filter(count -> count == 0).count();
+        assertThat(maxChildren).isGreaterThan(100);
+        assertThat(leaves).isGreaterThan(parents.length / 2);
+    }
+}
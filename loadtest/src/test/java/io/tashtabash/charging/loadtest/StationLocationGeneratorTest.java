@@ -0,0 +1,51 @@
+package io.tashtabash.charging.loadtest;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class StationLocationGeneratorTest {
+    private static List<GeoPoint> generate(int count, long seed) {
+        var generator = new StationLocationGenerator(100, seed);
+        var random = new SplittableRandom(seed);
+        List<GeoPoint> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            locations.add(generator.next(random));
+        }
+
+        return locations;
+    }
+
+    @Test
+    void nextIsReproducible() {
+        assertEquals(generate(1000, 42), generate(1000, 42));
+    }
+
+    @Test
+    void nextReturnsValidCoordinates() {
+        assertThat(generate(10_000, 42)).allSatisfy(location -> {
+            assertThat(location.latitude()).isBetween(-90.0, 90.0);
+            assertThat(location.longitude()).isBetween(-180.0, 180.0);
+        });
+    }
+
+    @Test
+    void nextClustersAroundCities() {
+        List<GeoPoint> locations = generate(10_000, 42);
+
+        // Uniform points over the regions would rarely have another one within 5 km
+        long clustered = locations.stream()
+                .limit(200)
+                .filter(location -> locations.stream()
+                        .anyMatch(other -> other != location && location.distanceKmTo(other) < 5))
+                .count();
+        assertThat(clustered).isGreaterThan(100);
+    }
+}
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Usage: reactive/run.sh [--name=value...]
+# Builds and runs the reactive module on port 8081 against the database of the application, which creates the schema.
+# Arguments are Spring Boot properties, e.g. --spring.r2dbc.pool.max-size=20.
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -q install -DskipTests
+mvn -q -f reactive/pom.xml package -DskipTests
+
+java -jar reactive/target/charging-reactive.jar "$@"
@@ -0,0 +1,11 @@
+package io.tashtabash.charging.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class ReactiveChargingApplication {
+	public static void main(String[] args) {
+		SpringApplication.run(ReactiveChargingApplication.class, args);
+	}
+}
@@ -0,0 +1,106 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.CompanyController;
+import io.tashtabash.charging.controller.PageCursor;
+import io.tashtabash.charging.controller.StationController;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.service.IncorrectCompanyFormatException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+
+@RestController
+@CrossOrigin(exposedHeaders = {CompanyController.NEXT_CURSOR_HEADER, HttpHeaders.ETAG})
+@RequestMapping("/company")
+public class ReactiveCompanyController {
+    private final ReactiveStationService stationService;
+
+    @Autowired
+    public ReactiveCompanyController(ReactiveStationService stationService) {
+        this.stationService = stationService;
+    }
+
+    private static boolean isPaged(String after, Integer limit) {
+        return after != null || limit != null;
+    }
+
+    private static long decodeCursor(String after) {
+        if (after == null) {
+            return 0;
+        }
+
+        try {
+            return PageCursor.decodeId(after);
+        } catch (IllegalArgumentException e) {
+            throw new IncorrectCompanyFormatException("Malformed cursor '" + after + "'");
+        }
+    }
+
+    private static int checkPageSize(Integer limit) {
+        if (limit == null) {
+            return CompanyController.DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1 || CompanyController.MAX_PAGE_SIZE < limit) {
+            throw new IncorrectCompanyFormatException(
+                    "Limit must be in range between 1 and " + CompanyController.MAX_PAGE_SIZE
+            );
+        }
+
+        return limit;
+    }
+
+    // A full page may be followed by an empty one, but it saves counting the rest
+    private static ResponseEntity<List<StationDto>> page(List<StationDto> stations, int limit) {
+        var response = ResponseEntity.ok();
+        if (stations.size() == limit) {
+            response.header(
+                    CompanyController.NEXT_CURSOR_HEADER,
+                    PageCursor.encode(stations.get(stations.size() - 1).id())
+            );
+        }
+
+        return response.body(stations);
+    }
+
+    // Completes empty with 304 set on the exchange when the client has the current checksum
+    @GetMapping("/{id}/station")
+    public Mono<ResponseEntity<List<StationDto>>> searchStations(
+            @PathVariable long id,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String expand,
+            ServerWebExchange exchange
+    ) {
+        boolean expandCompany = StationController.expandsCompany(expand);
+        if (!isPaged(after, limit)) {
+            return stationService.getCompanyStationsChecksum(id)
+                    .filter(checksum -> !exchange.checkNotModified(checksum))
+                    .flatMap(checksum -> stationService.searchByCompany(id, expandCompany).collectList())
+                    .map(ResponseEntity::ok);
+        }
+
+        long afterId = decodeCursor(after);
+        int pageSize = checkPageSize(limit);
+
+        return stationService.getCompanyStationsChecksum(id, afterId, pageSize)
+                .filter(checksum -> !exchange.checkNotModified(checksum))
+                .flatMap(checksum -> stationService.searchByCompany(id, afterId, pageSize, expandCompany).collectList())
+                .map(stations -> page(stations, pageSize));
+    }
+
+    @GetMapping(value = "/{id}/station", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<StationDto> streamStations(
+            @PathVariable long id,
+            @RequestParam(required = false) String expand
+    ) {
+        return stationService.streamByCompany(id, StationController.expandsCompany(expand));
+    }
+}
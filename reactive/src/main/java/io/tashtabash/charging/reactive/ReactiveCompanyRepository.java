@@ -0,0 +1,32 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.CompanyDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+
+
+@Repository
+public class ReactiveCompanyRepository {
+    private final DatabaseClient databaseClient;
+
+    @Autowired
+    public ReactiveCompanyRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<CompanyDto> findAllById(Collection<Long> ids) {
+        return databaseClient.sql("SELECT id, name, parent_company_id FROM Company WHERE id = ANY(:ids)")
+                .bind("ids", ids.toArray(Long[]::new))
+                .map((row, metadata) -> new CompanyDto(
+                        row.get("id", Long.class),
+                        row.get("name", String.class),
+                        row.get("parent_company_id", Long.class),
+                        null
+                ))
+                .all();
+    }
+}
@@ -0,0 +1,40 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.StationController;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.service.IncorrectStationFormatException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+
+@RestController
+@CrossOrigin(exposedHeaders = HttpHeaders.ETAG)
+@RequestMapping("/station")
+public class ReactiveStationController {
+    private final ReactiveStationService stationService;
+
+    @Autowired
+    public ReactiveStationController(ReactiveStationService stationService) {
+        this.stationService = stationService;
+    }
+
+    // A JSON array is encoded once complete, NDJSON is written and read from the database as the client takes it
+    @GetMapping(value = "", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<StationDto> searchStations(
+            @RequestParam double latitude,
+            @RequestParam double longitude,
+            @RequestParam double radiusKm,
+            @RequestParam(required = false) String expand
+    ) {
+        boolean expandCompany = StationController.expandsCompany(expand);
+        StationController.checkCoordinates(latitude, longitude);
+        if (radiusKm < 0) {
+            throw new IncorrectStationFormatException("Radius must be positive");
+        }
+
+        return stationService.searchInRadiusOrderByDistance(latitude, longitude, radiusKm, expandCompany);
+    }
+}
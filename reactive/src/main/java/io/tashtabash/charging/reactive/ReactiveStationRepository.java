@@ -0,0 +1,99 @@
+package io.tashtabash.charging.reactive;
+
+import io.r2dbc.spi.Row;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.repository.StationQueries;
+import io.tashtabash.charging.service.GeoBackend;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * Runs the Station searches of the main application's {@code StationRepository} over R2DBC.
+ */
+@Repository
+public class ReactiveStationRepository {
+    // Rows requested from Postgres per round trip, further rows are only read once the client takes these
+    static final int FETCH_SIZE = 1000;
+
+    private final DatabaseClient databaseClient;
+
+    private final GeoBackend geoBackend;
+
+    @Autowired
+    public ReactiveStationRepository(
+            DatabaseClient databaseClient,
+            @Value("${charging.station.geo-backend:EARTHDISTANCE}") GeoBackend geoBackend
+    ) {
+        this.databaseClient = databaseClient;
+        this.geoBackend = geoBackend;
+    }
+
+    private static StationDto toDto(Row row) {
+        return new StationDto(
+                row.get("id", Long.class),
+                row.get("name", String.class),
+                row.get("latitude", Double.class),
+                row.get("longitude", Double.class),
+                row.get("company_id", Long.class),
+                null
+        );
+    }
+
+    public Flux<StationDto> searchInRadiusOrderByDistance(double latitude, double longitude, double radiusKm) {
+        String query = switch (geoBackend) {
+            case EARTHDISTANCE -> StationQueries.SEARCH_IN_RADIUS_ORDER_BY_DISTANCE;
+            case POSTGIS -> StationQueries.SEARCH_IN_RADIUS_ORDER_BY_DISTANCE_POSTGIS;
+        };
+
+        return databaseClient.sql(query)
+                .bind("latitude", latitude)
+                .bind("longitude", longitude)
+                .bind("radiusKm", radiusKm)
+                .map((row, metadata) -> toDto(row))
+                .all();
+    }
+
+    public Flux<StationDto> searchByCompany(long companyId) {
+        return databaseClient.sql(StationQueries.SEARCH_BY_COMPANY)
+                .filter((statement, next) -> next.execute(statement.fetchSize(FETCH_SIZE)))
+                .bind("companyId", companyId)
+                .map((row, metadata) -> toDto(row))
+                .all();
+    }
+
+    public Flux<StationDto> searchByCompany(long companyId, long afterId, int limit) {
+        return databaseClient.sql(StationQueries.SEARCH_BY_COMPANY_PAGE)
+                .bind("companyId", companyId)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map((row, metadata) -> toDto(row))
+                .all();
+    }
+
+    /**
+     * @return empty if the Company doesn't exist
+     */
+    public Mono<String> checksumByCompany(long companyId) {
+        return databaseClient.sql(StationQueries.CHECKSUM_BY_COMPANY)
+                .bind("companyId", companyId)
+                .map((row, metadata) -> row.get(0, String.class))
+                .one();
+    }
+
+    /**
+     * @return empty if the Company doesn't exist
+     */
+    public Mono<String> checksumByCompany(long companyId, long afterId, int limit) {
+        return databaseClient.sql(StationQueries.CHECKSUM_BY_COMPANY_PAGE)
+                .bind("companyId", companyId)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map((row, metadata) -> row.get(0, String.class))
+                .one();
+    }
+}
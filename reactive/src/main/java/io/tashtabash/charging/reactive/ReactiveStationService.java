@@ -0,0 +1,117 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.CompanyDto;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.service.NoCompanyFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Station searches of the main application's {@code StationService} without its in-memory index,
+ * caches and coalescing: every search is a query, and the Stations are passed on as they're read.
+ */
+@Service
+public class ReactiveStationService {
+    // Stations whose Companies are selected together when expanded
+    static final int EXPAND_BATCH_SIZE = 100;
+
+    private final ReactiveStationRepository stationRepository;
+
+    private final ReactiveCompanyRepository companyRepository;
+
+    @Autowired
+    public ReactiveStationService(
+            ReactiveStationRepository stationRepository,
+            ReactiveCompanyRepository companyRepository
+    ) {
+        this.stationRepository = stationRepository;
+        this.companyRepository = companyRepository;
+    }
+
+    // concatMap keeps the order and asks for the next batch only when the previous one is taken
+    private Flux<StationDto> expandCompanies(Flux<StationDto> stations, boolean expandCompany) {
+        if (!expandCompany) {
+            return stations;
+        }
+
+        return stations.buffer(EXPAND_BATCH_SIZE)
+                .concatMap(batch -> companyRepository.findAllById(batch.stream().map(StationDto::companyId).distinct().toList())
+                        .collectMap(CompanyDto::id)
+                        .flatMapIterable(companies -> withCompanies(batch, companies)));
+    }
+
+    private static List<StationDto> withCompanies(List<StationDto> stations, Map<Long, CompanyDto> companies) {
+        return stations.stream()
+                .map(station -> new StationDto(
+                        station.id(),
+                        station.name(),
+                        station.latitude(),
+                        station.longitude(),
+                        station.companyId(),
+                        companies.get(station.companyId())
+                ))
+                .toList();
+    }
+
+    public Flux<StationDto> searchInRadiusOrderByDistance(
+            double latitude,
+            double longitude,
+            double radiusKm,
+            boolean expandCompany
+    ) {
+        return expandCompanies(
+                stationRepository.searchInRadiusOrderByDistance(latitude, longitude, radiusKm),
+                expandCompany
+        );
+    }
+
+    /**
+     * @return Stations of the Company subtree, doesn't check that the Company exists
+     */
+    public Flux<StationDto> searchByCompany(long companyId, boolean expandCompany) {
+        return expandCompanies(stationRepository.searchByCompany(companyId), expandCompany);
+    }
+
+    /**
+     * @return up to {@code limit} Stations of the Company subtree with ids greater than {@code afterId}, ordered by id
+     */
+    public Flux<StationDto> searchByCompany(long companyId, long afterId, int limit, boolean expandCompany) {
+        return expandCompanies(stationRepository.searchByCompany(companyId, afterId, limit), expandCompany);
+    }
+
+    /**
+     * @return Stations of the Company subtree, failing with {@link NoCompanyFoundException} before
+     * the first one if the Company doesn't exist
+     */
+    public Flux<StationDto> streamByCompany(long companyId, boolean expandCompany) {
+        return companyRepository.findAllById(List.of(companyId))
+                .hasElements()
+                .flatMapMany(exists -> exists
+                        ? searchByCompany(companyId, expandCompany)
+                        : Flux.error(new NoCompanyFoundException(companyId)));
+    }
+
+    /**
+     * @return checksum of the Stations returned by {@link #searchByCompany(long, boolean)},
+     * failing with {@link NoCompanyFoundException} if the Company doesn't exist
+     */
+    public Mono<String> getCompanyStationsChecksum(long companyId) {
+        return stationRepository.checksumByCompany(companyId)
+                .switchIfEmpty(Mono.error(() -> new NoCompanyFoundException(companyId)));
+    }
+
+    /**
+     * @return checksum of the page returned by {@link #searchByCompany(long, long, int, boolean)},
+     * failing with {@link NoCompanyFoundException} if the Company doesn't exist
+     */
+    public Mono<String> getCompanyStationsChecksum(long companyId, long afterId, int limit) {
+        return stationRepository.checksumByCompany(companyId, afterId, limit)
+                .switchIfEmpty(Mono.error(() -> new NoCompanyFoundException(companyId)));
+    }
+}
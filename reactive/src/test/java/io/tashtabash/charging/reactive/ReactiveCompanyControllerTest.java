@@ -0,0 +1,146 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.PageCursor;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.service.NoCompanyFoundException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.Mockito.*;
+
+
+@WebFluxTest(ReactiveCompanyController.class)
+class ReactiveCompanyControllerTest {
+    @MockBean
+    ReactiveStationService stationService;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @Test
+    void searchStations() {
+        when(stationService.getCompanyStationsChecksum(5)).thenReturn(Mono.just("2-42"));
+        when(stationService.searchByCompany(5, false)).thenReturn(Flux.just(
+                new StationDto(1, "Name 1", 1.0, 2.0, 5, null),
+                new StationDto(2, "Name 2", 1.01, 2.0, 6, null)
+        ));
+
+        webTestClient.get()
+                .uri("/company/5/station")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"2-42\"")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[1].companyId").isEqualTo(6);
+    }
+
+    @Test
+    void searchStationsAnswers304OnCurrentChecksum() {
+        when(stationService.getCompanyStationsChecksum(5)).thenReturn(Mono.just("2-42"));
+
+        webTestClient.get()
+                .uri("/company/5/station")
+                .ifNoneMatch("\"2-42\"")
+                .exchange()
+                .expectStatus().isNotModified();
+
+        verify(stationService, never()).searchByCompany(anyLong(), anyBoolean());
+    }
+
+    @Test
+    void searchStationsAnswers404OnNoCompany() {
+        when(stationService.getCompanyStationsChecksum(5)).thenReturn(Mono.error(new NoCompanyFoundException(5)));
+
+        webTestClient.get()
+                .uri("/company/5/station")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void searchStationsPageSetsNextCursorOnFullPage() {
+        when(stationService.getCompanyStationsChecksum(5, 1, 2)).thenReturn(Mono.just("2-42"));
+        when(stationService.searchByCompany(5, 1, 2, false)).thenReturn(Flux.just(
+                new StationDto(2, "Name 2", 1.0, 2.0, 5, null),
+                new StationDto(3, "Name 3", 1.01, 2.0, 5, null)
+        ));
+
+        webTestClient.get()
+                .uri("/company/5/station?after=" + PageCursor.encode(1) + "&limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Next-Cursor", PageCursor.encode(3))
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2);
+    }
+
+    @Test
+    void searchStationsLastPageHasNoNextCursor() {
+        when(stationService.getCompanyStationsChecksum(5, 0, 2)).thenReturn(Mono.just("1-42"));
+        when(stationService.searchByCompany(5, 0, 2, false)).thenReturn(Flux.just(
+                new StationDto(2, "Name 2", 1.0, 2.0, 5, null)
+        ));
+
+        webTestClient.get()
+                .uri("/company/5/station?limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist("X-Next-Cursor");
+    }
+
+    @Test
+    void searchStationsAnswers400OnMalformedCursor() {
+        webTestClient.get()
+                .uri("/company/5/station?after=abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(stationService);
+    }
+
+    @Test
+    void searchStationsAnswers400OnTooLargeLimit() {
+        webTestClient.get()
+                .uri("/company/5/station?limit=1001")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(stationService);
+    }
+
+    @Test
+    void streamStations() {
+        when(stationService.streamByCompany(5, false)).thenReturn(Flux.just(
+                new StationDto(1, "Name 1", 1.0, 2.0, 5, null),
+                new StationDto(2, "Name 2", 1.01, 2.0, 5, null)
+        ));
+
+        webTestClient.get()
+                .uri("/company/5/station")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(StationDto.class)
+                .hasSize(2);
+    }
+
+    @Test
+    void streamStationsAnswers404OnNoCompany() {
+        when(stationService.streamByCompany(5, false)).thenReturn(Flux.error(new NoCompanyFoundException(5)));
+
+        webTestClient.get()
+                .uri("/company/5/station")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+}
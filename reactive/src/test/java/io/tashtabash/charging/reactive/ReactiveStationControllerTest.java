@@ -0,0 +1,104 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.CompanyDto;
+import io.tashtabash.charging.controller.StationDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import static org.mockito.Mockito.*;
+
+
+@WebFluxTest(ReactiveStationController.class)
+class ReactiveStationControllerTest {
+    @MockBean
+    ReactiveStationService stationService;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @Test
+    void searchStations() {
+        when(stationService.searchInRadiusOrderByDistance(1.0, 2.0, 5.0, false)).thenReturn(Flux.just(
+                new StationDto(1, "Name 1", 1.0, 2.0, 5, null),
+                new StationDto(2, "Name 2", 1.01, 2.0, 5, null)
+        ));
+
+        webTestClient.get()
+                .uri("/station?latitude=1.0&longitude=2.0&radiusKm=5.0")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody().json("[" +
+                        "{\"id\": 1, \"name\": \"Name 1\", \"latitude\": 1.0, \"longitude\": 2.0, \"companyId\": 5}," +
+                        "{\"id\": 2, \"name\": \"Name 2\", \"latitude\": 1.01, \"longitude\": 2.0, \"companyId\": 5}" +
+                        "]")
+                .jsonPath("$[0].company").doesNotExist();
+    }
+
+    @Test
+    void searchStationsExpandsCompany() {
+        when(stationService.searchInRadiusOrderByDistance(1.0, 2.0, 5.0, true)).thenReturn(Flux.just(
+                new StationDto(1, "Name 1", 1.0, 2.0, 5, new CompanyDto(5, "Company", null, null))
+        ));
+
+        webTestClient.get()
+                .uri("/station?latitude=1.0&longitude=2.0&radiusKm=5.0&expand=company")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].company.id").isEqualTo(5)
+                .jsonPath("$[0].company.name").isEqualTo("Company");
+    }
+
+    @Test
+    void searchStationsStreamsNdjson() {
+        when(stationService.searchInRadiusOrderByDistance(1.0, 2.0, 5.0, false)).thenReturn(Flux.just(
+                new StationDto(1, "Name 1", 1.0, 2.0, 5, null),
+                new StationDto(2, "Name 2", 1.01, 2.0, 5, null)
+        ));
+
+        webTestClient.get()
+                .uri("/station?latitude=1.0&longitude=2.0&radiusKm=5.0")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(StationDto.class)
+                .hasSize(2);
+    }
+
+    @Test
+    void searchStationsAnswers400OnIncorrectLatitude() {
+        webTestClient.get()
+                .uri("/station?latitude=91.0&longitude=2.0&radiusKm=5.0")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(stationService);
+    }
+
+    @Test
+    void searchStationsAnswers400OnNegativeRadius() {
+        webTestClient.get()
+                .uri("/station?latitude=1.0&longitude=2.0&radiusKm=-1")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(stationService);
+    }
+
+    @Test
+    void searchStationsAnswers400OnUnknownExpand() {
+        webTestClient.get()
+                .uri("/station?latitude=1.0&longitude=2.0&radiusKm=5.0&expand=parentCompany")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(stationService);
+    }
+}
@@ -0,0 +1,85 @@
+package io.tashtabash.charging.reactive;
+
+import io.tashtabash.charging.controller.CompanyDto;
+import io.tashtabash.charging.controller.StationDto;
+import io.tashtabash.charging.service.NoCompanyFoundException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+
+class ReactiveStationServiceTest {
+    private final ReactiveStationRepository stationRepository = mock(ReactiveStationRepository.class);
+
+    private final ReactiveCompanyRepository companyRepository = mock(ReactiveCompanyRepository.class);
+
+    private final ReactiveStationService stationService = new ReactiveStationService(stationRepository, companyRepository);
+
+    @Test
+    void searchInRadiusOrderByDistanceKeepsOrder() {
+        var first = new StationDto(2, "Name 2", 1.0, 2.0, 5, null);
+        var second = new StationDto(1, "Name 1", 1.01, 2.0, 5, null);
+        when(stationRepository.searchInRadiusOrderByDistance(1.0, 2.0, 5.0)).thenReturn(Flux.just(first, second));
+
+        StepVerifier.create(stationService.searchInRadiusOrderByDistance(1.0, 2.0, 5.0, false))
+                .expectNext(first, second)
+                .verifyComplete();
+        verifyNoInteractions(companyRepository);
+    }
+
+    @Test
+    void searchByCompanyExpandsCompaniesInBatches() {
+        int stationCount = ReactiveStationService.EXPAND_BATCH_SIZE + 1;
+        List<StationDto> stations = LongStream.rangeClosed(1, stationCount)
+                .mapToObj(id -> new StationDto(id, "Name " + id, 1.0, 2.0, id % 2 + 5, null))
+                .toList();
+        when(stationRepository.searchByCompany(5)).thenReturn(Flux.fromIterable(stations));
+        when(companyRepository.findAllById(List.of(6L, 5L))).thenReturn(Flux.just(
+                new CompanyDto(5, "Company 5", null, null),
+                new CompanyDto(6, "Company 6", 5L, null)
+        ));
+        when(companyRepository.findAllById(List.of(6L))).thenReturn(Flux.just(new CompanyDto(6, "Company 6", 5L, null)));
+
+        StepVerifier.create(stationService.searchByCompany(5, true))
+                .expectNextMatches(station -> station.id() == 1 && station.company().name().equals("Company 6"))
+                .expectNextMatches(station -> station.id() == 2 && station.company().name().equals("Company 5"))
+                .expectNextCount(stationCount - 3)
+                .expectNextMatches(station -> station.id() == stationCount && station.company().id() == 6)
+                .verifyComplete();
+        verify(companyRepository, times(2)).findAllById(anyCollection());
+    }
+
+    @Test
+    void streamByCompanyFailsOnNoCompany() {
+        when(companyRepository.findAllById(List.of(5L))).thenReturn(Flux.empty());
+
+        StepVerifier.create(stationService.streamByCompany(5, false))
+                .verifyError(NoCompanyFoundException.class);
+        verify(stationRepository, never()).searchByCompany(5);
+    }
+
+    @Test
+    void streamByCompanyRequestsStationsOnDemand() {
+        var stations = LongStream.rangeClosed(1, 10)
+                .mapToObj(id -> new StationDto(id, "Name " + id, 1.0, 2.0, 5, null))
+                .toList();
+        var requested = new AtomicLong();
+        when(companyRepository.findAllById(List.of(5L))).thenReturn(Flux.just(new CompanyDto(5, "Company 5", null, null)));
+        when(stationRepository.searchByCompany(5)).thenReturn(Flux.fromIterable(stations).doOnRequest(requested::addAndGet));
+
+        StepVerifier.create(stationService.streamByCompany(5, false), 2)
+                .expectNextCount(2)
+                .then(() -> assertEquals(2, requested.get()))
+                .thenRequest(8)
+                .expectNextCount(8)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,135 @@
+package io.tashtabash.charging;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.tashtabash.charging.datasource.ReadWriteRoutingDataSource;
+import io.tashtabash.charging.datasource.ReadYourWritesFilter;
+import io.tashtabash.charging.datasource.ReplicaPool;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Replaces the single data source when {@code charging.datasource.replicas.urls} is set:
+ * read-only transactions go to the replicas, the rest to {@code spring.datasource.url}.
+ * Only the primary fills the second-level cache.
+ */
+@Configuration
+@ConditionalOnExpression("!'${charging.datasource.replicas.urls:}'.isBlank()")
+public class ReplicaRoutingConfiguration {
+    // A replica which is down is skipped after this long instead of stalling the request
+    private static final long REPLICA_CONNECTION_TIMEOUT_MS = 1000;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+    }
+
+    // Doesn't take the meter registry, whose data source metrics would need the routing data source being built
+    @Bean(destroyMethod = "close")
+    public ReplicaPool replicaPool(
+            DataSourceProperties properties,
+            @Value("${charging.datasource.replicas.urls}") List<String> urls,
+            @Value("${charging.datasource.replicas.max-lag:10s}") Duration maxLag
+    ) {
+        List<ReplicaPool.Replica> replicas = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            // Started lazily, so a replica which is down doesn't fail the startup
+            var dataSource = new HikariDataSource();
+            dataSource.setPoolName("replica-" + (i + 1));
+            dataSource.setJdbcUrl(urls.get(i).strip());
+            dataSource.setUsername(properties.determineUsername());
+            dataSource.setPassword(properties.determinePassword());
+            dataSource.setReadOnly(true);
+            dataSource.setConnectionTimeout(REPLICA_CONNECTION_TIMEOUT_MS);
+            replicas.add(new ReplicaPool.Replica(dataSource.getPoolName(), dataSource));
+        }
+
+        return new ReplicaPool(replicas, maxLag);
+    }
+
+    // Bound before the health checks start, as a Hikari pool takes its registry only until it's started
+    @Bean
+    public MeterBinder replicaPoolMetrics(ReplicaPool replicaPool) {
+        return meterRegistry -> {
+            replicaPool.bindTo(meterRegistry);
+            for (var replica : replicaPool.getReplicas()) {
+                if (replica.getDataSource() instanceof HikariDataSource dataSource) {
+                    dataSource.setMetricRegistry(meterRegistry);
+                }
+            }
+        };
+    }
+
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> replicaHealthChecks(
+            ReplicaPool replicaPool,
+            TaskScheduler taskScheduler,
+            @Value("${charging.datasource.replicas.health-check-interval:5s}") Duration healthCheckInterval
+    ) {
+        return event -> taskScheduler.scheduleWithFixedDelay(replicaPool::checkHealth, healthCheckInterval);
+    }
+
+    // Rows read from a lagging replica would stay in the second-level cache after the primary evicted them
+    private static void skipCachePuts(EntityManagerFactory entityManagerFactory) {
+        if (entityManagerFactory != null
+                && TransactionSynchronizationManager.getResource(entityManagerFactory) instanceof EntityManagerHolder holder) {
+            holder.getEntityManager()
+                    .unwrap(Session.class)
+                    .setCacheMode(CacheMode.GET);
+        }
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(
+            HikariDataSource primaryDataSource,
+            ReplicaPool replicaPool,
+            ObjectProvider<EntityManagerFactory> entityManagerFactory
+    ) {
+        var dataSource = new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(
+                primaryDataSource,
+                replicaPool,
+                () -> skipCachePuts(entityManagerFactory.getIfAvailable())
+        ));
+        // Otherwise the proxy reads them from the first connection, which may come from a replica
+        dataSource.setDefaultAutoCommit(true);
+        dataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+        return dataSource;
+    }
+
+    @Bean
+    @ConditionalOnExpression("'${charging.datasource.read-your-writes-window:5s}' != '0s'")
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(
+            @Value("${charging.datasource.read-your-writes-window:5s}") Duration window
+    ) {
+        return new FilterRegistrationBean<>(new ReadYourWritesFilter(window, Clock.systemUTC()));
+    }
+}
@@ -0,0 +1,11 @@
+package io.tashtabash.charging;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+
+// Makes Boot create the shared taskScheduler, which runs the background jobs
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration {
+}
@@ -0,0 +1,55 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.repository.ChangeLogPosition;
+import io.tashtabash.charging.service.ChangeService;
+import io.tashtabash.charging.service.IncorrectChangeFormatException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+
+@RestController
+@CrossOrigin
+@RequestMapping("/changes")
+public class ChangeController {
+    private final ChangeService changeService;
+
+    @Autowired
+    public ChangeController(ChangeService changeService) {
+        this.changeService = changeService;
+    }
+
+    /**
+     * Returns the changes after the {@code since} cursor, pass the last returned {@code cursor}
+     * as {@code since} to continue. Reading without a cursor replays the whole data set.
+     */
+    @GetMapping("")
+    public ResponseEntity<List<ChangeDto>> getChanges(
+            @RequestParam(required = false) String since,
+            @RequestParam(required = false) Integer limit
+    ) {
+        ChangeLogPosition position = since == null ? ChangeLogPosition.START : decodeCursor(since);
+        int pageSize = limit == null ? CompanyController.DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || CompanyController.MAX_PAGE_SIZE < pageSize) {
+            throw new IncorrectChangeFormatException("Limit must be in range between 1 and " + CompanyController.MAX_PAGE_SIZE);
+        }
+
+        return ResponseEntity.ok(
+                changeService.getChanges(position, pageSize)
+                        .stream()
+                        .map(ChangeDto::from)
+                        .toList()
+        );
+    }
+
+    private static ChangeLogPosition decodeCursor(String since) {
+        try {
+            return PageCursor.decodePosition(since);
+        } catch (IllegalArgumentException e) {
+            throw new IncorrectChangeFormatException("Malformed cursor '" + since + "'");
+        }
+    }
+}
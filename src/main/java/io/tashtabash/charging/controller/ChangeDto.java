@@ -0,0 +1,39 @@
+package io.tashtabash.charging.controller;
+
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+import io.tashtabash.charging.service.Change;
+
+import java.time.Instant;
+
+
+/**
+ * ChangeLog entry response, {@code company} or {@code station} holds the current state of the changed entity
+ * unless it doesn't exist anymore. {@code cursor} continues the feed after this entry.
+ */
+public record ChangeDto(
+        String cursor,
+        long seq,
+        ChangeLogEntry.EntityType entityType,
+        long entityId,
+        ChangeLogEntry.Operation operation,
+        Instant changedAt,
+        @JsonInclude(JsonInclude.Include.NON_NULL) CompanyDto company,
+        @JsonInclude(JsonInclude.Include.NON_NULL) StationDto station
+) {
+    public static ChangeDto from(Change change) {
+        var entry = change.entry();
+
+        return new ChangeDto(
+                PageCursor.encode(entry.position()),
+                entry.seq(),
+                entry.entityType(),
+                entry.entityId(),
+                entry.operation(),
+                entry.changedAt(),
+                change.company() == null ? null : CompanyDto.from(change.company()),
+                change.station() == null ? null : StationDto.from(change.station())
+        );
+    }
+}
@@ -1,35 +1,164 @@
 package io.tashtabash.charging.controller;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.EntityVersion;
+import io.tashtabash.charging.service.CompanyImportRow;
 import io.tashtabash.charging.service.CompanyService;
 import io.tashtabash.charging.service.IncorrectCompanyFormatException;
 import io.tashtabash.charging.service.StationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
 
 @RestController
-@CrossOrigin
+@CrossOrigin(exposedHeaders = {CompanyController.NEXT_CURSOR_HEADER, HttpHeaders.ETAG})
 @RequestMapping("/company")
 public class CompanyController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final CompanyService companyService;
 
     private final StationService stationService;
 
+    private final ObjectMapper objectMapper;
+
     @Autowired
-    public CompanyController(CompanyService companyService, StationService stationService) {
+    public CompanyController(CompanyService companyService, StationService stationService, ObjectMapper objectMapper) {
         this.companyService = companyService;
         this.stationService = stationService;
+        this.objectMapper = objectMapper;
+    }
+
+    private static boolean expandsParentCompany(String expand) {
+        if (expand == null) {
+            return false;
+        }
+        if (!expand.equals("parentCompany")) {
+            throw new IncorrectCompanyFormatException("Unknown expand '" + expand + "', only 'parentCompany' is supported");
+        }
+
+        return true;
+    }
+
+    static List<CompanyDto> toDtos(List<Company> companies, boolean expandParentCompany) {
+        return companies.stream()
+                .map(company -> CompanyDto.from(company, expandParentCompany))
+                .toList();
+    }
+
+    /**
+     * @param parentCompanies the expanded parents of the Companies by id, empty to leave them out
+     */
+    static List<CompanyDto> toDtos(List<Company> companies, Map<Long, Company> parentCompanies) {
+        return companies.stream()
+                .map(company -> {
+                    var parentCompany = company.getParentCompany();
+
+                    return CompanyDto.from(company, parentCompany == null ? null : parentCompanies.get(parentCompany.getId()));
+                })
+                .toList();
+    }
+
+    // The Companies are detached by now, so their parents are looked up by the ids the proxies know
+    private Map<Long, Company> parentsOf(List<Company> companies, boolean expandParentCompany) {
+        if (!expandParentCompany) {
+            return Map.of();
+        }
+
+        return companyService.getCompaniesById(
+                companies.stream()
+                        .map(Company::getParentCompany)
+                        .filter(Objects::nonNull)
+                        .map(Company::getId)
+                        .collect(Collectors.toSet())
+        );
+    }
+
+    private static boolean isPaged(String after, Integer limit) {
+        return after != null || limit != null;
+    }
+
+    private static long decodeCursor(String after) {
+        if (after == null) {
+            return 0;
+        }
+
+        try {
+            return PageCursor.decodeId(after);
+        } catch (IllegalArgumentException e) {
+            throw new IncorrectCompanyFormatException("Malformed cursor '" + after + "'");
+        }
+    }
+
+    private static int checkPageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1 || MAX_PAGE_SIZE < limit) {
+            throw new IncorrectCompanyFormatException("Limit must be in range between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        return limit;
+    }
+
+    // A full page may be followed by an empty one, but it saves counting the rest
+    private static <T> ResponseEntity<List<T>> page(List<T> items, int limit, ToLongFunction<T> getId) {
+        var response = ResponseEntity.ok();
+        if (items.size() == limit) {
+            response.header(NEXT_CURSOR_HEADER, PageCursor.encode(getId.applyAsLong(items.get(items.size() - 1))));
+        }
+
+        return response.body(items);
+    }
+
+    // Writes the entities as they are produced, one JSON document per line
+    private <T> ResponseEntity<StreamingResponseBody> ndjson(Consumer<Consumer<T>> producer) {
+        StreamingResponseBody body = outputStream -> {
+            try {
+                producer.accept(item -> {
+                    try {
+                        outputStream.write(objectMapper.writeValueAsBytes(item));
+                        outputStream.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
     @PostMapping("")
-    public ResponseEntity<Company> saveCompany(@RequestBody SaveCompanyDto data) {
+    public ResponseEntity<CompanyDto> saveCompany(@RequestBody SaveCompanyDto data) {
         if (data.name().strip().equals("")) {
             throw new IncorrectCompanyFormatException("Company name must not be blank");
         }
@@ -37,33 +166,128 @@ public class CompanyController {
         Company newCompany = companyService.saveCompany(data.name(), data.parentCompanyId());
 
         return ResponseEntity.status(HttpStatus.CREATED)
-                .body(newCompany);
+                .body(CompanyDto.from(newCompany));
     }
 
+    @PostMapping("/bulk")
+    public ResponseEntity<Map<String, Long>> saveCompanies(@RequestBody SaveCompaniesDto data) {
+        if (data.companies() == null || data.companies().isEmpty()) {
+            throw new IncorrectCompanyFormatException("Companies must not be empty");
+        }
+
+        List<CompanyImportRow> rows = new ArrayList<>(data.companies().size());
+        for (var company : data.companies()) {
+            if (company.name() == null || company.name().strip().equals("")) {
+                throw new IncorrectCompanyFormatException("Company name must not be blank");
+            }
+
+            rows.add(new CompanyImportRow(company.key(), company.name(), company.parentKey(), company.parentCompanyId()));
+        }
+
+        Map<String, Long> ids = companyService.saveCompanies(rows);
+
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(ids);
+    }
+
+    // The checksum is read before the Companies, so a concurrent change can't hide behind the ETag
     @GetMapping("")
-    public ResponseEntity<List<Company>> getCompanies() {
-        List<Company> companies = companyService.getCompanies();
+    public ResponseEntity<List<CompanyDto>> getCompanies(
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String expand,
+            WebRequest request
+    ) {
+        boolean expandParentCompany = expandsParentCompany(expand);
+        if (!isPaged(after, limit)) {
+            if (request.checkNotModified(companyService.getCompaniesChecksum())) {
+                return null;
+            }
 
-        return ResponseEntity.ok(companies);
+            // The parents are fetched with the Companies
+            return ResponseEntity.ok(toDtos(companyService.getCompanies(), expandParentCompany));
+        }
+
+        long afterId = decodeCursor(after);
+        int pageSize = checkPageSize(limit);
+        if (request.checkNotModified(companyService.getCompaniesChecksum(afterId, pageSize))) {
+            return null;
+        }
+
+        List<Company> companies = companyService.getCompanies(afterId, pageSize);
+
+        return page(toDtos(companies, parentsOf(companies, expandParentCompany)), pageSize, CompanyDto::id);
     }
 
+    @GetMapping(value = "", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCompanies(@RequestParam(required = false) String expand) {
+        boolean expandParentCompany = expandsParentCompany(expand);
+
+        return ndjson((Consumer<CompanyDto> consumer) -> companyService.streamCompanies(
+                company -> consumer.accept(CompanyDto.from(company, expandParentCompany))
+        ));
+    }
+
+    // Unconditional requests are tagged by the loaded Company, which usually comes from the second-level cache
     @GetMapping("/{id}")
-    public ResponseEntity<Company> getCompany(@PathVariable long id) {
+    public ResponseEntity<CompanyDto> getCompany(
+            @PathVariable long id,
+            @RequestParam(required = false) String expand,
+            WebRequest request
+    ) {
+        boolean expandParentCompany = expandsParentCompany(expand);
+        if (EntityTags.isConditional(request)) {
+            Optional<EntityVersion> version = companyService.findCompanyVersion(id);
+            if (version.isPresent() && request.checkNotModified(EntityTags.of(version.get(), expandParentCompany))) {
+                return null;
+            }
+        }
+
         Company company = companyService.getCompany(id);
+        // Doesn't load the parent unless it's expanded anyway
+        Company parentCompany = expandParentCompany && company.getParentCompany() != null
+                ? companyService.getCompany(company.getParentCompany().getId())
+                : null;
+        var companyVersion = new EntityVersion(
+                company.getVersion(),
+                parentCompany == null ? null : parentCompany.getVersion()
+        );
+        if (request.checkNotModified(EntityTags.of(companyVersion, expandParentCompany))) {
+            return null;
+        }
 
-        return ResponseEntity.ok(company);
+        return ResponseEntity.ok(CompanyDto.from(company, parentCompany));
     }
 
     //TODO add checks for inconsistent parent data?
     @PutMapping("")
-    public ResponseEntity<Company> updateCompany(@RequestBody Company company) {
+    public ResponseEntity<CompanyDto> updateCompany(@RequestBody Company company) {
         if (company.getName().strip().equals("")) {
             throw new IncorrectCompanyFormatException("Company name must not be blank");
         }
 
         Company updatedCompany = companyService.updateCompany(company);
 
-        return ResponseEntity.ok(updatedCompany);
+        return ResponseEntity.ok(CompanyDto.from(updatedCompany));
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<CompanyDto> patchCompany(@PathVariable long id, @RequestBody PatchCompanyDto data) {
+        if (data.getName() == null && !data.isParentCompanyIdSet()) {
+            throw new IncorrectCompanyFormatException("At least one Company field must be set");
+        }
+        if (data.getName() != null && data.getName().isBlank()) {
+            throw new IncorrectCompanyFormatException("Company name must not be blank");
+        }
+
+        Company company = companyService.patchCompany(
+                id,
+                data.getName(),
+                data.isParentCompanyIdSet(),
+                data.getParentCompanyId()
+        );
+
+        return ResponseEntity.ok(CompanyDto.from(company));
     }
 
     @DeleteMapping("/{id}")
@@ -75,9 +299,53 @@ public class CompanyController {
     }
 
     @GetMapping("/{id}/station")
-    public ResponseEntity<List<Station>> searchStations(@PathVariable long id) {
-        List<Station> stations = stationService.searchByCompany(id);
+    public ResponseEntity<List<StationDto>> searchStations(
+            @PathVariable long id,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String expand,
+            WebRequest request
+    ) {
+        boolean expandCompany = StationController.expandsCompany(expand);
+        if (!isPaged(after, limit)) {
+            // A missing Company has no checksum and is reported by the search
+            Optional<String> checksum = stationService.getCompanyStationsChecksum(id);
+            if (checksum.isPresent() && request.checkNotModified(checksum.get())) {
+                return null;
+            }
+
+            List<Station> stations = stationService.searchByCompany(id);
+
+            return ResponseEntity.ok(
+                    StationController.toDtos(stations, StationController.companiesOf(companyService, stations, expandCompany))
+            );
+        }
+
+        long afterId = decodeCursor(after);
+        int pageSize = checkPageSize(limit);
+        Optional<String> checksum = stationService.getCompanyStationsChecksum(id, afterId, pageSize);
+        if (checksum.isPresent() && request.checkNotModified(checksum.get())) {
+            return null;
+        }
+
+        List<Station> stations = stationService.searchByCompany(id, afterId, pageSize);
+        var companies = StationController.companiesOf(companyService, stations, expandCompany);
+
+        return page(StationController.toDtos(stations, companies), pageSize, StationDto::id);
+    }
+
+    @GetMapping(value = "/{id}/station", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamStations(
+            @PathVariable long id,
+            @RequestParam(required = false) String expand
+    ) {
+        boolean expandCompany = StationController.expandsCompany(expand);
+        // Checked before the response is committed, so a missing Company is still a 404
+        companyService.getCompany(id);
 
-        return ResponseEntity.ok(stations);
+        return ndjson((Consumer<StationDto> consumer) -> stationService.streamByCompany(
+                id,
+                station -> consumer.accept(StationDto.from(station, expandCompany))
+        ));
     }
 }
@@ -0,0 +1,44 @@
+package io.tashtabash.charging.controller;
+
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.tashtabash.charging.entity.Company;
+
+
+/**
+ * Company response, {@code parentCompany} is only filled when expanded on request.
+ */
+public record CompanyDto(
+        long id,
+        String name,
+        Long parentCompanyId,
+        @JsonInclude(JsonInclude.Include.NON_NULL) CompanyDto parentCompany
+) {
+    public static CompanyDto from(Company company) {
+        var parentCompany = company.getParentCompany();
+
+        return new CompanyDto(
+                company.getId(),
+                company.getName(),
+                parentCompany == null ? null : parentCompany.getId(),
+                null
+        );
+    }
+
+    // Initializes the parent, so the Company must still be attached or have it fetched
+    public static CompanyDto from(Company company, boolean expandParentCompany) {
+        return from(company, expandParentCompany ? company.getParentCompany() : null);
+    }
+
+    /**
+     * @param parentCompany the parent of the Company to expand, null to leave it out
+     */
+    public static CompanyDto from(Company company, Company parentCompany) {
+        var dto = from(company);
+        if (parentCompany == null) {
+            return dto;
+        }
+
+        return new CompanyDto(dto.id(), dto.name(), dto.parentCompanyId(), from(parentCompany));
+    }
+}
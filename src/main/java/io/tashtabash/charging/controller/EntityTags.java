@@ -0,0 +1,28 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.repository.EntityVersion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.WebRequest;
+
+
+/**
+ * Strong ETags derived from the entity versions, so conditional GETs are answered
+ * from a version lookup without loading the entities.
+ */
+final class EntityTags {
+    private EntityTags() {}
+
+    static boolean isConditional(WebRequest request) {
+        return request.getHeader(HttpHeaders.IF_NONE_MATCH) != null;
+    }
+
+    // An expanded response changes with the referenced entity as well
+    static String of(EntityVersion version, boolean expanded) {
+        if (!expanded || version.referenceVersion() == null) {
+            return String.valueOf(version.version());
+        }
+
+        return version.version() + "-" + version.referenceVersion();
+    }
+}
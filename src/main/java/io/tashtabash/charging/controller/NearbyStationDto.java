@@ -0,0 +1,15 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.service.NearbyStation;
+
+
+public record NearbyStationDto(StationDto station, double distanceKm) {
+    public static NearbyStationDto from(NearbyStation nearbyStation, Company company) {
+        return new NearbyStationDto(
+                StationDto.from(nearbyStation.station(), company),
+                nearbyStation.distanceKm()
+        );
+    }
+}
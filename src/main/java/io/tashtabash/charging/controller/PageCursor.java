@@ -0,0 +1,62 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.repository.ChangeLogPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+
+/**
+ * Opaque cursors: the id of the last returned entity for keyset pages, the position of the last returned
+ * ChangeLog entry for the change feed. The prefix tells them apart.
+ */
+public final class PageCursor {
+    private static final String ID_PREFIX = "id:";
+
+    private static final String CHANGE_PREFIX = "change:";
+
+    private PageCursor() {}
+
+    public static String encode(long lastId) {
+        return encode(ID_PREFIX, Long.toString(lastId));
+    }
+
+    public static String encode(ChangeLogPosition position) {
+        return encode(CHANGE_PREFIX, position.xid() + "." + position.seq());
+    }
+
+    private static String encode(String prefix, String value) {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString((prefix + value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor wasn't produced by {@link #encode(long)}
+     */
+    public static long decodeId(String cursor) {
+        return Long.parseLong(decode(ID_PREFIX, cursor));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor wasn't produced by {@link #encode(ChangeLogPosition)}
+     */
+    public static ChangeLogPosition decodePosition(String cursor) {
+        String[] parts = decode(CHANGE_PREFIX, cursor).split("\\.", -1);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Unknown cursor " + cursor);
+        }
+
+        return new ChangeLogPosition(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+    }
+
+    private static String decode(String prefix, String cursor) {
+        String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if (!value.startsWith(prefix)) {
+            throw new IllegalArgumentException("Unknown cursor " + cursor);
+        }
+
+        return value.substring(prefix.length());
+    }
+}
@@ -0,0 +1,38 @@
+package io.tashtabash.charging.controller;
+
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * PATCH body, absent fields are left as they are. Unlike an absent {@code parentCompanyId},
+ * an explicit null makes the Company a root, so the setter records that it was called.
+ */
+public class PatchCompanyDto {
+    private String name;
+
+    private Long parentCompanyId;
+
+    private boolean parentCompanyIdSet;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getParentCompanyId() {
+        return parentCompanyId;
+    }
+
+    public void setParentCompanyId(Long parentCompanyId) {
+        this.parentCompanyId = parentCompanyId;
+        this.parentCompanyIdSet = true;
+    }
+
+    @JsonIgnore
+    public boolean isParentCompanyIdSet() {
+        return parentCompanyIdSet;
+    }
+}
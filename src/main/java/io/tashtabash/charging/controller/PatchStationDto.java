@@ -0,0 +1,7 @@
+package io.tashtabash.charging.controller;
+
+
+/**
+ * PATCH body, null fields are left as they are.
+ */
+public record PatchStationDto(String name, Double latitude, Double longitude, Long companyId) {}
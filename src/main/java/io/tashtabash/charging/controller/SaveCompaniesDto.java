@@ -0,0 +1,13 @@
+package io.tashtabash.charging.controller;
+
+
+import java.util.List;
+
+
+/**
+ * Companies reference their parents either by {@code parentKey} of another Company in the list
+ * or by {@code parentCompanyId} of an existing one.
+ */
+public record SaveCompaniesDto(List<Item> companies) {
+    public record Item(String key, String name, String parentKey, Long parentCompanyId) {}
+}
@@ -1,47 +1,113 @@
 package io.tashtabash.charging.controller;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
-import io.tashtabash.charging.service.IncorrectStationFormatException;
-import io.tashtabash.charging.service.StationService;
+import io.tashtabash.charging.repository.EntityVersion;
+import io.tashtabash.charging.service.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 
 @RestController
-@CrossOrigin
+@CrossOrigin(exposedHeaders = HttpHeaders.ETAG)
 @RequestMapping("/station")
 public class StationController {
+    static final int MAX_NEAREST_STATIONS = 1000;
+
+    static final int MAX_ZOOM = 22;
+
+    static final String TEXT_CSV_VALUE = "text/csv";
+
+    static final int IMPORT_CHUNK_SIZE = 5000;
+
+    static final int MAX_REPORTED_IMPORT_ERRORS = 1000;
+
     private final StationService stationService;
 
+    private final CompanyService companyService;
+
+    private final StationSubscriptions stationSubscriptions;
+
+    private final ObjectMapper objectMapper;
+
     @Autowired
-    public StationController(StationService stationService) {
+    public StationController(
+            StationService stationService,
+            CompanyService companyService,
+            StationSubscriptions stationSubscriptions,
+            ObjectMapper objectMapper
+    ) {
         this.stationService = stationService;
+        this.companyService = companyService;
+        this.stationSubscriptions = stationSubscriptions;
+        this.objectMapper = objectMapper;
     }
 
     private void checkStationData(String name, double latitude, double longitude) {
         if (name.strip().equals("")) {
             throw new IncorrectStationFormatException("Station name must not be blank");
         }
+        if (name.length() > Station.MAX_NAME_LENGTH) {
+            throw new IncorrectStationFormatException(
+                    "Station name must not be longer than " + Station.MAX_NAME_LENGTH + " characters"
+            );
+        }
 
         checkCoordinates(latitude, longitude);
     }
 
-    private void checkCoordinates(double latitude, double longitude) {
+    public static void checkCoordinates(double latitude, double longitude) {
+        checkLatitude(latitude);
+        checkLongitude(longitude);
+    }
+
+    private static void checkLatitude(double latitude) {
         if (latitude < -90 || 90 < latitude) {
             throw new IncorrectStationFormatException("Station latitude must be in range between -90 and 90");
         }
+    }
+
+    private static void checkLongitude(double longitude) {
         if (longitude < -180 || 180 < longitude) {
             throw new IncorrectStationFormatException("Station longitude must be in range between -180 and 180");
         }
     }
 
+    public static boolean expandsCompany(String expand) {
+        if (expand == null) {
+            return false;
+        }
+        if (!expand.equals("company")) {
+            throw new IncorrectStationFormatException("Unknown expand '" + expand + "', only 'company' is supported");
+        }
+
+        return true;
+    }
+
     @PostMapping("")
-    public ResponseEntity<Station> saveStation(@RequestBody SaveStationDto data) {
+    public ResponseEntity<StationDto> saveStation(@RequestBody SaveStationDto data) {
         checkStationData(data.name(), data.latitude(), data.longitude());
 
         Station newStation = stationService.saveStation(
@@ -52,15 +118,41 @@ public class StationController {
         );
 
         return ResponseEntity.status(HttpStatus.CREATED)
-                .body(newStation);
+                .body(StationDto.from(newStation));
+    }
+
+    /**
+     * Imports CSV or NDJSON Stations in chunks of {@link #IMPORT_CHUNK_SIZE}, each in its own transaction.
+     * Rows failing validation are reported instead of failing the whole upload.
+     */
+    @PostMapping(value = "/bulk", consumes = {TEXT_CSV_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StationImportReportDto> importStations(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream body
+    ) throws IOException {
+        var mediaType = MediaType.parseMediaType(contentType);
+        var charset = mediaType.getCharset() == null ? StandardCharsets.UTF_8 : mediaType.getCharset();
+        var reader = new BufferedReader(new InputStreamReader(body, charset));
+        var stationImport = new StationImport();
+
+        if (mediaType.isCompatibleWith(MediaType.APPLICATION_NDJSON)) {
+            StationImportParser.parseNdjson(reader, objectMapper, stationImport);
+        } else {
+            StationImportParser.parseCsv(reader, stationImport);
+        }
+        stationImport.flush();
+
+        return ResponseEntity.ok(stationImport.report());
     }
 
     @GetMapping("")
-    public ResponseEntity<List<Station>> searchStations(
+    public ResponseEntity<List<StationDto>> searchStations(
             @RequestParam double latitude,
             @RequestParam double longitude,
-            @RequestParam double radiusKm
+            @RequestParam double radiusKm,
+            @RequestParam(required = false) String expand
     ) {
+        boolean expandCompany = expandsCompany(expand);
         checkCoordinates(latitude, longitude);
         if (radiusKm < 0) {
             throw new IncorrectStationFormatException("Radius must be positive");
@@ -68,23 +160,164 @@ public class StationController {
 
         List<Station> stations = stationService.searchInRadiusOrderByDistance(latitude, longitude, radiusKm);
 
-        return ResponseEntity.ok(stations);
+        return ResponseEntity.ok(toDtos(stations, companiesOf(companyService, stations, expandCompany)));
+    }
+
+    @GetMapping("/nearest")
+    public ResponseEntity<List<NearbyStationDto>> searchNearestStations(
+            @RequestParam double latitude,
+            @RequestParam double longitude,
+            @RequestParam int k,
+            @RequestParam(required = false) String expand
+    ) {
+        boolean expandCompany = expandsCompany(expand);
+        checkCoordinates(latitude, longitude);
+        if (k < 1 || MAX_NEAREST_STATIONS < k) {
+            throw new IncorrectStationFormatException("k must be in range between 1 and " + MAX_NEAREST_STATIONS);
+        }
+
+        List<NearbyStation> stations = stationService.searchNearest(latitude, longitude, k);
+        Map<Long, Company> companies = companiesOf(
+                companyService,
+                stations.stream().map(NearbyStation::station).toList(),
+                expandCompany
+        );
+
+        return ResponseEntity.ok(
+                stations.stream()
+                        .map(station -> NearbyStationDto.from(station, companies.get(companyIdOf(station.station()))))
+                        .toList()
+        );
+    }
+
+    @GetMapping("/viewport")
+    public ResponseEntity<StationViewportDto> searchViewport(
+            @RequestParam double minLat,
+            @RequestParam double minLon,
+            @RequestParam double maxLat,
+            @RequestParam double maxLon,
+            @RequestParam int zoom,
+            @RequestParam(required = false) String expand
+    ) {
+        boolean expandCompany = expandsCompany(expand);
+        checkCoordinates(minLat, minLon);
+        checkCoordinates(maxLat, maxLon);
+        if (minLat > maxLat || minLon > maxLon) {
+            throw new IncorrectStationFormatException("Viewport minimal coordinates must not exceed maximal ones");
+        }
+        if (zoom < 0 || MAX_ZOOM < zoom) {
+            throw new IncorrectStationFormatException("Zoom must be in range between 0 and " + MAX_ZOOM);
+        }
+
+        StationViewport viewport = stationService.searchViewport(minLat, minLon, maxLat, maxLon, zoom);
+
+        return ResponseEntity.ok(
+                StationViewportDto.from(viewport, companiesOf(companyService, viewport.stations(), expandCompany))
+        );
     }
 
+    /**
+     * Streams the changes of the Stations within the radius as Server-Sent Events named
+     * {@code added}, {@code updated} and {@code removed}. A subscriber which falls too far behind
+     * is disconnected and is expected to reconnect and search the radius again.
+     */
+    @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(
+            @RequestParam double latitude,
+            @RequestParam double longitude,
+            @RequestParam double radiusKm
+    ) {
+        checkCoordinates(latitude, longitude);
+        if (radiusKm < 0) {
+            throw new IncorrectStationFormatException("Radius must be positive");
+        }
+
+        var emitter = new SseEmitter();
+        StationSubscriptions.Subscription subscription = stationSubscriptions.subscribe(
+                latitude,
+                longitude,
+                radiusKm,
+                notification -> send(emitter, notification),
+                emitter::complete
+        );
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+
+        return emitter;
+    }
+
+    private static void send(SseEmitter emitter, StationNotification notification) {
+        try {
+            emitter.send(
+                    SseEmitter.event()
+                            .name(notification.kind().name().toLowerCase())
+                            .data(StationNotificationDto.from(notification), MediaType.APPLICATION_JSON)
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Unconditional requests are tagged by the loaded Station, which usually comes from the second-level cache
     @GetMapping("/{id}")
-    public ResponseEntity<Station> getStation(@PathVariable long id) {
+    public ResponseEntity<StationDto> getStation(
+            @PathVariable long id,
+            @RequestParam(required = false) String expand,
+            WebRequest request
+    ) {
+        boolean expandCompany = expandsCompany(expand);
+        if (EntityTags.isConditional(request)) {
+            Optional<EntityVersion> version = stationService.findStationVersion(id);
+            if (version.isPresent() && request.checkNotModified(EntityTags.of(version.get(), expandCompany))) {
+                return null;
+            }
+        }
+
         Station station = stationService.getStation(id);
+        // Doesn't load the Company unless it's expanded anyway
+        Company company = expandCompany ? companyService.getCompany(companyIdOf(station)) : null;
+        var stationVersion = new EntityVersion(station.getVersion(), company == null ? null : company.getVersion());
+        if (request.checkNotModified(EntityTags.of(stationVersion, expandCompany))) {
+            return null;
+        }
 
-        return ResponseEntity.ok(station);
+        return ResponseEntity.ok(StationDto.from(station, company));
     }
 
     @PutMapping("")
-    public ResponseEntity<Station> updateStation(@RequestBody Station station) {
+    public ResponseEntity<StationDto> updateStation(@RequestBody Station station) {
         checkStationData(station.getName(), station.getLatitude(), station.getLongitude());
 
         Station updatedStation = stationService.updateStation(station);
 
-        return ResponseEntity.ok(updatedStation);
+        return ResponseEntity.ok(StationDto.from(updatedStation));
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<StationDto> patchStation(@PathVariable long id, @RequestBody PatchStationDto data) {
+        if (data.name() == null && data.latitude() == null && data.longitude() == null && data.companyId() == null) {
+            throw new IncorrectStationFormatException("At least one Station field must be set");
+        }
+        if (data.name() != null && data.name().isBlank()) {
+            throw new IncorrectStationFormatException("Station name must not be blank");
+        }
+        if (data.latitude() != null) {
+            checkLatitude(data.latitude());
+        }
+        if (data.longitude() != null) {
+            checkLongitude(data.longitude());
+        }
+
+        Station station = stationService.patchStation(
+                id,
+                data.name(),
+                data.latitude(),
+                data.longitude(),
+                data.companyId()
+        );
+
+        return ResponseEntity.ok(StationDto.from(station));
     }
 
     @DeleteMapping("/{id}")
@@ -94,4 +327,97 @@ public class StationController {
         return ResponseEntity.status(HttpStatus.OK)
                 .build();
     }
+
+    /**
+     * @param companies the expanded Companies of the Stations by id, empty to leave them out
+     */
+    static List<StationDto> toDtos(List<Station> stations, Map<Long, Company> companies) {
+        return stations.stream()
+                .map(station -> StationDto.from(station, companies.get(companyIdOf(station))))
+                .toList();
+    }
+
+    /**
+     * Looks the expanded Companies up in one go. The Stations are detached by now, as the
+     * persistence context doesn't outlive the service call, but their Company proxies know the ids.
+     *
+     * @return the Companies of the Stations by id, empty if they aren't expanded
+     */
+    static Map<Long, Company> companiesOf(
+            CompanyService companyService,
+            Collection<Station> stations,
+            boolean expandCompany
+    ) {
+        if (!expandCompany) {
+            return Map.of();
+        }
+
+        return companyService.getCompaniesById(
+                stations.stream()
+                        .map(StationController::companyIdOf)
+                        .collect(Collectors.toSet())
+        );
+    }
+
+    private static long companyIdOf(Station station) {
+        return station.getCompany().getId();
+    }
+
+    private class StationImport implements StationImportParser.RowHandler {
+        private final List<StationImportRow> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+
+        private final List<StationImportError> errors = new ArrayList<>();
+
+        private long imported = 0;
+
+        private long failed = 0;
+
+        @Override
+        public void onRow(StationImportRow row) {
+            try {
+                checkStationData(row.name(), row.latitude(), row.longitude());
+            } catch (IncorrectStationFormatException e) {
+                onError(row.line(), e.getReason());
+                return;
+            }
+
+            chunk.add(row);
+            if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void onError(long line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_IMPORT_ERRORS) {
+                errors.add(new StationImportError(line, message));
+            }
+        }
+
+        void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            List<StationImportRow> rows = List.copyOf(chunk);
+            chunk.clear();
+            StationImportResult result;
+            try {
+                result = stationService.importStations(rows);
+            } catch (DataAccessException e) {
+                // The chunk was rolled back, the earlier chunks stay committed and counted
+                String message = "Chunk from line " + rows.get(0).line() + " failed: "
+                        + e.getMostSpecificCause().getMessage();
+                rows.forEach(row -> onError(row.line(), message));
+                return;
+            }
+            imported += result.imported();
+            result.errors().forEach(error -> onError(error.line(), error.message()));
+        }
+
+        StationImportReportDto report() {
+            return new StationImportReportDto(imported, failed, errors);
+        }
+    }
 }
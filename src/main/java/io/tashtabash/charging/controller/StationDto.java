@@ -0,0 +1,54 @@
+package io.tashtabash.charging.controller;
+
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+
+
+/**
+ * Station response, {@code company} is only filled when expanded on request.
+ */
+public record StationDto(
+        long id,
+        String name,
+        double latitude,
+        double longitude,
+        long companyId,
+        @JsonInclude(JsonInclude.Include.NON_NULL) CompanyDto company
+) {
+    public static StationDto from(Station station) {
+        return new StationDto(
+                station.getId(),
+                station.getName(),
+                station.getLatitude(),
+                station.getLongitude(),
+                station.getCompany().getId(),
+                null
+        );
+    }
+
+    // Initializes the Company, so the Station must still be attached
+    public static StationDto from(Station station, boolean expandCompany) {
+        return from(station, expandCompany ? station.getCompany() : null);
+    }
+
+    /**
+     * @param company the Company of the Station to expand, null to leave it out
+     */
+    public static StationDto from(Station station, Company company) {
+        var dto = from(station);
+        if (company == null) {
+            return dto;
+        }
+
+        return new StationDto(
+                dto.id(),
+                dto.name(),
+                dto.latitude(),
+                dto.longitude(),
+                dto.companyId(),
+                CompanyDto.from(company)
+        );
+    }
+}
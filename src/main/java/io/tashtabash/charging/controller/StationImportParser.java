@@ -0,0 +1,153 @@
+package io.tashtabash.charging.controller;
+
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.tashtabash.charging.service.StationImportRow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads uploaded Stations line by line, lines are numbered from 1.
+ * CSV columns are {@value #CSV_HEADER}, the header line itself is optional.
+ */
+final class StationImportParser {
+    static final String CSV_HEADER = "name,latitude,longitude,companyId";
+
+    interface RowHandler {
+        void onRow(StationImportRow row);
+
+        void onError(long line, String message);
+    }
+
+    private StationImportParser() {}
+
+    static void parseCsv(BufferedReader reader, RowHandler handler) throws IOException {
+        long line = 0;
+        for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+            line++;
+            if (text.isBlank() || (line == 1 && text.strip().equalsIgnoreCase(CSV_HEADER))) {
+                continue;
+            }
+
+            try {
+                List<String> fields = splitCsvLine(text);
+                if (fields.size() != 4) {
+                    throw new IllegalArgumentException("Expected 4 fields, got " + fields.size());
+                }
+
+                handler.onRow(new StationImportRow(
+                        line,
+                        fields.get(0),
+                        parseCoordinate(fields.get(1), "latitude"),
+                        parseCoordinate(fields.get(2), "longitude"),
+                        parseCompanyId(fields.get(3))
+                ));
+            } catch (IllegalArgumentException e) {
+                handler.onError(line, e.getMessage());
+            }
+        }
+    }
+
+    static void parseNdjson(BufferedReader reader, ObjectMapper objectMapper, RowHandler handler) throws IOException {
+        long line = 0;
+        for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+            line++;
+            if (text.isBlank()) {
+                continue;
+            }
+
+            try {
+                JsonNode node = objectMapper.readTree(text);
+                JsonNode name = node.path("name");
+                JsonNode latitude = node.path("latitude");
+                JsonNode longitude = node.path("longitude");
+                JsonNode companyId = node.path("companyId");
+
+                if (!name.isTextual()) {
+                    throw new IllegalArgumentException("Field 'name' must be a string");
+                }
+                if (!latitude.isNumber() || !longitude.isNumber()) {
+                    throw new IllegalArgumentException("Fields 'latitude' and 'longitude' must be numbers");
+                }
+                if (!companyId.canConvertToLong() || !companyId.isIntegralNumber()) {
+                    throw new IllegalArgumentException("Field 'companyId' must be an integer");
+                }
+
+                handler.onRow(new StationImportRow(
+                        line,
+                        name.textValue(),
+                        latitude.doubleValue(),
+                        longitude.doubleValue(),
+                        companyId.longValue()
+                ));
+            } catch (JsonProcessingException e) {
+                handler.onError(line, "Malformed JSON: " + e.getOriginalMessage());
+            } catch (IllegalArgumentException e) {
+                handler.onError(line, e.getMessage());
+            }
+        }
+    }
+
+    private static double parseCoordinate(String field, String fieldName) {
+        try {
+            double value = Double.parseDouble(field.strip());
+
+            if (!Double.isFinite(value)) {
+                throw new NumberFormatException();
+            }
+
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Station " + fieldName + " '" + field + "' is not a number");
+        }
+    }
+
+    private static long parseCompanyId(String field) {
+        try {
+            return Long.parseLong(field.strip());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Company id '" + field + "' is not an integer");
+        }
+    }
+
+    // Fields may be quoted, with "" standing for a quote inside a quoted field
+    static List<String> splitCsvLine(String text) {
+        List<String> fields = new ArrayList<>();
+        var field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+
+        return fields;
+    }
+}
@@ -0,0 +1,12 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.service.StationImportError;
+
+import java.util.List;
+
+
+/**
+ * {@code errors} lists at most {@link StationController#MAX_REPORTED_IMPORT_ERRORS} of the {@code failed} rows.
+ */
+public record StationImportReportDto(long imported, long failed, List<StationImportError> errors) {}
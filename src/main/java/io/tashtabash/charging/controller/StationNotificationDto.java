@@ -0,0 +1,16 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.service.StationNotification;
+
+
+public record StationNotificationDto(long stationId, double latitude, double longitude, double distanceKm) {
+    public static StationNotificationDto from(StationNotification notification) {
+        return new StationNotificationDto(
+                notification.stationId(),
+                notification.location().latitude(),
+                notification.location().longitude(),
+                notification.distanceKm()
+        );
+    }
+}
@@ -0,0 +1,23 @@
+package io.tashtabash.charging.controller;
+
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.repository.StationCluster;
+import io.tashtabash.charging.service.StationViewport;
+
+import java.util.List;
+import java.util.Map;
+
+
+public record StationViewportDto(int zoom, List<StationCluster> clusters, List<StationDto> stations) {
+    /**
+     * @param companies the expanded Companies of the Stations by id, empty to leave them out
+     */
+    public static StationViewportDto from(StationViewport viewport, Map<Long, Company> companies) {
+        return new StationViewportDto(
+                viewport.zoom(),
+                viewport.clusters(),
+                StationController.toDtos(viewport.stations(), companies)
+        );
+    }
+}
@@ -0,0 +1,40 @@
+package io.tashtabash.charging.datasource;
+
+
+/**
+ * Keeps the reads of the current thread on the primary, even in read-only transactions.
+ * Used for reads which must not lag behind the primary, like loading the in-memory structures
+ * kept in sync by events, and by {@link ReadYourWritesFilter}. Does nothing without replicas.
+ */
+public final class PrimaryPin implements AutoCloseable {
+    private static final ThreadLocal<Boolean> PINNED = ThreadLocal.withInitial(() -> false);
+
+    private final boolean wasPinned;
+
+    private PrimaryPin(boolean wasPinned) {
+        this.wasPinned = wasPinned;
+    }
+
+    /**
+     * Pins the thread until the returned pin is closed, pins nest.
+     */
+    public static PrimaryPin pin() {
+        var pin = new PrimaryPin(PINNED.get());
+        PINNED.set(true);
+
+        return pin;
+    }
+
+    public static boolean isPinned() {
+        return PINNED.get();
+    }
+
+    @Override
+    public void close() {
+        if (wasPinned) {
+            PINNED.set(true);
+        } else {
+            PINNED.remove();
+        }
+    }
+}
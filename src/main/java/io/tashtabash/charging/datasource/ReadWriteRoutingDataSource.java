@@ -0,0 +1,70 @@
+package io.tashtabash.charging.datasource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+
+/**
+ * Sends read-only transactions to a {@link ReplicaPool} and everything else to the primary.
+ * A replica which fails to give a connection is marked down and the next one is tried,
+ * the primary serves the read when none is left. The transaction is only known once it
+ * has started, so the data source must be wrapped in a {@code LazyConnectionDataSourceProxy},
+ * which asks for the connection on the first statement. {@code onReplicaConnection} runs
+ * once a transaction got its connection from a replica.
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+    private final DataSource primary;
+
+    private final ReplicaPool replicaPool;
+
+    private final Runnable onReplicaConnection;
+
+    public ReadWriteRoutingDataSource(DataSource primary, ReplicaPool replicaPool) {
+        this(primary, replicaPool, () -> {});
+    }
+
+    public ReadWriteRoutingDataSource(DataSource primary, ReplicaPool replicaPool, Runnable onReplicaConnection) {
+        this.primary = primary;
+        this.replicaPool = replicaPool;
+        this.onReplicaConnection = onReplicaConnection;
+    }
+
+    static boolean routesToReplica() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !PrimaryPin.isPinned();
+    }
+
+    private interface ConnectionSource {
+        Connection from(DataSource dataSource) throws SQLException;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return route(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return route(dataSource -> dataSource.getConnection(username, password));
+    }
+
+    private Connection route(ConnectionSource connectionSource) throws SQLException {
+        if (routesToReplica()) {
+            for (var replica : replicaPool.candidates()) {
+                try {
+                    Connection connection = connectionSource.from(replica.getDataSource());
+                    onReplicaConnection.run();
+
+                    return connection;
+                } catch (SQLException e) {
+                    replicaPool.markDown(replica);
+                }
+            }
+        }
+
+        return connectionSource.from(primary);
+    }
+}
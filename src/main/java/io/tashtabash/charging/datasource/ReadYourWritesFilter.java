@@ -0,0 +1,78 @@
+package io.tashtabash.charging.datasource;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+
+
+/**
+ * Keeps a client on the primary for {@code window} after its own mutation, so it reads what
+ * it has written even if the replicas lag behind. The deadline is kept in a cookie set on
+ * every mutating request, which also makes it work across instances with synced clocks.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+    public static final String COOKIE_NAME = "charging-primary-until";
+
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+
+    private final Duration window;
+
+    private final Clock clock;
+
+    public ReadYourWritesFilter(Duration window, Clock clock) {
+        this.window = window;
+        this.clock = clock;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        boolean mutation = !SAFE_METHODS.contains(request.getMethod());
+        // Before the chain, which may commit the response
+        if (mutation) {
+            var cookie = new Cookie(COOKIE_NAME, String.valueOf(clock.millis() + window.toMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, window.toSeconds()));
+            response.addCookie(cookie);
+        }
+
+        if (!mutation && !isWithinWindow(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        try (var pin = PrimaryPin.pin()) {
+            filterChain.doFilter(request, response);
+        }
+    }
+
+    private boolean isWithinWindow(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return false;
+        }
+
+        for (Cookie cookie : request.getCookies()) {
+            if (cookie.getName().equals(COOKIE_NAME)) {
+                try {
+                    return clock.millis() < Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,129 @@
+package io.tashtabash.charging.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Read replicas picked round-robin among the healthy ones. A replica is healthy once a check
+ * connects to it and finds its replay lag within {@code maxLag}; it's taken out when a check
+ * fails or a connection can't be obtained, and the next successful check brings it back.
+ * Replicas start unhealthy, so reads go to the primary until the first check.
+ */
+public class ReplicaPool implements AutoCloseable {
+    // Zero on a caught up replica, even when the primary is idle. Null outside of recovery
+    static final String LAG_QUERY = "SELECT coalesce(CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE extract(epoch FROM now() - pg_last_xact_replay_timestamp()) END, 0)";
+
+    private static final int CHECK_TIMEOUT_SECONDS = 5;
+
+    public static final class Replica {
+        private final String name;
+
+        private final DataSource dataSource;
+
+        private volatile boolean healthy = false;
+
+        public Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+    }
+
+    private final List<Replica> replicas;
+
+    private final Duration maxLag;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaPool(List<Replica> replicas, Duration maxLag) {
+        this.replicas = List.copyOf(replicas);
+        this.maxLag = maxLag;
+    }
+
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("charging.datasource.replicas.healthy", this, pool -> pool.healthy().size())
+                .description("Replicas available for read-only transactions")
+                .register(meterRegistry);
+    }
+
+    public void checkHealth() {
+        for (var replica : replicas) {
+            replica.healthy = isHealthy(replica);
+        }
+    }
+
+    private boolean isHealthy(Replica replica) {
+        try (Connection connection = replica.dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = statement.executeQuery(LAG_QUERY)) {
+                return resultSet.next() && resultSet.getDouble(1) * 1000 <= maxLag.toMillis();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the healthy replicas, starting from the next one in the round-robin order
+     */
+    public List<Replica> candidates() {
+        List<Replica> healthy = healthy();
+        if (healthy.isEmpty()) {
+            return healthy;
+        }
+
+        int start = Math.floorMod(next.getAndIncrement(), healthy.size());
+        List<Replica> ordered = new ArrayList<>(healthy.size());
+        ordered.addAll(healthy.subList(start, healthy.size()));
+        ordered.addAll(healthy.subList(0, start));
+
+        return ordered;
+    }
+
+    private List<Replica> healthy() {
+        return replicas.stream()
+                .filter(Replica::isHealthy)
+                .toList();
+    }
+
+    public void markDown(Replica replica) {
+        replica.healthy = false;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (var replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
@@ -1,23 +1,54 @@
 package io.tashtabash.charging.entity;
 
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
 import javax.persistence.*;
 import java.util.Objects;
 
 
+// Lazy Companies referenced by native Station queries are initialized in batches
 @Entity
+@BatchSize(size = 100)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "company")
 public class Company {
+    // Ids taken per company_seq call, the INCREMENT BY of the sequence in schema.sql
+    public static final int ID_ALLOCATION_SIZE = 50;
+    // The length of the name column in schema.sql
+    public static final int MAX_NAME_LENGTH = 255;
+
+    // Ids are known before the inserts, so Hibernate can batch them. A call to company_seq returning v
+    // reserves v to v + ID_ALLOCATION_SIZE - 1, the same way CompanyBulkRepository uses it
     @Id()
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "company_seq")
+    @GenericGenerator(
+            name = "company_seq",
+            strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "company_seq"),
+                    @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + ID_ALLOCATION_SIZE),
+                    @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+            }
+    )
     private long id;
 
-    @Column
+    @Column(length = MAX_NAME_LENGTH)
     private String name;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(referencedColumnName = "id")
     private Company parentCompany;
 
+    // Incremented by every update, ETags of the responses are derived from it
+    @Version
+    private long version;
+
     public Company() {}
 
     public Company(String name, Company parentCompany) {
@@ -35,6 +66,10 @@ public class Company {
         return id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public String getName() {
         return name;
     }
@@ -47,6 +82,10 @@ public class Company {
         this.id = id;
     }
 
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -55,24 +94,25 @@ public class Company {
         this.parentCompany = parentCompany;
     }
 
+    // Doesn't initialize lazy proxies, which only know their id
+    static Long idOf(Company company) {
+        return company == null ? null : company.getId();
+    }
+
+    // Parents are compared by id, the getters make it work for proxies
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        Company company = (Company) o;
+        if (!(o instanceof Company company)) return false;
 
-        if (id != company.id) return false;
-        if (!Objects.equals(name, company.name)) return false;
-        return Objects.equals(parentCompany, company.parentCompany);
+        if (getId() != company.getId()) return false;
+        if (!Objects.equals(getName(), company.getName())) return false;
+        return Objects.equals(idOf(getParentCompany()), idOf(company.getParentCompany()));
     }
 
     @Override
     public int hashCode() {
-        int result = (int) (id ^ (id >>> 32));
-        result = 31 * result + (name != null ? name.hashCode() : 0);
-        result = 31 * result + (parentCompany != null ? (int) parentCompany.id : 0);
-        return result;
+        return Long.hashCode(getId());
     }
 
     @Override
@@ -80,7 +120,7 @@ public class Company {
         return "Company{" +
                 "id=" + id +
                 ", name='" + name + '\'' +
-                ", parentCompany=" + parentCompany +
+                ", parentCompanyId=" + idOf(parentCompany) +
                 '}';
     }
 }
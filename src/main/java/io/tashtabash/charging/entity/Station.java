@@ -1,17 +1,41 @@
 package io.tashtabash.charging.entity;
 
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
 import javax.persistence.*;
 import java.util.Objects;
 
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "station")
 public class Station {
+    // Ids taken per station_seq call, the INCREMENT BY of the sequence in schema.sql
+    public static final int ID_ALLOCATION_SIZE = 50;
+    // The length of the name column in schema.sql
+    public static final int MAX_NAME_LENGTH = 255;
+
+    // Ids are known before the inserts, so Hibernate can batch them. A call to station_seq returning v
+    // reserves v to v + ID_ALLOCATION_SIZE - 1, the same way StationBulkRepository uses it
     @Id()
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "station_seq")
+    @GenericGenerator(
+            name = "station_seq",
+            strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "station_seq"),
+                    @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + ID_ALLOCATION_SIZE),
+                    @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+            }
+    )
     private long id;
 
-    @Column
+    @Column(length = MAX_NAME_LENGTH)
     private String name;
 
     @Column
@@ -20,10 +44,13 @@ public class Station {
     @Column
     private double longitude;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(referencedColumnName = "id")
     private Company company;
 
+    @Version
+    private long version;
+
     public Station() {}
 
     public Station(String name, double latitude, double longitude, Company company) {
@@ -45,6 +72,10 @@ public class Station {
         return id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public String getName() {
         return name;
     }
@@ -65,6 +96,10 @@ public class Station {
         this.id = id;
     }
 
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -92,7 +127,7 @@ public class Station {
         if (Double.compare(station.latitude, latitude) != 0) return false;
         if (Double.compare(station.longitude, longitude) != 0) return false;
         if (!Objects.equals(name, station.name)) return false;
-        return Objects.equals(company, station.company);
+        return Objects.equals(Company.idOf(company), Company.idOf(station.company));
     }
 
     @Override
@@ -105,7 +140,7 @@ public class Station {
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(longitude);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
-        result = 31 * result + (company != null ? company.hashCode() : 0);
+        result = 31 * result + Objects.hashCode(Company.idOf(company));
         return result;
     }
 
@@ -116,7 +151,7 @@ public class Station {
                 ", name='" + name + '\'' +
                 ", latitude=" + latitude +
                 ", longitude=" + longitude +
-                ", company=" + company +
+                ", companyId=" + Company.idOf(company) +
                 '}';
     }
 }
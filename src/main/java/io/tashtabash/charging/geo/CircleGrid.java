@@ -0,0 +1,160 @@
+package io.tashtabash.charging.geo;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Not thread-safe grid of circles keyed by value. A circle is registered in every cell
+ * its bounding box overlaps, so the circles containing a point are found in the point's cell.
+ * Circles overlapping more than {@link #MAX_CELLS_PER_CIRCLE} cells are checked on every lookup instead.
+ */
+public class CircleGrid<T> {
+    public static final int MAX_CELLS_PER_CIRCLE = 4096;
+
+    private record Circle<T>(T value, double latitude, double longitude, double radiusKm, long[] cells) {
+        boolean contains(double latitude, double longitude) {
+            return GeoPoint.distanceKm(this.latitude, this.longitude, latitude, longitude) <= radiusKm;
+        }
+    }
+
+    private final double cellDegrees;
+
+    private final int latitudeCells;
+
+    private final int longitudeCells;
+
+    private final Map<T, Circle<T>> circles = new HashMap<>();
+
+    private final Map<Long, List<Circle<T>>> cells = new HashMap<>();
+
+    private final Map<T, Circle<T>> wideCircles = new HashMap<>();
+
+    public CircleGrid(double cellDegrees) {
+        if (cellDegrees <= 0 || cellDegrees > 90) {
+            throw new IllegalArgumentException("Cell size must be in range (0, 90] degrees, got " + cellDegrees);
+        }
+
+        this.cellDegrees = cellDegrees;
+        this.latitudeCells = (int) Math.ceil(180 / cellDegrees);
+        this.longitudeCells = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    public int size() {
+        return circles.size();
+    }
+
+    public void put(T value, double latitude, double longitude, double radiusKm) {
+        remove(value);
+
+        long[] circleCells = cellsInBox(latitude, longitude, radiusKm);
+        var circle = new Circle<>(value, latitude, longitude, radiusKm, circleCells);
+        circles.put(value, circle);
+        if (circleCells == null) {
+            wideCircles.put(value, circle);
+            return;
+        }
+
+        for (long cell : circleCells) {
+            cells.computeIfAbsent(cell, k -> new ArrayList<>(2))
+                    .add(circle);
+        }
+    }
+
+    public void remove(T value) {
+        Circle<T> circle = circles.remove(value);
+        if (circle == null) {
+            return;
+        }
+        if (circle.cells() == null) {
+            wideCircles.remove(value);
+            return;
+        }
+
+        for (long cell : circle.cells()) {
+            List<Circle<T>> cellCircles = cells.get(cell);
+            cellCircles.remove(circle);
+            if (cellCircles.isEmpty()) {
+                cells.remove(cell);
+            }
+        }
+    }
+
+    /**
+     * @return values of the circles containing the point, borders included
+     */
+    public List<T> containing(double latitude, double longitude) {
+        List<T> values = new ArrayList<>();
+
+        List<Circle<T>> cellCircles = cells.get(cellKey(latitudeCell(latitude), longitudeCell(longitude)));
+        if (cellCircles != null) {
+            for (var circle : cellCircles) {
+                if (circle.contains(latitude, longitude)) {
+                    values.add(circle.value());
+                }
+            }
+        }
+        for (var circle : wideCircles.values()) {
+            if (circle.contains(latitude, longitude)) {
+                values.add(circle.value());
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @return keys of the cells overlapped by the circle's bounding box,
+     * or null if there are more than {@link #MAX_CELLS_PER_CIRCLE} of them
+     */
+    private long[] cellsInBox(double latitude, double longitude, double radiusKm) {
+        double angularRadius = radiusKm / GeoPoint.EARTH_RADIUS_KM;
+        double latitudeDelta = Math.toDegrees(angularRadius);
+        double minLatitude = latitude - latitudeDelta;
+        double maxLatitude = latitude + latitudeDelta;
+
+        // Circles around a pole cover every longitude
+        if (minLatitude <= -90 || maxLatitude >= 90 || angularRadius >= Math.PI / 2) {
+            return null;
+        }
+
+        double longitudeDelta = Math.toDegrees(
+                Math.asin(Math.min(1.0, Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude))))
+        );
+        // Cell indexes aren't wrapped here, so boxes crossing the antimeridian stay contiguous
+        int minLongitudeCell = (int) Math.floor((longitude - longitudeDelta + 180) / cellDegrees);
+        int maxLongitudeCell = (int) Math.floor((longitude + longitudeDelta + 180) / cellDegrees);
+        int longitudeCellCount = Math.min(longitudeCells, maxLongitudeCell - minLongitudeCell + 1);
+        int minLatitudeCell = latitudeCell(minLatitude);
+        int maxLatitudeCell = latitudeCell(maxLatitude);
+        long cellCount = (long) (maxLatitudeCell - minLatitudeCell + 1) * longitudeCellCount;
+        if (cellCount > MAX_CELLS_PER_CIRCLE) {
+            return null;
+        }
+
+        long[] circleCells = new long[(int) cellCount];
+        int i = 0;
+        for (int latitudeCell = minLatitudeCell; latitudeCell <= maxLatitudeCell; latitudeCell++) {
+            for (int j = 0; j < longitudeCellCount; j++) {
+                circleCells[i++] = cellKey(latitudeCell, Math.floorMod(minLongitudeCell + j, longitudeCells));
+            }
+        }
+
+        return circleCells;
+    }
+
+    private int latitudeCell(double latitude) {
+        return Math.min(latitudeCells - 1, (int) Math.floor((latitude + 90) / cellDegrees));
+    }
+
+    private int longitudeCell(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / cellDegrees), longitudeCells);
+    }
+
+    private static long cellKey(int latitudeCell, int longitudeCell) {
+        return ((long) latitudeCell << 32) | longitudeCell;
+    }
+}
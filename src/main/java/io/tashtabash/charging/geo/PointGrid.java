@@ -0,0 +1,309 @@
+package io.tashtabash.charging.geo;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * Not thread-safe grid of points keyed by id. Coordinates are kept in primitive
+ * arrays, and each cell keeps the array slots of its points.
+ */
+public class PointGrid {
+    public record Hit(long id, double distanceKm) {}
+
+    private final double cellDegrees;
+
+    private final int latitudeCells;
+
+    private final int longitudeCells;
+
+    private long[] ids = new long[1024];
+
+    private double[] latitudes = new double[1024];
+
+    private double[] longitudes = new double[1024];
+
+    private long[] slotCells = new long[1024];
+
+    private int size = 0;
+
+    private final Map<Long, Integer> slotsById = new HashMap<>();
+
+    private final Map<Long, SlotList> cells = new HashMap<>();
+
+    public PointGrid(double cellDegrees) {
+        if (cellDegrees <= 0 || cellDegrees > 90) {
+            throw new IllegalArgumentException("Cell size must be in range (0, 90] degrees, got " + cellDegrees);
+        }
+
+        this.cellDegrees = cellDegrees;
+        this.latitudeCells = (int) Math.ceil(180 / cellDegrees);
+        this.longitudeCells = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long id) {
+        return slotsById.containsKey(id);
+    }
+
+    public void clear() {
+        size = 0;
+        slotsById.clear();
+        cells.clear();
+    }
+
+    public void put(long id, double latitude, double longitude) {
+        remove(id);
+
+        if (size == ids.length) {
+            int newLength = ids.length * 2;
+            ids = Arrays.copyOf(ids, newLength);
+            latitudes = Arrays.copyOf(latitudes, newLength);
+            longitudes = Arrays.copyOf(longitudes, newLength);
+            slotCells = Arrays.copyOf(slotCells, newLength);
+        }
+
+        int slot = size++;
+        long cell = cellKey(latitudeCell(latitude), longitudeCell(longitude));
+        ids[slot] = id;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        slotCells[slot] = cell;
+        slotsById.put(id, slot);
+        cells.computeIfAbsent(cell, k -> new SlotList())
+                .add(slot);
+    }
+
+    public void remove(long id) {
+        Integer slot = slotsById.remove(id);
+        if (slot == null) {
+            return;
+        }
+
+        SlotList cellSlots = cells.get(slotCells[slot]);
+        cellSlots.remove(slot);
+        if (cellSlots.size == 0) {
+            cells.remove(slotCells[slot]);
+        }
+
+        // Move the last point into the freed slot to keep the arrays dense
+        int lastSlot = --size;
+        if (slot != lastSlot) {
+            ids[slot] = ids[lastSlot];
+            latitudes[slot] = latitudes[lastSlot];
+            longitudes[slot] = longitudes[lastSlot];
+            slotCells[slot] = slotCells[lastSlot];
+            slotsById.put(ids[slot], slot);
+            cells.get(slotCells[slot]).replace(lastSlot, slot);
+        }
+    }
+
+    /**
+     * @return points within the radius, ordered by distance
+     */
+    public List<Hit> searchInRadius(double latitude, double longitude, double radiusKm) {
+        List<Hit> hits = new ArrayList<>();
+
+        forEachSlotInBox(latitude, longitude, radiusKm, slot -> {
+            double distance = GeoPoint.distanceKm(latitude, longitude, latitudes[slot], longitudes[slot]);
+
+            if (distance <= radiusKm) {
+                hits.add(new Hit(ids[slot], distance));
+            }
+        });
+        hits.sort(Comparator.comparingDouble(Hit::distanceKm));
+
+        return hits;
+    }
+
+    /**
+     * Best-first search over rings of cells around the point, stops once no unvisited cell
+     * can hold a point closer than the current k-th one.
+     *
+     * @return k closest points, ordered by distance
+     */
+    public List<Hit> nearest(double latitude, double longitude, int k) {
+        if (k <= 0) {
+            return List.of();
+        }
+
+        PriorityQueue<Hit> best = new PriorityQueue<>(Comparator.comparingDouble(Hit::distanceKm).reversed());
+        SlotConsumer offer = slot -> {
+            double distance = GeoPoint.distanceKm(latitude, longitude, latitudes[slot], longitudes[slot]);
+
+            if (best.size() < k) {
+                best.add(new Hit(ids[slot], distance));
+            } else if (distance < best.peek().distanceKm()) {
+                best.poll();
+                best.add(new Hit(ids[slot], distance));
+            }
+        };
+
+        int centerLatitudeCell = latitudeCell(latitude);
+        int centerLongitudeCell = longitudeCell(longitude);
+        long visitedCells = 0;
+        for (int ring = 0; ; ring++) {
+            if (2 * ring + 1 >= longitudeCells || visitedCells > size) {
+                // Rings started to overlap or are mostly empty
+                best.clear();
+                for (int slot = 0; slot < size; slot++) {
+                    offer.accept(slot);
+                }
+                break;
+            }
+
+            int minLatitudeCell = Math.max(0, centerLatitudeCell - ring);
+            int maxLatitudeCell = Math.min(latitudeCells - 1, centerLatitudeCell + ring);
+            for (int latitudeCell = minLatitudeCell; latitudeCell <= maxLatitudeCell; latitudeCell++) {
+                boolean isRingEdge = Math.abs(latitudeCell - centerLatitudeCell) == ring;
+                int step = isRingEdge ? 1 : 2 * ring;
+
+                for (int i = -ring; i <= ring; i += Math.max(1, step)) {
+                    int longitudeCell = Math.floorMod(centerLongitudeCell + i, longitudeCells);
+                    SlotList cellSlots = cells.get(cellKey(latitudeCell, longitudeCell));
+                    visitedCells++;
+
+                    if (cellSlots != null) {
+                        for (int j = 0; j < cellSlots.size; j++) {
+                            offer.accept(cellSlots.slots[j]);
+                        }
+                    }
+                }
+            }
+
+            if (best.size() == size) {
+                break;
+            }
+            if (best.size() == k && outsideRingLowerBoundKm(latitude, longitude, ring) >= best.peek().distanceKm()) {
+                break;
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(Comparator.comparingDouble(Hit::distanceKm));
+
+        return hits;
+    }
+
+    private double outsideRingLowerBoundKm(double latitude, double longitude, int ring) {
+        int centerLatitudeCell = latitudeCell(latitude);
+        double latitudeGap = Math.min(
+                (centerLatitudeCell + ring + 1) * cellDegrees - 90 - latitude,
+                latitude - ((centerLatitudeCell - ring) * cellDegrees - 90)
+        );
+        int centerLongitudeCell = (int) Math.floor((longitude + 180) / cellDegrees);
+        double longitudeGap = Math.min(
+                (centerLongitudeCell + ring + 1) * cellDegrees - 180 - longitude,
+                longitude - ((centerLongitudeCell - ring) * cellDegrees - 180)
+        );
+
+        double latitudeBound = Math.toRadians(Math.max(0, latitudeGap)) * GeoPoint.EARTH_RADIUS_KM;
+        // Distance from the point to the closest meridian outside the ring
+        double longitudeBound = GeoPoint.EARTH_RADIUS_KM * Math.asin(Math.min(1.0,
+                Math.cos(Math.toRadians(latitude)) * Math.sin(Math.toRadians(Math.min(90, Math.max(0, longitudeGap))))
+        ));
+
+        return Math.min(latitudeBound, longitudeBound);
+    }
+
+    private void forEachSlotInBox(double latitude, double longitude, double radiusKm, SlotConsumer consumer) {
+        double angularRadius = radiusKm / GeoPoint.EARTH_RADIUS_KM;
+        double latitudeDelta = Math.toDegrees(angularRadius);
+        double minLatitude = latitude - latitudeDelta;
+        double maxLatitude = latitude + latitudeDelta;
+
+        int minLongitudeCell = 0;
+        int longitudeCellCount = longitudeCells;
+        if (minLatitude > -90 && maxLatitude < 90 && angularRadius < Math.PI / 2) {
+            double longitudeDelta = Math.toDegrees(
+                    Math.asin(Math.min(1.0, Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude))))
+            );
+
+            // Cell indexes aren't wrapped here, so boxes crossing the antimeridian stay contiguous
+            minLongitudeCell = (int) Math.floor((longitude - longitudeDelta + 180) / cellDegrees);
+            int maxLongitudeCell = (int) Math.floor((longitude + longitudeDelta + 180) / cellDegrees);
+            longitudeCellCount = Math.min(longitudeCells, maxLongitudeCell - minLongitudeCell + 1);
+        }
+
+        int minLatitudeCell = latitudeCell(Math.max(-90, minLatitude));
+        int maxLatitudeCell = latitudeCell(Math.min(90, maxLatitude));
+        long cellCount = (long) (maxLatitudeCell - minLatitudeCell + 1) * longitudeCellCount;
+
+        // Scanning everything is cheaper than probing a mostly empty area
+        if (cellCount > size) {
+            for (int slot = 0; slot < size; slot++) {
+                consumer.accept(slot);
+            }
+            return;
+        }
+
+        for (int latitudeCell = minLatitudeCell; latitudeCell <= maxLatitudeCell; latitudeCell++) {
+            for (int i = 0; i < longitudeCellCount; i++) {
+                int longitudeCell = Math.floorMod(minLongitudeCell + i, longitudeCells);
+                SlotList cellSlots = cells.get(cellKey(latitudeCell, longitudeCell));
+
+                if (cellSlots != null) {
+                    for (int j = 0; j < cellSlots.size; j++) {
+                        consumer.accept(cellSlots.slots[j]);
+                    }
+                }
+            }
+        }
+    }
+
+    private int latitudeCell(double latitude) {
+        return Math.min(latitudeCells - 1, (int) Math.floor((latitude + 90) / cellDegrees));
+    }
+
+    private int longitudeCell(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / cellDegrees), longitudeCells);
+    }
+
+    private static long cellKey(int latitudeCell, int longitudeCell) {
+        return ((long) latitudeCell << 32) | longitudeCell;
+    }
+
+    private interface SlotConsumer {
+        void accept(int slot);
+    }
+
+    private static class SlotList {
+        private int[] slots = new int[4];
+
+        private int size = 0;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+
+        void replace(int oldSlot, int newSlot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == oldSlot) {
+                    slots[i] = newSlot;
+                    return;
+                }
+            }
+        }
+    }
+}
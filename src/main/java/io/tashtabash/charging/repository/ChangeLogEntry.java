@@ -0,0 +1,29 @@
+package io.tashtabash.charging.repository;
+
+
+import java.time.Instant;
+
+
+public record ChangeLogEntry(
+        long seq,
+        long xid,
+        EntityType entityType,
+        long entityId,
+        Operation operation,
+        Instant changedAt
+) {
+    public ChangeLogPosition position() {
+        return new ChangeLogPosition(xid, seq);
+    }
+
+    public enum EntityType {
+        COMPANY,
+        STATION
+    }
+
+    public enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+}
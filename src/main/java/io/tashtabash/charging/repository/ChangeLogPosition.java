@@ -0,0 +1,13 @@
+package io.tashtabash.charging.repository;
+
+
+/**
+ * Position in the ChangeLog: entries are read in the order of the appending transaction id, then of the sequence number.
+ */
+public record ChangeLogPosition(long xid, long seq) {
+    public static final ChangeLogPosition START = new ChangeLogPosition(0, 0);
+
+    public boolean isBefore(ChangeLogPosition other) {
+        return xid < other.xid || xid == other.xid && seq < other.seq;
+    }
+}
@@ -0,0 +1,126 @@
+package io.tashtabash.charging.repository;
+
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.List;
+
+
+/**
+ * Appends the changes of Companies and Stations to the ChangeLog and reads them back by {@link ChangeLogPosition}.
+ */
+@Repository
+public class ChangeLogRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EntityManager entityManager;
+
+    @Autowired
+    public ChangeLogRepository(JdbcTemplate jdbcTemplate, EntityManager entityManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Logs the changes in the order of {@code entityIds}, the entries carry the id of the current transaction.
+     */
+    @Timed("charging.repository.invocations")
+    public void append(ChangeLogEntry.EntityType entityType, ChangeLogEntry.Operation operation, List<Long> entityIds) {
+        if (entityIds.isEmpty()) {
+            return;
+        }
+
+        // Assigns the transaction id with the entity writes, so it isn't newer than the changes it logs
+        entityManager.flush();
+
+        Long[] idArray = entityIds.toArray(Long[]::new);
+        jdbcTemplate.update(
+                "INSERT INTO ChangeLog (entity_type, entity_id, operation) " +
+                        "SELECT ?, c.entity_id, ? " +
+                        "FROM unnest(?::int8[]) WITH ORDINALITY AS c(entity_id, n) " +
+                        "ORDER BY c.n",
+                preparedStatement -> {
+                    preparedStatement.setString(1, entityType.name());
+                    preparedStatement.setString(2, operation.name());
+                    preparedStatement.setArray(3, preparedStatement.getConnection().createArrayOf("int8", idArray));
+                }
+        );
+    }
+
+    /**
+     * Only returns the entries of transactions older than any transaction still in progress: later ones may
+     * still be followed by the commit of an entry positioned before them.
+     *
+     * @return up to {@code limit} committed entries after {@code position}, in the position order
+     */
+    @Timed("charging.repository.invocations")
+    public List<ChangeLogEntry> findAfter(ChangeLogPosition position, int limit) {
+        return jdbcTemplate.query(
+                "SELECT seq, CAST(xid AS text) AS xid, entity_type, entity_id, operation, changed_at FROM ChangeLog " +
+                        "WHERE (xid, seq) > (CAST(? AS xid8), ?) " +
+                        "AND xid < pg_snapshot_xmin(pg_current_snapshot()) " +
+                        "ORDER BY xid, seq " +
+                        "LIMIT ?",
+                (resultSet, i) -> new ChangeLogEntry(
+                        resultSet.getLong("seq"),
+                        Long.parseLong(resultSet.getString("xid")),
+                        ChangeLogEntry.EntityType.valueOf(resultSet.getString("entity_type")),
+                        resultSet.getLong("entity_id"),
+                        ChangeLogEntry.Operation.valueOf(resultSet.getString("operation")),
+                        resultSet.getTimestamp("changed_at").toInstant()
+                ),
+                Long.toString(position.xid()),
+                position.seq(),
+                limit
+        );
+    }
+
+    /**
+     * Drops the entries older than {@code retention} which are followed by a later entry of the same entity,
+     * and the deletions older than {@code retention} themselves. Reading from the start still ends
+     * with the current data set. The horizon moves to the latest dropped deletion.
+     *
+     * @return the number of dropped entries
+     */
+    @Timed("charging.repository.invocations")
+    public int compact(Duration retention) {
+        Integer dropped = jdbcTemplate.queryForObject(
+                "WITH dropped AS (" +
+                        "DELETE FROM ChangeLog entry " +
+                        "WHERE entry.changed_at < now() - CAST(? AS interval) " +
+                        "AND (entry.operation = 'DELETE' OR EXISTS (" +
+                        "SELECT 1 FROM ChangeLog later " +
+                        "WHERE later.entity_type = entry.entity_type " +
+                        "AND later.entity_id = entry.entity_id " +
+                        "AND (later.xid, later.seq) > (entry.xid, entry.seq)" +
+                        ")) " +
+                        "RETURNING entry.xid, entry.seq, entry.operation), " +
+                        "latest_deletion AS (" +
+                        "SELECT xid, seq FROM dropped WHERE operation = 'DELETE' ORDER BY xid DESC, seq DESC LIMIT 1), " +
+                        "horizon AS (" +
+                        "UPDATE ChangeLogHorizon h SET xid = d.xid, seq = d.seq FROM latest_deletion d " +
+                        "WHERE (d.xid, d.seq) > (h.xid, h.seq)) " +
+                        "SELECT count(*) FROM dropped",
+                Integer.class,
+                retention.toMillis() + " milliseconds"
+        );
+
+        return dropped == null ? 0 : dropped;
+    }
+
+    /**
+     * @return the position of the latest deletion dropped by {@link #compact(Duration)},
+     * {@link ChangeLogPosition#START} if none was dropped
+     */
+    @Timed("charging.repository.invocations")
+    public ChangeLogPosition findHorizon() {
+        return jdbcTemplate.queryForObject(
+                "SELECT CAST(xid AS text) AS xid, seq FROM ChangeLogHorizon",
+                (resultSet, i) -> new ChangeLogPosition(Long.parseLong(resultSet.getString("xid")), resultSet.getLong("seq"))
+        );
+    }
+}
@@ -0,0 +1,85 @@
+package io.tashtabash.charging.repository;
+
+import io.micrometer.core.annotation.Timed;
+import io.tashtabash.charging.entity.Company;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+
+/**
+ * Writes many Companies per statement, which is cheaper than Hibernate's batches of
+ * {@code hibernate.jdbc.batch_size} rows. Ids come from company_seq a block at a time,
+ * like the ones Hibernate allocates.
+ */
+@Repository
+public class CompanyBulkRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public CompanyBulkRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Inserts the Companies together with their CompanyClosure rows, so the parents
+     * must already be in the closure table. {@code parentCompanyIds} holds nulls for roots.
+     *
+     * @return ids of the inserted Companies, in the order of {@code names}
+     */
+    @Timed("charging.repository.invocations")
+    public List<Long> insertAll(List<String> names, List<Long> parentCompanyIds) {
+        if (names.isEmpty()) {
+            return List.of();
+        }
+
+        String[] nameArray = names.toArray(String[]::new);
+        Long[] parentIdArray = parentCompanyIds.toArray(Long[]::new);
+
+        // Ids are computed before the INSERT, as RETURNING doesn't promise the rows' order
+        List<Long> blockStarts = jdbcTemplate.queryForList(
+                "SELECT nextval('company_seq') FROM generate_series(1, ?)",
+                Long.class,
+                blockCount(names.size())
+        );
+        List<Long> ids = IntStream.range(0, names.size())
+                .mapToObj(i -> blockStarts.get(i / Company.ID_ALLOCATION_SIZE) + i % Company.ID_ALLOCATION_SIZE)
+                .toList();
+
+        Long[] idArray = ids.toArray(Long[]::new);
+        jdbcTemplate.update(
+                "INSERT INTO Company (id, name, parent_company_id) " +
+                        "SELECT * FROM unnest(?::int8[], ?::text[], ?::int8[])",
+                preparedStatement -> {
+                    var connection = preparedStatement.getConnection();
+                    preparedStatement.setArray(1, connection.createArrayOf("int8", idArray));
+                    preparedStatement.setArray(2, connection.createArrayOf("text", nameArray));
+                    preparedStatement.setArray(3, connection.createArrayOf("int8", parentIdArray));
+                }
+        );
+
+        jdbcTemplate.update(
+                "INSERT INTO CompanyClosure (ancestor_id, descendant_id, depth) " +
+                        "SELECT n.id, n.id, 0 FROM unnest(?::int8[]) AS n(id) " +
+                        "UNION ALL " +
+                        "SELECT c.ancestor_id, n.id, c.depth + 1 " +
+                        "FROM unnest(?::int8[], ?::int8[]) AS n(id, parent_company_id) " +
+                        "INNER JOIN CompanyClosure c ON c.descendant_id = n.parent_company_id",
+                preparedStatement -> {
+                    var connection = preparedStatement.getConnection();
+                    preparedStatement.setArray(1, connection.createArrayOf("int8", idArray));
+                    preparedStatement.setArray(2, connection.createArrayOf("int8", idArray));
+                    preparedStatement.setArray(3, connection.createArrayOf("int8", parentIdArray));
+                }
+        );
+
+        return ids;
+    }
+
+    private static int blockCount(int size) {
+        return (size + Company.ID_ALLOCATION_SIZE - 1) / Company.ID_ALLOCATION_SIZE;
+    }
+}
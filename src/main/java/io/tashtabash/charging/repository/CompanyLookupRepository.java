@@ -0,0 +1,16 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Company;
+
+import java.util.List;
+
+
+public interface CompanyLookupRepository {
+    /**
+     * Looks the Companies up in the persistence context and the second-level cache first,
+     * only the rest is selected from the database.
+     *
+     * @return the Companies in the order of {@code ids}, with nulls for the absent ones
+     */
+    List<Company> findAllByIdInOrder(List<Long> ids);
+}
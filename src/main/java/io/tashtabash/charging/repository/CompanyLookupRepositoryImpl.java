@@ -0,0 +1,32 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Company;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+
+public class CompanyLookupRepositoryImpl implements CompanyLookupRepository {
+    // Matches the Stations a page or a search returns at most, which rarely have more distinct owners
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final EntityManager entityManager;
+
+    @Autowired
+    public CompanyLookupRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public List<Company> findAllByIdInOrder(List<Long> ids) {
+        return entityManager.unwrap(Session.class)
+                .byMultipleIds(Company.class)
+                .enableSessionCheck(true)
+                .with(CacheMode.NORMAL)
+                .withBatchSize(LOAD_BATCH_SIZE)
+                .multiLoad(ids);
+    }
+}
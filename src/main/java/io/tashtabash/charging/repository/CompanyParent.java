@@ -0,0 +1,8 @@
+package io.tashtabash.charging.repository;
+
+
+public interface CompanyParent {
+    long getId();
+
+    Long getParentCompanyId();
+}
@@ -1,9 +1,111 @@
 package io.tashtabash.charging.repository;
 
 import io.tashtabash.charging.entity.Company;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface CompanyRepository extends JpaRepository<Company, Long> {
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
 
+
+public interface CompanyRepository extends JpaRepository<Company, Long>, CompanyLookupRepository {
+    // Native writes without a query space make Hibernate drop every second-level cache region,
+    // the closure table isn't mapped to an entity, so naming it keeps the cached entities
+    String CLOSURE_QUERY_SPACE = "CompanyClosure";
+
+    @Modifying(flushAutomatically = true)
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = CLOSURE_QUERY_SPACE))
+    @Query(
+            value = "INSERT INTO CompanyClosure (ancestor_id, descendant_id, depth) VALUES (:companyId, :companyId, 0)",
+            nativeQuery = true
+    )
+    void insertRootIntoClosure(long companyId);
+
+    @Modifying(flushAutomatically = true)
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = CLOSURE_QUERY_SPACE))
+    @Query(
+            value = "INSERT INTO CompanyClosure (ancestor_id, descendant_id, depth) " +
+                    "SELECT ancestor_id, :companyId, depth + 1 FROM CompanyClosure WHERE descendant_id = :parentCompanyId " +
+                    "UNION ALL " +
+                    "SELECT :companyId, :companyId, 0",
+            nativeQuery = true
+    )
+    void insertIntoClosure(long companyId, long parentCompanyId);
+
+    // Removes the paths from the Company's ancestors to its subtree
+    @Modifying(flushAutomatically = true)
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = CLOSURE_QUERY_SPACE))
+    @Query(
+            value = "DELETE FROM CompanyClosure " +
+                    "WHERE descendant_id IN (SELECT descendant_id FROM CompanyClosure WHERE ancestor_id = :companyId) " +
+                    "AND ancestor_id NOT IN (SELECT descendant_id FROM CompanyClosure WHERE ancestor_id = :companyId)",
+            nativeQuery = true
+    )
+    void detachSubtreeInClosure(long companyId);
+
+    @Modifying(flushAutomatically = true)
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = CLOSURE_QUERY_SPACE))
+    @Query(
+            value = "INSERT INTO CompanyClosure (ancestor_id, descendant_id, depth) " +
+                    "SELECT supertree.ancestor_id, subtree.descendant_id, supertree.depth + subtree.depth + 1 " +
+                    "FROM CompanyClosure supertree CROSS JOIN CompanyClosure subtree " +
+                    "WHERE supertree.descendant_id = :parentCompanyId AND subtree.ancestor_id = :companyId",
+            nativeQuery = true
+    )
+    void attachSubtreeInClosure(long companyId, long parentCompanyId);
+
+    @Query(
+            value = "SELECT count(*) > 0 FROM CompanyClosure " +
+                    "WHERE ancestor_id = :ancestorId AND descendant_id = :descendantId",
+            nativeQuery = true
+    )
+    boolean isAncestor(long ancestorId, long descendantId);
+
+    // List reads join the parent in, so expanding it doesn't cost a select per distinct parent
+    @EntityGraph(attributePaths = "parentCompany")
+    @Query("SELECT c FROM Company c")
+    List<Company> findAllWithParentCompany();
+
+    @EntityGraph(attributePaths = "parentCompany")
+    List<Company> findByIdGreaterThanOrderById(long id, Pageable pageable);
+
+    @EntityGraph(attributePaths = "parentCompany")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = StationRepository.STREAM_FETCH_SIZE))
+    @Query("SELECT c FROM Company c")
+    Stream<Company> streamAll();
+
+    @Query("SELECT c.id AS id, p.id AS parentCompanyId FROM Company c LEFT JOIN c.parentCompany p")
+    List<CompanyParent> findAllParents();
+
+    @Query(
+            "SELECT new io.tashtabash.charging.repository.EntityVersion(c.version, p.version) " +
+                    "FROM Company c LEFT JOIN c.parentCompany p WHERE c.id = :id"
+    )
+    Optional<EntityVersion> findVersionById(long id);
+
+    // Changes with every insert, update and delete, unlike max(version) which misses updates of older rows.
+    // Parents are Companies as well, so the checksum covers the expanded ones
+    @Query(
+            value = "SELECT count(*) || '-' || coalesce(sum(hashtextextended(id || ':' || version, 0)), 0) FROM Company",
+            nativeQuery = true
+    )
+    String checksumAll();
+
+    @Query(
+            value = "SELECT count(*) || '-' || coalesce(sum(hashtextextended(" +
+                    "c.id || ':' || c.version || ':' || coalesce(CAST(p.version AS text), ''), 0)), 0) " +
+                    "FROM (SELECT id, version, parent_company_id FROM Company WHERE id > :afterId ORDER BY id LIMIT :limit) c " +
+                    "LEFT JOIN Company p ON p.id = c.parent_company_id",
+            nativeQuery = true
+    )
+    String checksumPage(long afterId, int limit);
 }
@@ -0,0 +1,140 @@
+package io.tashtabash.charging.repository;
+
+import io.micrometer.core.annotation.Timed;
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+
+/**
+ * Updates and deletes a Company in one statement, without loading it first. A missing Company
+ * is reported by an empty result, an unknown parent by the foreign key violation.
+ * The second-level cache isn't aware of these writes: the entries are evicted before the statement,
+ * and {@code EntityCacheEvictor} evicts them again after the commit, like in {@code StationWriteRepository}.
+ */
+@Repository
+public class CompanyWriteRepository {
+    private static final long HIERARCHY_LOCK_KEY = "CompanyClosure".hashCode();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    public CompanyWriteRepository(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Sets the name unless it's null, the parent if {@code changesParent}, and increments the version.
+     * Doesn't touch CompanyClosure.
+     *
+     * @throws org.springframework.dao.DataIntegrityViolationException if there's no Company with {@code parentCompanyId}
+     */
+    @Timed("charging.repository.invocations")
+    public Optional<PatchedCompany> update(long id, String name, boolean changesParent, Long parentCompanyId) {
+        entityManagerFactory.getCache().evict(Company.class, id);
+        // The locked subquery reads the row before the update, RETURNING only sees the new values
+        List<PatchedCompany> companies = jdbcTemplate.query(
+                "UPDATE Company c SET " +
+                        "name = coalesce(?, c.name), " +
+                        "parent_company_id = CASE WHEN ? THEN ? ELSE c.parent_company_id END, " +
+                        "version = c.version + 1 " +
+                        "FROM (SELECT id, parent_company_id FROM Company WHERE id = ? FOR UPDATE) old " +
+                        "WHERE c.id = old.id " +
+                        "RETURNING c.id, c.name, c.parent_company_id, c.version, " +
+                        "old.parent_company_id AS old_parent_company_id",
+                preparedStatement -> {
+                    preparedStatement.setObject(1, name, Types.VARCHAR);
+                    preparedStatement.setBoolean(2, changesParent);
+                    preparedStatement.setObject(3, parentCompanyId, Types.BIGINT);
+                    preparedStatement.setLong(4, id);
+                },
+                (resultSet, i) -> {
+                    Long newParentCompanyId = resultSet.getObject("parent_company_id", Long.class);
+                    var company = new Company(
+                            resultSet.getLong("id"),
+                            resultSet.getString("name"),
+                            newParentCompanyId == null ? null : new Company(newParentCompanyId, null, null)
+                    );
+                    company.setVersion(resultSet.getLong("version"));
+
+                    return new PatchedCompany(company, resultSet.getObject("old_parent_company_id", Long.class));
+                }
+        );
+
+        return companies.stream().findFirst();
+    }
+
+    /**
+     * Waits for the hierarchy changes of other transactions and holds them off until the current one ends.
+     * Inserts only copy the closure of their parent, so they don't need to wait for each other.
+     */
+    @Timed("charging.repository.invocations")
+    public void lockHierarchy(boolean exclusive) {
+        jdbcTemplate.query(
+                exclusive ? "SELECT pg_advisory_xact_lock(?)" : "SELECT pg_advisory_xact_lock_shared(?)",
+                resultSet -> {},
+                HIERARCHY_LOCK_KEY
+        );
+    }
+
+    /**
+     * Deletes the Company, the database cascade takes its subtree, their Stations and CompanyClosure rows.
+     * All parts of the statement read the rows as they were before it, so the deleted rows are still listed.
+     *
+     * @return empty if there's no Company with the id
+     */
+    @Timed("charging.repository.invocations")
+    public Optional<DeletedCompanySubtree> deleteSubtree(long id) {
+        List<Long> companyIds = new ArrayList<>();
+        Map<Long, GeoPoint> stationLocations = new LinkedHashMap<>();
+        // The subtree isn't known before the statement, deletes are rare enough to drop the whole regions
+        Cache cache = entityManagerFactory.getCache();
+        cache.evict(Company.class);
+        cache.evict(Station.class);
+
+        jdbcTemplate.query(
+                "WITH deleted AS (DELETE FROM Company WHERE id = ? RETURNING id), " +
+                        "subtree AS (" +
+                        "SELECT c.descendant_id AS id, c.depth FROM CompanyClosure c " +
+                        "INNER JOIN deleted d ON c.ancestor_id = d.id) " +
+                        "SELECT 'COMPANY' AS kind, id, depth, NULL::float8 AS latitude, NULL::float8 AS longitude " +
+                        "FROM subtree " +
+                        "UNION ALL " +
+                        "SELECT 'STATION', s.id, NULL, s.latitude, s.longitude FROM Station s " +
+                        "INNER JOIN subtree ON s.company_id = subtree.id " +
+                        "ORDER BY kind, depth DESC, id",
+                resultSet -> {
+                    long rowId = resultSet.getLong("id");
+                    if (resultSet.getString("kind").equals("COMPANY")) {
+                        companyIds.add(rowId);
+                    } else {
+                        stationLocations.put(
+                                rowId,
+                                new GeoPoint(resultSet.getDouble("latitude"), resultSet.getDouble("longitude"))
+                        );
+                    }
+                },
+                id
+        );
+
+        if (companyIds.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new DeletedCompanySubtree(companyIds, stationLocations));
+    }
+}
@@ -0,0 +1,13 @@
+package io.tashtabash.charging.repository;
+
+
+import io.tashtabash.charging.geo.GeoPoint;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Rows deleted with a Company: its subtree from the deepest Companies up and the locations of their Stations by id.
+ */
+public record DeletedCompanySubtree(List<Long> companyIds, Map<Long, GeoPoint> stationLocations) {}
@@ -0,0 +1,8 @@
+package io.tashtabash.charging.repository;
+
+
+/**
+ * Version of an entity together with the version of the entity it references,
+ * {@code referenceVersion} is null when there is no reference.
+ */
+public record EntityVersion(long version, Long referenceVersion) {}
@@ -0,0 +1,11 @@
+package io.tashtabash.charging.repository;
+
+
+import io.tashtabash.charging.entity.Company;
+
+
+/**
+ * Company as it was written by {@link CompanyWriteRepository#update}, together with its parent before the update.
+ * The parent reference only carries the id.
+ */
+public record PatchedCompany(Company company, Long oldParentCompanyId) {}
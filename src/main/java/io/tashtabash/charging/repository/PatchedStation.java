@@ -0,0 +1,12 @@
+package io.tashtabash.charging.repository;
+
+
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+
+
+/**
+ * Station as it was written by {@link StationWriteRepository#update}, together with its location before the update.
+ * The Company reference only carries the id.
+ */
+public record PatchedStation(Station station, GeoPoint oldLocation) {}
@@ -0,0 +1,4 @@
+package io.tashtabash.charging.repository;
+
+
+public record StationCluster(long count, double latitude, double longitude) {}
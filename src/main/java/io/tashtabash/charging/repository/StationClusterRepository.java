@@ -0,0 +1,169 @@
+package io.tashtabash.charging.repository;
+
+import io.micrometer.core.annotation.Timed;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+
+/**
+ * Precomputed Station counts and coordinate sums for grid cells of every zoom level
+ * up to {@link #MAX_CLUSTER_ZOOM}. Cell numbering is duplicated in schema.sql.
+ * Changes are appended to StationClusterDelta and folded into the cells later, so concurrent writers
+ * don't contend for the same low-zoom cells. Reads add the deltas not folded yet.
+ */
+@Repository
+public class StationClusterRepository {
+    public static final int MAX_CLUSTER_ZOOM = 15;
+
+    public static final int CELLS_PER_TILE = 4;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public StationClusterRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public static double cellDegrees(int zoom) {
+        return 360.0 / (CELLS_PER_TILE * Math.pow(2, zoom));
+    }
+
+    public static int latitudeCell(double latitude, int zoom) {
+        return (int) Math.floor((latitude + 90) / cellDegrees(zoom));
+    }
+
+    public static int longitudeCell(double longitude, int zoom) {
+        return (int) Math.floor((longitude + 180) / cellDegrees(zoom));
+    }
+
+    @Timed("charging.repository.invocations")
+    public void add(List<GeoPoint> locations) {
+        applyDelta(locations, 1);
+    }
+
+    @Timed("charging.repository.invocations")
+    public void remove(List<GeoPoint> locations) {
+        applyDelta(locations, -1);
+    }
+
+    private void applyDelta(List<GeoPoint> locations, int delta) {
+        if (locations.isEmpty()) {
+            return;
+        }
+
+        Double[] latitudes = locations.stream()
+                .map(GeoPoint::latitude)
+                .toArray(Double[]::new);
+        Double[] longitudes = locations.stream()
+                .map(GeoPoint::longitude)
+                .toArray(Double[]::new);
+
+        jdbcTemplate.update(
+                "INSERT INTO StationClusterDelta (latitude, longitude, delta) " +
+                        "SELECT l.latitude, l.longitude, ? " +
+                        "FROM unnest(?::float8[], ?::float8[]) AS l(latitude, longitude)",
+                preparedStatement -> {
+                    var connection = preparedStatement.getConnection();
+                    preparedStatement.setInt(1, delta);
+                    preparedStatement.setArray(2, connection.createArrayOf("float8", latitudes));
+                    preparedStatement.setArray(3, connection.createArrayOf("float8", longitudes));
+                }
+        );
+    }
+
+    /**
+     * Moves up to {@code limit} of the oldest deltas into the cells in one statement. Deltas locked
+     * by a concurrent fold are skipped, so every delta is folded once.
+     *
+     * @return the number of folded deltas
+     */
+    @Timed("charging.repository.invocations")
+    public int fold(int limit) {
+        return jdbcTemplate.queryForObject(
+                "WITH folded AS (" +
+                        "   DELETE FROM StationClusterDelta WHERE seq IN (" +
+                        "       SELECT seq FROM StationClusterDelta ORDER BY seq LIMIT ? FOR UPDATE SKIP LOCKED" +
+                        "   ) RETURNING latitude, longitude, delta" +
+                        "), " +
+                        "upserted AS (" +
+                        "   INSERT INTO StationCluster AS c " +
+                        "   (zoom, cell_latitude, cell_longitude, station_count, latitude_sum, longitude_sum) " +
+                        "   SELECT z.zoom, " +
+                        "       floor((f.latitude + 90) / (360.0 / (? * 2 ^ z.zoom)))::int, " +
+                        "       floor((f.longitude + 180) / (360.0 / (? * 2 ^ z.zoom)))::int, " +
+                        "       sum(f.delta), sum(f.latitude * f.delta), sum(f.longitude * f.delta) " +
+                        "   FROM folded f " +
+                        "   CROSS JOIN generate_series(0, ?) AS z(zoom) " +
+                        "   GROUP BY 1, 2, 3 " +
+                        "   ON CONFLICT (zoom, cell_latitude, cell_longitude) DO UPDATE SET " +
+                        "       station_count = c.station_count + EXCLUDED.station_count, " +
+                        "       latitude_sum = c.latitude_sum + EXCLUDED.latitude_sum, " +
+                        "       longitude_sum = c.longitude_sum + EXCLUDED.longitude_sum" +
+                        ") " +
+                        "SELECT count(*) FROM folded",
+                Integer.class,
+                limit,
+                CELLS_PER_TILE,
+                CELLS_PER_TILE,
+                MAX_CLUSTER_ZOOM
+        );
+    }
+
+    @Timed("charging.repository.invocations")
+    public List<StationCluster> findInBox(
+            double minLatitude,
+            double minLongitude,
+            double maxLatitude,
+            double maxLongitude,
+            int zoom
+    ) {
+        int minLatitudeCell = latitudeCell(minLatitude, zoom);
+        int maxLatitudeCell = latitudeCell(maxLatitude, zoom);
+        int minLongitudeCell = longitudeCell(minLongitude, zoom);
+        int maxLongitudeCell = longitudeCell(maxLongitude, zoom);
+
+        return jdbcTemplate.query(
+                "SELECT sum(station_count), sum(latitude_sum) / sum(station_count), " +
+                        "   sum(longitude_sum) / sum(station_count) " +
+                        "FROM (" +
+                        "   SELECT cell_latitude, cell_longitude, station_count, latitude_sum, longitude_sum " +
+                        "   FROM StationCluster " +
+                        "   WHERE zoom = ? " +
+                        "   AND cell_latitude BETWEEN ? AND ? " +
+                        "   AND cell_longitude BETWEEN ? AND ? " +
+                        "   UNION ALL " +
+                        "   SELECT d.cell_latitude, d.cell_longitude, d.delta, d.latitude * d.delta, d.longitude * d.delta " +
+                        "   FROM (" +
+                        "       SELECT floor((latitude + 90) / ?)::int AS cell_latitude, " +
+                        "           floor((longitude + 180) / ?)::int AS cell_longitude, " +
+                        "           latitude, longitude, delta " +
+                        "       FROM StationClusterDelta" +
+                        "   ) d " +
+                        "   WHERE d.cell_latitude BETWEEN ? AND ? " +
+                        "   AND d.cell_longitude BETWEEN ? AND ?" +
+                        ") cells " +
+                        "GROUP BY cell_latitude, cell_longitude " +
+                        "HAVING sum(station_count) > 0",
+                (resultSet, i) -> new StationCluster(
+                        resultSet.getLong(1),
+                        resultSet.getDouble(2),
+                        resultSet.getDouble(3)
+                ),
+                zoom,
+                minLatitudeCell,
+                maxLatitudeCell,
+                minLongitudeCell,
+                maxLongitudeCell,
+                cellDegrees(zoom),
+                cellDegrees(zoom),
+                minLatitudeCell,
+                maxLatitudeCell,
+                minLongitudeCell,
+                maxLongitudeCell
+        );
+    }
+}
@@ -0,0 +1,10 @@
+package io.tashtabash.charging.repository;
+
+
+public interface StationLocation {
+    long getId();
+
+    double getLatitude();
+
+    double getLongitude();
+}
@@ -0,0 +1,16 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Station;
+
+import java.util.List;
+
+
+public interface StationLookupRepository {
+    /**
+     * Looks the Stations up in the persistence context and the second-level cache first,
+     * only the rest is selected from the database.
+     *
+     * @return the Stations in the order of {@code ids}, with nulls for the absent ones
+     */
+    List<Station> findAllByIdInOrder(List<Long> ids);
+}
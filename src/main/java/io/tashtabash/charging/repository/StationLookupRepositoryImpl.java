@@ -0,0 +1,33 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Station;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+
+public class StationLookupRepositoryImpl implements StationLookupRepository {
+    // Hibernate's default of 50 ids per select would split a large radius search into dozens of them
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final EntityManager entityManager;
+
+    @Autowired
+    public StationLookupRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public List<Station> findAllByIdInOrder(List<Long> ids) {
+        return entityManager.unwrap(Session.class)
+                .byMultipleIds(Station.class)
+                // Both are off by default, so every call would select all the Stations again
+                .enableSessionCheck(true)
+                .with(CacheMode.NORMAL)
+                .withBatchSize(LOAD_BATCH_SIZE)
+                .multiLoad(ids);
+    }
+}
@@ -0,0 +1,63 @@
+package io.tashtabash.charging.repository;
+
+
+/**
+ * Native Station searches of {@link StationRepository} which the reactive module runs over R2DBC,
+ * both bind the parameters by name.
+ */
+public final class StationQueries {
+    // The earth_box condition is served by station_location_idx, the distance check removes the box corners
+    public static final String SEARCH_IN_RADIUS_ORDER_BY_DISTANCE =
+            "SELECT * FROM Station " +
+                    "WHERE earth_box(ll_to_earth(:latitude, :longitude), :radiusKm * 1000) @> ll_to_earth(latitude, longitude) " +
+                    "AND earth_distance(ll_to_earth(:latitude, :longitude), ll_to_earth(latitude, longitude)) <= :radiusKm * 1000 " +
+                    "ORDER BY earth_distance(ll_to_earth(:latitude, :longitude), ll_to_earth(latitude, longitude))";
+
+    // Requires postgis.sql
+    public static final String SEARCH_IN_RADIUS_ORDER_BY_DISTANCE_POSTGIS =
+            "SELECT * FROM Station " +
+                    "WHERE ST_DWithin(geography(ST_MakePoint(longitude, latitude)), geography(ST_MakePoint(:longitude, :latitude)), :radiusKm * 1000) " +
+                    "ORDER BY ST_Distance(geography(ST_MakePoint(longitude, latitude)), geography(ST_MakePoint(:longitude, :latitude)))";
+
+    public static final String SEARCH_BY_COMPANY =
+            "SELECT s.* FROM Station s " +
+                    "INNER JOIN CompanyClosure c ON s.company_id = c.descendant_id " +
+                    "WHERE c.ancestor_id = :companyId";
+
+    // Seeks by the primary key, so deep pages cost the same as the first one
+    public static final String SEARCH_BY_COMPANY_PAGE =
+            "SELECT s.* FROM Station s " +
+                    "INNER JOIN CompanyClosure c ON s.company_id = c.descendant_id " +
+                    "WHERE c.ancestor_id = :companyId AND s.id > :afterId " +
+                    "ORDER BY s.id " +
+                    "LIMIT :limit";
+
+    // Empty if the Company doesn't exist, the versions of the owners cover the expanded Companies
+    public static final String CHECKSUM_BY_COMPANY =
+            "SELECT count(owned.id) || '-' || coalesce(sum(hashtextextended(" +
+                    "owned.id || ':' || owned.version || ':' || owned.company_version, 0)), 0) " +
+                    "FROM Company root LEFT JOIN LATERAL (" +
+                    "SELECT s.id, s.version, owner.version AS company_version FROM Station s " +
+                    "INNER JOIN CompanyClosure c ON s.company_id = c.descendant_id " +
+                    "INNER JOIN Company owner ON s.company_id = owner.id " +
+                    "WHERE c.ancestor_id = root.id" +
+                    ") owned ON true " +
+                    "WHERE root.id = :companyId " +
+                    "GROUP BY root.id";
+
+    public static final String CHECKSUM_BY_COMPANY_PAGE =
+            "SELECT count(owned.id) || '-' || coalesce(sum(hashtextextended(" +
+                    "owned.id || ':' || owned.version || ':' || owned.company_version, 0)), 0) " +
+                    "FROM Company root LEFT JOIN LATERAL (" +
+                    "SELECT s.id, s.version, owner.version AS company_version FROM Station s " +
+                    "INNER JOIN CompanyClosure c ON s.company_id = c.descendant_id " +
+                    "INNER JOIN Company owner ON s.company_id = owner.id " +
+                    "WHERE c.ancestor_id = root.id AND s.id > :afterId " +
+                    "ORDER BY s.id " +
+                    "LIMIT :limit" +
+                    ") owned ON true " +
+                    "WHERE root.id = :companyId " +
+                    "GROUP BY root.id";
+
+    private StationQueries() {}
+}
@@ -3,29 +3,103 @@ package io.tashtabash.charging.repository;
 import io.tashtabash.charging.entity.Station;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
+
+public interface StationRepository extends JpaRepository<Station, Long>, StationLookupRepository {
+    // Rows fetched per round trip by streaming queries, Postgres only applies it inside a transaction
+    String STREAM_FETCH_SIZE = "1000";
+
+    @Query(value = StationQueries.SEARCH_IN_RADIUS_ORDER_BY_DISTANCE, nativeQuery = true)
+    List<Station> searchInRadiusOrderByDistance(double latitude, double longitude, double radiusKm);
+
+    @Query(value = StationQueries.SEARCH_IN_RADIUS_ORDER_BY_DISTANCE_POSTGIS, nativeQuery = true)
+    List<Station> searchInRadiusOrderByDistancePostgis(double latitude, double longitude, double radiusKm);
 
-public interface StationRepository extends JpaRepository<Station, Long> {
     @Query(
-            value = "SELECT * FROM Station " +
-                    "WHERE point(latitude, longitude) <@> point(:latitude, :longitude) <= :radiusKm " +
-                    "ORDER BY point(latitude, longitude) <@> point(:latitude, :longitude)",
+            value = "SELECT id, latitude, longitude FROM Station " +
+                    "WHERE earth_box(ll_to_earth(:latitude, :longitude), :radiusKm * 1000) @> ll_to_earth(latitude, longitude) " +
+                    "AND earth_distance(ll_to_earth(:latitude, :longitude), ll_to_earth(latitude, longitude)) <= :radiusKm * 1000",
             nativeQuery = true
     )
-    List<Station> searchInRadiusOrderByDistance(double latitude, double longitude, double radiusKm);
+    List<StationLocation> findLocationsInRadius(double latitude, double longitude, double radiusKm);
 
+    // Requires postgis.sql
     @Query(
-            value = "SELECT * FROM Station s WHERE company_id in (" +
-                    "   WITH RECURSIVE company_and_children_ids as (" +
-                    "      SELECT * FROM Company WHERE id = :companyId" +
-                    "      UNION" +
-                    "      SELECT child.* FROM Company child " +
-                    "         INNER JOIN company_and_children_ids parent ON child.parent_company_id = parent.id" +
-                    "   ) SELECT id FROM company_and_children_ids" +
-                    ")",
+            value = "SELECT id, latitude, longitude FROM Station " +
+                    "WHERE ST_DWithin(geography(ST_MakePoint(longitude, latitude)), geography(ST_MakePoint(:longitude, :latitude)), :radiusKm * 1000)",
             nativeQuery = true
     )
+    List<StationLocation> findLocationsInRadiusPostgis(double latitude, double longitude, double radiusKm);
+
+    // <-> is answered by station_location_idx in the distance order, so only k rows are read
+    @Query(
+            value = "SELECT id AS \"id\", " +
+                    "earth_distance(ll_to_earth(:latitude, :longitude), ll_to_earth(latitude, longitude)) / 1000 AS \"distanceKm\" " +
+                    "FROM Station " +
+                    "ORDER BY ll_to_earth(latitude, longitude) <-> ll_to_earth(:latitude, :longitude) " +
+                    "LIMIT :k",
+            nativeQuery = true
+    )
+    List<StationDistance> findNearest(double latitude, double longitude, int k);
+
+    // Requires postgis.sql
+    @Query(
+            value = "SELECT id AS \"id\", " +
+                    "ST_Distance(geography(ST_MakePoint(longitude, latitude)), geography(ST_MakePoint(:longitude, :latitude))) / 1000 AS \"distanceKm\" " +
+                    "FROM Station " +
+                    "ORDER BY geography(ST_MakePoint(longitude, latitude)) <-> geography(ST_MakePoint(:longitude, :latitude)) " +
+                    "LIMIT :k",
+            nativeQuery = true
+    )
+    List<StationDistance> findNearestPostgis(double latitude, double longitude, int k);
+
+    @Query(
+            value = "SELECT * FROM Station " +
+                    "WHERE latitude BETWEEN :minLatitude AND :maxLatitude " +
+                    "AND longitude BETWEEN :minLongitude AND :maxLongitude " +
+                    "LIMIT :limit",
+            nativeQuery = true
+    )
+    List<Station> searchInBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int limit);
+
+    @Query(value = StationQueries.SEARCH_BY_COMPANY, nativeQuery = true)
     List<Station> searchByCompany(long companyId);
+
+    @Query(
+            value = "SELECT s.id FROM Station s " +
+                    "INNER JOIN CompanyClosure c ON s.company_id = c.descendant_id " +
+                    "WHERE c.ancestor_id = :companyId",
+            nativeQuery = true
+    )
+    List<Long> findIdsByCompany(long companyId);
+
+    @Query(value = StationQueries.SEARCH_BY_COMPANY_PAGE, nativeQuery = true)
+    List<Station> searchByCompany(long companyId, long afterId, int limit);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query(value = StationQueries.SEARCH_BY_COMPANY, nativeQuery = true)
+    Stream<Station> streamByCompany(long companyId);
+
+    @Query("SELECT s.id AS id, s.latitude AS latitude, s.longitude AS longitude FROM Station s")
+    List<StationLocation> findAllLocations();
+
+    @Query(
+            "SELECT new io.tashtabash.charging.repository.EntityVersion(s.version, c.version) " +
+                    "FROM Station s INNER JOIN s.company c WHERE s.id = :id"
+    )
+    Optional<EntityVersion> findVersionById(long id);
+
+    @Query(value = StationQueries.CHECKSUM_BY_COMPANY, nativeQuery = true)
+    Optional<String> checksumByCompany(long companyId);
+
+    @Query(value = StationQueries.CHECKSUM_BY_COMPANY_PAGE, nativeQuery = true)
+    Optional<String> checksumByCompany(long companyId, long afterId, int limit);
 }
@@ -0,0 +1,96 @@
+package io.tashtabash.charging.repository;
+
+import io.micrometer.core.annotation.Timed;
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Types;
+import java.util.List;
+import java.util.Optional;
+
+
+/**
+ * Updates and deletes a Station in one statement, without loading it first. A missing Station
+ * is reported by an empty result, an unknown Company by the foreign key violation.
+ * The second-level cache isn't aware of these writes: the entries are evicted before the statement,
+ * so the transaction's own reads see the new row, and {@code EntityCacheEvictor} evicts them again
+ * after the commit, dropping what concurrent reads of the old row have cached meanwhile.
+ */
+@Repository
+public class StationWriteRepository {
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    public StationWriteRepository(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Sets the non-null fields and increments the version.
+     *
+     * @throws org.springframework.dao.DataIntegrityViolationException if there's no Company with {@code companyId}
+     */
+    @Timed("charging.repository.invocations")
+    public Optional<PatchedStation> update(long id, String name, Double latitude, Double longitude, Long companyId) {
+        entityManagerFactory.getCache().evict(Station.class, id);
+        // The locked subquery reads the row before the update, RETURNING only sees the new values
+        List<PatchedStation> stations = jdbcTemplate.query(
+                "UPDATE Station s SET " +
+                        "name = coalesce(?, s.name), " +
+                        "latitude = coalesce(?, s.latitude), " +
+                        "longitude = coalesce(?, s.longitude), " +
+                        "company_id = coalesce(?, s.company_id), " +
+                        "version = s.version + 1 " +
+                        "FROM (SELECT id, latitude, longitude FROM Station WHERE id = ? FOR UPDATE) old " +
+                        "WHERE s.id = old.id " +
+                        "RETURNING s.id, s.name, s.latitude, s.longitude, s.company_id, s.version, " +
+                        "old.latitude AS old_latitude, old.longitude AS old_longitude",
+                preparedStatement -> {
+                    preparedStatement.setObject(1, name, Types.VARCHAR);
+                    preparedStatement.setObject(2, latitude, Types.DOUBLE);
+                    preparedStatement.setObject(3, longitude, Types.DOUBLE);
+                    preparedStatement.setObject(4, companyId, Types.BIGINT);
+                    preparedStatement.setLong(5, id);
+                },
+                (resultSet, i) -> {
+                    var station = new Station(
+                            resultSet.getLong("id"),
+                            resultSet.getString("name"),
+                            resultSet.getDouble("latitude"),
+                            resultSet.getDouble("longitude"),
+                            new Company(resultSet.getLong("company_id"), null, null)
+                    );
+                    station.setVersion(resultSet.getLong("version"));
+
+                    return new PatchedStation(
+                            station,
+                            new GeoPoint(resultSet.getDouble("old_latitude"), resultSet.getDouble("old_longitude"))
+                    );
+                }
+        );
+
+        return stations.stream().findFirst();
+    }
+
+    /**
+     * @return location of the deleted Station, empty if there's no Station with the id
+     */
+    @Timed("charging.repository.invocations")
+    public Optional<GeoPoint> delete(long id) {
+        entityManagerFactory.getCache().evict(Station.class, id);
+        List<GeoPoint> locations = jdbcTemplate.query(
+                "DELETE FROM Station WHERE id = ? RETURNING latitude, longitude",
+                (resultSet, i) -> new GeoPoint(resultSet.getDouble("latitude"), resultSet.getDouble("longitude")),
+                id
+        );
+
+        return locations.stream().findFirst();
+    }
+}
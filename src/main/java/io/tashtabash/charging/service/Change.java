@@ -0,0 +1,13 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+
+
+/**
+ * ChangeLog entry with the current state of the changed entity. The state is null for deletions
+ * and for entities deleted since, in which case a later entry logs the deletion.
+ */
+public record Change(ChangeLogEntry entry, Company company, Station station) {}
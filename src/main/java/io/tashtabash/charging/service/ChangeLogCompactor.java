@@ -0,0 +1,73 @@
+package io.tashtabash.charging.service;
+
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+
+/**
+ * Compacts the ChangeLog every {@code charging.changes.compaction-interval} on the task scheduler, keeping
+ * the entries younger than {@code charging.changes.retention} and the latest entry of every existing entity.
+ * Each instance compacts, the runs are idempotent.
+ */
+@Component
+public class ChangeLogCompactor {
+    private final ChangeLogRepository changeLogRepository;
+
+    private final Duration retention;
+
+    private final Duration interval;
+
+    private final Counter compactedEntries;
+
+    private final TaskScheduler taskScheduler;
+
+    @Autowired
+    public ChangeLogCompactor(
+            ChangeLogRepository changeLogRepository,
+            MeterRegistry meterRegistry,
+            TaskScheduler taskScheduler,
+            @Value("${charging.changes.retention:7d}") Duration retention,
+            @Value("${charging.changes.compaction-interval:1h}") Duration interval
+    ) {
+        this.changeLogRepository = changeLogRepository;
+        this.retention = retention;
+        this.interval = interval;
+        this.compactedEntries = Counter.builder("charging.changes.compacted")
+                .description("ChangeLog entries dropped by the compaction")
+                .register(meterRegistry);
+        this.taskScheduler = taskScheduler;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!interval.isZero()) {
+            taskScheduler.scheduleWithFixedDelay(this::compact, Instant.now().plus(interval), interval);
+        }
+    }
+
+    /**
+     * @return the number of dropped entries, 0 if the database couldn't be reached
+     */
+    public int compact() {
+        try {
+            int compacted = changeLogRepository.compact(retention);
+            compactedEntries.increment(compacted);
+            return compacted;
+        } catch (DataAccessException e) {
+            // The next run retries
+            return 0;
+        }
+    }
+}
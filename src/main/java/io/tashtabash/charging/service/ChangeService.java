@@ -0,0 +1,76 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.datasource.PrimaryPin;
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+import io.tashtabash.charging.repository.ChangeLogEntry.EntityType;
+import io.tashtabash.charging.repository.ChangeLogEntry.Operation;
+import io.tashtabash.charging.repository.ChangeLogPosition;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+@Service
+public class ChangeService {
+    private final ChangeLogRepository changeLogRepository;
+
+    private final CompanyService companyService;
+
+    private final StationService stationService;
+
+    @Autowired
+    public ChangeService(
+            ChangeLogRepository changeLogRepository,
+            CompanyService companyService,
+            StationService stationService
+    ) {
+        this.changeLogRepository = changeLogRepository;
+        this.companyService = companyService;
+        this.stationService = stationService;
+    }
+
+    /**
+     * Reads the changed entities with one select per entity type, whatever the number of entries.
+     *
+     * @throws ExpiredChangeCursorException if the compaction may have dropped deletions after {@code since}
+     *
+     * @return up to {@code limit} changes after {@code since}, in the ChangeLog order
+     */
+    public List<Change> getChanges(ChangeLogPosition since, int limit) {
+        List<ChangeLogEntry> entries;
+        Map<Long, Company> companies;
+        Map<Long, Station> stations;
+        // A replica may not have replayed the logged changes yet, and the cursor moves past them anyway
+        try (var pin = PrimaryPin.pin()) {
+            entries = changeLogRepository.findAfter(since, limit);
+            // After the entries, so a compaction running meanwhile isn't missed
+            if (!since.equals(ChangeLogPosition.START) && since.isBefore(changeLogRepository.findHorizon())) {
+                throw new ExpiredChangeCursorException();
+            }
+            companies = companyService.getCompaniesById(changedIds(entries, EntityType.COMPANY));
+            stations = stationService.getStationsById(changedIds(entries, EntityType.STATION));
+        }
+
+        return entries.stream()
+                .map(entry -> switch (entry.entityType()) {
+                    case COMPANY -> new Change(entry, companies.get(entry.entityId()), null);
+                    case STATION -> new Change(entry, null, stations.get(entry.entityId()));
+                })
+                .toList();
+    }
+
+    private static Set<Long> changedIds(List<ChangeLogEntry> entries, EntityType entityType) {
+        return entries.stream()
+                .filter(entry -> entry.entityType() == entityType && entry.operation() != Operation.DELETE)
+                .map(ChangeLogEntry::entityId)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,20 @@
+package io.tashtabash.charging.service;
+
+
+/**
+ * Published inside the transaction which changed the Company.
+ * Deleting a Company deletes its whole subtree.
+ */
+public record CompanyChangedEvent(long companyId, Long parentCompanyId, boolean created, boolean deleted) {
+    public static CompanyChangedEvent created(long companyId, Long parentCompanyId) {
+        return new CompanyChangedEvent(companyId, parentCompanyId, true, false);
+    }
+
+    public static CompanyChangedEvent saved(long companyId, Long parentCompanyId) {
+        return new CompanyChangedEvent(companyId, parentCompanyId, false, false);
+    }
+
+    public static CompanyChangedEvent deleted(long companyId) {
+        return new CompanyChangedEvent(companyId, null, false, true);
+    }
+}
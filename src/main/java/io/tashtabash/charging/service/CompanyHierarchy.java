@@ -0,0 +1,218 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.datasource.PrimaryPin;
+import io.tashtabash.charging.repository.CompanyParent;
+import io.tashtabash.charging.repository.CompanyRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * In-memory copy of the Company tree, answers hierarchy questions without touching the database.
+ * Loaded on startup and kept in sync by {@link CompanyChangedEvent}s after their transactions commit.
+ */
+@Component
+public class CompanyHierarchy {
+    private final CompanyRepository companyRepository;
+
+    private final boolean enabled;
+
+    // Root Companies are mapped to null
+    private final Map<Long, Long> parents = new HashMap<>();
+
+    private final Map<Long, List<Long>> children = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Buffers the events during a load, null otherwise
+    private List<CompanyChangedEvent> pendingEvents;
+
+    private volatile boolean loaded = false;
+
+    @Autowired
+    public CompanyHierarchy(
+            CompanyRepository companyRepository,
+            @Value("${charging.company.hierarchy.enabled:false}") boolean enabled
+    ) {
+        this.companyRepository = companyRepository;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return whether the hierarchy is enabled and finished loading
+     */
+    public boolean isReady() {
+        return enabled && loaded;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+
+        setPendingEvents(new ArrayList<>());
+        List<CompanyParent> companyParents;
+        // The events keeping it in sync come from the primary, a lagging replica would miss some of them
+        try (var pin = PrimaryPin.pin()) {
+            companyParents = companyRepository.findAllParents();
+        } catch (RuntimeException e) {
+            setPendingEvents(null);
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            parents.clear();
+            children.clear();
+            for (var companyParent : companyParents) {
+                link(companyParent.getId(), companyParent.getParentCompanyId());
+            }
+            // Committed while the parents were read, which may or may not include them. Applying them again is harmless
+            pendingEvents.forEach(this::apply);
+            pendingEvents = null;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCompanyChanged(CompanyChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (pendingEvents != null) {
+                pendingEvents.add(event);
+            } else {
+                apply(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void setPendingEvents(List<CompanyChangedEvent> events) {
+        lock.writeLock().lock();
+        try {
+            pendingEvents = events;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(CompanyChangedEvent event) {
+        if (event.deleted()) {
+            for (long id : collectDescendants(event.companyId())) {
+                unlink(id);
+            }
+            unlink(event.companyId());
+        } else {
+            unlink(event.companyId());
+            link(event.companyId(), event.parentCompanyId());
+        }
+    }
+
+    public boolean contains(long companyId) {
+        lock.readLock().lock();
+        try {
+            return parents.containsKey(companyId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the Company ancestors, from the parent to the root
+     */
+    public List<Long> ancestors(long companyId) {
+        lock.readLock().lock();
+        try {
+            List<Long> ancestors = new ArrayList<>();
+            for (Long id = parents.get(companyId); id != null && ancestors.size() < parents.size(); id = parents.get(id)) {
+                ancestors.add(id);
+            }
+
+            return ancestors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the Company descendants in breadth-first order, without the Company itself
+     */
+    public List<Long> descendants(long companyId) {
+        lock.readLock().lock();
+        try {
+            return collectDescendants(companyId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether making {@code parentCompanyId} the parent of {@code companyId} would create a cycle
+     */
+    public boolean wouldCreateCycle(long companyId, long parentCompanyId) {
+        if (companyId == parentCompanyId) {
+            return true;
+        }
+
+        return ancestors(parentCompanyId).contains(companyId);
+    }
+
+    private List<Long> collectDescendants(long companyId) {
+        List<Long> descendants = new ArrayList<>();
+        var queue = new ArrayDeque<Long>();
+        queue.add(companyId);
+
+        while (!queue.isEmpty()) {
+            for (long childId : children.getOrDefault(queue.poll(), List.of())) {
+                descendants.add(childId);
+                queue.add(childId);
+            }
+        }
+
+        return descendants;
+    }
+
+    private void link(long companyId, Long parentCompanyId) {
+        parents.put(companyId, parentCompanyId);
+        if (parentCompanyId != null) {
+            children.computeIfAbsent(parentCompanyId, k -> new ArrayList<>())
+                    .add(companyId);
+        }
+    }
+
+    private void unlink(long companyId) {
+        Long parentCompanyId = parents.remove(companyId);
+        if (parentCompanyId == null) {
+            return;
+        }
+
+        List<Long> siblings = children.get(parentCompanyId);
+        if (siblings != null) {
+            siblings.remove(Long.valueOf(companyId));
+            if (siblings.isEmpty()) {
+                children.remove(parentCompanyId);
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package io.tashtabash.charging.service;
+
+
+/**
+ * A Company to import, {@code key} identifies it within the import.
+ * At most one of {@code parentKey} and {@code parentCompanyId} is set.
+ */
+public record CompanyImportRow(String key, String name, String parentKey, Long parentCompanyId) {}
@@ -1,39 +1,236 @@
 package io.tashtabash.charging.service;
 
 
+import io.tashtabash.charging.datasource.PrimaryPin;
 import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.repository.ChangeLogEntry.EntityType;
+import io.tashtabash.charging.repository.ChangeLogEntry.Operation;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import io.tashtabash.charging.repository.CompanyBulkRepository;
 import io.tashtabash.charging.repository.CompanyRepository;
+import io.tashtabash.charging.repository.CompanyWriteRepository;
+import io.tashtabash.charging.repository.DeletedCompanySubtree;
+import io.tashtabash.charging.repository.EntityVersion;
+import io.tashtabash.charging.repository.PatchedCompany;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 @Service
 public class CompanyService {
     private final CompanyRepository companyRepository;
 
+    private final CompanyBulkRepository companyBulkRepository;
+
+    private final CompanyWriteRepository companyWriteRepository;
+
+    private final ChangeLogRepository changeLogRepository;
+
+    private final CompanyHierarchy companyHierarchy;
+
+    private final ApplicationEventPublisher eventPublisher;
+
     @Autowired
-    public CompanyService(CompanyRepository companyRepository) {
+    public CompanyService(
+            CompanyRepository companyRepository,
+            CompanyBulkRepository companyBulkRepository,
+            CompanyWriteRepository companyWriteRepository,
+            ChangeLogRepository changeLogRepository,
+            CompanyHierarchy companyHierarchy,
+            ApplicationEventPublisher eventPublisher
+    ) {
         this.companyRepository = companyRepository;
+        this.companyBulkRepository = companyBulkRepository;
+        this.companyWriteRepository = companyWriteRepository;
+        this.changeLogRepository = changeLogRepository;
+        this.companyHierarchy = companyHierarchy;
+        this.eventPublisher = eventPublisher;
     }
 
     @Transactional
     public Company saveCompany(String name, Long parentCompanyId) {
         try {
             var parentCompany = parentCompanyId == null ? null : getCompany(parentCompanyId);
-            var company = new Company(name, parentCompany);
+            if (parentCompanyId != null) {
+                companyWriteRepository.lockHierarchy(false);
+            }
+            var company = companyRepository.save(new Company(name, parentCompany));
+            if (parentCompanyId == null) {
+                companyRepository.insertRootIntoClosure(company.getId());
+            } else {
+                companyRepository.insertIntoClosure(company.getId(), parentCompanyId);
+            }
+            eventPublisher.publishEvent(CompanyChangedEvent.created(company.getId(), parentCompanyId));
+            changeLogRepository.append(EntityType.COMPANY, Operation.INSERT, List.of(company.getId()));
 
-            return companyRepository.save(company);
+            return company;
         } catch (NoCompanyFoundException e) {
             throw new UnprocessableCompanyException("Parent company with id " + parentCompanyId + " doesn't exist");
         }
     }
 
+    /**
+     * Sorts the rows by their parent references and inserts them one hierarchy level
+     * per statement, all in one transaction. Nothing is inserted if any row is invalid.
+     *
+     * @return ids of the inserted Companies by their keys, in the order of {@code rows}
+     */
+    @Transactional
+    public Map<String, Long> saveCompanies(List<CompanyImportRow> rows) {
+        Map<String, CompanyImportRow> rowsByKey = new HashMap<>();
+        Map<String, List<CompanyImportRow>> childrenByParentKey = new HashMap<>();
+        List<CompanyImportRow> level = new ArrayList<>();
+        Set<Long> existingParentIds = new HashSet<>();
+
+        for (var row : rows) {
+            if (row.key() == null || row.key().isBlank()) {
+                throw new IncorrectCompanyFormatException("Company key must not be blank");
+            }
+            if (rowsByKey.put(row.key(), row) != null) {
+                throw new IncorrectCompanyFormatException("Company key '" + row.key() + "' is duplicated");
+            }
+            if (row.parentKey() != null && row.parentCompanyId() != null) {
+                throw new IncorrectCompanyFormatException(
+                        "Company '" + row.key() + "' must reference its parent either by key or by id"
+                );
+            }
+
+            if (row.parentKey() != null) {
+                childrenByParentKey.computeIfAbsent(row.parentKey(), k -> new ArrayList<>())
+                        .add(row);
+            } else {
+                level.add(row);
+            }
+            if (row.parentCompanyId() != null) {
+                existingParentIds.add(row.parentCompanyId());
+            }
+        }
+
+        for (var parentKey : childrenByParentKey.keySet()) {
+            if (!rowsByKey.containsKey(parentKey)) {
+                throw new IncorrectCompanyFormatException("Parent key '" + parentKey + "' doesn't exist");
+            }
+        }
+        existingParentIds.removeAll(getCompaniesById(existingParentIds).keySet());
+        if (!existingParentIds.isEmpty()) {
+            throw new UnprocessableCompanyException("Parent companies with ids " + existingParentIds + " don't exist");
+        }
+
+        // Kahn's algorithm by levels, rows never reached are on a cycle or below one
+        List<List<CompanyImportRow>> levels = new ArrayList<>();
+        int sortedCount = 0;
+        while (!level.isEmpty()) {
+            levels.add(level);
+            sortedCount += level.size();
+            level = level.stream()
+                    .flatMap(row -> childrenByParentKey.getOrDefault(row.key(), List.of()).stream())
+                    .toList();
+        }
+        if (sortedCount < rows.size()) {
+            throw new IncorrectCompanyFormatException("Parent references of the Companies form a cycle");
+        }
+
+        companyWriteRepository.lockHierarchy(false);
+        Map<String, Long> idsByKey = new HashMap<>();
+        List<Long> insertedIds = new ArrayList<>(rows.size());
+        for (var levelRows : levels) {
+            List<String> names = levelRows.stream()
+                    .map(CompanyImportRow::name)
+                    .toList();
+            List<Long> parentCompanyIds = levelRows.stream()
+                    .map(row -> row.parentKey() == null ? row.parentCompanyId() : idsByKey.get(row.parentKey()))
+                    .toList();
+            List<Long> ids = companyBulkRepository.insertAll(names, parentCompanyIds);
+            insertedIds.addAll(ids);
+
+            for (int i = 0; i < levelRows.size(); i++) {
+                idsByKey.put(levelRows.get(i).key(), ids.get(i));
+                eventPublisher.publishEvent(CompanyChangedEvent.created(ids.get(i), parentCompanyIds.get(i)));
+            }
+        }
+
+        // In the level order, so parents are logged before their children
+        changeLogRepository.append(EntityType.COMPANY, Operation.INSERT, insertedIds);
+
+        Map<String, Long> orderedIdsByKey = new LinkedHashMap<>();
+        for (var row : rows) {
+            orderedIdsByKey.put(row.key(), idsByKey.get(row.key()));
+        }
+
+        return orderedIdsByKey;
+    }
+
+    @Transactional(readOnly = true)
     public List<Company> getCompanies() {
-        return companyRepository.findAll();
+        return companyRepository.findAllWithParentCompany();
+    }
+
+    /**
+     * @return up to {@code limit} Companies with ids greater than {@code afterId}, ordered by id
+     */
+    @Transactional(readOnly = true)
+    public List<Company> getCompanies(long afterId, int limit) {
+        return companyRepository.findByIdGreaterThanOrderById(afterId, PageRequest.ofSize(limit));
+    }
+
+    /**
+     * Read from the primary like the versions, so they don't lag behind the cached Companies.
+     *
+     * @return checksum of the ids and versions of all Companies
+     */
+    public String getCompaniesChecksum() {
+        try (var pin = PrimaryPin.pin()) {
+            return companyRepository.checksumAll();
+        }
+    }
+
+    /**
+     * @return checksum of the page returned by {@link #getCompanies(long, int)} and of the parents on it
+     */
+    public String getCompaniesChecksum(long afterId, int limit) {
+        try (var pin = PrimaryPin.pin()) {
+            return companyRepository.checksumPage(afterId, limit);
+        }
+    }
+
+    /**
+     * @return the existing Companies among {@code ids}, by id, the cached ones aren't selected again
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Company> getCompaniesById(Collection<Long> ids) {
+        return companyRepository.findAllByIdInOrder(ids.stream().distinct().toList())
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toMap(Company::getId, Function.identity()));
+    }
+
+    /**
+     * Passes all Companies to the consumer one by one as they are read.
+     * Parents are joined into the same query, so expanding them doesn't cost extra selects.
+     */
+    @Transactional(readOnly = true)
+    public void streamCompanies(Consumer<Company> consumer) {
+        try (var companies = companyRepository.streamAll()) {
+            companies.forEach(consumer);
+        }
     }
 
     public Company getCompany(long id) {
@@ -44,20 +241,48 @@ public class CompanyService {
         );
     }
 
+    // The ETags are compared with the cached Companies, which only the primary fills
+    public Optional<EntityVersion> findCompanyVersion(long id) {
+        try (var pin = PrimaryPin.pin()) {
+            return companyRepository.findVersionById(id);
+        }
+    }
+
     @Transactional
     public Company updateCompany(Company company) {
-        getCompany(company.getId());
+        var oldCompany = getCompany(company.getId());
+        var oldParentCompany = oldCompany.getParentCompany();
+        // PUT replaces the whole Company, the request doesn't carry the version it was read at
+        company.setVersion(oldCompany.getVersion());
+        Long oldParentCompanyId = oldParentCompany == null ? null : oldParentCompany.getId();
 
         try {
+            Long parentCompanyId = null;
             if (company.getParentCompany() != null) {
-                if (company.getParentCompany().getId() == company.getId()) {
+                parentCompanyId = company.getParentCompany().getId();
+                if (parentCompanyId == company.getId()) {
                     throw new IncorrectCompanyFormatException("Company cannot be its own parent");
                 }
 
-                getCompany(company.getParentCompany().getId());
+                checkCompanyExists(parentCompanyId);
+                if (!parentCompanyId.equals(oldParentCompanyId)) {
+                    checkNoCycle(company.getId(), parentCompanyId);
+                }
+            } else if (oldParentCompanyId != null) {
+                companyWriteRepository.lockHierarchy(true);
             }
 
-            return companyRepository.save(company);
+            var updatedCompany = companyRepository.save(company);
+            if (!Objects.equals(oldParentCompanyId, parentCompanyId)) {
+                companyRepository.detachSubtreeInClosure(company.getId());
+                if (parentCompanyId != null) {
+                    companyRepository.attachSubtreeInClosure(company.getId(), parentCompanyId);
+                }
+                eventPublisher.publishEvent(CompanyChangedEvent.saved(company.getId(), parentCompanyId));
+            }
+            changeLogRepository.append(EntityType.COMPANY, Operation.UPDATE, List.of(company.getId()));
+
+            return updatedCompany;
         } catch (NoCompanyFoundException e) {
             long parentCompanyId = company.getParentCompany().getId();
 
@@ -65,10 +290,88 @@ public class CompanyService {
         }
     }
 
+    /**
+     * Sets the name unless it's null and the parent if {@code changesParent}, {@code parentCompanyId}
+     * is null for a root. The Company is updated in one statement, without reading it first.
+     */
+    @Transactional
+    public Company patchCompany(long id, String name, boolean changesParent, Long parentCompanyId) {
+        if (name != null && name.length() > Company.MAX_NAME_LENGTH) {
+            throw new IncorrectCompanyFormatException(
+                    "Company name must not be longer than " + Company.MAX_NAME_LENGTH + " characters"
+            );
+        }
+        if (changesParent && parentCompanyId != null) {
+            if (parentCompanyId == id) {
+                throw new IncorrectCompanyFormatException("Company cannot be its own parent");
+            }
+            // An unknown parent is reported by the foreign key
+            checkNoCycle(id, parentCompanyId);
+        } else if (changesParent) {
+            companyWriteRepository.lockHierarchy(true);
+        }
+
+        PatchedCompany patchedCompany;
+        try {
+            patchedCompany = companyWriteRepository.update(id, name, changesParent, parentCompanyId)
+                    .orElseThrow(() -> new NoCompanyFoundException(id));
+        } catch (DataIntegrityViolationException e) {
+            if (!ForeignKeyViolations.isForeignKeyViolation(e)) {
+                throw e;
+            }
+            throw new UnprocessableCompanyException("Parent company with id " + parentCompanyId + " doesn't exist");
+        }
+        Company company = patchedCompany.company();
+        Long newParentCompanyId = company.getParentCompany() == null ? null : company.getParentCompany().getId();
+
+        if (!Objects.equals(patchedCompany.oldParentCompanyId(), newParentCompanyId)) {
+            companyRepository.detachSubtreeInClosure(id);
+            if (newParentCompanyId != null) {
+                companyRepository.attachSubtreeInClosure(id, newParentCompanyId);
+            }
+        }
+        // Also evicts the cached Company, which the update bypassed
+        eventPublisher.publishEvent(CompanyChangedEvent.saved(id, newParentCompanyId));
+        changeLogRepository.append(EntityType.COMPANY, Operation.UPDATE, List.of(id));
+
+        return company;
+    }
+
     @Transactional
     public void deleteCompany(long id) {
-        getCompany(id);
+        // Stations and CompanyClosure rows of the whole subtree are deleted by the database cascade
+        DeletedCompanySubtree deleted = companyWriteRepository.deleteSubtree(id)
+                .orElseThrow(() -> new NoCompanyFoundException(id));
+        eventPublisher.publishEvent(CompanyChangedEvent.deleted(id));
 
-        companyRepository.deleteById(id);
+        List<StationChangedEvent> stationChanges = deleted.stationLocations()
+                .entrySet()
+                .stream()
+                .map(station -> StationChangedEvent.deleted(station.getKey(), station.getValue()))
+                .toList();
+        eventPublisher.publishEvent(new StationsChangedEvent(stationChanges));
+
+        changeLogRepository.append(EntityType.STATION, Operation.DELETE, List.copyOf(deleted.stationLocations().keySet()));
+        changeLogRepository.append(EntityType.COMPANY, Operation.DELETE, deleted.companyIds());
+    }
+
+    private void checkCompanyExists(long id) {
+        // A miss may be a Company inserted by another instance, the database has the last word
+        if (!companyHierarchy.isReady() || !companyHierarchy.contains(id)) {
+            getCompany(id);
+        }
+    }
+
+    // Two concurrent moves could each pass the check and close a cycle together, so they are serialized.
+    // The in-memory tree only catches up after the other commit, so it can only reject a move
+    private void checkNoCycle(long companyId, long parentCompanyId) {
+        if (companyHierarchy.isReady() && companyHierarchy.wouldCreateCycle(companyId, parentCompanyId)) {
+            throw new IncorrectCompanyFormatException("Company cannot be a descendant of itself");
+        }
+
+        companyWriteRepository.lockHierarchy(true);
+        if (companyRepository.isAncestor(companyId, parentCompanyId)) {
+            throw new IncorrectCompanyFormatException("Company cannot be a descendant of itself");
+        }
     }
 }
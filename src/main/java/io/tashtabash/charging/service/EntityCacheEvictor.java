@@ -0,0 +1,59 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+
+
+/**
+ * Evicts second-level cache entries of rows written past Hibernate: deleted by the database cascade
+ * or patched and deleted by a single statement. Writes made through the entities keep the cache
+ * up to date on their own, evicting their entries too only costs a reload.
+ */
+@Component
+public class EntityCacheEvictor {
+    private final EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    public EntityCacheEvictor(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCompanyChanged(CompanyChangedEvent event) {
+        if (event.deleted()) {
+            // The descendants went with the Company, deletes are rare enough to drop the whole region
+            entityManagerFactory.getCache().evict(Company.class);
+        } else if (!event.created()) {
+            // New Companies can't be stale
+            entityManagerFactory.getCache().evict(Company.class, event.companyId());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationChanged(StationChangedEvent event) {
+        evict(entityManagerFactory.getCache(), event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationsChanged(StationsChangedEvent event) {
+        Cache cache = entityManagerFactory.getCache();
+
+        for (var change : event.changes()) {
+            evict(cache, change);
+        }
+    }
+
+    // New Stations can't be cached yet
+    private static void evict(Cache cache, StationChangedEvent change) {
+        if (change.oldLocation() != null) {
+            cache.evict(Station.class, change.stationId());
+        }
+    }
+}
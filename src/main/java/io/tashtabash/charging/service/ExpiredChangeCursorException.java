@@ -0,0 +1,12 @@
+package io.tashtabash.charging.service;
+
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+
+public class ExpiredChangeCursorException extends ResponseStatusException {
+    public ExpiredChangeCursorException() {
+        super(HttpStatus.GONE, "Deletions after the cursor were compacted, replay the changes from the start");
+    }
+}
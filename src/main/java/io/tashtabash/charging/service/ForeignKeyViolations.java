@@ -0,0 +1,28 @@
+package io.tashtabash.charging.service;
+
+
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.sql.SQLException;
+
+
+final class ForeignKeyViolations {
+    static final String FOREIGN_KEY_VIOLATION_STATE = "23503";
+
+    private ForeignKeyViolations() {}
+
+    /**
+     * @return whether {@code exception} was caused by a row referencing an absent one, rather than
+     * by another constraint such as a too long name
+     */
+    static boolean isForeignKeyViolation(DataIntegrityViolationException exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException
+                    && FOREIGN_KEY_VIOLATION_STATE.equals(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
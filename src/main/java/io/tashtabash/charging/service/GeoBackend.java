@@ -0,0 +1,10 @@
+package io.tashtabash.charging.service;
+
+
+/**
+ * Database extension used for geographic Station queries.
+ */
+public enum GeoBackend {
+    EARTHDISTANCE,
+    POSTGIS
+}
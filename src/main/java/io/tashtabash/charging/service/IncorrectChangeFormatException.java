@@ -0,0 +1,12 @@
+package io.tashtabash.charging.service;
+
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+
+public class IncorrectChangeFormatException extends ResponseStatusException {
+    public IncorrectChangeFormatException(String msg) {
+        super(HttpStatus.BAD_REQUEST, "Incorrect Change request: " + msg);
+    }
+}
@@ -0,0 +1,7 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.entity.Station;
+
+
+public record NearbyStation(Station station, double distanceKm) {}
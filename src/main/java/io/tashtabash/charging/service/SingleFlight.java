@@ -0,0 +1,53 @@
+package io.tashtabash.charging.service;
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+
+/**
+ * Runs at most one call per key at a time: callers arriving while a call with the same key
+ * is in flight wait for it and share its result or exception instead of running their own.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> supplier) {
+        var call = new CompletableFuture<V>();
+        CompletableFuture<V> inFlightCall = calls.putIfAbsent(key, call);
+
+        if (inFlightCall != null) {
+            return join(inFlightCall);
+        }
+
+        try {
+            V result = supplier.get();
+            call.complete(result);
+
+            return result;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+}
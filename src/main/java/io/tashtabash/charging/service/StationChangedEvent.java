@@ -0,0 +1,23 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.geo.GeoPoint;
+
+
+/**
+ * Published inside the transaction which changed the Station.
+ * {@code oldLocation} is null for new Stations, {@code newLocation} is null for deleted ones.
+ */
+public record StationChangedEvent(long stationId, GeoPoint oldLocation, GeoPoint newLocation) {
+    public static StationChangedEvent created(long stationId, GeoPoint location) {
+        return new StationChangedEvent(stationId, null, location);
+    }
+
+    public static StationChangedEvent updated(long stationId, GeoPoint oldLocation, GeoPoint newLocation) {
+        return new StationChangedEvent(stationId, oldLocation, newLocation);
+    }
+
+    public static StationChangedEvent deleted(long stationId, GeoPoint oldLocation) {
+        return new StationChangedEvent(stationId, oldLocation, null);
+    }
+}
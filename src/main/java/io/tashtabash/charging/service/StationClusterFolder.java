@@ -0,0 +1,66 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.repository.StationClusterRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+
+/**
+ * Folds the StationCluster deltas into the cells every {@code charging.station.clusters.fold-interval}
+ * on the task scheduler. Each instance folds, concurrent folds skip each other's deltas.
+ */
+@Component
+public class StationClusterFolder {
+    static final int FOLD_BATCH_SIZE = 10000;
+
+    private final StationClusterRepository stationClusterRepository;
+
+    private final TaskScheduler taskScheduler;
+
+    private final Duration interval;
+
+    @Autowired
+    public StationClusterFolder(
+            StationClusterRepository stationClusterRepository,
+            TaskScheduler taskScheduler,
+            @Value("${charging.station.clusters.fold-interval:1s}") Duration interval
+    ) {
+        this.stationClusterRepository = stationClusterRepository;
+        this.taskScheduler = taskScheduler;
+        this.interval = interval;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!interval.isZero()) {
+            taskScheduler.scheduleWithFixedDelay(this::fold, Instant.now().plus(interval), interval);
+        }
+    }
+
+    /**
+     * @return the number of folded deltas, 0 if the database couldn't be reached
+     */
+    public int fold() {
+        int folded = 0;
+        try {
+            int batch;
+            do {
+                batch = stationClusterRepository.fold(FOLD_BATCH_SIZE);
+                folded += batch;
+            } while (batch == FOLD_BATCH_SIZE);
+        } catch (DataAccessException e) {
+            // The next run retries
+        }
+
+        return folded;
+    }
+}
@@ -0,0 +1,78 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.repository.StationCluster;
+import io.tashtabash.charging.repository.StationClusterRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Objects;
+
+
+@Service
+public class StationClusterService {
+    static final int MAX_CELLS_PER_SIDE = 64;
+
+    private final StationClusterRepository stationClusterRepository;
+
+    @Autowired
+    public StationClusterService(StationClusterRepository stationClusterRepository) {
+        this.stationClusterRepository = stationClusterRepository;
+    }
+
+    // Runs inside the publishing transaction, so the deltas commit together with the Station
+    @EventListener
+    public void onStationChanged(StationChangedEvent event) {
+        if (event.oldLocation() != null) {
+            stationClusterRepository.remove(List.of(event.oldLocation()));
+        }
+        if (event.newLocation() != null) {
+            stationClusterRepository.add(List.of(event.newLocation()));
+        }
+    }
+
+    @EventListener
+    public void onStationsChanged(StationsChangedEvent event) {
+        List<GeoPoint> oldLocations = event.changes()
+                .stream()
+                .map(StationChangedEvent::oldLocation)
+                .filter(Objects::nonNull)
+                .toList();
+        List<GeoPoint> newLocations = event.changes()
+                .stream()
+                .map(StationChangedEvent::newLocation)
+                .filter(Objects::nonNull)
+                .toList();
+
+        stationClusterRepository.remove(oldLocations);
+        stationClusterRepository.add(newLocations);
+    }
+
+    /**
+     * Lowers the zoom until the box spans at most {@link #MAX_CELLS_PER_SIDE} cells per side,
+     * which bounds the number of returned clusters.
+     */
+    public int clusterZoom(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int zoom) {
+        int clusterZoom = Math.min(zoom, StationClusterRepository.MAX_CLUSTER_ZOOM);
+        double maxSpan = Math.max(maxLatitude - minLatitude, maxLongitude - minLongitude);
+
+        while (clusterZoom > 0 && maxSpan / StationClusterRepository.cellDegrees(clusterZoom) > MAX_CELLS_PER_SIDE) {
+            clusterZoom--;
+        }
+
+        return clusterZoom;
+    }
+
+    public List<StationCluster> findClusters(
+            double minLatitude,
+            double minLongitude,
+            double maxLatitude,
+            double maxLongitude,
+            int clusterZoom
+    ) {
+        return stationClusterRepository.findInBox(minLatitude, minLongitude, maxLatitude, maxLongitude, clusterZoom);
+    }
+}
@@ -0,0 +1,4 @@
+package io.tashtabash.charging.service;
+
+
+public record StationImportError(long line, String message) {}
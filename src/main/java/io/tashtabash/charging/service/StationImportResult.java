@@ -0,0 +1,7 @@
+package io.tashtabash.charging.service;
+
+
+import java.util.List;
+
+
+public record StationImportResult(long imported, List<StationImportError> errors) {}
@@ -0,0 +1,7 @@
+package io.tashtabash.charging.service;
+
+
+/**
+ * A Station to import, {@code line} points to its place in the uploaded file.
+ */
+public record StationImportRow(long line, String name, double latitude, double longitude, long companyId) {}
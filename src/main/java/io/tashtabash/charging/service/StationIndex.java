@@ -0,0 +1,175 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.datasource.PrimaryPin;
+import io.tashtabash.charging.geo.PointGrid;
+import io.tashtabash.charging.repository.StationLocation;
+import io.tashtabash.charging.repository.StationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * In-memory copy of Station coordinates, answers radius queries without touching the database.
+ * Loaded on startup and kept in sync by {@link StationChangedEvent}s and {@link StationsChangedEvent}s
+ * after their transactions commit.
+ */
+@Component
+public class StationIndex {
+    private final StationRepository stationRepository;
+
+    private final boolean enabled;
+
+    private final PointGrid grid;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Buffers the events during a load, null otherwise
+    private List<StationChangedEvent> pendingEvents;
+
+    private volatile boolean loaded = false;
+
+    @Autowired
+    public StationIndex(
+            StationRepository stationRepository,
+            @Value("${charging.station.index.enabled:false}") boolean enabled,
+            @Value("${charging.station.index.cell-degrees:0.25}") double cellDegrees
+    ) {
+        this.stationRepository = stationRepository;
+        this.enabled = enabled;
+        this.grid = new PointGrid(cellDegrees);
+    }
+
+    /**
+     * @return whether the index is enabled and finished loading
+     */
+    public boolean isReady() {
+        return enabled && loaded;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+
+        setPendingEvents(new ArrayList<>());
+        List<StationLocation> locations;
+        // The events keeping it in sync come from the primary, a lagging replica would miss some of them
+        try (var pin = PrimaryPin.pin()) {
+            locations = stationRepository.findAllLocations();
+        } catch (RuntimeException e) {
+            setPendingEvents(null);
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            grid.clear();
+            for (var location : locations) {
+                grid.put(location.getId(), location.getLatitude(), location.getLongitude());
+            }
+            // Committed while the locations were read, which may or may not include them. Applying them again is harmless
+            pendingEvents.forEach(this::apply);
+            pendingEvents = null;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationChanged(StationChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            applyOrBuffer(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationsChanged(StationsChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            event.changes().forEach(this::applyOrBuffer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void setPendingEvents(List<StationChangedEvent> events) {
+        lock.writeLock().lock();
+        try {
+            pendingEvents = events;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void applyOrBuffer(StationChangedEvent event) {
+        if (pendingEvents != null) {
+            pendingEvents.add(event);
+        } else {
+            apply(event);
+        }
+    }
+
+    private void apply(StationChangedEvent event) {
+        if (event.newLocation() == null) {
+            grid.remove(event.stationId());
+        } else {
+            grid.put(event.stationId(), event.newLocation().latitude(), event.newLocation().longitude());
+        }
+    }
+
+    public void remove(long stationId) {
+        lock.writeLock().lock();
+        try {
+            grid.remove(stationId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the Stations within the radius, ordered by distance
+     */
+    public List<PointGrid.Hit> searchInRadius(double latitude, double longitude, double radiusKm) {
+        lock.readLock().lock();
+        try {
+            return grid.searchInRadius(latitude, longitude, radiusKm);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the k closest Stations, ordered by distance
+     */
+    public List<PointGrid.Hit> nearest(double latitude, double longitude, int k) {
+        lock.readLock().lock();
+        try {
+            return grid.nearest(latitude, longitude, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.geo.GeoPoint;
+
+
+/**
+ * Change of a Station relative to a subscribed area. {@code location} is the new one,
+ * or the last one inside the area for {@link Kind#REMOVED}.
+ */
+public record StationNotification(Kind kind, long stationId, GeoPoint location, double distanceKm) {
+    public enum Kind {
+        /** Created inside the area or moved into it */
+        ADDED,
+        /** Changed while staying inside the area */
+        UPDATED,
+        /** Deleted inside the area or moved out of it */
+        REMOVED
+    }
+}
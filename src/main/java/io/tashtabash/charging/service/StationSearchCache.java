@@ -0,0 +1,246 @@
+package io.tashtabash.charging.service;
+
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.tashtabash.charging.geo.CircleGrid;
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.geo.PointGrid;
+import io.tashtabash.charging.repository.StationLocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Caches radius search results by the grid cell of the center and the radius rounded up to a power of two.
+ * An entry holds the Stations around the cell center that any search from the cell within the rounded radius
+ * can return, so results are exact and only the entries covering a changed Station are evicted. The entries
+ * are indexed by their circles, one grid per radius bucket, so a change only checks the entries around it.
+ */
+@Component
+public class StationSearchCache {
+    static final double MAX_RADIUS_KM = 512;
+
+    // PostGIS measures on the spheroid, slightly off GeoPoint's sphere
+    static final double RADIUS_MARGIN = 1.01;
+
+    interface LocationLoader {
+        List<StationLocation> findLocationsInRadius(double latitude, double longitude, double radiusKm);
+    }
+
+    record Key(int latitudeCell, int longitudeCell, int radiusBucketKm) {}
+
+    record Location(long id, double latitude, double longitude) {}
+
+    record Entry(GeoPoint center, double radiusKm, List<Location> locations) {}
+
+    private final boolean enabled;
+
+    private final double cellDegrees;
+
+    private final Cache<Key, Entry> cache;
+
+    // Circles of the cached entries by radius bucket, the grid cells are about as wide as the circles
+    private final Map<Integer, CircleGrid<Key>> grids = new HashMap<>();
+
+    // Keys removed from the cache, their circles are dropped from the grids under the lock
+    private final Queue<Key> removals = new ConcurrentLinkedQueue<>();
+
+    // Guards the grids and orders the stores against the invalidations
+    private final Lock lock = new ReentrantLock();
+
+    // Incremented by every invalidation, results read across one aren't stored
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public StationSearchCache(
+            @Value("${charging.station.search-cache.enabled:true}") boolean enabled,
+            @Value("${charging.station.search-cache.cell-degrees:0.01}") double cellDegrees,
+            @Value("${charging.station.search-cache.maximum-weight:1000000}") long maximumWeight,
+            @Value("${charging.station.search-cache.expire-after-write:5m}") Duration expireAfterWrite
+    ) {
+        this.enabled = enabled;
+        this.cellDegrees = cellDegrees;
+        this.cache = Caffeine.newBuilder()
+                // Entries range from a few Stations to whole regions, so they are weighed by their Stations
+                .maximumWeight(maximumWeight)
+                .weigher((Key key, Entry entry) -> 1 + entry.locations().size())
+                .expireAfterWrite(expireAfterWrite)
+                .removalListener((Key key, Entry entry, RemovalCause cause) -> removals.add(key))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return whether searches with the radius are answered through the cache
+     */
+    public boolean accepts(double radiusKm) {
+        return enabled && radiusKm <= MAX_RADIUS_KM;
+    }
+
+    /**
+     * @return ids of the Stations within the radius, ordered by distance
+     */
+    public List<PointGrid.Hit> searchInRadius(
+            double latitude,
+            double longitude,
+            double radiusKm,
+            LocationLoader loader
+    ) {
+        var key = new Key(cell(latitude), cell(longitude), radiusBucketKm(radiusKm));
+        Entry entry = cache.getIfPresent(key);
+
+        if (entry == null) {
+            long invalidationsBefore = invalidations.get();
+            entry = load(key, loader);
+            store(key, entry, invalidationsBefore);
+        }
+
+        return search(entry, latitude, longitude, radiusKm);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationChanged(StationChangedEvent event) {
+        invalidate(List.of(event));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationsChanged(StationsChangedEvent event) {
+        invalidate(event.changes());
+    }
+
+    private void invalidate(List<StationChangedEvent> changes) {
+        if (!enabled || changes.isEmpty()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            invalidations.incrementAndGet();
+            dropRemovedCircles();
+            Set<Key> keys = new HashSet<>();
+            for (var change : changes) {
+                keys.addAll(containing(change.oldLocation()));
+                keys.addAll(containing(change.newLocation()));
+            }
+            for (var key : keys) {
+                grids.get(key.radiusBucketKm()).remove(key);
+            }
+            cache.invalidateAll(keys);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(Key key, Entry entry, long invalidationsBefore) {
+        lock.lock();
+        try {
+            if (invalidations.get() != invalidationsBefore) {
+                return;
+            }
+
+            dropRemovedCircles();
+            cache.put(key, entry);
+            grids.computeIfAbsent(key.radiusBucketKm(), this::newGrid)
+                    .put(key, entry.center().latitude(), entry.center().longitude(), entry.radiusKm() * RADIUS_MARGIN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Key> containing(GeoPoint location) {
+        if (location == null) {
+            return List.of();
+        }
+
+        List<Key> keys = new ArrayList<>();
+        for (var grid : grids.values()) {
+            keys.addAll(grid.containing(location.latitude(), location.longitude()));
+        }
+
+        return keys;
+    }
+
+    // A removed entry may have been replaced by a newer one, whose circle is already in its place
+    private void dropRemovedCircles() {
+        Key key;
+        while ((key = removals.poll()) != null) {
+            CircleGrid<Key> grid = grids.get(key.radiusBucketKm());
+            if (grid != null && cache.asMap().get(key) == null) {
+                grid.remove(key);
+            }
+        }
+    }
+
+    private CircleGrid<Key> newGrid(int radiusBucketKm) {
+        return new CircleGrid<>(Math.max(cellDegrees, Math.toDegrees(radiusBucketKm / GeoPoint.EARTH_RADIUS_KM)));
+    }
+
+    private Entry load(Key key, LocationLoader loader) {
+        var center = new GeoPoint(cellCenter(key.latitudeCell()), cellCenter(key.longitudeCell()));
+        // A search from anywhere in the cell stays within the bucket radius plus the distance to the farthest corner
+        double radiusKm = key.radiusBucketKm() + halfDiagonalKm(center);
+        List<Location> locations = loader.findLocationsInRadius(center.latitude(), center.longitude(), radiusKm * RADIUS_MARGIN)
+                .stream()
+                .map(location -> new Location(location.getId(), location.getLatitude(), location.getLongitude()))
+                .toList();
+
+        return new Entry(center, radiusKm, locations);
+    }
+
+    private static List<PointGrid.Hit> search(Entry entry, double latitude, double longitude, double radiusKm) {
+        return entry.locations()
+                .stream()
+                .map(location -> new PointGrid.Hit(
+                        location.id(),
+                        GeoPoint.distanceKm(latitude, longitude, location.latitude(), location.longitude())
+                ))
+                .filter(hit -> hit.distanceKm() <= radiusKm)
+                .sorted(Comparator.comparingDouble(PointGrid.Hit::distanceKm))
+                .toList();
+    }
+
+    private double halfDiagonalKm(GeoPoint center) {
+        double halfCell = cellDegrees / 2;
+        // The corners closer to the equator are the farthest ones
+        double cornerLatitude = Math.abs(center.latitude() - halfCell) < Math.abs(center.latitude() + halfCell)
+                ? center.latitude() - halfCell
+                : center.latitude() + halfCell;
+
+        return center.distanceKmTo(new GeoPoint(cornerLatitude, center.longitude() + halfCell));
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    private double cellCenter(int cell) {
+        return (cell + 0.5) * cellDegrees;
+    }
+
+    private static int radiusBucketKm(double radiusKm) {
+        int bucket = 1;
+        while (bucket < radiusKm) {
+            bucket *= 2;
+        }
+
+        return bucket;
+    }
+}
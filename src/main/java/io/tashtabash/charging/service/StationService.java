@@ -1,40 +1,181 @@
 package io.tashtabash.charging.service;
 
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.tashtabash.charging.datasource.PrimaryPin;
+import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.geo.PointGrid;
+import io.tashtabash.charging.repository.ChangeLogEntry.EntityType;
+import io.tashtabash.charging.repository.ChangeLogEntry.Operation;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import io.tashtabash.charging.repository.EntityVersion;
+import io.tashtabash.charging.repository.PatchedStation;
+import io.tashtabash.charging.repository.StationBulkRepository;
+import io.tashtabash.charging.repository.StationClusterRepository;
+import io.tashtabash.charging.repository.StationDistance;
+import io.tashtabash.charging.repository.StationLocation;
 import io.tashtabash.charging.repository.StationRepository;
+import io.tashtabash.charging.repository.StationWriteRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.transaction.Transactional;
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 
 @Service
 public class StationService {
+    static final int MAX_VIEWPORT_STATIONS = 1000;
+
+    private record RadiusSearch(double latitude, double longitude, double radiusKm) {}
+
     private final StationRepository stationRepository;
 
+    private final StationBulkRepository stationBulkRepository;
+
+    private final StationWriteRepository stationWriteRepository;
+
+    private final ChangeLogRepository changeLogRepository;
+
     private final CompanyService companyService;
 
+    private final StationIndex stationIndex;
+
+    private final StationSearchCache stationSearchCache;
+
+    private final StationClusterService stationClusterService;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final EntityManager entityManager;
+
+    // The coalesced searches aren't transactional, so their reads are run read-only one by one
+    private final TransactionTemplate readOnlyTransaction;
+
+    private final DistributionSummary radiusResults;
+
+    private final DistributionSummary nearestResults;
+
+    private final DistributionSummary viewportResults;
+
+    private final DistributionSummary companyResults;
+
+    // Identical concurrent searches share the ids found by the first one
+    private final SingleFlight<RadiusSearch, List<Long>> radiusSearches = new SingleFlight<>();
+
+    private final SingleFlight<Long, List<Long>> companySearches = new SingleFlight<>();
+
+    @Value("${charging.station.geo-backend:EARTHDISTANCE}")
+    private GeoBackend geoBackend = GeoBackend.EARTHDISTANCE;
+
     @Autowired
-    public StationService(StationRepository stationRepository, CompanyService companyService) {
+    public StationService(
+            StationRepository stationRepository,
+            StationBulkRepository stationBulkRepository,
+            StationWriteRepository stationWriteRepository,
+            ChangeLogRepository changeLogRepository,
+            CompanyService companyService,
+            StationIndex stationIndex,
+            StationSearchCache stationSearchCache,
+            StationClusterService stationClusterService,
+            ApplicationEventPublisher eventPublisher,
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry
+    ) {
         this.stationRepository = stationRepository;
+        this.stationBulkRepository = stationBulkRepository;
+        this.stationWriteRepository = stationWriteRepository;
+        this.changeLogRepository = changeLogRepository;
         this.companyService = companyService;
+        this.stationIndex = stationIndex;
+        this.stationSearchCache = stationSearchCache;
+        this.stationClusterService = stationClusterService;
+        this.eventPublisher = eventPublisher;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.radiusResults = searchResults(meterRegistry, "radius");
+        this.nearestResults = searchResults(meterRegistry, "nearest");
+        this.viewportResults = searchResults(meterRegistry, "viewport");
+        this.companyResults = searchResults(meterRegistry, "company");
+    }
+
+    private static DistributionSummary searchResults(MeterRegistry meterRegistry, String query) {
+        return DistributionSummary.builder("charging.station.search.results")
+                .description("Stations and clusters returned by a search")
+                .tag("query", query)
+                .register(meterRegistry);
     }
 
     @Transactional
     public Station saveStation(String name, double latitude, double longitude, long companyId) {
         try {
             var company = companyService.getCompany(companyId);
-            var station = new Station(name, latitude, longitude, company);
+            var station = stationRepository.save(new Station(name, latitude, longitude, company));
+
+            eventPublisher.publishEvent(StationChangedEvent.created(station.getId(), locationOf(station)));
+            changeLogRepository.append(EntityType.STATION, Operation.INSERT, List.of(station.getId()));
 
-            return stationRepository.save(station);
+            return station;
         } catch (NoCompanyFoundException e) {
             throw new UnprocessableStationException("Company with id " + companyId + " doesn't exist");
         }
     }
 
+    /**
+     * Inserts the rows with existing Companies in one statement, the rest are reported as errors.
+     * Companies are looked up once for all rows.
+     */
+    @Transactional
+    public StationImportResult importStations(List<StationImportRow> rows) {
+        Set<Long> companyIds = rows.stream()
+                .map(StationImportRow::companyId)
+                .collect(Collectors.toSet());
+        Map<Long, Company> companies = companyService.getCompaniesById(companyIds);
+
+        List<Station> stations = new ArrayList<>(rows.size());
+        List<StationImportError> errors = new ArrayList<>();
+        for (var row : rows) {
+            var company = companies.get(row.companyId());
+
+            if (company == null) {
+                errors.add(new StationImportError(row.line(), "Company with id " + row.companyId() + " doesn't exist"));
+            } else {
+                stations.add(new Station(row.name(), row.latitude(), row.longitude(), company));
+            }
+        }
+
+        List<Long> ids = stationBulkRepository.insertAll(stations);
+        List<StationChangedEvent> changes = new ArrayList<>(stations.size());
+        for (int i = 0; i < stations.size(); i++) {
+            changes.add(StationChangedEvent.created(ids.get(i), locationOf(stations.get(i))));
+        }
+        eventPublisher.publishEvent(new StationsChangedEvent(changes));
+        changeLogRepository.append(EntityType.STATION, Operation.INSERT, ids);
+
+        return new StationImportResult(stations.size(), errors);
+    }
+
     public Station getStation(long id) {
         Optional<Station> station = stationRepository.findById(id);
 
@@ -43,16 +184,42 @@ public class StationService {
         );
     }
 
+    /**
+     * @return the existing Stations among {@code ids}, by id
+     */
+    public Map<Long, Station> getStationsById(Collection<Long> ids) {
+        return stationRepository.findAllById(ids)
+                .stream()
+                .collect(Collectors.toMap(Station::getId, Function.identity()));
+    }
+
+    // The ETags are compared with the cached Stations, which only the primary fills
+    public Optional<EntityVersion> findStationVersion(long id) {
+        try (var pin = PrimaryPin.pin()) {
+            return stationRepository.findVersionById(id);
+        }
+    }
+
     @Transactional
     public Station updateStation(Station station) {
         try {
             Station oldStation = getStation(station.getId());
+            GeoPoint oldLocation = locationOf(oldStation);
+            // PUT replaces the whole Station, the request doesn't carry the version it was read at
+            station.setVersion(oldStation.getVersion());
 
             if (oldStation.getCompany().getId() != station.getCompany().getId()) {
                 companyService.getCompany(station.getCompany().getId());
             }
 
-            return stationRepository.save(station);
+            Station updatedStation = stationRepository.save(station);
+
+            eventPublisher.publishEvent(
+                    StationChangedEvent.updated(updatedStation.getId(), oldLocation, locationOf(updatedStation))
+            );
+            changeLogRepository.append(EntityType.STATION, Operation.UPDATE, List.of(updatedStation.getId()));
+
+            return updatedStation;
         } catch (NoCompanyFoundException e) {
             long companyId = station.getCompany().getId();
 
@@ -60,21 +227,255 @@ public class StationService {
         }
     }
 
+    /**
+     * Sets the non-null fields in one statement, without reading the Station first.
+     */
+    @Transactional
+    public Station patchStation(long id, String name, Double latitude, Double longitude, Long companyId) {
+        if (name != null && name.length() > Station.MAX_NAME_LENGTH) {
+            throw new IncorrectStationFormatException(
+                    "Station name must not be longer than " + Station.MAX_NAME_LENGTH + " characters"
+            );
+        }
+
+        PatchedStation patchedStation;
+        try {
+            patchedStation = stationWriteRepository.update(id, name, latitude, longitude, companyId)
+                    .orElseThrow(() -> new NoStationFoundException(id));
+        } catch (DataIntegrityViolationException e) {
+            if (!ForeignKeyViolations.isForeignKeyViolation(e)) {
+                throw e;
+            }
+            throw new UnprocessableStationException("Company with id " + companyId + " doesn't exist");
+        }
+        Station station = patchedStation.station();
+
+        eventPublisher.publishEvent(
+                StationChangedEvent.updated(id, patchedStation.oldLocation(), locationOf(station))
+        );
+        changeLogRepository.append(EntityType.STATION, Operation.UPDATE, List.of(id));
+
+        return station;
+    }
+
     @Transactional
     public void deleteStation(long id) {
-        getStation(id);
+        GeoPoint location = stationWriteRepository.delete(id)
+                .orElseThrow(() -> new NoStationFoundException(id));
 
-        stationRepository.deleteById(id);
+        eventPublisher.publishEvent(StationChangedEvent.deleted(id, location));
+        changeLogRepository.append(EntityType.STATION, Operation.DELETE, List.of(id));
     }
 
+    // Not transactional, so callers waiting for a coalesced search don't hold a connection
+    @Timed(value = "charging.station.search", extraTags = {"query", "radius"})
     public List<Station> searchInRadiusOrderByDistance(double latitude, double longitude, double radiusKm) {
-        return stationRepository.searchInRadiusOrderByDistance(latitude, longitude, radiusKm);
+        List<Long> ids = stationIndex.isReady()
+                ? idsOf(stationIndex.searchInRadius(latitude, longitude, radiusKm))
+                : radiusSearches.execute(
+                        new RadiusSearch(latitude, longitude, radiusKm),
+                        () -> readOnlyTransaction.execute(status -> searchIdsInRadius(latitude, longitude, radiusKm))
+                );
+        radiusResults.record(ids.size());
+
+        if (stationIndex.isReady()) {
+            return readIndexed(() -> findAllInOrder(ids, true));
+        }
+
+        return readOnlyTransaction.execute(status -> findAllInOrder(ids, false));
     }
 
-    @Transactional
+    @Timed(value = "charging.station.search", extraTags = {"query", "nearest"})
+    public List<NearbyStation> searchNearest(double latitude, double longitude, int k) {
+        if (stationIndex.isReady()) {
+            List<PointGrid.Hit> hits = stationIndex.nearest(latitude, longitude, k);
+            nearestResults.record(hits.size());
+
+            return readIndexed(() -> findAllWithDistances(hits, true));
+        }
+
+        return readOnlyTransaction.execute(status -> {
+            List<StationDistance> distances = switch (geoBackend) {
+                case EARTHDISTANCE -> stationRepository.findNearest(latitude, longitude, k);
+                case POSTGIS -> stationRepository.findNearestPostgis(latitude, longitude, k);
+            };
+            List<PointGrid.Hit> hits = distances.stream()
+                    .map(distance -> new PointGrid.Hit(distance.getId(), distance.getDistanceKm()))
+                    .toList();
+            nearestResults.record(hits.size());
+
+            return findAllWithDistances(hits, false);
+        });
+    }
+
+    /**
+     * Returns the Stations in the box at zooms beyond the precomputed clusters,
+     * unless there are too many of them. Otherwise, returns the clusters.
+     */
+    @Transactional(readOnly = true)
+    @Timed(value = "charging.station.search", extraTags = {"query", "viewport"})
+    public StationViewport searchViewport(
+            double minLatitude,
+            double minLongitude,
+            double maxLatitude,
+            double maxLongitude,
+            int zoom
+    ) {
+        if (zoom > StationClusterRepository.MAX_CLUSTER_ZOOM) {
+            List<Station> stations = stationRepository.searchInBox(
+                    minLatitude,
+                    minLongitude,
+                    maxLatitude,
+                    maxLongitude,
+                    MAX_VIEWPORT_STATIONS + 1
+            );
+
+            if (stations.size() <= MAX_VIEWPORT_STATIONS) {
+                viewportResults.record(stations.size());
+                return new StationViewport(zoom, List.of(), stations);
+            }
+        }
+
+        int clusterZoom = stationClusterService.clusterZoom(minLatitude, minLongitude, maxLatitude, maxLongitude, zoom);
+        var clusters = stationClusterService.findClusters(
+                minLatitude,
+                minLongitude,
+                maxLatitude,
+                maxLongitude,
+                clusterZoom
+        );
+        viewportResults.record(clusters.size());
+
+        return new StationViewport(clusterZoom, clusters, List.of());
+    }
+
+    // Not transactional, so callers waiting for a coalesced search don't hold a connection
+    @Timed(value = "charging.station.search", extraTags = {"query", "company"})
     public List<Station> searchByCompany(long companyId) {
+        List<Long> ids = companySearches.execute(companyId, () -> readOnlyTransaction.execute(status -> {
+            companyService.getCompany(companyId);
+
+            return stationRepository.findIdsByCompany(companyId);
+        }));
+        companyResults.record(ids.size());
+
+        return readOnlyTransaction.execute(status -> findAllInOrder(ids, false));
+    }
+
+    /**
+     * @return up to {@code limit} Stations of the Company subtree with ids greater than {@code afterId}, ordered by id
+     */
+    @Transactional(readOnly = true)
+    public List<Station> searchByCompany(long companyId, long afterId, int limit) {
         companyService.getCompany(companyId);
 
-        return stationRepository.searchByCompany(companyId);
+        return stationRepository.searchByCompany(companyId, afterId, limit);
+    }
+
+    /**
+     * Read from the primary like the versions, so they don't lag behind the cached Stations.
+     *
+     * @return checksum of the Stations of the Company subtree and of their owners' versions,
+     * empty if the Company doesn't exist
+     */
+    public Optional<String> getCompanyStationsChecksum(long companyId) {
+        try (var pin = PrimaryPin.pin()) {
+            return stationRepository.checksumByCompany(companyId);
+        }
+    }
+
+    /**
+     * @return checksum of the page returned by {@link #searchByCompany(long, long, int)},
+     * empty if the Company doesn't exist
+     */
+    public Optional<String> getCompanyStationsChecksum(long companyId, long afterId, int limit) {
+        try (var pin = PrimaryPin.pin()) {
+            return stationRepository.checksumByCompany(companyId, afterId, limit);
+        }
+    }
+
+    /**
+     * Passes the Stations of the Company subtree to the consumer one by one as they are read,
+     * without keeping them in the persistence context.
+     */
+    @Transactional(readOnly = true)
+    public void streamByCompany(long companyId, Consumer<Station> consumer) {
+        try (var stations = stationRepository.streamByCompany(companyId)) {
+            stations.forEach(station -> {
+                consumer.accept(station);
+                entityManager.detach(station);
+            });
+        }
+    }
+
+    private List<Long> searchIdsInRadius(double latitude, double longitude, double radiusKm) {
+        if (stationSearchCache.accepts(radiusKm)) {
+            return idsOf(stationSearchCache.searchInRadius(latitude, longitude, radiusKm, this::loadLocationsInRadius));
+        }
+
+        List<Station> stations = switch (geoBackend) {
+            case EARTHDISTANCE -> stationRepository.searchInRadiusOrderByDistance(latitude, longitude, radiusKm);
+            case POSTGIS -> stationRepository.searchInRadiusOrderByDistancePostgis(latitude, longitude, radiusKm);
+        };
+
+        return stations.stream()
+                .map(Station::getId)
+                .toList();
+    }
+
+    // The cache only drops the results invalidated while they load, older changes must be in the loaded ones
+    private List<StationLocation> loadLocationsInRadius(double latitude, double longitude, double radiusKm) {
+        try (var pin = PrimaryPin.pin()) {
+            return switch (geoBackend) {
+                case EARTHDISTANCE -> stationRepository.findLocationsInRadius(latitude, longitude, radiusKm);
+                case POSTGIS -> stationRepository.findLocationsInRadiusPostgis(latitude, longitude, radiusKm);
+            };
+        }
+    }
+
+    // The index is built from the primary, a lagging replica would miss its newest Stations
+    private <T> T readIndexed(Supplier<T> read) {
+        try (var pin = PrimaryPin.pin()) {
+            return readOnlyTransaction.execute(status -> read.get());
+        }
+    }
+
+    // Stations loaded by a coalesced search are in the second-level cache, so sharing callers rarely select them again
+    private List<Station> findAllInOrder(List<Long> ids, boolean indexed) {
+        List<Station> stations = stationRepository.findAllByIdInOrder(ids);
+        List<Station> foundStations = new ArrayList<>(ids.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            Station station = stations.get(i);
+
+            if (station != null) {
+                foundStations.add(station);
+            } else if (indexed) {
+                // The Station was removed bypassing StationService
+                stationIndex.remove(ids.get(i));
+            }
+        }
+
+        return foundStations;
+    }
+
+    private static List<Long> idsOf(List<PointGrid.Hit> hits) {
+        return hits.stream()
+                .map(PointGrid.Hit::id)
+                .toList();
+    }
+
+    private List<NearbyStation> findAllWithDistances(List<PointGrid.Hit> hits, boolean indexed) {
+        List<Station> stations = findAllInOrder(idsOf(hits), indexed);
+        Map<Long, Double> distances = hits.stream()
+                .collect(Collectors.toMap(PointGrid.Hit::id, PointGrid.Hit::distanceKm));
+
+        return stations.stream()
+                .map(station -> new NearbyStation(station, distances.get(station.getId())))
+                .toList();
+    }
+
+    private static GeoPoint locationOf(Station station) {
+        return new GeoPoint(station.getLatitude(), station.getLongitude());
     }
 }
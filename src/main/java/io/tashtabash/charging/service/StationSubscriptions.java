@@ -0,0 +1,278 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.geo.CircleGrid;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+
+/**
+ * Subscriptions to the Station changes within a radius, matched against {@link StationChangedEvent}s
+ * and {@link StationsChangedEvent}s after their transactions commit, without querying the database.
+ * Each subscription receives its notifications in order, delivered on the executor so that
+ * slow subscribers don't hold up the committing thread.
+ */
+@Component
+public class StationSubscriptions implements AutoCloseable {
+    public interface Subscription {
+        /**
+         * Stops the notifications without calling {@code onDropped}.
+         */
+        void close();
+    }
+
+    private record Match(
+            SubscriptionImpl subscription,
+            StationNotification.Kind kind,
+            long stationId,
+            GeoPoint location
+    ) {}
+
+    private final Executor executor;
+
+    private final int maxQueuedNotifications;
+
+    private final CircleGrid<SubscriptionImpl> grid;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public StationSubscriptions(
+            @Value("${charging.station.subscriptions.delivery-threads:4}") int deliveryThreads,
+            @Value("${charging.station.subscriptions.max-queued-deliveries:10000}") int maxQueuedDeliveries,
+            @Value("${charging.station.subscriptions.cell-degrees:0.25}") double cellDegrees,
+            @Value("${charging.station.subscriptions.max-queued-notifications:1000}") int maxQueuedNotifications
+    ) {
+        this(newDeliveryExecutor(deliveryThreads, maxQueuedDeliveries), cellDegrees, maxQueuedNotifications);
+    }
+
+    public StationSubscriptions(Executor executor, double cellDegrees, int maxQueuedNotifications) {
+        this.executor = executor;
+        this.maxQueuedNotifications = maxQueuedNotifications;
+        this.grid = new CircleGrid<>(cellDegrees);
+    }
+
+    // Slow subscribers only hold up each other, not the shared task executor. A full queue drops the subscription
+    private static ExecutorService newDeliveryExecutor(int threads, int maxQueuedDeliveries) {
+        var threadCount = new AtomicInteger();
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedDeliveries),
+                runnable -> {
+                    var thread = new Thread(runnable, "station-notifications-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    @Override
+    public void close() {
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return grid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param onDropped called when the subscription is dropped for falling more than
+     *                  {@code max-queued-notifications} behind or for the consumer throwing
+     */
+    public Subscription subscribe(
+            double latitude,
+            double longitude,
+            double radiusKm,
+            Consumer<StationNotification> consumer,
+            Runnable onDropped
+    ) {
+        var subscription = new SubscriptionImpl(new GeoPoint(latitude, longitude), consumer, onDropped);
+
+        lock.writeLock().lock();
+        try {
+            grid.put(subscription, latitude, longitude, radiusKm);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return subscription;
+    }
+
+    private void unsubscribe(SubscriptionImpl subscription) {
+        lock.writeLock().lock();
+        try {
+            grid.remove(subscription);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationChanged(StationChangedEvent event) {
+        notifySubscriptions(List.of(event));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStationsChanged(StationsChangedEvent event) {
+        notifySubscriptions(event.changes());
+    }
+
+    private void notifySubscriptions(List<StationChangedEvent> changes) {
+        List<Match> matches = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            for (var change : changes) {
+                Set<SubscriptionImpl> oldMatches = containing(change.oldLocation());
+                Set<SubscriptionImpl> newMatches = containing(change.newLocation());
+
+                for (var subscription : newMatches) {
+                    var kind = oldMatches.contains(subscription)
+                            ? StationNotification.Kind.UPDATED
+                            : StationNotification.Kind.ADDED;
+                    matches.add(new Match(subscription, kind, change.stationId(), change.newLocation()));
+                }
+                for (var subscription : oldMatches) {
+                    if (!newMatches.contains(subscription)) {
+                        matches.add(new Match(
+                                subscription,
+                                StationNotification.Kind.REMOVED,
+                                change.stationId(),
+                                change.oldLocation()
+                        ));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Pushed outside the lock, dropping an overflowing subscription takes the write lock
+        for (var match : matches) {
+            match.subscription().push(match.kind(), match.stationId(), match.location());
+        }
+    }
+
+    private Set<SubscriptionImpl> containing(GeoPoint location) {
+        if (location == null) {
+            return Set.of();
+        }
+
+        return Set.copyOf(grid.containing(location.latitude(), location.longitude()));
+    }
+
+    private class SubscriptionImpl implements Subscription {
+        private final GeoPoint center;
+
+        private final Consumer<StationNotification> consumer;
+
+        private final Runnable onDropped;
+
+        private final Queue<StationNotification> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        // Set while a drain is scheduled or running, so notifications are consumed by one thread at a time
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        SubscriptionImpl(GeoPoint center, Consumer<StationNotification> consumer, Runnable onDropped) {
+            this.center = center;
+            this.consumer = consumer;
+            this.onDropped = onDropped;
+        }
+
+        void push(StationNotification.Kind kind, long stationId, GeoPoint location) {
+            if (closed.get()) {
+                return;
+            }
+            if (queued.incrementAndGet() > maxQueuedNotifications) {
+                drop();
+                return;
+            }
+
+            queue.add(new StationNotification(kind, stationId, location, center.distanceKmTo(location)));
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                drop();
+            }
+        }
+
+        private void drain() {
+            try {
+                StationNotification notification;
+                while (!closed.get() && (notification = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    consumer.accept(notification);
+                }
+            } catch (RuntimeException e) {
+                drop();
+            } finally {
+                draining.set(false);
+            }
+
+            // A notification pushed after the last poll but before the flag was reset
+            if (!closed.get() && !queue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        private void drop() {
+            if (closed.compareAndSet(false, true)) {
+                queue.clear();
+                unsubscribe(this);
+                onDropped.run();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                queue.clear();
+                unsubscribe(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package io.tashtabash.charging.service;
+
+
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.StationCluster;
+
+import java.util.List;
+
+
+/**
+ * Either {@code clusters} or {@code stations} is filled, depending on the zoom and the Station density.
+ */
+public record StationViewport(int zoom, List<StationCluster> clusters, List<Station> stations) {}
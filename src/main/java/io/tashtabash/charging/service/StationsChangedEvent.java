@@ -0,0 +1,11 @@
+package io.tashtabash.charging.service;
+
+
+import java.util.List;
+
+
+/**
+ * Published once by bulk operations instead of a {@link StationChangedEvent} per Station,
+ * so that listeners can apply the changes together.
+ */
+public record StationsChangedEvent(List<StationChangedEvent> changes) {}
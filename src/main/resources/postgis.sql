@@ -0,0 +1,3 @@
+CREATE EXTENSION IF NOT EXISTS postgis;
+
+CREATE INDEX IF NOT EXISTS station_geography_idx ON Station USING gist (geography(ST_MakePoint(longitude, latitude)));
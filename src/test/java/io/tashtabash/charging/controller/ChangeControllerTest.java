@@ -0,0 +1,98 @@
+package io.tashtabash.charging.controller;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+import io.tashtabash.charging.repository.ChangeLogPosition;
+import io.tashtabash.charging.service.Change;
+import io.tashtabash.charging.service.ChangeService;
+import io.tashtabash.charging.service.ExpiredChangeCursorException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+
+@WebMvcTest(ChangeController.class)
+class ChangeControllerTest {
+    @MockBean
+    ChangeService changeService;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    void getChanges() throws Exception {
+        var company = new Company(1, "Name", null);
+        var station = new Station(2, "SName", 0.0, 1.1, company);
+        var since = new ChangeLogPosition(700, 4);
+        when(changeService.getChanges(since, 2))
+                .thenReturn(List.of(
+                        new Change(
+                                new ChangeLogEntry(5, 700, ChangeLogEntry.EntityType.STATION, 2, ChangeLogEntry.Operation.UPDATE, Instant.EPOCH),
+                                null,
+                                station
+                        ),
+                        new Change(
+                                new ChangeLogEntry(6, 701, ChangeLogEntry.EntityType.COMPANY, 3, ChangeLogEntry.Operation.DELETE, Instant.EPOCH),
+                                null,
+                                null
+                        )
+                ));
+
+        mockMvc.perform(get("/changes")
+                        .param("since", PageCursor.encode(since))
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].cursor").value(PageCursor.encode(new ChangeLogPosition(700, 5))))
+                .andExpect(jsonPath("$[0].seq").value(5))
+                .andExpect(jsonPath("$[0].entityType").value("STATION"))
+                .andExpect(jsonPath("$[0].operation").value("UPDATE"))
+                .andExpect(jsonPath("$[0].station.name").value(station.getName()))
+                .andExpect(jsonPath("$[0].station.companyId").value(company.getId()))
+                .andExpect(jsonPath("$[0].company").doesNotExist())
+                .andExpect(jsonPath("$[1].entityId").value(3))
+                .andExpect(jsonPath("$[1].operation").value("DELETE"))
+                .andExpect(jsonPath("$[1].company").doesNotExist());
+    }
+
+    @Test
+    void getChangesReadsFromStartByDefault() throws Exception {
+        mockMvc.perform(get("/changes"))
+                .andExpect(status().isOk());
+
+        verify(changeService, times(1))
+                .getChanges(ChangeLogPosition.START, CompanyController.DEFAULT_PAGE_SIZE);
+    }
+
+    @Test
+    void getChangesThrowsGoneOnCompactedCursor() throws Exception {
+        var since = new ChangeLogPosition(700, 4);
+        when(changeService.getChanges(since, CompanyController.DEFAULT_PAGE_SIZE))
+                .thenThrow(new ExpiredChangeCursorException());
+
+        mockMvc.perform(get("/changes")
+                        .param("since", PageCursor.encode(since)))
+                .andExpect(status().isGone());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"since=-1", "since=aWQ6MQ", "limit=0", "limit=1001"})
+    void getChangesThrowsBadRequestOnIncorrectParameters(String query) throws Exception {
+        mockMvc.perform(get("/changes?" + query))
+                .andExpect(status().isBadRequest());
+        verify(changeService, never())
+                .getChanges(any(), anyInt());
+    }
+}
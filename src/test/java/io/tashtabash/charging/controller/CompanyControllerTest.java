@@ -3,6 +3,7 @@ package io.tashtabash.charging.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.EntityVersion;
 import io.tashtabash.charging.service.*;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -10,13 +11,21 @@ import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -46,7 +55,7 @@ class CompanyControllerTest {
                         .contentType("application/json")
                 ).andExpect(status().isCreated())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(resultCompany)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(resultCompany))));
     }
 
     @Test
@@ -62,7 +71,7 @@ class CompanyControllerTest {
                                 .contentType("application/json")
                 ).andExpect(status().isCreated())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(resultCompany)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(resultCompany))));
     }
 
     @Test
@@ -79,7 +88,7 @@ class CompanyControllerTest {
                                 .contentType("application/json")
                 ).andExpect(status().isCreated())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(resultCompany)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(resultCompany))));
     }
 
     @Test
@@ -109,6 +118,40 @@ class CompanyControllerTest {
         ).andExpect(status().isBadRequest());
     }
 
+    @Test
+    void saveCompanies() throws Exception {
+        var rows = List.of(
+                new CompanyImportRow("root", "Root", null, null),
+                new CompanyImportRow("child", "Child", "root", null)
+        );
+        when(companyService.saveCompanies(rows))
+                .thenReturn(Map.of("root", 1L, "child", 2L));
+
+        var payload = new SaveCompaniesDto(List.of(
+                new SaveCompaniesDto.Item("root", "Root", null, null),
+                new SaveCompaniesDto.Item("child", "Child", "root", null)
+        ));
+        mockMvc.perform(
+                        post("/company/bulk")
+                                .content(objectMapper.writeValueAsString(payload))
+                                .contentType("application/json")
+                ).andExpect(status().isCreated())
+                .andExpect(content().json("{\"root\": 1, \"child\": 2}"));
+    }
+
+    @Test
+    void saveCompaniesThrowsBadRequestOnBlankName() throws Exception {
+        var payload = new SaveCompaniesDto(List.of(new SaveCompaniesDto.Item("root", " ", null, null)));
+
+        mockMvc.perform(
+                        post("/company/bulk")
+                                .content(objectMapper.writeValueAsString(payload))
+                                .contentType("application/json")
+                ).andExpect(status().isBadRequest());
+        verify(companyService, never())
+                .saveCompanies(any());
+    }
+
     @Test
     void getCompanies() throws Exception {
         var parentCompany = new Company(1, "Test 1", null);
@@ -123,7 +166,81 @@ class CompanyControllerTest {
         mockMvc.perform(get("/company"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(expectedCompanies)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyController.toDtos(expectedCompanies, false))));
+    }
+
+    @Test
+    void getCompaniesPage() throws Exception {
+        var expectedCompanies = List.of(
+                new Company(2, "Test 2", null),
+                new Company(3, "Test 3", null)
+        );
+        when(companyService.getCompanies(1, 2))
+                .thenReturn(expectedCompanies);
+
+        mockMvc.perform(get("/company")
+                        .param("after", PageCursor.encode(1))
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(CompanyController.NEXT_CURSOR_HEADER, PageCursor.encode(3)))
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyController.toDtos(expectedCompanies, false))));
+    }
+
+    @Test
+    void getCompaniesLastPageHasNoCursor() throws Exception {
+        var expectedCompanies = List.of(new Company(2, "Test 2", null));
+        when(companyService.getCompanies(0, CompanyController.DEFAULT_PAGE_SIZE))
+                .thenReturn(expectedCompanies);
+
+        mockMvc.perform(get("/company").param("limit", String.valueOf(CompanyController.DEFAULT_PAGE_SIZE)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(CompanyController.NEXT_CURSOR_HEADER))
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyController.toDtos(expectedCompanies, false))));
+    }
+
+    @Test
+    void getCompaniesIsTaggedByChecksum() throws Exception {
+        when(companyService.getCompaniesChecksum())
+                .thenReturn("3-42");
+        when(companyService.getCompanies())
+                .thenReturn(List.of());
+
+        mockMvc.perform(get("/company"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-42\""));
+    }
+
+    @Test
+    void getCompaniesAnswers304OnMatchingETag() throws Exception {
+        when(companyService.getCompaniesChecksum())
+                .thenReturn("3-42");
+
+        mockMvc.perform(get("/company").header(HttpHeaders.IF_NONE_MATCH, "\"3-42\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        verify(companyService, never())
+                .getCompanies();
+    }
+
+    @Test
+    void getCompaniesPageAnswers304OnMatchingETag() throws Exception {
+        when(companyService.getCompaniesChecksum(1, 2))
+                .thenReturn("2-42");
+
+        mockMvc.perform(get("/company")
+                        .param("after", PageCursor.encode(1))
+                        .param("limit", "2")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"2-42\""))
+                .andExpect(status().isNotModified());
+        verify(companyService, never())
+                .getCompanies(anyLong(), anyInt());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"limit=0", "limit=1001", "after=abc", "after=aWQ6eA"})
+    void getCompaniesPageThrowsBadRequestOnIncorrectParameters(String query) throws Exception {
+        mockMvc.perform(get("/company?" + query))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
@@ -135,7 +252,7 @@ class CompanyControllerTest {
         mockMvc.perform(get("/company/1"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(company)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
     }
 
     @Test
@@ -148,7 +265,30 @@ class CompanyControllerTest {
         mockMvc.perform(get("/company/1"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(company)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
+    }
+
+    @Test
+    void getCompanyExpandsParentCompany() throws Exception {
+        var parentCompany = new Company(1, "Parent", null);
+        var company = new Company(2, "N", parentCompany);
+        when(companyService.getCompany(company.getId()))
+                .thenReturn(company);
+        when(companyService.getCompany(parentCompany.getId()))
+                .thenReturn(parentCompany);
+
+        mockMvc.perform(get("/company/2?expand=parentCompany"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.parentCompanyId").value(parentCompany.getId()))
+                .andExpect(jsonPath("$.parentCompany.name").value(parentCompany.getName()));
+    }
+
+    @Test
+    void getCompanyThrowsBadRequestOnUnknownExpand() throws Exception {
+        mockMvc.perform(get("/company/1?expand=company"))
+                .andExpect(status().isBadRequest());
+        verify(companyService, never())
+                .getCompany(anyLong());
     }
 
     @Test
@@ -160,6 +300,62 @@ class CompanyControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void getCompanyIsTaggedByVersions() throws Exception {
+        var parentCompany = new Company(1, "Parent", null);
+        parentCompany.setVersion(7);
+        var company = new Company(2, "N", parentCompany);
+        company.setVersion(3);
+        when(companyService.getCompany(company.getId()))
+                .thenReturn(company);
+        when(companyService.getCompany(parentCompany.getId()))
+                .thenReturn(parentCompany);
+
+        mockMvc.perform(get("/company/2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""));
+        mockMvc.perform(get("/company/2?expand=parentCompany"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-7\""));
+    }
+
+    @Test
+    void getCompanyAnswers304OnMatchingETag() throws Exception {
+        when(companyService.findCompanyVersion(2))
+                .thenReturn(Optional.of(new EntityVersion(3, 7L)));
+
+        mockMvc.perform(get("/company/2?expand=parentCompany").header(HttpHeaders.IF_NONE_MATCH, "\"3-7\""))
+                .andExpect(status().isNotModified());
+        verify(companyService, never())
+                .getCompany(anyLong());
+    }
+
+    @Test
+    void getCompanyAnswersFullResponseOnStaleETag() throws Exception {
+        var company = new Company(2, "N", null);
+        company.setVersion(4);
+        when(companyService.findCompanyVersion(2))
+                .thenReturn(Optional.of(new EntityVersion(4, null)));
+        when(companyService.getCompany(company.getId()))
+                .thenReturn(company);
+
+        mockMvc.perform(get("/company/2").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
+    }
+
+    @Test
+    void getCompanyAnswers404OnETagOfDeletedCompany() throws Exception {
+        when(companyService.findCompanyVersion(1))
+                .thenReturn(Optional.empty());
+        when(companyService.getCompany(1))
+                .thenThrow(new NoCompanyFoundException(1));
+
+        mockMvc.perform(get("/company/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void updateCompany() throws Exception {
         var company = new Company(1, "N", null);
@@ -172,7 +368,7 @@ class CompanyControllerTest {
                                 .contentType("application/json")
                 ).andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(company)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
     }
 
     @Test
@@ -188,7 +384,7 @@ class CompanyControllerTest {
                                 .contentType("application/json")
                 ).andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(company)));
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
     }
 
     @Test
@@ -245,6 +441,71 @@ class CompanyControllerTest {
         ).andExpect(status().isBadRequest());
     }
 
+    @Test
+    void patchCompanyRenames() throws Exception {
+        var company = new Company(1, "New Name", new Company(2, null, null));
+        when(companyService.patchCompany(1, "New Name", false, null))
+                .thenReturn(company);
+
+        mockMvc.perform(
+                        patch("/company/1")
+                                .content("{\"name\": \"New Name\"}")
+                                .contentType("application/json")
+                ).andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
+    }
+
+    @Test
+    void patchCompanyMakesRootOnNullParent() throws Exception {
+        var company = new Company(1, "Name", null);
+        when(companyService.patchCompany(1, null, true, null))
+                .thenReturn(company);
+
+        mockMvc.perform(
+                        patch("/company/1")
+                                .content("{\"parentCompanyId\": null}")
+                                .contentType("application/json")
+                ).andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(CompanyDto.from(company))));
+    }
+
+    @Test
+    void patchCompanyAnswers422OnUnknownParent() throws Exception {
+        when(companyService.patchCompany(1, null, true, 2L))
+                .thenThrow(new UnprocessableCompanyException("Mock message"));
+
+        mockMvc.perform(
+                patch("/company/1")
+                        .content("{\"parentCompanyId\": 2}")
+                        .contentType("application/json")
+        ).andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void patchCompanyAnswers404OnAbsentId() throws Exception {
+        when(companyService.patchCompany(anyLong(), any(), anyBoolean(), any()))
+                .thenThrow(new NoCompanyFoundException(1));
+
+        mockMvc.perform(
+                patch("/company/1")
+                        .content("{\"name\": \"N\"}")
+                        .contentType("application/json")
+        ).andExpect(status().isNotFound());
+    }
+
+    @ParameterizedTest()
+    @ValueSource(strings = { "{}", "{\"name\": \"\"}", "{\"name\": \"\\t\"}" })
+    void patchCompanyAnswers400OnIncorrectData(String body) throws Exception {
+        mockMvc.perform(
+                patch("/company/1")
+                        .content(body)
+                        .contentType("application/json")
+        ).andExpect(status().isBadRequest());
+        verify(companyService, never())
+                .patchCompany(anyLong(), any(), anyBoolean(), any());
+    }
+
     @Test
     void deleteCompany() throws Exception {
         doNothing()
@@ -277,6 +538,105 @@ class CompanyControllerTest {
         mockMvc.perform(get("/company/1/station"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(expectedStations)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationController.toDtos(expectedStations, Map.of()))));
+    }
+
+    @Test
+    void searchOwnedStationsPage() throws Exception {
+        var company = new Company(1, "Test Name", null);
+        var expectedStations = List.of(
+                new Station(5, "SName", 1.0, 0.0, company),
+                new Station(7, "SName", 1.0, 1.0, company)
+        );
+        when(stationService.searchByCompany(company.getId(), 4, 2))
+                .thenReturn(expectedStations);
+
+        mockMvc.perform(get("/company/1/station")
+                        .param("after", PageCursor.encode(4))
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(CompanyController.NEXT_CURSOR_HEADER, PageCursor.encode(7)))
+                .andExpect(content().json(objectMapper.writeValueAsString(StationController.toDtos(expectedStations, Map.of()))));
+    }
+
+    @Test
+    void searchOwnedStationsAnswers304OnMatchingETag() throws Exception {
+        when(stationService.getCompanyStationsChecksum(1))
+                .thenReturn(Optional.of("2-42"));
+
+        mockMvc.perform(get("/company/1/station").header(HttpHeaders.IF_NONE_MATCH, "\"2-42\""))
+                .andExpect(status().isNotModified());
+        verify(stationService, never())
+                .searchByCompany(anyLong());
+    }
+
+    @Test
+    void searchOwnedStationsPageIsTaggedByChecksum() throws Exception {
+        when(stationService.getCompanyStationsChecksum(1, 4, 2))
+                .thenReturn(Optional.of("2-42"));
+        when(stationService.searchByCompany(1, 4, 2))
+                .thenReturn(List.of());
+
+        mockMvc.perform(get("/company/1/station")
+                        .param("after", PageCursor.encode(4))
+                        .param("limit", "2")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"1-42\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-42\""));
+    }
+
+    @Test
+    void streamCompanies() throws Exception {
+        var parentCompany = new Company(1, "Test 1", null);
+        var companies = List.of(parentCompany, new Company(2, "Test 2", parentCompany));
+        doAnswer(invocation -> {
+            Consumer<Company> consumer = invocation.getArgument(0);
+            companies.forEach(consumer);
+            return null;
+        }).when(companyService).streamCompanies(any());
+
+        var result = mockMvc.perform(get("/company").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(
+                        objectMapper.writeValueAsString(CompanyDto.from(companies.get(0))) + "\n" +
+                                objectMapper.writeValueAsString(CompanyDto.from(companies.get(1))) + "\n"
+                ));
+    }
+
+    @Test
+    void streamOwnedStations() throws Exception {
+        var company = new Company(1, "Test Name", null);
+        var station = new Station(1, "SName", 1.0, 0.0, company);
+        when(companyService.getCompany(company.getId()))
+                .thenReturn(company);
+        doAnswer(invocation -> {
+            Consumer<Station> consumer = invocation.getArgument(1);
+            consumer.accept(station);
+            return null;
+        }).when(stationService).streamByCompany(eq(company.getId()), any());
+
+        var result = mockMvc.perform(get("/company/1/station").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(objectMapper.writeValueAsString(StationDto.from(station)) + "\n"));
+    }
+
+    @Test
+    void streamOwnedStationsThrowsNotFoundExceptionOnNoCompany() throws Exception {
+        when(companyService.getCompany(1))
+                .thenThrow(new NoCompanyFoundException(1));
+
+        mockMvc.perform(get("/company/1/station").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isNotFound());
+        verify(stationService, never())
+                .streamByCompany(anyLong(), any());
     }
 }
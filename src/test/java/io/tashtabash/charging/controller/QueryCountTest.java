@@ -0,0 +1,152 @@
+package io.tashtabash.charging.controller;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.CompanyBulkRepository;
+import io.tashtabash.charging.repository.StationBulkRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+
+/**
+ * Counts the statements Hibernate prepares per request, so a fetch plan regression
+ * (e.g. a select per parent Company) fails the build instead of slowing production down.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class QueryCountTest {
+    private static final int HIERARCHY_DEPTH = 5;
+
+    private static final int COMPANIES_PER_LEVEL = 3;
+
+    private static final int STATIONS_PER_COMPANY = 2;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CompanyBulkRepository companyBulkRepository;
+
+    @Autowired
+    private StationBulkRepository stationBulkRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private long rootCompanyId;
+
+    private long leafCompanyId;
+
+    // Each level hangs under the first Company of the previous one, every Company owns Stations near (0, 0)
+    @BeforeEach
+    void insertHierarchy() {
+        List<Station> stations = new ArrayList<>();
+        Long parentCompanyId = null;
+
+        for (int level = 0; level < HIERARCHY_DEPTH; level++) {
+            List<String> names = new ArrayList<>();
+            List<Long> parentCompanyIds = new ArrayList<>();
+            for (int i = 0; i < COMPANIES_PER_LEVEL; i++) {
+                names.add("Company " + level + "-" + i);
+                parentCompanyIds.add(parentCompanyId);
+            }
+
+            List<Long> ids = companyBulkRepository.insertAll(names, parentCompanyIds);
+            for (long id : ids) {
+                for (int i = 0; i < STATIONS_PER_COMPANY; i++) {
+                    stations.add(new Station("Station", 0.001 * stations.size(), 0.0, new Company(id, "", null)));
+                }
+            }
+
+            if (level == 0) {
+                rootCompanyId = ids.get(0);
+            }
+            leafCompanyId = ids.get(0);
+            parentCompanyId = ids.get(0);
+        }
+
+        stationBulkRepository.insertAll(stations);
+    }
+
+    private static List<Arguments> endpointSource() {
+        return List.of(
+                // Lists read their ETag checksum first
+                Arguments.of("/company", 2),
+                Arguments.of("/company?expand=parentCompany", 2),
+                Arguments.of("/company?limit=5&expand=parentCompany", 2),
+                Arguments.of("/company/{leaf}", 1),
+                Arguments.of("/company/{leaf}?expand=parentCompany", 2),
+                // The subtree's Station ids, then the Stations, which a warm second-level cache would serve
+                Arguments.of("/company/{root}/station", 4),
+                Arguments.of("/company/{root}/station?expand=company", 5),
+                Arguments.of("/company/{root}/station?limit=5&expand=company", 4),
+                // A search cache miss reads the locations, then the Stations by id
+                Arguments.of("/station?latitude=0.0&longitude=0.0&radiusKm=100.0", 2),
+                Arguments.of("/station?latitude=0.0&longitude=0.0&radiusKm=100.0&expand=company", 3),
+                // Beyond the search cache the search loads the Stations, the lookup by id finds them in the session
+                Arguments.of("/station?latitude=0.0&longitude=0.0&radiusKm=1000.0", 1),
+                Arguments.of("/station/nearest?latitude=0.0&longitude=0.0&k=10&expand=company", 3)
+        );
+    }
+
+    private String resolve(String uri) {
+        return uri.replace("{root}", String.valueOf(rootCompanyId))
+                .replace("{leaf}", String.valueOf(leafCompanyId));
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpointSource")
+    void endpointPreparesExpectedNumberOfStatements(String uri, long expectedStatements) throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mockMvc.perform(get(resolve(uri)))
+                .andExpect(status().isOk());
+
+        assertEquals(expectedStatements, statistics.getPrepareStatementCount(), uri);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/company",
+            "/company?limit=5&expand=parentCompany",
+            "/company/{leaf}?expand=parentCompany",
+            "/company/{root}/station?expand=company",
+            "/company/{root}/station?limit=5&expand=company"
+    })
+    void unchangedEndpointAnswers304WithoutLoadingEntities(String uri) throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        String eTag = mockMvc.perform(get(resolve(uri)))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+        statistics.clear();
+
+        mockMvc.perform(get(resolve(uri)).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        assertEquals(1, statistics.getPrepareStatementCount(), uri);
+        assertEquals(0, statistics.getEntityLoadCount(), uri);
+    }
+}
@@ -3,24 +3,48 @@ package io.tashtabash.charging.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.service.CompanyService;
+import io.tashtabash.charging.service.NearbyStation;
 import io.tashtabash.charging.service.NoStationFoundException;
+import io.tashtabash.charging.repository.EntityVersion;
+import io.tashtabash.charging.repository.StationCluster;
+import io.tashtabash.charging.service.StationImportError;
+import io.tashtabash.charging.service.StationImportResult;
+import io.tashtabash.charging.service.StationImportRow;
+import io.tashtabash.charging.service.StationNotification;
 import io.tashtabash.charging.service.StationService;
+import io.tashtabash.charging.service.StationSubscriptions;
+import io.tashtabash.charging.service.StationViewport;
 import io.tashtabash.charging.service.UnprocessableStationException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.mockito.ArgumentCaptor;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -29,6 +53,12 @@ class StationControllerTest {
     @MockBean
     StationService stationService;
 
+    @MockBean
+    CompanyService companyService;
+
+    @MockBean
+    StationSubscriptions stationSubscriptions;
+
     ObjectMapper objectMapper = new ObjectMapper();
 
     @Autowired
@@ -75,7 +105,7 @@ class StationControllerTest {
                         .contentType("application/json")
                 ).andExpect(status().isCreated())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(station)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationDto.from(station))));
     }
 
     @Test
@@ -139,7 +169,7 @@ class StationControllerTest {
                         .characterEncoding("UTF-8")
                 ).andExpect(status().isCreated())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(station)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationDto.from(station))));
     }
 
     @ParameterizedTest()
@@ -164,7 +194,38 @@ class StationControllerTest {
         mockMvc.perform(get("/station/2"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(station)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationDto.from(station))));
+    }
+
+    @Test
+    void getStationIsTaggedByVersions() throws Exception {
+        var company = new Company(5, "Test Name", null);
+        company.setVersion(7);
+        var station = new Station(2, "SName", 0.0, 1.1, company);
+        station.setVersion(3);
+        when(stationService.getStation(station.getId()))
+                .thenReturn(station);
+        when(companyService.getCompany(company.getId()))
+                .thenReturn(company);
+
+        mockMvc.perform(get("/station/2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""));
+        mockMvc.perform(get("/station/2?expand=company"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-7\""));
+    }
+
+    @Test
+    void getStationAnswers304OnMatchingETag() throws Exception {
+        when(stationService.findStationVersion(2))
+                .thenReturn(Optional.of(new EntityVersion(3, 7L)));
+
+        mockMvc.perform(get("/station/2").header(HttpHeaders.IF_NONE_MATCH, "\"1\", \"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""));
+        verify(stationService, never())
+                .getStation(anyLong());
     }
 
     @Test
@@ -189,7 +250,33 @@ class StationControllerTest {
         mockMvc.perform(get("/station?latitude=0.0&longitude=0.0&radiusKm=200.0"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(expectedStations)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationController.toDtos(expectedStations, Map.of()))))
+                .andExpect(jsonPath("$[0].companyId").value(company.getId()))
+                .andExpect(jsonPath("$[0].company").doesNotExist());
+    }
+
+    @Test
+    void getStationsInRadiusExpandsCompany() throws Exception {
+        var company = new Company(5, "Test Name", null);
+        var expectedStations = List.of(new Station(1, "SName", 1.0, 0.0, company));
+        when(stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0))
+                .thenReturn(expectedStations);
+        when(companyService.getCompaniesById(Set.of(company.getId())))
+                .thenReturn(Map.of(company.getId(), company));
+
+        mockMvc.perform(get("/station?latitude=0.0&longitude=0.0&radiusKm=200.0&expand=company"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        StationController.toDtos(expectedStations, Map.of(company.getId(), company))
+                )))
+                .andExpect(jsonPath("$[0].company.name").value(company.getName()));
+    }
+
+    @Test
+    void getStationsInRadiusThrow400OnUnknownExpand() throws Exception {
+        mockMvc.perform(get("/station?latitude=0.0&longitude=0.0&radiusKm=200.0&expand=owner"))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
@@ -205,6 +292,124 @@ class StationControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void getNearestStations() throws Exception {
+        var company = new Company(5, "Test Name", null);
+        var expectedStations = List.of(
+                new NearbyStation(new Station(1, "SName", 1.0, 0.0, company), 111.2),
+                new NearbyStation(new Station(2, "SName", 1.0, 1.0, company), 157.2)
+        );
+        when(stationService.searchNearest(0.0, 0.0, 2))
+                .thenReturn(expectedStations);
+
+        mockMvc.perform(get("/station/nearest?latitude=0.0&longitude=0.0&k=2"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        expectedStations.stream()
+                                .map(station -> NearbyStationDto.from(station, null))
+                                .toList()
+                )));
+    }
+
+    @ParameterizedTest()
+    @ValueSource(ints = { -1, 0, StationController.MAX_NEAREST_STATIONS + 1 })
+    void getNearestStationsThrow400OnIncorrectK(int k) throws Exception {
+        mockMvc.perform(get("/station/nearest?latitude=0.0&longitude=0.0&k=" + k))
+                .andExpect(status().isBadRequest());
+    }
+
+    @ParameterizedTest()
+    @MethodSource({ "incorrectCoordinatesSource" })
+    void getNearestStationsThrow400OnIncorrectCoordinates(double latitude, double longitude) throws Exception {
+        mockMvc.perform(get("/station/nearest?latitude=" + latitude + "&longitude=" + longitude + "&k=10"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void subscribeStreamsNotifications() throws Exception {
+        var consumer = ArgumentCaptor.forClass(Consumer.class);
+        when(stationSubscriptions.subscribe(eq(0.0), eq(0.0), eq(50.0), consumer.capture(), any()))
+                .thenReturn(mock(StationSubscriptions.Subscription.class));
+
+        var result = mockMvc.perform(get("/station/subscribe?latitude=0.0&longitude=0.0&radiusKm=50.0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        consumer.getValue().accept(new StationNotification(
+                StationNotification.Kind.ADDED,
+                1,
+                new GeoPoint(0.1, 0.0),
+                11.1
+        ));
+
+        assertThat(result.getResponse().getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+        assertThat(result.getResponse().getContentAsString())
+                .contains("event:added")
+                .contains("data:{\"stationId\":1,\"latitude\":0.1,\"longitude\":0.0,\"distanceKm\":11.1}");
+    }
+
+    @Test
+    void subscribeThrow400OnNegativeRadius() throws Exception {
+        mockMvc.perform(get("/station/subscribe?latitude=0.0&longitude=0.0&radiusKm=-1"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(stationSubscriptions);
+    }
+
+    @ParameterizedTest()
+    @MethodSource({ "incorrectCoordinatesSource" })
+    void subscribeThrow400OnIncorrectCoordinates(double latitude, double longitude) throws Exception {
+        mockMvc.perform(get("/station/subscribe?latitude=" + latitude + "&longitude=" + longitude + "&radiusKm=50"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getViewportClusters() throws Exception {
+        var viewport = new StationViewport(
+                3,
+                List.of(new StationCluster(10, 1.0, 2.0), new StationCluster(1, 5.0, 5.0)),
+                List.of()
+        );
+        when(stationService.searchViewport(0.0, 0.0, 10.0, 10.0, 3))
+                .thenReturn(viewport);
+
+        mockMvc.perform(get("/station/viewport?minLat=0.0&minLon=0.0&maxLat=10.0&maxLon=10.0&zoom=3"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(content().json(objectMapper.writeValueAsString(StationViewportDto.from(viewport, Map.of()))));
+    }
+
+    @Test
+    void getViewportStations() throws Exception {
+        var company = new Company(5, "Test Name", null);
+        var viewport = new StationViewport(
+                18,
+                List.of(),
+                List.of(new Station(1, "SName", 1.0, 1.001, company))
+        );
+        when(stationService.searchViewport(1.0, 1.0, 1.01, 1.01, 18))
+                .thenReturn(viewport);
+
+        mockMvc.perform(get("/station/viewport?minLat=1.0&minLon=1.0&maxLat=1.01&maxLon=1.01&zoom=18"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(content().json(objectMapper.writeValueAsString(StationViewportDto.from(viewport, Map.of()))));
+    }
+
+    @ParameterizedTest()
+    @ValueSource(strings = {
+            "minLat=10.0&minLon=0.0&maxLat=0.0&maxLon=10.0&zoom=3",
+            "minLat=0.0&minLon=10.0&maxLat=10.0&maxLon=0.0&zoom=3",
+            "minLat=0.0&minLon=0.0&maxLat=100.0&maxLon=10.0&zoom=3",
+            "minLat=0.0&minLon=0.0&maxLat=10.0&maxLon=10.0&zoom=-1",
+            "minLat=0.0&minLon=0.0&maxLat=10.0&maxLon=10.0&zoom=23"
+    })
+    void getViewportThrow400OnIncorrectParameters(String parameters) throws Exception {
+        mockMvc.perform(get("/station/viewport?" + parameters))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void updateStation() throws Exception {
         var company = new Company(5, "Test Name", null);
@@ -218,7 +423,7 @@ class StationControllerTest {
                                 .contentType("application/json")
                 ).andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(station)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationDto.from(station))));
     }
 
     @Test
@@ -276,7 +481,7 @@ class StationControllerTest {
                                 .contentType("application/json")
                 ).andExpect(status().isOk())
                 .andExpect(content().contentType("application/json"))
-                .andExpect(content().json(objectMapper.writeValueAsString(station)));
+                .andExpect(content().json(objectMapper.writeValueAsString(StationDto.from(station))));
     }
 
     @ParameterizedTest()
@@ -294,6 +499,63 @@ class StationControllerTest {
         ).andExpect(status().isBadRequest());
     }
 
+    @Test
+    void patchStation() throws Exception {
+        var station = new Station(2, "SName", 0.0, 1.1, new Company(5, null, null));
+        when(stationService.patchStation(2, null, null, 1.1, 5L))
+                .thenReturn(station);
+
+        mockMvc.perform(
+                        patch("/station/2")
+                                .content("{\"longitude\": 1.1, \"companyId\": 5}")
+                                .contentType("application/json")
+                ).andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(content().json(objectMapper.writeValueAsString(StationDto.from(station))));
+    }
+
+    @Test
+    void patchStationAnswers422OnUnknownCompany() throws Exception {
+        when(stationService.patchStation(2, null, null, null, 5L))
+                .thenThrow(new UnprocessableStationException("Mock message"));
+
+        mockMvc.perform(
+                patch("/station/2")
+                        .content("{\"companyId\": 5}")
+                        .contentType("application/json")
+        ).andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void patchStationAnswers404OnAbsentId() throws Exception {
+        when(stationService.patchStation(anyLong(), any(), any(), any(), any()))
+                .thenThrow(new NoStationFoundException(2));
+
+        mockMvc.perform(
+                patch("/station/2")
+                        .content("{\"name\": \"SName\"}")
+                        .contentType("application/json")
+        ).andExpect(status().isNotFound());
+    }
+
+    @ParameterizedTest()
+    @ValueSource(strings = {
+            "{}",
+            "{\"name\": \"  \"}",
+            "{\"latitude\": 90.1}",
+            "{\"longitude\": -180.1}",
+            "{\"name\": \"SName\", \"latitude\": -91}"
+    })
+    void patchStationAnswers400OnIncorrectData(String body) throws Exception {
+        mockMvc.perform(
+                patch("/station/2")
+                        .content(body)
+                        .contentType("application/json")
+        ).andExpect(status().isBadRequest());
+        verify(stationService, never())
+                .patchStation(anyLong(), any(), any(), any(), any());
+    }
+
     @Test
     void deleteStation() throws Exception {
         doNothing()
@@ -312,4 +574,112 @@ class StationControllerTest {
         mockMvc.perform(delete("/station/1"))
                 .andExpect(status().isNotFound());
     }
+
+    @Test
+    void importStationsFromCsv() throws Exception {
+        when(stationService.importStations(any()))
+                .thenAnswer(invocation -> {
+                    List<StationImportRow> rows = invocation.getArgument(0);
+                    return new StationImportResult(rows.size() - 1, List.of(new StationImportError(4, "No Company")));
+                });
+        var csv = StationImportParser.CSV_HEADER + "\n" +
+                "First,1.0,2.0,1\n" +
+                "\"Second, quoted\",91.0,2.0,1\n" +
+                "Third,1.0,2.0,7\n" +
+                "Fourth,abc,2.0,1\n" +
+                "Fifth,-1.0,-2.0,1\n";
+
+        mockMvc.perform(post("/station/bulk")
+                        .contentType(StationController.TEXT_CSV_VALUE)
+                        .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.failed").value(3))
+                .andExpect(jsonPath("$.errors[*].line", contains(3, 5, 4)));
+        verify(stationService, times(1))
+                .importStations(List.of(
+                        new StationImportRow(2, "First", 1.0, 2.0, 1),
+                        new StationImportRow(4, "Third", 1.0, 2.0, 7),
+                        new StationImportRow(6, "Fifth", -1.0, -2.0, 1)
+                ));
+    }
+
+    @Test
+    void importStationsFromNdjson() throws Exception {
+        when(stationService.importStations(any()))
+                .thenReturn(new StationImportResult(1, List.of()));
+        var ndjson = "{\"name\": \"First\", \"latitude\": 1.0, \"longitude\": 2.0, \"companyId\": 1}\n" +
+                "{\"name\": \"Second\", \"latitude\": 1.0, \"companyId\": 1}\n" +
+                "{broken\n";
+
+        mockMvc.perform(post("/station/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1))
+                .andExpect(jsonPath("$.failed").value(2))
+                .andExpect(jsonPath("$.errors[*].line", contains(2, 3)));
+        verify(stationService, times(1))
+                .importStations(List.of(new StationImportRow(1, "First", 1.0, 2.0, 1)));
+    }
+
+    @Test
+    void importStationsSplitsIntoChunks() throws Exception {
+        when(stationService.importStations(any()))
+                .thenAnswer(invocation -> new StationImportResult(((List<?>) invocation.getArgument(0)).size(), List.of()));
+        var csv = "Name,1.0,2.0,1\n".repeat(StationController.IMPORT_CHUNK_SIZE + 1);
+
+        mockMvc.perform(post("/station/bulk")
+                        .contentType(StationController.TEXT_CSV_VALUE)
+                        .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(StationController.IMPORT_CHUNK_SIZE + 1));
+        verify(stationService, times(2))
+                .importStations(any());
+    }
+
+    @Test
+    void importStationsReportsTooLongNames() throws Exception {
+        when(stationService.importStations(any()))
+                .thenReturn(new StationImportResult(1, List.of()));
+        var csv = "First,1.0,2.0,1\n" +
+                "N".repeat(Station.MAX_NAME_LENGTH + 1) + ",1.0,2.0,1\n";
+
+        mockMvc.perform(post("/station/bulk")
+                        .contentType(StationController.TEXT_CSV_VALUE)
+                        .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.errors[0].line").value(2));
+        verify(stationService, times(1))
+                .importStations(List.of(new StationImportRow(1, "First", 1.0, 2.0, 1)));
+    }
+
+    @Test
+    void importStationsReportsFailedChunkAndKeepsCommittedCount() throws Exception {
+        when(stationService.importStations(any()))
+                .thenAnswer(invocation -> new StationImportResult(((List<?>) invocation.getArgument(0)).size(), List.of()))
+                .thenThrow(new DataIntegrityViolationException("Chunk failed"));
+        var csv = "Name,1.0,2.0,1\n".repeat(StationController.IMPORT_CHUNK_SIZE + 2);
+
+        mockMvc.perform(post("/station/bulk")
+                        .contentType(StationController.TEXT_CSV_VALUE)
+                        .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(StationController.IMPORT_CHUNK_SIZE))
+                .andExpect(jsonPath("$.failed").value(2))
+                .andExpect(jsonPath("$.errors[*].line", contains(
+                        StationController.IMPORT_CHUNK_SIZE + 1,
+                        StationController.IMPORT_CHUNK_SIZE + 2
+                )));
+    }
+
+    @Test
+    void importStationsThrowsUnsupportedMediaTypeOnJson() throws Exception {
+        mockMvc.perform(post("/station/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isUnsupportedMediaType());
+    }
 }
@@ -0,0 +1,31 @@
+package io.tashtabash.charging.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class StationImportParserTest {
+    @Test
+    void splitCsvLine() {
+        assertEquals(List.of("a", "1.0", "", "2"), StationImportParser.splitCsvLine("a,1.0,,2"));
+    }
+
+    @Test
+    void splitCsvLineWithQuotes() {
+        assertEquals(
+                List.of("Name, with comma", "Name \"quoted\"", "3"),
+                StationImportParser.splitCsvLine("\"Name, with comma\",\"Name \"\"quoted\"\"\",3")
+        );
+    }
+
+    @Test
+    void splitCsvLineThrowsOnUnterminatedQuote() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> StationImportParser.splitCsvLine("\"Name,1.0")
+        );
+    }
+}
@@ -0,0 +1,187 @@
+package io.tashtabash.charging.datasource;
+
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.ChangeLogPosition;
+import io.tashtabash.charging.repository.EntityVersion;
+import io.tashtabash.charging.service.Change;
+import io.tashtabash.charging.service.ChangeService;
+import io.tashtabash.charging.service.CompanyService;
+import io.tashtabash.charging.service.StationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// The replica reads empty copies of the tables in the lagging schema, as if it hadn't replayed any write yet
+@SpringBootTest(properties = {
+        "charging.datasource.replicas.urls=${spring.datasource.url}",
+        "charging.datasource.replicas.health-check-interval=1h",
+        "charging.station.index.enabled=true"
+})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class LaggingReplicaTest {
+    @TestConfiguration
+    static class LaggingReplicaConfiguration {
+        @Bean
+        static BeanPostProcessor laggingReplicas() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof ReplicaPool replicaPool)) {
+                        return bean;
+                    }
+
+                    List<ReplicaPool.Replica> replicas = replicaPool.getReplicas()
+                            .stream()
+                            .map(replica -> new ReplicaPool.Replica(
+                                    replica.getName(),
+                                    new LaggingDataSource(replica.getDataSource())
+                            ))
+                            .toList();
+
+                    return new ReplicaPool(replicas, Duration.ofSeconds(10));
+                }
+            };
+        }
+    }
+
+    static class LaggingDataSource extends DelegatingDataSource implements AutoCloseable {
+        LaggingDataSource(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET search_path TO lagging, public");
+            }
+
+            return connection;
+        }
+
+        @Override
+        public void close() throws Exception {
+            if (getTargetDataSource() instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    @Autowired
+    StationService stationService;
+
+    @Autowired
+    CompanyService companyService;
+
+    @Autowired
+    ChangeService changeService;
+
+    @Autowired
+    ReplicaPool replicaPool;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    void createLaggingReplica() throws InterruptedException {
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS lagging CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA lagging");
+        jdbcTemplate.execute("CREATE TABLE lagging.Company (LIKE public.Company INCLUDING DEFAULTS)");
+        jdbcTemplate.execute("CREATE TABLE lagging.Station (LIKE public.Station INCLUDING DEFAULTS)");
+
+        // The first check runs in the background on startup, the next one in an hour
+        var replica = replicaPool.getReplicas().get(0);
+        for (int i = 0; i < 100 && !replica.isHealthy(); i++) {
+            Thread.sleep(100);
+        }
+
+        assertThat(replica.isHealthy()).isTrue();
+    }
+
+    // As on another instance, which hasn't loaded the rows written here
+    private void evictEntityCache() {
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    void searchInRadiusKeepsIndexedStationsMissingOnReplica() {
+        long companyId = companyService.saveCompany("Company", null).getId();
+        long stationId = stationService.saveStation("Station", 1.0, 1.0, companyId).getId();
+        evictEntityCache();
+
+        List<Station> stations = stationService.searchInRadiusOrderByDistance(1.0, 1.0, 10.0);
+        evictEntityCache();
+        List<Station> searchedAgain = stationService.searchInRadiusOrderByDistance(1.0, 1.0, 10.0);
+
+        assertThat(stations).extracting(Station::getId)
+                .containsExactly(stationId);
+        assertThat(searchedAgain).extracting(Station::getId)
+                .containsExactly(stationId);
+    }
+
+    @Test
+    void getChangesReadsEntitiesMissingOnReplica() {
+        long companyId = companyService.saveCompany("Company", null).getId();
+        evictEntityCache();
+
+        List<Change> changes = changeService.getChanges(ChangeLogPosition.START, 100_000)
+                .stream()
+                .filter(change -> change.entry().entityId() == companyId && change.company() != null)
+                .toList();
+
+        assertThat(changes).extracting(change -> change.company().getName())
+                .containsExactly("Company");
+    }
+
+    // The replica has the Company as it was before the rename
+    private long saveRenamedCompany() {
+        long companyId = companyService.saveCompany("Old Name", null).getId();
+        jdbcTemplate.update("INSERT INTO lagging.Company SELECT * FROM public.Company WHERE id = ?", companyId);
+        companyService.patchCompany(companyId, "New Name", false, null);
+
+        return companyId;
+    }
+
+    @Test
+    void replicaReadsDontFillEntityCache() {
+        long companyId = saveRenamedCompany();
+
+        String replicaName = companyService.getCompany(companyId).getName();
+        String primaryName;
+        try (var pin = PrimaryPin.pin()) {
+            primaryName = companyService.getCompany(companyId).getName();
+        }
+
+        assertThat(replicaName).isEqualTo("Old Name");
+        assertThat(primaryName).isEqualTo("New Name");
+    }
+
+    @Test
+    void findCompanyVersionReadsPrimary() {
+        long companyId = saveRenamedCompany();
+
+        assertThat(companyService.findCompanyVersion(companyId))
+                .hasValue(new EntityVersion(1, null));
+    }
+}
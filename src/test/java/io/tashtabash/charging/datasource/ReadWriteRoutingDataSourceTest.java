@@ -0,0 +1,147 @@
+package io.tashtabash.charging.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+
+class ReadWriteRoutingDataSourceTest {
+    private final Connection primaryConnection = mock(Connection.class);
+
+    private final Connection firstReplicaConnection = mockReplicaConnection(0.5);
+
+    private final Connection secondReplicaConnection = mockReplicaConnection(0.5);
+
+    private final DataSource primary = mockDataSource(primaryConnection);
+
+    private final DataSource firstReplica = mockDataSource(firstReplicaConnection);
+
+    private final DataSource secondReplica = mockDataSource(secondReplicaConnection);
+
+    private final ReplicaPool replicaPool = new ReplicaPool(
+            List.of(new ReplicaPool.Replica("replica-1", firstReplica), new ReplicaPool.Replica("replica-2", secondReplica)),
+            Duration.ofSeconds(10)
+    );
+
+    private final ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary, replicaPool);
+
+    @AfterEach
+    void clearTransaction() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void getConnectionUsesPrimaryOutsideReadOnlyTransactions() throws SQLException {
+        replicaPool.checkHealth();
+
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void getConnectionAlternatesReplicasInReadOnlyTransactions() throws SQLException {
+        replicaPool.checkHealth();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        var first = dataSource.getConnection();
+        var second = dataSource.getConnection();
+        var third = dataSource.getConnection();
+
+        assertNotSame(first, second);
+        assertSame(first, third);
+        assertTrue(List.of(firstReplicaConnection, secondReplicaConnection).containsAll(List.of(first, second)));
+    }
+
+    @Test
+    void getConnectionUsesPrimaryWhenPinned() throws SQLException {
+        replicaPool.checkHealth();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        try (var pin = PrimaryPin.pin()) {
+            assertSame(primaryConnection, dataSource.getConnection());
+        }
+        assertNotSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void getConnectionNotifiesReplicaConnections() throws SQLException {
+        var replicaConnections = new AtomicInteger();
+        var notifyingDataSource = new ReadWriteRoutingDataSource(primary, replicaPool, replicaConnections::incrementAndGet);
+        replicaPool.checkHealth();
+
+        notifyingDataSource.getConnection();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        notifyingDataSource.getConnection();
+
+        assertEquals(1, replicaConnections.get());
+    }
+
+    @Test
+    void getConnectionUsesPrimaryBeforeHealthCheck() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void getConnectionSkipsLaggingReplica() throws Exception {
+        var laggingConnection = mockReplicaConnection(60);
+        when(firstReplica.getConnection()).thenReturn(laggingConnection);
+        replicaPool.checkHealth();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(secondReplicaConnection, dataSource.getConnection());
+        assertSame(secondReplicaConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void getConnectionMarksFailingReplicaDown() throws SQLException {
+        replicaPool.checkHealth();
+        when(firstReplica.getConnection()).thenThrow(new SQLException("Connection refused"));
+        when(secondReplica.getConnection()).thenThrow(new SQLException("Connection refused"));
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertTrue(replicaPool.getReplicas().stream().noneMatch(ReplicaPool.Replica::isHealthy));
+    }
+
+    private static DataSource mockDataSource(Connection connection) {
+        var dataSource = mock(DataSource.class);
+        try {
+            when(dataSource.getConnection()).thenReturn(connection);
+            when(dataSource.getConnection(anyString(), anyString())).thenReturn(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return dataSource;
+    }
+
+    private static Connection mockReplicaConnection(double lagSeconds) {
+        var connection = mock(Connection.class);
+        var statement = mock(Statement.class);
+        var resultSet = mock(ResultSet.class);
+        try {
+            when(connection.createStatement()).thenReturn(statement);
+            when(statement.executeQuery(anyString())).thenReturn(resultSet);
+            when(resultSet.next()).thenReturn(true);
+            when(resultSet.getDouble(1)).thenReturn(lagSeconds);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return connection;
+    }
+}
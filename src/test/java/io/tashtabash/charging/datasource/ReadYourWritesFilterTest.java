@@ -0,0 +1,74 @@
+package io.tashtabash.charging.datasource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.Cookie;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ReadYourWritesFilterTest {
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private final ReadYourWritesFilter filter =
+            new ReadYourWritesFilter(Duration.ofSeconds(5), Clock.fixed(NOW, ZoneOffset.UTC));
+
+    private final AtomicBoolean pinned = new AtomicBoolean();
+
+    private final FilterChain chain = (request, response) -> pinned.set(PrimaryPin.isPinned());
+
+    @Test
+    void mutationSetsDeadlineCookie() throws Exception {
+        var response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("POST", "/station"), response, chain);
+
+        var cookie = response.getCookie(ReadYourWritesFilter.COOKIE_NAME);
+        assertNotNull(cookie);
+        assertEquals(String.valueOf(NOW.toEpochMilli() + 5000), cookie.getValue());
+        assertEquals(5, cookie.getMaxAge());
+        assertTrue(pinned.get());
+        assertFalse(PrimaryPin.isPinned());
+    }
+
+    @Test
+    void readWithinWindowIsPinned() throws Exception {
+        var request = new MockHttpServletRequest("GET", "/station/1");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, String.valueOf(NOW.toEpochMilli() + 1)));
+        var response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, chain);
+
+        assertTrue(pinned.get());
+        assertNull(response.getCookie(ReadYourWritesFilter.COOKIE_NAME));
+        assertFalse(PrimaryPin.isPinned());
+    }
+
+    @Test
+    void readAfterWindowIsNotPinned() throws Exception {
+        var request = new MockHttpServletRequest("GET", "/station/1");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, String.valueOf(NOW.toEpochMilli())));
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertFalse(pinned.get());
+    }
+
+    @Test
+    void readWithMalformedCookieIsNotPinned() throws Exception {
+        var request = new MockHttpServletRequest("GET", "/station/1");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, "soon"));
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertFalse(pinned.get());
+    }
+}
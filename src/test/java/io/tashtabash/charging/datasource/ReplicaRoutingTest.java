@@ -0,0 +1,79 @@
+package io.tashtabash.charging.datasource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.service.CompanyService;
+import io.tashtabash.charging.service.StationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// The database stands in for its own replica, its lag query finds no lag outside of recovery.
+// The search cache loads from the primary, so the searches here go past it
+@SpringBootTest(properties = {
+        "charging.datasource.replicas.urls=${spring.datasource.url}",
+        "charging.datasource.replicas.health-check-interval=1h",
+        "charging.station.search-cache.enabled=false"
+})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ReplicaRoutingTest {
+    @Autowired
+    StationService stationService;
+
+    @Autowired
+    CompanyService companyService;
+
+    @Autowired
+    ReplicaPool replicaPool;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void awaitReplica() throws InterruptedException {
+        // The first check runs in the background on startup, the next one in an hour
+        var replica = replicaPool.getReplicas().get(0);
+        for (int i = 0; i < 100 && !replica.isHealthy(); i++) {
+            Thread.sleep(100);
+        }
+
+        assertThat(replica.isHealthy()).isTrue();
+    }
+
+    private long replicaConnectionsUsed() {
+        return meterRegistry.get("hikaricp.connections.usage")
+                .tag("pool", "replica-1")
+                .timer()
+                .count();
+    }
+
+    @Test
+    void searchInRadiusReadsFromReplica() {
+        long companyId = companyService.saveCompany("Company", null).getId();
+        long stationId = stationService.saveStation("Station", 1.0, 1.0, companyId).getId();
+        long usedConnections = replicaConnectionsUsed();
+
+        List<Station> stations = stationService.searchInRadiusOrderByDistance(1.0, 1.0, 10.0);
+
+        assertThat(stations).extracting(Station::getId)
+                .containsExactly(stationId);
+        assertThat(replicaConnectionsUsed()).isGreaterThan(usedConnections);
+    }
+
+    @Test
+    void saveStationWritesToPrimary() {
+        long usedConnections = replicaConnectionsUsed();
+
+        long companyId = companyService.saveCompany("Company", null).getId();
+        stationService.saveStation("Station", 1.0, 1.0, companyId);
+
+        assertThat(replicaConnectionsUsed()).isEqualTo(usedConnections);
+    }
+}
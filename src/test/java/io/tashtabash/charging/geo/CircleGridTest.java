@@ -0,0 +1,97 @@
+package io.tashtabash.charging.geo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class CircleGridTest {
+    @Test
+    void containingChecksExactDistance() {
+        var grid = new CircleGrid<String>(0.25);
+        grid.put("small", 0.0, 0.0, 50.0);
+        grid.put("large", 0.0, 0.0, 200.0);
+
+        assertThat(grid.containing(1.0, 0.0)).containsExactly("large");
+        assertThat(grid.containing(0.1, 0.1)).containsExactlyInAnyOrder("small", "large");
+        // Inside the bounding box, outside the circle
+        assertThat(grid.containing(1.5, 1.5)).isEmpty();
+    }
+
+    @Test
+    void containingCrossesAntimeridian() {
+        var grid = new CircleGrid<String>(0.25);
+        grid.put("circle", 0.0, 179.9, 50.0);
+
+        assertEquals(List.of("circle"), grid.containing(0.0, -179.9));
+        assertEquals(List.of(), grid.containing(0.0, -179.0));
+    }
+
+    @Test
+    void containingFindsWideCircles() {
+        var grid = new CircleGrid<String>(0.25);
+        grid.put("pole", 89.5, 0.0, 100.0);
+        grid.put("continent", 50.0, 10.0, 3000.0);
+
+        assertEquals(List.of("pole"), grid.containing(89.9, 180.0));
+        assertEquals(List.of("continent"), grid.containing(40.0, -5.0));
+    }
+
+    @Test
+    void putReplacesCircle() {
+        var grid = new CircleGrid<String>(0.25);
+        grid.put("circle", 0.0, 0.0, 50.0);
+        grid.put("circle", 10.0, 10.0, 50.0);
+
+        assertEquals(1, grid.size());
+        assertEquals(List.of(), grid.containing(0.0, 0.0));
+        assertEquals(List.of("circle"), grid.containing(10.0, 10.0));
+    }
+
+    @Test
+    void remove() {
+        var grid = new CircleGrid<String>(0.25);
+        grid.put("circle", 0.0, 0.0, 50.0);
+        grid.put("wide", 0.0, 0.0, 5000.0);
+
+        grid.remove("circle");
+        grid.remove("wide");
+        grid.remove("absent");
+
+        assertEquals(0, grid.size());
+        assertEquals(List.of(), grid.containing(0.0, 0.0));
+    }
+
+    @Test
+    void containingMatchesLinearScan() {
+        var random = new Random(42);
+        var grid = new CircleGrid<Integer>(0.5);
+        var latitudes = new double[500];
+        var longitudes = new double[500];
+        var radii = new double[500];
+        for (int i = 0; i < 500; i++) {
+            latitudes[i] = random.nextDouble() * 170 - 85;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+            radii[i] = random.nextDouble() * 500;
+            grid.put(i, latitudes[i], longitudes[i], radii[i]);
+        }
+
+        for (int j = 0; j < 1000; j++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            var expected = new ArrayList<Integer>();
+            for (int i = 0; i < 500; i++) {
+                if (GeoPoint.distanceKm(latitudes[i], longitudes[i], latitude, longitude) <= radii[i]) {
+                    expected.add(i);
+                }
+            }
+
+            assertThat(grid.containing(latitude, longitude)).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.tashtabash.charging.geo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PointGridTest {
+    private static List<Long> ids(List<PointGrid.Hit> hits) {
+        return hits.stream()
+                .map(PointGrid.Hit::id)
+                .toList();
+    }
+
+    @Test
+    void searchInRadiusOrdersByDistance() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 1.0, 0.0);
+        grid.put(2, 1.0, 1.0);
+        grid.put(3, 10.0, 0.0);
+
+        var hits = grid.searchInRadius(0.0, 0.0, 200.0);
+
+        assertEquals(List.of(1L, 2L), ids(hits));
+        assertEquals(111.3, hits.get(0).distanceKm(), 0.1);
+    }
+
+    @Test
+    void searchInRadiusCrossesAntimeridian() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 0.0, 179.9);
+        grid.put(2, 0.0, -179.9);
+        grid.put(3, 0.0, 170.0);
+
+        var hits = grid.searchInRadius(0.0, -179.95, 50.0);
+
+        assertThat(ids(hits)).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void searchInRadiusAroundPole() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 89.9, 0.0);
+        grid.put(2, 89.9, 180.0);
+        grid.put(3, 80.0, 0.0);
+
+        var hits = grid.searchInRadius(90.0, 0.0, 50.0);
+
+        assertThat(ids(hits)).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void putMovesPoint() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 1.0, 0.0);
+
+        grid.put(1, 50.0, 50.0);
+
+        assertEquals(1, grid.size());
+        assertTrue(grid.searchInRadius(0.0, 0.0, 200.0).isEmpty());
+        assertEquals(List.of(1L), ids(grid.searchInRadius(50.0, 50.0, 1.0)));
+    }
+
+    @Test
+    void removeKeepsOtherPoints() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 1.0, 0.0);
+        grid.put(2, 1.0, 0.1);
+        grid.put(3, 1.0, 0.2);
+
+        grid.remove(1);
+        grid.remove(10);
+
+        assertEquals(2, grid.size());
+        assertFalse(grid.contains(1));
+        assertThat(ids(grid.searchInRadius(1.0, 0.0, 100.0))).containsExactly(2L, 3L);
+    }
+
+    @Test
+    void searchInRadiusMatchesFullScan() {
+        var random = new Random(42);
+        var grid = new PointGrid(0.5);
+        double[][] points = new double[2000][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[] { random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180 };
+            grid.put(i, points[i][0], points[i][1]);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            double radiusKm = random.nextDouble() * 3000;
+            long expectedCount = 0;
+            for (double[] point : points) {
+                if (GeoPoint.distanceKm(latitude, longitude, point[0], point[1]) <= radiusKm) {
+                    expectedCount++;
+                }
+            }
+
+            assertEquals(expectedCount, grid.searchInRadius(latitude, longitude, radiusKm).size());
+        }
+    }
+
+    @Test
+    void nearestOrdersByDistance() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 1.0, 0.0);
+        grid.put(2, 1.0, 1.0);
+        grid.put(3, 10.0, 0.0);
+        grid.put(4, -0.1, 0.0);
+
+        var hits = grid.nearest(0.0, 0.0, 3);
+
+        assertEquals(List.of(4L, 1L, 2L), ids(hits));
+        assertEquals(11.1, hits.get(0).distanceKm(), 0.1);
+    }
+
+    @Test
+    void nearestReturnsAllWhenFewerPoints() {
+        var grid = new PointGrid(0.25);
+        grid.put(1, 60.0, 100.0);
+        grid.put(2, -60.0, -100.0);
+
+        assertEquals(List.of(1L, 2L), ids(grid.nearest(59.0, 100.0, 10)));
+        assertTrue(new PointGrid(0.25).nearest(0.0, 0.0, 10).isEmpty());
+    }
+
+    @Test
+    void nearestMatchesFullScan() {
+        var random = new Random(7);
+        var grid = new PointGrid(0.1);
+        double[][] points = new double[5000][];
+        for (int i = 0; i < points.length; i++) {
+            // Clustered around a few centers, like real Stations
+            double centerLatitude = (i % 5) * 30 - 60;
+            double centerLongitude = (i % 7) * 50 - 170;
+            points[i] = new double[] {
+                    Math.max(-90, Math.min(90, centerLatitude + random.nextGaussian())),
+                    Math.max(-180, Math.min(180, centerLongitude + random.nextGaussian()))
+            };
+            grid.put(i, points[i][0], points[i][1]);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            int k = 1 + random.nextInt(20);
+            List<Double> expectedDistances = java.util.Arrays.stream(points)
+                    .map(point -> GeoPoint.distanceKm(latitude, longitude, point[0], point[1]))
+                    .sorted()
+                    .limit(k)
+                    .toList();
+
+            List<Double> distances = grid.nearest(latitude, longitude, k)
+                    .stream()
+                    .map(PointGrid.Hit::distanceKm)
+                    .toList();
+
+            assertEquals(expectedDistances, distances);
+        }
+    }
+}
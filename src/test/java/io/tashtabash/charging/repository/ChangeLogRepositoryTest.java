@@ -0,0 +1,146 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.repository.ChangeLogEntry.EntityType;
+import io.tashtabash.charging.repository.ChangeLogEntry.Operation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Entries are only read once committed, so the tests commit theirs and read after the entries already logged
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ChangeLogRepositoryTest {
+    @Autowired
+    private ChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private ChangeLogPosition start;
+
+    @BeforeEach
+    void findEnd() {
+        start = ChangeLogPosition.START;
+        List<ChangeLogEntry> entries;
+        while (!(entries = changeLogRepository.findAfter(start, 1000)).isEmpty()) {
+            start = entries.get(entries.size() - 1).position();
+        }
+    }
+
+    private void append(EntityType entityType, Operation operation, List<Long> entityIds) {
+        transactionTemplate.executeWithoutResult(status -> changeLogRepository.append(entityType, operation, entityIds));
+    }
+
+    private static List<Long> entityIds(List<ChangeLogEntry> entries) {
+        return entries.stream()
+                .map(ChangeLogEntry::entityId)
+                .toList();
+    }
+
+    @Test
+    void appendKeepsOrder() {
+        append(EntityType.STATION, Operation.INSERT, List.of(3L, 1L, 2L));
+        append(EntityType.COMPANY, Operation.DELETE, List.of(5L));
+
+        List<ChangeLogEntry> entries = changeLogRepository.findAfter(start, 10);
+
+        assertEquals(List.of(3L, 1L, 2L, 5L), entityIds(entries));
+        assertEquals(EntityType.STATION, entries.get(0).entityType());
+        assertEquals(Operation.INSERT, entries.get(0).operation());
+        assertEquals(EntityType.COMPANY, entries.get(3).entityType());
+        assertEquals(Operation.DELETE, entries.get(3).operation());
+        assertNotNull(entries.get(3).changedAt());
+    }
+
+    @Test
+    void findAfter() {
+        append(EntityType.STATION, Operation.UPDATE, List.of(1L, 2L, 3L, 4L));
+        ChangeLogPosition second = changeLogRepository.findAfter(start, 2)
+                .get(1)
+                .position();
+
+        List<ChangeLogEntry> entries = changeLogRepository.findAfter(second, 1);
+
+        assertEquals(List.of(3L), entityIds(entries));
+        assertTrue(entries.get(0).seq() > second.seq());
+    }
+
+    @Test
+    void appendIgnoresEmptyChanges() {
+        append(EntityType.STATION, Operation.INSERT, List.of());
+
+        assertTrue(changeLogRepository.findAfter(start, 10).isEmpty());
+    }
+
+    @Test
+    void findAfterWaitsForOlderTransactions() throws Exception {
+        var appended = new CountDownLatch(1);
+        var commitReleased = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            var older = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                changeLogRepository.append(EntityType.STATION, Operation.INSERT, List.of(1L));
+                appended.countDown();
+                try {
+                    commitReleased.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            appended.await();
+            append(EntityType.STATION, Operation.INSERT, List.of(2L));
+
+            // The newer entry is committed, but the older transaction may still commit an entry before it
+            assertTrue(changeLogRepository.findAfter(start, 10).isEmpty());
+
+            commitReleased.countDown();
+            older.get();
+
+            assertEquals(List.of(1L, 2L), entityIds(changeLogRepository.findAfter(start, 10)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void compactDropsSupersededEntriesAndDeletions() {
+        append(EntityType.STATION, Operation.INSERT, List.of(1L, 2L, 3L));
+        append(EntityType.STATION, Operation.UPDATE, List.of(1L));
+        append(EntityType.STATION, Operation.DELETE, List.of(3L));
+        ChangeLogPosition deletion = changeLogRepository.findAfter(start, 10)
+                .get(4)
+                .position();
+
+        changeLogRepository.compact(Duration.ZERO);
+
+        List<ChangeLogEntry> entries = changeLogRepository.findAfter(start, 10);
+        assertEquals(List.of(2L, 1L), entityIds(entries));
+        assertEquals(Operation.UPDATE, entries.get(1).operation());
+        assertEquals(deletion, changeLogRepository.findHorizon());
+    }
+
+    @Test
+    void compactKeepsEntriesWithinRetention() {
+        append(EntityType.STATION, Operation.INSERT, List.of(1L));
+        append(EntityType.STATION, Operation.DELETE, List.of(1L));
+
+        ChangeLogPosition horizon = changeLogRepository.findHorizon();
+
+        changeLogRepository.compact(Duration.ofDays(7));
+
+        assertEquals(List.of(1L, 1L), entityIds(changeLogRepository.findAfter(start, 10)));
+        assertEquals(horizon, changeLogRepository.findHorizon());
+    }
+}
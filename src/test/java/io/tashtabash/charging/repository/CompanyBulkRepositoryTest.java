@@ -0,0 +1,46 @@
+package io.tashtabash.charging.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.transaction.Transactional;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CompanyBulkRepositoryTest {
+    @Autowired
+    private CompanyBulkRepository companyBulkRepository;
+
+    @Autowired
+    private CompanyRepository companyRepository;
+
+    @Test
+    @Transactional
+    void insertAllReturnsIdsInOrder() {
+        List<Long> ids = companyBulkRepository.insertAll(List.of("First", "Second"), Arrays.asList(null, null));
+
+        assertEquals(2, ids.size());
+        assertEquals("First", companyRepository.findById(ids.get(0)).orElseThrow().getName());
+        assertEquals("Second", companyRepository.findById(ids.get(1)).orElseThrow().getName());
+    }
+
+    @Test
+    @Transactional
+    void insertAllMaintainsClosure() {
+        List<Long> rootIds = companyBulkRepository.insertAll(List.of("Root"), Arrays.asList((Long) null));
+        List<Long> childIds = companyBulkRepository.insertAll(List.of("Child"), rootIds);
+        List<Long> grandchildIds = companyBulkRepository.insertAll(List.of("Grandchild"), childIds);
+
+        assertTrue(companyRepository.isAncestor(rootIds.get(0), grandchildIds.get(0)));
+        assertTrue(companyRepository.isAncestor(childIds.get(0), grandchildIds.get(0)));
+        assertTrue(companyRepository.isAncestor(grandchildIds.get(0), grandchildIds.get(0)));
+        assertFalse(companyRepository.isAncestor(grandchildIds.get(0), rootIds.get(0)));
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.annotation.DirtiesContext;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -13,6 +14,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.transaction.Transactional;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,6 +31,11 @@ class CompanyRepositoryTest {
     private EntityManager entityManager;
 
     private void insertCompany(Company company) {
+        insertCompanyRow(company);
+        insertIntoClosure(company);
+    }
+
+    private void insertCompanyRow(Company company) {
         Query query = company.getParentCompany() == null
                 ? entityManager.createNativeQuery("INSERT INTO Company values(?, ?, null)")
                 : entityManager.createNativeQuery("INSERT INTO Company values(?, ?, ?)");
@@ -43,6 +50,23 @@ class CompanyRepositoryTest {
         query.executeUpdate();
     }
 
+    private void insertIntoClosure(Company company) {
+        entityManager.createNativeQuery("INSERT INTO CompanyClosure values(?1, ?1, 0) ON CONFLICT DO NOTHING")
+                .setParameter(1, company.getId())
+                .executeUpdate();
+
+        if (company.getParentCompany() != null) {
+            entityManager.createNativeQuery(
+                            "INSERT INTO CompanyClosure " +
+                                    "SELECT ancestor_id, ?1, depth + 1 FROM CompanyClosure WHERE descendant_id = ?2 " +
+                                    "ON CONFLICT DO NOTHING"
+                    )
+                    .setParameter(1, company.getId())
+                    .setParameter(2, company.getParentCompany().getId())
+                    .executeUpdate();
+        }
+    }
+
     private void insertStation(Station station) {
         entityManager.createNativeQuery("INSERT INTO Station values(?, ?, ?, ?, ?)")
                 .setParameter(1, station.getId())
@@ -118,6 +142,18 @@ class CompanyRepositoryTest {
                 .containsExactlyInAnyOrderElementsOf(foundCompanies);
     }
 
+    @Test
+    @Transactional
+    void getCompaniesPage() {
+        for (long id = 1; id <= 5; id++) {
+            insertCompany(new Company(id, "Test " + id, null));
+        }
+
+        List<Company> foundCompanies = companyRepository.findByIdGreaterThanOrderById(2, PageRequest.ofSize(2));
+
+        assertEquals(List.of(3L, 4L), foundCompanies.stream().map(Company::getId).toList());
+    }
+
     @Test
     @Transactional
     void getCompany() {
@@ -199,10 +235,41 @@ class CompanyRepositoryTest {
 
         assertThrows(
                 DataAccessException.class,
-                () -> companyRepository.save(newCompany)
+                () -> companyRepository.saveAndFlush(newCompany)
         );
     }
 
+    @Test
+    @Transactional
+    void updateCompanyIncrementsVersion() {
+        var parentCompany = new Company(1, "Test Name", null);
+        var company = new Company(2, "Test Name", parentCompany);
+        insertCompany(parentCompany);
+        insertCompany(company);
+
+        companyRepository.saveAndFlush(new Company(2, "New Name", parentCompany));
+
+        assertEquals(Optional.of(new EntityVersion(1, 0L)), companyRepository.findVersionById(2));
+    }
+
+    @Test
+    @Transactional
+    void checksumChangesOnUpdate() {
+        var parentCompany = new Company(1, "Test Name", null);
+        var company = new Company(2, "Test Name", parentCompany);
+        insertCompany(parentCompany);
+        insertCompany(company);
+        String checksum = companyRepository.checksumAll();
+        // The page only holds the child, but expanding shows the parent
+        String pageChecksum = companyRepository.checksumPage(1, 10);
+
+        companyRepository.saveAndFlush(new Company(1, "New Name", null));
+
+        assertTrue(checksum.startsWith("2-"));
+        assertNotEquals(checksum, companyRepository.checksumAll());
+        assertNotEquals(pageChecksum, companyRepository.checksumPage(1, 10));
+    }
+
     @Test
     @Transactional
     void deleteCompany() {
@@ -260,4 +327,109 @@ class CompanyRepositoryTest {
                 .getResultList();
         assertEquals(0, stations.size());
     }
+
+    private List<List<Long>> closurePaths() {
+        List<?> rows = entityManager
+                .createNativeQuery("SELECT ancestor_id, descendant_id, depth FROM CompanyClosure")
+                .getResultList();
+
+        return rows.stream()
+                .map(row -> Arrays.stream((Object[]) row)
+                        .map(value -> ((Number) value).longValue())
+                        .toList())
+                .toList();
+    }
+
+    @Test
+    @Transactional
+    void insertIntoClosure() {
+        var grandparentCompany = new Company(1, "Grandparent", null);
+        var parentCompany = new Company(2, "Parent", grandparentCompany);
+        insertCompany(grandparentCompany);
+        insertCompany(parentCompany);
+        insertCompanyRow(new Company(3, "Child", parentCompany));
+
+        companyRepository.insertIntoClosure(3, parentCompany.getId());
+
+        assertThat(closurePaths())
+                .containsExactlyInAnyOrder(
+                        List.of(1L, 1L, 0L),
+                        List.of(2L, 2L, 0L),
+                        List.of(1L, 2L, 1L),
+                        List.of(3L, 3L, 0L),
+                        List.of(2L, 3L, 1L),
+                        List.of(1L, 3L, 2L)
+                );
+    }
+
+    @Test
+    @Transactional
+    void insertRootIntoClosure() {
+        insertCompanyRow(new Company(1, "Root", null));
+
+        companyRepository.insertRootIntoClosure(1);
+
+        assertThat(closurePaths())
+                .containsExactly(List.of(1L, 1L, 0L));
+    }
+
+    @Test
+    @Transactional
+    void moveSubtreeInClosure() {
+        var oldParentCompany = new Company(1, "Old parent", null);
+        var newParentCompany = new Company(2, "New parent", null);
+        var company = new Company(3, "Company", oldParentCompany);
+        var childCompany = new Company(4, "Child", company);
+        insertCompany(oldParentCompany);
+        insertCompany(newParentCompany);
+        insertCompany(company);
+        insertCompany(childCompany);
+
+        companyRepository.detachSubtreeInClosure(company.getId());
+        companyRepository.attachSubtreeInClosure(company.getId(), newParentCompany.getId());
+
+        assertThat(closurePaths())
+                .containsExactlyInAnyOrder(
+                        List.of(1L, 1L, 0L),
+                        List.of(2L, 2L, 0L),
+                        List.of(3L, 3L, 0L),
+                        List.of(4L, 4L, 0L),
+                        List.of(3L, 4L, 1L),
+                        List.of(2L, 3L, 1L),
+                        List.of(2L, 4L, 2L)
+                );
+    }
+
+    @Test
+    @Transactional
+    void isAncestor() {
+        var grandparentCompany = new Company(1, "Grandparent", null);
+        var parentCompany = new Company(2, "Parent", grandparentCompany);
+        var company = new Company(3, "Child", parentCompany);
+        var otherCompany = new Company(4, "Other", null);
+        insertCompany(grandparentCompany);
+        insertCompany(parentCompany);
+        insertCompany(company);
+        insertCompany(otherCompany);
+
+        assertTrue(companyRepository.isAncestor(1, 3));
+        assertTrue(companyRepository.isAncestor(3, 3));
+        assertFalse(companyRepository.isAncestor(3, 1));
+        assertFalse(companyRepository.isAncestor(4, 3));
+    }
+
+    @Test
+    @Transactional
+    void deleteCompanyCascadesToClosure() {
+        var parentCompany = new Company(1, "Parent", null);
+        var childCompany = new Company(2, "Child", parentCompany);
+        insertCompany(parentCompany);
+        insertCompany(childCompany);
+
+        companyRepository.deleteById(parentCompany.getId());
+        entityManager.flush();
+
+        assertThat(closurePaths())
+                .isEmpty();
+    }
 }
@@ -0,0 +1,127 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Transactional;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CompanyWriteRepositoryTest {
+    @Autowired
+    private CompanyWriteRepository companyWriteRepository;
+
+    @Autowired
+    private CompanyBulkRepository companyBulkRepository;
+
+    @Autowired
+    private StationBulkRepository stationBulkRepository;
+
+    @Autowired
+    private CompanyRepository companyRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private long insertCompany(String name, Long parentCompanyId) {
+        return companyBulkRepository.insertAll(List.of(name), Arrays.asList(parentCompanyId)).get(0);
+    }
+
+    @Test
+    @Transactional
+    void updateRenamesAndKeepsParent() {
+        long parentId = insertCompany("Parent", null);
+        long id = insertCompany("Name", parentId);
+
+        PatchedCompany patchedCompany = companyWriteRepository.update(id, "New Name", false, null).orElseThrow();
+
+        assertEquals("New Name", patchedCompany.company().getName());
+        assertEquals(parentId, patchedCompany.company().getParentCompany().getId());
+        assertEquals(parentId, patchedCompany.oldParentCompanyId());
+        assertEquals(1, patchedCompany.company().getVersion());
+        assertEquals("New Name", companyRepository.findById(id).orElseThrow().getName());
+    }
+
+    @Test
+    void updateEvictsCachedCompany() {
+        long id = insertCompany("Name", null);
+        companyRepository.findById(id);
+        assertTrue(entityManagerFactory.getCache().contains(Company.class, id));
+
+        companyWriteRepository.update(id, "New Name", false, null);
+
+        assertFalse(entityManagerFactory.getCache().contains(Company.class, id));
+        assertEquals("New Name", companyRepository.findById(id).orElseThrow().getName());
+    }
+
+    @Test
+    @Transactional
+    void updateChangesParentToNull() {
+        long parentId = insertCompany("Parent", null);
+        long id = insertCompany("Name", parentId);
+
+        PatchedCompany patchedCompany = companyWriteRepository.update(id, null, true, null).orElseThrow();
+
+        assertEquals("Name", patchedCompany.company().getName());
+        assertNull(patchedCompany.company().getParentCompany());
+        assertEquals(parentId, patchedCompany.oldParentCompanyId());
+    }
+
+    @Test
+    @Transactional
+    void updateReturnsEmptyOnAbsentId() {
+        assertEquals(Optional.empty(), companyWriteRepository.update(1, "Name", false, null));
+    }
+
+    @Test
+    @Transactional
+    void updateThrowsOnUnknownParent() {
+        long id = insertCompany("Name", null);
+
+        var exception = assertThrows(
+                DataIntegrityViolationException.class,
+                () -> companyWriteRepository.update(id, null, true, id + 1)
+        );
+        // The services tell an unknown reference from other violations by the state
+        assertEquals("23503", ((SQLException) exception.getMostSpecificCause()).getSQLState());
+    }
+
+    @Test
+    @Transactional
+    void deleteSubtreeReturnsDeletedRows() {
+        long rootId = insertCompany("Root", null);
+        long childId = insertCompany("Child", rootId);
+        long grandchildId = insertCompany("Grandchild", childId);
+        long stationId = stationBulkRepository.insertAll(
+                List.of(new Station("SName", 1.0, 2.0, new Company(grandchildId, null, null)))
+        ).get(0);
+
+        DeletedCompanySubtree deleted = companyWriteRepository.deleteSubtree(childId).orElseThrow();
+
+        assertEquals(List.of(grandchildId, childId), deleted.companyIds());
+        assertEquals(Map.of(stationId, new GeoPoint(1.0, 2.0)), deleted.stationLocations());
+        assertTrue(companyRepository.existsById(rootId));
+        assertFalse(companyRepository.existsById(grandchildId));
+    }
+
+    @Test
+    @Transactional
+    void deleteSubtreeReturnsEmptyOnAbsentId() {
+        assertEquals(Optional.empty(), companyWriteRepository.deleteSubtree(1));
+    }
+}
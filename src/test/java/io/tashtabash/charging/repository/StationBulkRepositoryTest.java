@@ -0,0 +1,89 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessException;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class StationBulkRepositoryTest {
+    @Autowired
+    private StationBulkRepository stationBulkRepository;
+
+    @Autowired
+    private StationRepository stationRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private void insertCompany(Company company) {
+        entityManager.createNativeQuery("INSERT INTO Company values(?, ?, null)")
+                .setParameter(1, company.getId())
+                .setParameter(2, company.getName())
+                .executeUpdate();
+    }
+
+    @Test
+    @Transactional
+    void insertAllReturnsIdsInOrder() {
+        var company = new Company(1, "Test Name", null);
+        insertCompany(company);
+        var stations = List.of(
+                new Station("First", 1.0, 2.0, company),
+                new Station("Second", 3.0, 4.0, company),
+                new Station("Third", 5.0, 6.0, company)
+        );
+
+        List<Long> ids = stationBulkRepository.insertAll(stations);
+
+        assertEquals(3, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            var station = stationRepository.findById(ids.get(i));
+            assertTrue(station.isPresent());
+            assertEquals(stations.get(i).getName(), station.get().getName());
+            assertEquals(stations.get(i).getLatitude(), station.get().getLatitude());
+        }
+    }
+
+    @Test
+    @Transactional
+    void insertAllTakesIdsFromTheSequenceInBlocks() {
+        var company = new Company(1, "Test Name", null);
+        insertCompany(company);
+        var stations = IntStream.range(0, 2 * Station.ID_ALLOCATION_SIZE + 1)
+                .mapToObj(i -> new Station("Station " + i, 0.01 * i, 0.0, company))
+                .toList();
+
+        List<Long> ids = stationBulkRepository.insertAll(stations);
+        long savedId = stationRepository.saveAndFlush(new Station("Saved", 0.0, 0.0, company)).getId();
+
+        assertEquals(stations.size(), new HashSet<>(ids).size());
+        // Consecutive within a block of one nextval
+        assertEquals(ids.get(0) + Station.ID_ALLOCATION_SIZE - 1, ids.get(Station.ID_ALLOCATION_SIZE - 1));
+        assertFalse(ids.contains(savedId));
+    }
+
+    @Test
+    @Transactional
+    void insertAllThrowsOnUnknownCompany() {
+        var stations = List.of(new Station("First", 1.0, 2.0, new Company(1, "Test Name", null)));
+
+        assertThrows(
+                DataAccessException.class,
+                () -> stationBulkRepository.insertAll(stations)
+        );
+    }
+}
@@ -0,0 +1,113 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.transaction.Transactional;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class StationClusterRepositoryTest {
+    @Autowired
+    private StationClusterRepository stationClusterRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @Transactional
+    void addGroupsStationsByCell() {
+        stationClusterRepository.add(List.of(
+                new GeoPoint(1.0, 1.0),
+                new GeoPoint(3.0, 3.0),
+                new GeoPoint(-50.0, -50.0)
+        ));
+
+        var clusters = stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 1);
+
+        assertEquals(List.of(new StationCluster(2, 2.0, 2.0)), clusters);
+    }
+
+    @Test
+    @Transactional
+    void addSplitsClustersOnHigherZoom() {
+        stationClusterRepository.add(List.of(new GeoPoint(1.0, 1.0)));
+        stationClusterRepository.add(List.of(new GeoPoint(3.0, 3.0)));
+
+        var clusters = stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 8);
+
+        assertThat(clusters).containsExactlyInAnyOrder(
+                new StationCluster(1, 1.0, 1.0),
+                new StationCluster(1, 3.0, 3.0)
+        );
+    }
+
+    @Test
+    @Transactional
+    void removeDropsEmptyClusters() {
+        stationClusterRepository.add(List.of(new GeoPoint(1.0, 1.0), new GeoPoint(3.0, 3.0)));
+
+        stationClusterRepository.remove(List.of(new GeoPoint(1.0, 1.0)));
+
+        assertEquals(
+                List.of(new StationCluster(1, 3.0, 3.0)),
+                stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 1)
+        );
+
+        stationClusterRepository.remove(List.of(new GeoPoint(3.0, 3.0)));
+
+        assertTrue(stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 1).isEmpty());
+    }
+
+    @Test
+    @Transactional
+    void foldKeepsClusters() {
+        stationClusterRepository.add(List.of(new GeoPoint(1.0, 1.0), new GeoPoint(3.0, 3.0)));
+        stationClusterRepository.remove(List.of(new GeoPoint(1.0, 1.0)));
+
+        int folded = stationClusterRepository.fold(2);
+        stationClusterRepository.add(List.of(new GeoPoint(5.0, 5.0)));
+
+        assertEquals(2, folded);
+        assertEquals(
+                List.of(new StationCluster(2, 4.0, 4.0)),
+                stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 1)
+        );
+        assertEquals(2, stationClusterRepository.fold(10));
+        assertEquals(
+                List.of(new StationCluster(2, 4.0, 4.0)),
+                stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 1)
+        );
+    }
+
+    @Test
+    @Transactional
+    void schemaSeedDropsPendingDeltas() {
+        jdbcTemplate.update("INSERT INTO Company (id, name) VALUES (1, 'Company')");
+        jdbcTemplate.update("INSERT INTO Station (id, name, latitude, longitude, company_id) VALUES (1, 'Station', 1.0, 1.0, 1)");
+        stationClusterRepository.add(List.of(new GeoPoint(1.0, 1.0)));
+        jdbcTemplate.update("DELETE FROM StationCluster");
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+            return null;
+        });
+
+        assertEquals(
+                List.of(new StationCluster(1, 1.0, 1.0)),
+                stationClusterRepository.findInBox(0.0, 0.0, 10.0, 10.0, 1)
+        );
+    }
+}
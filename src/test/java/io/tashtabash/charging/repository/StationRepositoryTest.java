@@ -2,6 +2,8 @@ package io.tashtabash.charging.repository;
 
 import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -11,8 +13,10 @@ import org.springframework.test.annotation.DirtiesContext;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.transaction.Transactional;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -40,6 +44,24 @@ class StationRepositoryTest {
         }
 
         query.executeUpdate();
+        insertIntoClosure(company);
+    }
+
+    private void insertIntoClosure(Company company) {
+        entityManager.createNativeQuery("INSERT INTO CompanyClosure values(?1, ?1, 0) ON CONFLICT DO NOTHING")
+                .setParameter(1, company.getId())
+                .executeUpdate();
+
+        if (company.getParentCompany() != null) {
+            entityManager.createNativeQuery(
+                            "INSERT INTO CompanyClosure " +
+                                    "SELECT ancestor_id, ?1, depth + 1 FROM CompanyClosure WHERE descendant_id = ?2 " +
+                                    "ON CONFLICT DO NOTHING"
+                    )
+                    .setParameter(1, company.getId())
+                    .setParameter(2, company.getParentCompany().getId())
+                    .executeUpdate();
+        }
     }
 
     private void insertStation(Station station) {
@@ -73,6 +95,28 @@ class StationRepositoryTest {
         assertNotEquals(0, stations.get(0).getId());
     }
 
+    @Test
+    @Transactional
+    void saveAllBatchesInserts() {
+        var company = new Company(1, "Test Name", null);
+        insertCompany(company);
+        var stations = IntStream.range(0, 2 * Station.ID_ALLOCATION_SIZE)
+                .mapToObj(i -> new Station("Station " + i, 0.01 * i, 0.0, company))
+                .toList();
+        Statistics statistics = entityManager.getEntityManagerFactory()
+                .unwrap(SessionFactory.class)
+                .getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        stationRepository.saveAll(stations);
+        entityManager.flush();
+
+        // Two station_seq calls and two batches of inserts instead of a statement per Station
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(4);
+        assertEquals(stations.size(), stationRepository.count());
+    }
+
     @Test
     void saveStationFailsOnNonExistentCompany() {
         var company = new Company(5, "Parent", null);
@@ -84,6 +128,42 @@ class StationRepositoryTest {
         );
     }
 
+    @Test
+    @Transactional
+    void findAllByIdInOrder() {
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 0.0, 1.1, company);
+        var station2 = new Station(2, "SName", 1.0, 1.1, company);
+        insertStation(station1);
+        insertStation(station2);
+
+        List<Station> stations = stationRepository.findAllByIdInOrder(List.of(2L, 3L, 1L));
+
+        assertEquals(Arrays.asList(station2, null, station1), stations);
+    }
+
+    @Test
+    @Transactional
+    void findAllByIdInOrderReusesLoadedStations() {
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 0.0, 1.1, company);
+        var station2 = new Station(2, "SName", 1.0, 1.1, company);
+        insertStation(station1);
+        insertStation(station2);
+        List<Station> loadedStations = stationRepository.searchByCompany(company.getId());
+        Statistics statistics = entityManager.getEntityManagerFactory()
+                .unwrap(SessionFactory.class)
+                .getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        List<Station> stations = stationRepository.findAllByIdInOrder(List.of(2L, 1L));
+
+        assertEquals(List.of(station2, station1), stations);
+        assertThat(loadedStations).containsAll(stations);
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
     @Test
     @Transactional
     void getStation() {
@@ -135,10 +215,22 @@ class StationRepositoryTest {
 
         assertThrows(
                 DataAccessException.class,
-                () -> stationRepository.save(newStation)
+                () -> stationRepository.saveAndFlush(newStation)
         );
     }
 
+    @Test
+    @Transactional
+    void findVersionById() {
+        var company = new Company(1, "Test Name", null);
+        var station = new Station(1, "SName", 0.0, 1.1, company);
+        insertStation(station);
+
+        stationRepository.saveAndFlush(new Station(1, "SName 2", 0.0, 1.1, company));
+
+        assertEquals(Optional.of(new EntityVersion(1, 0L)), stationRepository.findVersionById(1));
+    }
+
     @Test
     @Transactional
     void deleteStation() {
@@ -182,6 +274,41 @@ class StationRepositoryTest {
         assertEquals(station2, stations.get(1));
     }
 
+    @Test
+    @Transactional
+    void searchInRadiusOrderByDistanceUsesKilometers() {
+        // 1 degree latitude = about 111 km
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 1.7, 0.0, company);
+        var station2 = new Station(2, "SName", 0.0, -1.9, company);
+        insertStation(station1);
+        insertStation(station2);
+
+        var stations = stationRepository.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+
+        assertEquals(List.of(station1), stations);
+    }
+
+    @Test
+    @Transactional
+    void findNearest() {
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 1.0, 0.0, company);
+        var station2 = new Station(2, "SName", 1.0, 1.0, company);
+        var station3 = new Station(3, "SName", 10.0, 0.0, company);
+        insertStation(station3);
+        insertStation(station2);
+        insertStation(station1);
+
+        var distances = stationRepository.findNearest(0.0, 0.0, 2);
+
+        assertEquals(2, distances.size());
+        assertEquals(station1.getId(), distances.get(0).getId());
+        assertEquals(111.3, distances.get(0).getDistanceKm(), 0.5);
+        assertEquals(station2.getId(), distances.get(1).getId());
+        assertEquals(157.4, distances.get(1).getDistanceKm(), 0.5);
+    }
+
     @Test
     @Transactional
     void searchOwnedStations() {
@@ -207,6 +334,21 @@ class StationRepositoryTest {
         assertThat(childStations).containsOnly(relevantStation1, relevantStation2, relevantStation3, relevantStation4);
     }
 
+    @Test
+    @Transactional
+    void findIdsByCompany() {
+        var company = new Company(1, "Test Name", null);
+        var childCompany = new Company(2, "Test Name", company);
+        var irrelevantCompany = new Company(3, "Test Name", null);
+        insertStation(new Station(1, "SName", 1.0, 0.0, company));
+        insertStation(new Station(2, "SName", 1.0, 1.0, childCompany));
+        insertStation(new Station(3, "SName", 10.0, 0.0, irrelevantCompany));
+
+        List<Long> ids = stationRepository.findIdsByCompany(company.getId());
+
+        assertThat(ids).containsOnly(1L, 2L);
+    }
+
     @Test
     @Transactional
     void searchOwnedStationsIgnoresParentStations() {
@@ -223,4 +365,66 @@ class StationRepositoryTest {
         assertEquals(1, childStations.size());
         assertThat(childStations).containsOnly(relevantStation1);
     }
+
+    @Test
+    @Transactional
+    void searchOwnedStationsPage() {
+        var company = new Company(1, "Test Name", null);
+        var childCompany = new Company(2, "Test Name", company);
+        var irrelevantCompany = new Company(3, "Test Name", null);
+        insertStation(new Station(1, "SName", 1.0, 0.0, company));
+        insertStation(new Station(2, "SName", 1.0, 0.0, irrelevantCompany));
+        insertStation(new Station(3, "SName", 1.0, 0.0, childCompany));
+        insertStation(new Station(4, "SName", 1.0, 0.0, company));
+        insertStation(new Station(5, "SName", 1.0, 0.0, childCompany));
+
+        List<Station> firstPage = stationRepository.searchByCompany(company.getId(), 0, 2);
+        List<Station> secondPage = stationRepository.searchByCompany(company.getId(), 3, 2);
+
+        assertEquals(List.of(1L, 3L), firstPage.stream().map(Station::getId).toList());
+        assertEquals(List.of(4L, 5L), secondPage.stream().map(Station::getId).toList());
+    }
+
+    @Test
+    @Transactional
+    void checksumByCompanyChangesOnOwnedStationChange() {
+        var company = new Company(1, "Test Name", null);
+        var irrelevantCompany = new Company(2, "Test Name", null);
+        insertStation(new Station(1, "SName", 1.0, 0.0, company));
+        insertStation(new Station(2, "SName", 1.0, 0.0, irrelevantCompany));
+        Optional<String> checksum = stationRepository.checksumByCompany(company.getId());
+        Optional<String> pageChecksum = stationRepository.checksumByCompany(company.getId(), 0, 10);
+
+        stationRepository.saveAndFlush(new Station(2, "SName 2", 1.0, 0.0, irrelevantCompany));
+        assertEquals(checksum, stationRepository.checksumByCompany(company.getId()));
+
+        stationRepository.saveAndFlush(new Station(1, "SName 2", 1.0, 0.0, company));
+        assertTrue(checksum.orElseThrow().startsWith("1-"));
+        assertNotEquals(checksum, stationRepository.checksumByCompany(company.getId()));
+        assertNotEquals(pageChecksum, stationRepository.checksumByCompany(company.getId(), 0, 10));
+    }
+
+    @Test
+    @Transactional
+    void checksumByCompanyIsEmptyOnNoCompany() {
+        assertEquals(Optional.empty(), stationRepository.checksumByCompany(1));
+        assertEquals(Optional.empty(), stationRepository.checksumByCompany(1, 0, 10));
+    }
+
+    @Test
+    @Transactional
+    void streamOwnedStations() {
+        var company = new Company(1, "Test Name", null);
+        var childCompany = new Company(2, "Test Name", company);
+        var irrelevantCompany = new Company(3, "Test Name", null);
+        var relevantStation1 = new Station(1, "SName", 1.0, 0.0, company);
+        var relevantStation2 = new Station(2, "SName", 1.0, 0.0, childCompany);
+        insertStation(relevantStation1);
+        insertStation(relevantStation2);
+        insertStation(new Station(3, "SName", 1.0, 0.0, irrelevantCompany));
+
+        try (var stations = stationRepository.streamByCompany(company.getId())) {
+            assertThat(stations).containsExactlyInAnyOrder(relevantStation1, relevantStation2);
+        }
+    }
 }
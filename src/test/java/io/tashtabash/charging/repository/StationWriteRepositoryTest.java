@@ -0,0 +1,112 @@
+package io.tashtabash.charging.repository;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Transactional;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class StationWriteRepositoryTest {
+    @Autowired
+    private StationWriteRepository stationWriteRepository;
+
+    @Autowired
+    private StationBulkRepository stationBulkRepository;
+
+    @Autowired
+    private CompanyBulkRepository companyBulkRepository;
+
+    @Autowired
+    private StationRepository stationRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private long insertStation(long companyId) {
+        var station = new Station("SName", 1.0, 2.0, new Company(companyId, null, null));
+
+        return stationBulkRepository.insertAll(List.of(station)).get(0);
+    }
+
+    @Test
+    @Transactional
+    void updateSetsNonNullFieldsAndReturnsOldLocation() {
+        List<Long> companyIds = companyBulkRepository.insertAll(List.of("First", "Second"), Arrays.asList(null, null));
+        long id = insertStation(companyIds.get(0));
+
+        PatchedStation patchedStation = stationWriteRepository.update(id, null, 3.0, null, companyIds.get(1))
+                .orElseThrow();
+
+        assertEquals(new GeoPoint(1.0, 2.0), patchedStation.oldLocation());
+        assertEquals("SName", patchedStation.station().getName());
+        assertEquals(3.0, patchedStation.station().getLatitude());
+        assertEquals(2.0, patchedStation.station().getLongitude());
+        assertEquals(companyIds.get(1), patchedStation.station().getCompany().getId());
+        assertEquals(1, patchedStation.station().getVersion());
+        assertEquals(3.0, stationRepository.findById(id).orElseThrow().getLatitude());
+    }
+
+    @Test
+    void updateEvictsCachedStation() {
+        long companyId = companyBulkRepository.insertAll(List.of("First"), Arrays.asList((Long) null)).get(0);
+        long id = insertStation(companyId);
+        stationRepository.findById(id);
+        assertTrue(entityManagerFactory.getCache().contains(Station.class, id));
+
+        stationWriteRepository.update(id, "New Name", null, null, null);
+
+        assertFalse(entityManagerFactory.getCache().contains(Station.class, id));
+        assertEquals("New Name", stationRepository.findById(id).orElseThrow().getName());
+    }
+
+    @Test
+    @Transactional
+    void updateReturnsEmptyOnAbsentId() {
+        assertEquals(Optional.empty(), stationWriteRepository.update(1, "SName", null, null, null));
+    }
+
+    @Test
+    @Transactional
+    void updateThrowsOnUnknownCompany() {
+        long companyId = companyBulkRepository.insertAll(List.of("First"), Arrays.asList((Long) null)).get(0);
+        long id = insertStation(companyId);
+
+        var exception = assertThrows(
+                DataIntegrityViolationException.class,
+                () -> stationWriteRepository.update(id, null, null, null, companyId + 1)
+        );
+        // The services tell an unknown reference from other violations by the state
+        assertEquals("23503", ((SQLException) exception.getMostSpecificCause()).getSQLState());
+    }
+
+    @Test
+    @Transactional
+    void deleteReturnsLocation() {
+        long companyId = companyBulkRepository.insertAll(List.of("First"), Arrays.asList((Long) null)).get(0);
+        long id = insertStation(companyId);
+
+        assertEquals(Optional.of(new GeoPoint(1.0, 2.0)), stationWriteRepository.delete(id));
+        assertFalse(stationRepository.existsById(id));
+    }
+
+    @Test
+    @Transactional
+    void deleteReturnsEmptyOnAbsentId() {
+        assertEquals(Optional.empty(), stationWriteRepository.delete(1));
+    }
+}
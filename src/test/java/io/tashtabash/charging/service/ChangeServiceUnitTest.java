@@ -0,0 +1,100 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+import io.tashtabash.charging.repository.ChangeLogEntry.EntityType;
+import io.tashtabash.charging.repository.ChangeLogEntry.Operation;
+import io.tashtabash.charging.repository.ChangeLogPosition;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+
+@SpringBootTest
+class ChangeServiceUnitTest {
+    @Mock
+    ChangeLogRepository changeLogRepository;
+
+    @Mock
+    CompanyService companyService;
+
+    @Mock
+    StationService stationService;
+
+    @InjectMocks
+    ChangeService changeService;
+
+    private static ChangeLogEntry entry(long seq, EntityType entityType, long entityId, Operation operation) {
+        return new ChangeLogEntry(seq, 700, entityType, entityId, operation, Instant.EPOCH);
+    }
+
+    @Test
+    void getChangesAttachesCurrentState() {
+        var company = new Company(1, "Name", null);
+        var station = new Station(2, "SName", 0.0, 1.1, company);
+        var entries = List.of(
+                entry(5, EntityType.COMPANY, 1, Operation.INSERT),
+                entry(6, EntityType.STATION, 2, Operation.UPDATE),
+                entry(7, EntityType.STATION, 3, Operation.DELETE)
+        );
+        var since = new ChangeLogPosition(700, 4);
+        when(changeLogRepository.findAfter(since, 10))
+                .thenReturn(entries);
+        when(changeLogRepository.findHorizon())
+                .thenReturn(new ChangeLogPosition(700, 4));
+        when(companyService.getCompaniesById(Set.of(1L)))
+                .thenReturn(Map.of(1L, company));
+        when(stationService.getStationsById(Set.of(2L)))
+                .thenReturn(Map.of(2L, station));
+
+        var changes = changeService.getChanges(since, 10);
+
+        assertEquals(
+                List.of(
+                        new Change(entries.get(0), company, null),
+                        new Change(entries.get(1), null, station),
+                        new Change(entries.get(2), null, null)
+                ),
+                changes
+        );
+    }
+
+    @Test
+    void getChangesLeavesStateOfDeletedEntitiesEmpty() {
+        var entries = List.of(entry(5, EntityType.COMPANY, 1, Operation.UPDATE));
+        when(changeLogRepository.findAfter(ChangeLogPosition.START, 10))
+                .thenReturn(entries);
+        when(companyService.getCompaniesById(Set.of(1L)))
+                .thenReturn(Map.of());
+
+        var changes = changeService.getChanges(ChangeLogPosition.START, 10);
+
+        assertEquals(List.of(new Change(entries.get(0), null, null)), changes);
+    }
+
+    @Test
+    void getChangesThrowsExpiredOnCursorBeforeHorizon() {
+        var since = new ChangeLogPosition(700, 4);
+        when(changeLogRepository.findHorizon())
+                .thenReturn(new ChangeLogPosition(700, 5));
+
+        assertThrows(
+                ExpiredChangeCursorException.class,
+                () -> changeService.getChanges(since, 10)
+        );
+        verify(companyService, never())
+                .getCompaniesById(any());
+    }
+}
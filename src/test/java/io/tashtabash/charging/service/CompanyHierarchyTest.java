@@ -0,0 +1,116 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.repository.CompanyParent;
+import io.tashtabash.charging.repository.CompanyRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+class CompanyHierarchyTest {
+    private CompanyHierarchy companyHierarchy;
+
+    private static CompanyParent companyParent(long id, Long parentCompanyId) {
+        return new CompanyParent() {
+            @Override
+            public long getId() {
+                return id;
+            }
+
+            @Override
+            public Long getParentCompanyId() {
+                return parentCompanyId;
+            }
+        };
+    }
+
+    // 1 -> 2 -> 3, 1 -> 4, 5
+    @BeforeEach
+    void setUp() {
+        var companyRepository = mock(CompanyRepository.class);
+        when(companyRepository.findAllParents())
+                .thenReturn(List.of(
+                        companyParent(3, 2L),
+                        companyParent(1, null),
+                        companyParent(2, 1L),
+                        companyParent(4, 1L),
+                        companyParent(5, null)
+                ));
+        companyHierarchy = new CompanyHierarchy(companyRepository, true);
+        companyHierarchy.load();
+    }
+
+    @Test
+    void isReadyAfterLoad() {
+        assertTrue(companyHierarchy.isReady());
+        assertFalse(new CompanyHierarchy(mock(CompanyRepository.class), false).isReady());
+    }
+
+    @Test
+    void ancestors() {
+        assertEquals(List.of(2L, 1L), companyHierarchy.ancestors(3));
+        assertEquals(List.of(), companyHierarchy.ancestors(1));
+        assertEquals(List.of(), companyHierarchy.ancestors(10));
+    }
+
+    @Test
+    void descendants() {
+        assertThat(companyHierarchy.descendants(1))
+                .containsExactlyInAnyOrder(2L, 3L, 4L);
+        assertEquals(List.of(), companyHierarchy.descendants(5));
+    }
+
+    @Test
+    void wouldCreateCycle() {
+        assertTrue(companyHierarchy.wouldCreateCycle(1, 3));
+        assertTrue(companyHierarchy.wouldCreateCycle(2, 2));
+        assertFalse(companyHierarchy.wouldCreateCycle(3, 4));
+        assertFalse(companyHierarchy.wouldCreateCycle(1, 5));
+    }
+
+    @Test
+    void onCompanyChangedAddsAndMovesCompany() {
+        companyHierarchy.onCompanyChanged(CompanyChangedEvent.saved(6, 5L));
+        companyHierarchy.onCompanyChanged(CompanyChangedEvent.saved(2, 5L));
+
+        assertTrue(companyHierarchy.contains(6));
+        assertEquals(List.of(2L, 5L), companyHierarchy.ancestors(3));
+        assertEquals(List.of(4L), companyHierarchy.descendants(1));
+        assertThat(companyHierarchy.descendants(5))
+                .containsExactlyInAnyOrder(6L, 2L, 3L);
+    }
+
+    @Test
+    void onCompanyChangedRemovesSubtree() {
+        companyHierarchy.onCompanyChanged(CompanyChangedEvent.deleted(2));
+
+        assertFalse(companyHierarchy.contains(2));
+        assertFalse(companyHierarchy.contains(3));
+        assertTrue(companyHierarchy.contains(1));
+        assertEquals(List.of(4L), companyHierarchy.descendants(1));
+    }
+
+    @Test
+    void loadReplaysEventsCommittedDuringRead() {
+        var companyRepository = mock(CompanyRepository.class);
+        var reloadedHierarchy = new CompanyHierarchy(companyRepository, true);
+        // The read misses the new Company 6 and already sees the deletion of 4
+        when(companyRepository.findAllParents())
+                .thenAnswer(invocation -> {
+                    reloadedHierarchy.onCompanyChanged(CompanyChangedEvent.saved(6, 1L));
+                    reloadedHierarchy.onCompanyChanged(CompanyChangedEvent.deleted(4));
+                    return List.of(companyParent(1, null));
+                });
+
+        reloadedHierarchy.load();
+
+        assertTrue(reloadedHierarchy.isReady());
+        assertEquals(List.of(6L), reloadedHierarchy.descendants(1));
+        assertFalse(reloadedHierarchy.contains(4));
+    }
+}
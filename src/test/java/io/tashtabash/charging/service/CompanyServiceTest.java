@@ -0,0 +1,61 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.repository.CompanyRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CompanyServiceTest {
+    @Autowired
+    CompanyService companyService;
+
+    @Autowired
+    CompanyRepository companyRepository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void concurrentMovesDontCreateCycle() throws Exception {
+        long firstId = companyService.saveCompany("First", null).getId();
+        long secondId = companyService.saveCompany("Second", null).getId();
+        var moved = new CountDownLatch(1);
+        var commitReleased = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            var firstMove = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                companyService.patchCompany(firstId, null, true, secondId);
+                moved.countDown();
+                try {
+                    commitReleased.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            moved.await();
+            var secondMove = executor.submit(() -> companyService.patchCompany(secondId, null, true, firstId));
+            // Gives the second move time to wait for the first one
+            Thread.sleep(200);
+            commitReleased.countDown();
+            firstMove.get();
+
+            var exception = assertThrows(ExecutionException.class, secondMove::get);
+            assertInstanceOf(IncorrectCompanyFormatException.class, exception.getCause());
+            assertFalse(companyRepository.isAncestor(firstId, secondId));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package io.tashtabash.charging.service;
 
 import io.tashtabash.charging.entity.Company;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import io.tashtabash.charging.repository.CompanyBulkRepository;
+import io.tashtabash.charging.geo.GeoPoint;
 import io.tashtabash.charging.repository.CompanyRepository;
+import io.tashtabash.charging.repository.CompanyWriteRepository;
+import io.tashtabash.charging.repository.DeletedCompanySubtree;
+import io.tashtabash.charging.repository.PatchedCompany;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -20,6 +33,21 @@ class CompanyServiceUnitTest {
     @Mock
     CompanyRepository companyRepository;
 
+    @Mock
+    CompanyBulkRepository companyBulkRepository;
+
+    @Mock
+    ChangeLogRepository changeLogRepository;
+
+    @Mock
+    CompanyWriteRepository companyWriteRepository;
+
+    @Mock
+    CompanyHierarchy companyHierarchy;
+
+    @Mock
+    ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     CompanyService companyService;
 
@@ -37,6 +65,8 @@ class CompanyServiceUnitTest {
                 expectedCompany,
                 company
         );
+        verify(companyRepository, times(1))
+                .insertRootIntoClosure(expectedCompany.getId());
     }
 
     @Test
@@ -54,6 +84,8 @@ class CompanyServiceUnitTest {
                 expectedCompany,
                 company
         );
+        verify(companyRepository, times(1))
+                .insertIntoClosure(expectedCompany.getId(), parentCompany.getId());
     }
 
     @Test
@@ -71,6 +103,100 @@ class CompanyServiceUnitTest {
         );
     }
 
+    @Test
+    void saveCompaniesInsertsByLevels() {
+        var existingCompany = new Company(1, "Existing", null);
+        var rows = List.of(
+                new CompanyImportRow("grandchild", "Grandchild", "child", null),
+                new CompanyImportRow("child", "Child", "root", null),
+                new CompanyImportRow("root", "Root", null, null),
+                new CompanyImportRow("attached", "Attached", null, existingCompany.getId())
+        );
+        when(companyRepository.findAllByIdInOrder(List.of(existingCompany.getId())))
+                .thenReturn(List.of(existingCompany));
+        when(companyBulkRepository.insertAll(List.of("Root", "Attached"), Arrays.asList(null, 1L)))
+                .thenReturn(List.of(10L, 11L));
+        when(companyBulkRepository.insertAll(List.of("Child"), List.of(10L)))
+                .thenReturn(List.of(12L));
+        when(companyBulkRepository.insertAll(List.of("Grandchild"), List.of(12L)))
+                .thenReturn(List.of(13L));
+
+        var ids = companyService.saveCompanies(rows);
+
+        assertEquals(List.of("grandchild", "child", "root", "attached"), List.copyOf(ids.keySet()));
+        assertEquals(List.of(13L, 12L, 10L, 11L), List.copyOf(ids.values()));
+        verify(companyBulkRepository, times(3))
+                .insertAll(any(), any());
+        verify(eventPublisher, times(1))
+                .publishEvent(CompanyChangedEvent.created(13, 12L));
+        verify(changeLogRepository, times(1))
+                .append(ChangeLogEntry.EntityType.COMPANY, ChangeLogEntry.Operation.INSERT, List.of(10L, 11L, 12L, 13L));
+    }
+
+    @Test
+    void saveCompaniesThrowsIncorrectFormatExceptionOnCycle() {
+        var rows = List.of(
+                new CompanyImportRow("root", "Root", null, null),
+                new CompanyImportRow("a", "A", "c", null),
+                new CompanyImportRow("b", "B", "a", null),
+                new CompanyImportRow("c", "C", "b", null)
+        );
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.saveCompanies(rows)
+        );
+        verify(companyBulkRepository, never())
+                .insertAll(any(), any());
+    }
+
+    @Test
+    void saveCompaniesThrowsIncorrectFormatExceptionOnSelfParent() {
+        var rows = List.of(new CompanyImportRow("a", "A", "a", null));
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.saveCompanies(rows)
+        );
+    }
+
+    @Test
+    void saveCompaniesThrowsIncorrectFormatExceptionOnUnknownParentKey() {
+        var rows = List.of(new CompanyImportRow("a", "A", "b", null));
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.saveCompanies(rows)
+        );
+    }
+
+    @Test
+    void saveCompaniesThrowsIncorrectFormatExceptionOnDuplicateKey() {
+        var rows = List.of(
+                new CompanyImportRow("a", "A", null, null),
+                new CompanyImportRow("a", "B", null, null)
+        );
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.saveCompanies(rows)
+        );
+    }
+
+    @Test
+    void saveCompaniesThrowsUnprocessableExceptionOnUnknownParentId() {
+        var rows = List.of(new CompanyImportRow("a", "A", null, 5L));
+        when(companyRepository.findAllByIdInOrder(List.of(5L)))
+                .thenReturn(Arrays.asList((Company) null));
+
+        assertThrows(
+                UnprocessableCompanyException.class,
+                () -> companyService.saveCompanies(rows)
+        );
+        verify(companyBulkRepository, never())
+                .insertAll(any(), any());
+    }
+
     @Test
         void getCompanies() {
             var parentCompany = new Company(1, "Test 1", null);
@@ -79,7 +205,7 @@ class CompanyServiceUnitTest {
                     new Company(3, "Test 3", parentCompany),
                     new Company(4, "Test 4", null)
             );
-        when(companyRepository.findAll())
+        when(companyRepository.findAllWithParentCompany())
                 .thenReturn(expectedCompanies);
 
         List<Company> companies = companyService.getCompanies();
@@ -88,6 +214,17 @@ class CompanyServiceUnitTest {
                 .containsExactlyInAnyOrderElementsOf(expectedCompanies);
     }
 
+    @Test
+    void getCompaniesPage() {
+        var expectedCompanies = List.of(new Company(3, "Test 3", null));
+        when(companyRepository.findByIdGreaterThanOrderById(2, PageRequest.ofSize(1)))
+                .thenReturn(expectedCompanies);
+
+        List<Company> companies = companyService.getCompanies(2, 1);
+
+        assertEquals(expectedCompanies, companies);
+    }
+
     @Test
     void getCompany() {
         var expectedCompany = new Company(1, "Test Name", null);
@@ -141,6 +278,21 @@ class CompanyServiceUnitTest {
         assertEquals(newCompany, returnedCompany);
     }
 
+    @Test
+    void updateCompanyKeepsCurrentVersion() {
+        var company = new Company(1, "Name", null);
+        company.setVersion(3);
+        var newCompany = new Company(1, "New Name", null);
+        when(companyRepository.findById(company.getId()))
+                .thenReturn(Optional.of(company));
+        when(companyRepository.save(newCompany))
+                .thenReturn(newCompany);
+
+        companyService.updateCompany(newCompany);
+
+        assertEquals(3, newCompany.getVersion());
+    }
+
     @Test
     void updateCompanyWithParent() {
         var newParentCompany = new Company(2, "Test Name", null);
@@ -157,9 +309,114 @@ class CompanyServiceUnitTest {
 
         verify(companyRepository, times(1))
                 .save(newCompany);
+        verify(companyRepository, times(1))
+                .detachSubtreeInClosure(company.getId());
+        verify(companyRepository, times(1))
+                .attachSubtreeInClosure(company.getId(), newParentCompany.getId());
         assertEquals(newCompany, returnedCompany);
     }
 
+    @Test
+    void updateCompanyKeepsClosureOnSameParent() {
+        var parentCompany = new Company(2, "Test Name", null);
+        var company = new Company(3, "Name", parentCompany);
+        var newCompany = new Company(3, "New Name", parentCompany);
+        when(companyRepository.findById(company.getId()))
+                .thenReturn(Optional.of(company));
+        when(companyRepository.findById(parentCompany.getId()))
+                .thenReturn(Optional.of(parentCompany));
+        when(companyRepository.save(newCompany))
+                .thenReturn(newCompany);
+
+        companyService.updateCompany(newCompany);
+
+        verify(companyRepository, never())
+                .detachSubtreeInClosure(anyLong());
+        verify(companyRepository, never())
+                .attachSubtreeInClosure(anyLong(), anyLong());
+    }
+
+    @Test
+    void updateCompanyThrowsIncorrectFormatExceptionOnCycle() {
+        var company = new Company(1, "Name", null);
+        var descendantCompany = new Company(3, "Grandchild", new Company(2, "Child", company));
+        var newCompany = new Company(1, "Name", descendantCompany);
+        when(companyRepository.findById(company.getId()))
+                .thenReturn(Optional.of(company));
+        when(companyRepository.findById(descendantCompany.getId()))
+                .thenReturn(Optional.of(descendantCompany));
+        when(companyRepository.isAncestor(company.getId(), descendantCompany.getId()))
+                .thenReturn(true);
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.updateCompany(newCompany)
+        );
+        verify(companyRepository, never())
+                .save(any());
+    }
+
+    @Test
+    void updateCompanyChecksCycleInHierarchy() {
+        var company = new Company(1, "Name", null);
+        var descendantCompany = new Company(3, "Grandchild", new Company(2, "Child", company));
+        var newCompany = new Company(1, "Name", descendantCompany);
+        when(companyRepository.findById(company.getId()))
+                .thenReturn(Optional.of(company));
+        when(companyHierarchy.isReady())
+                .thenReturn(true);
+        when(companyHierarchy.contains(descendantCompany.getId()))
+                .thenReturn(true);
+        when(companyHierarchy.wouldCreateCycle(company.getId(), descendantCompany.getId()))
+                .thenReturn(true);
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.updateCompany(newCompany)
+        );
+        verify(companyRepository, never())
+                .findById(descendantCompany.getId());
+        verify(companyRepository, never())
+                .isAncestor(anyLong(), anyLong());
+    }
+
+    @Test
+    void updateCompanyPublishesEventOnNewParent() {
+        var newParentCompany = new Company(2, "Test Name", null);
+        var company = new Company(3, "Name", null);
+        var newCompany = new Company(3, "New Name", newParentCompany);
+        when(companyRepository.findById(company.getId()))
+                .thenReturn(Optional.of(company));
+        when(companyHierarchy.isReady())
+                .thenReturn(true);
+        when(companyHierarchy.contains(newParentCompany.getId()))
+                .thenReturn(true);
+        when(companyRepository.save(newCompany))
+                .thenReturn(newCompany);
+
+        companyService.updateCompany(newCompany);
+
+        verify(eventPublisher, times(1))
+                .publishEvent(CompanyChangedEvent.saved(company.getId(), newParentCompany.getId()));
+    }
+
+    @Test
+    void updateCompanyLooksUpParentMissingInHierarchy() {
+        var company = new Company(1, "Name", null);
+        var newCompany = new Company(1, "Name", new Company(2, "Test Name", null));
+        when(companyRepository.findById(company.getId()))
+                .thenReturn(Optional.of(company));
+        when(companyHierarchy.isReady())
+                .thenReturn(true);
+
+        assertThrows(
+                UnprocessableCompanyException.class,
+                () -> companyService.updateCompany(newCompany)
+        );
+        verify(companyRepository, times(1))
+                .findById(2L);
+    }
+
     @Test
     void updateCompanyThrowsUnprocessableExceptionOnUnknownParent() {
         var nonExistentCompany = new Company(2, "Test Name", null);
@@ -201,22 +458,172 @@ class CompanyServiceUnitTest {
     }
 
     @Test
-    void deleteCompany() {
-        var company = new Company(1, "Name", null);
-        doNothing()
-                .when(companyRepository)
-                .deleteById(company.getId());
-        when(companyRepository.findById(company.getId()))
-                .thenReturn(Optional.of(company));
+    void patchCompanyRenames() {
+        var company = new Company(1, "New Name", new Company(2, null, null));
+        when(companyWriteRepository.update(1, "New Name", false, null))
+                .thenReturn(Optional.of(new PatchedCompany(company, 2L)));
+
+        var returnedCompany = companyService.patchCompany(1, "New Name", false, null);
+
+        assertEquals(company, returnedCompany);
+        verify(companyRepository, never())
+                .findById(anyLong());
+        verify(companyRepository, never())
+                .detachSubtreeInClosure(anyLong());
+        verify(changeLogRepository, times(1))
+                .append(ChangeLogEntry.EntityType.COMPANY, ChangeLogEntry.Operation.UPDATE, List.of(1L));
+    }
+
+    @Test
+    void patchCompanyMovesClosureOnNewParent() {
+        var company = new Company(3, "Name", new Company(2, null, null));
+        when(companyWriteRepository.update(3, null, true, 2L))
+                .thenReturn(Optional.of(new PatchedCompany(company, null)));
+
+        companyService.patchCompany(3, null, true, 2L);
+
+        verify(companyWriteRepository, times(1))
+                .lockHierarchy(true);
+        verify(companyRepository, times(1))
+                .detachSubtreeInClosure(3);
+        verify(companyRepository, times(1))
+                .attachSubtreeInClosure(3, 2);
+        verify(eventPublisher, times(1))
+                .publishEvent(CompanyChangedEvent.saved(3, 2L));
+    }
 
-        companyService.deleteCompany(company.getId());
+    @Test
+    void patchCompanyDetachesClosureOnNullParent() {
+        var company = new Company(3, "Name", null);
+        when(companyWriteRepository.update(3, null, true, null))
+                .thenReturn(Optional.of(new PatchedCompany(company, 2L)));
+
+        companyService.patchCompany(3, null, true, null);
 
         verify(companyRepository, times(1))
-                .deleteById(company.getId());
+                .detachSubtreeInClosure(3);
+        verify(companyRepository, never())
+                .attachSubtreeInClosure(anyLong(), anyLong());
+    }
+
+    @Test
+    void patchCompanyThrowsIncorrectFormatExceptionOnCycle() {
+        when(companyHierarchy.isReady())
+                .thenReturn(true);
+        when(companyHierarchy.wouldCreateCycle(1, 3))
+                .thenReturn(true);
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.patchCompany(1, null, true, 3L)
+        );
+        verify(companyWriteRepository, never())
+                .update(anyLong(), any(), anyBoolean(), any());
+    }
+
+    @Test
+    void patchCompanyThrowsIncorrectFormatExceptionOnIdEqualsParentId() {
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.patchCompany(1, null, true, 1L)
+        );
+    }
+
+    @Test
+    void patchCompanyThrowsUnprocessableExceptionOnUnknownParent() {
+        when(companyWriteRepository.update(1, null, true, 2L))
+                .thenThrow(new DataIntegrityViolationException(
+                        "fk_parent_id",
+                        new SQLException("fk_parent_id", "23503")
+                ));
+
+        assertThrows(
+                UnprocessableCompanyException.class,
+                () -> companyService.patchCompany(1, null, true, 2L)
+        );
+    }
+
+    @Test
+    void patchCompanyRethrowsOtherIntegrityViolations() {
+        when(companyWriteRepository.update(1, "Name", false, null))
+                .thenThrow(new DataIntegrityViolationException(
+                        "company_pkey",
+                        new SQLException("company_pkey", "23505")
+                ));
+
+        assertThrows(
+                DataIntegrityViolationException.class,
+                () -> companyService.patchCompany(1, "Name", false, null)
+        );
+    }
+
+    @Test
+    void patchCompanyThrowsIncorrectFormatExceptionOnLongName() {
+        String name = "N".repeat(Company.MAX_NAME_LENGTH + 1);
+
+        assertThrows(
+                IncorrectCompanyFormatException.class,
+                () -> companyService.patchCompany(1, name, false, null)
+        );
+        verify(companyWriteRepository, never())
+                .update(anyLong(), any(), anyBoolean(), any());
+    }
+
+    @Test
+    void patchCompanyThrowsNotFoundExceptionOnAbsentId() {
+        when(companyWriteRepository.update(1, "Name", false, null))
+                .thenReturn(Optional.empty());
+
+        assertThrows(
+                NoCompanyFoundException.class,
+                () -> companyService.patchCompany(1, "Name", false, null)
+        );
+    }
+
+    @Test
+    void deleteCompany() {
+        when(companyWriteRepository.deleteSubtree(1))
+                .thenReturn(Optional.of(new DeletedCompanySubtree(List.of(1L), Map.of())));
+
+        companyService.deleteCompany(1);
+
+        verify(companyWriteRepository, times(1))
+                .deleteSubtree(1);
+        verify(companyRepository, never())
+                .findById(anyLong());
+        verify(eventPublisher, times(1))
+                .publishEvent(CompanyChangedEvent.deleted(1));
+    }
+
+    @Test
+    void deleteCompanyPublishesDeletedStations() {
+        when(companyWriteRepository.deleteSubtree(1))
+                .thenReturn(Optional.of(new DeletedCompanySubtree(List.of(1L), Map.of(7L, new GeoPoint(0.0, 1.1)))));
+
+        companyService.deleteCompany(1);
+
+        verify(eventPublisher, times(1))
+                .publishEvent(new StationsChangedEvent(List.of(StationChangedEvent.deleted(7, new GeoPoint(0.0, 1.1)))));
+    }
+
+    @Test
+    void deleteCompanyLogsDeletedSubtree() {
+        when(companyWriteRepository.deleteSubtree(1))
+                .thenReturn(Optional.of(new DeletedCompanySubtree(List.of(3L, 2L, 1L), Map.of(7L, new GeoPoint(0.0, 0.0)))));
+
+        companyService.deleteCompany(1);
+
+        verify(changeLogRepository, times(1))
+                .append(ChangeLogEntry.EntityType.STATION, ChangeLogEntry.Operation.DELETE, List.of(7L));
+        verify(changeLogRepository, times(1))
+                .append(ChangeLogEntry.EntityType.COMPANY, ChangeLogEntry.Operation.DELETE, List.of(3L, 2L, 1L));
     }
 
     @Test
     void deleteCompanyThrowsNotFoundExceptionOnAbsentId() {
+        when(companyWriteRepository.deleteSubtree(1))
+                .thenReturn(Optional.empty());
+
         assertThrows(
                 NoCompanyFoundException.class,
                 () -> companyService.deleteCompany(1)
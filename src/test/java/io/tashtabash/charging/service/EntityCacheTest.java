@@ -0,0 +1,77 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.repository.StationRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class EntityCacheTest {
+    @Autowired
+    CompanyService companyService;
+
+    @Autowired
+    StationService stationService;
+
+    @Autowired
+    StationRepository stationRepository;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    Statistics statistics;
+
+    @BeforeEach
+    void initStatistics() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    void getCompanyIsServedFromCache() {
+        long id = companyService.saveCompany("Company", null).getId();
+        statistics.clear();
+
+        companyService.getCompany(id);
+        companyService.getCompany(id);
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(2, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void saveCompanyKeepsCachedStations() {
+        long companyId = companyService.saveCompany("Company", null).getId();
+        long stationId = stationService.saveStation("Station", 1.0, 1.0, companyId).getId();
+        // The parent lookup of the save is served from the cache as well
+        companyService.saveCompany("Child", companyId);
+        statistics.clear();
+
+        stationService.getStation(stationId);
+
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void deleteCompanyEvictsCascadedRows() {
+        long rootId = companyService.saveCompany("Root", null).getId();
+        long childId = companyService.saveCompany("Child", rootId).getId();
+        long stationId = stationService.saveStation("Station", 1.0, 1.0, childId).getId();
+        companyService.getCompany(childId);
+        stationService.getStation(stationId);
+
+        companyService.deleteCompany(rootId);
+
+        assertThrows(NoCompanyFoundException.class, () -> companyService.getCompany(childId));
+        assertTrue(stationRepository.findById(stationId).isEmpty());
+    }
+}
@@ -0,0 +1,70 @@
+package io.tashtabash.charging.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class SingleFlightTest {
+    private final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+    @Test
+    void executeSharesCallInFlight() throws Exception {
+        var calls = new AtomicInteger();
+        var callStarted = new CountDownLatch(1);
+        var callReleased = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            var leader = executor.submit(() -> singleFlight.execute("key", () -> {
+                callStarted.countDown();
+                await(callReleased);
+                return calls.incrementAndGet();
+            }));
+            callStarted.await();
+            var follower = executor.submit(() -> singleFlight.execute("key", calls::incrementAndGet));
+            // Gives the follower time to join the call in flight
+            Thread.sleep(100);
+            callReleased.countDown();
+
+            assertEquals(1, leader.get());
+            assertEquals(1, follower.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void executeRunsAgainAfterCallCompletes() {
+        var calls = new AtomicInteger();
+
+        singleFlight.execute("key", calls::incrementAndGet);
+        int result = singleFlight.execute("key", calls::incrementAndGet);
+
+        assertEquals(2, result);
+    }
+
+    @Test
+    void executeRethrowsAndReleasesKeyOnException() {
+        assertThrows(
+                NoCompanyFoundException.class,
+                () -> singleFlight.execute("key", () -> {
+                    throw new NoCompanyFoundException(1);
+                })
+        );
+
+        assertEquals(1, singleFlight.execute("key", () -> 1));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
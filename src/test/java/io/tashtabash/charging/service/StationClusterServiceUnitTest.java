@@ -0,0 +1,100 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.repository.StationClusterRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+
+@SpringBootTest
+class StationClusterServiceUnitTest {
+    @Mock
+    StationClusterRepository stationClusterRepository;
+
+    @InjectMocks
+    StationClusterService stationClusterService;
+
+    @Test
+    void onStationCreated() {
+        var location = new GeoPoint(1.0, 2.0);
+
+        stationClusterService.onStationChanged(StationChangedEvent.created(1, location));
+
+        verify(stationClusterRepository, times(1))
+                .add(List.of(location));
+        verify(stationClusterRepository, never())
+                .remove(any());
+    }
+
+    @Test
+    void onStationUpdated() {
+        var oldLocation = new GeoPoint(1.0, 2.0);
+        var newLocation = new GeoPoint(3.0, 4.0);
+
+        stationClusterService.onStationChanged(StationChangedEvent.updated(1, oldLocation, newLocation));
+
+        verify(stationClusterRepository, times(1))
+                .remove(List.of(oldLocation));
+        verify(stationClusterRepository, times(1))
+                .add(List.of(newLocation));
+    }
+
+    @Test
+    void onStationsChangedAppliesChangesTogether() {
+        var location1 = new GeoPoint(1.0, 2.0);
+        var location2 = new GeoPoint(3.0, 4.0);
+        var location3 = new GeoPoint(5.0, 6.0);
+
+        stationClusterService.onStationsChanged(new StationsChangedEvent(List.of(
+                StationChangedEvent.created(1, location1),
+                StationChangedEvent.created(2, location2),
+                StationChangedEvent.deleted(3, location3)
+        )));
+
+        verify(stationClusterRepository, times(1))
+                .add(List.of(location1, location2));
+        verify(stationClusterRepository, times(1))
+                .remove(List.of(location3));
+    }
+
+    @Test
+    void onStationDeleted() {
+        var location = new GeoPoint(1.0, 2.0);
+
+        stationClusterService.onStationChanged(StationChangedEvent.deleted(1, location));
+
+        verify(stationClusterRepository, times(1))
+                .remove(List.of(location));
+        verify(stationClusterRepository, never())
+                .add(any());
+    }
+
+    @Test
+    void clusterZoomKeepsSmallBox() {
+        assertEquals(5, stationClusterService.clusterZoom(0.0, 0.0, 10.0, 10.0, 5));
+    }
+
+    @Test
+    void clusterZoomIsCappedByPrecomputedLevels() {
+        assertEquals(
+                StationClusterRepository.MAX_CLUSTER_ZOOM,
+                stationClusterService.clusterZoom(0.0, 0.0, 0.01, 0.01, 20)
+        );
+    }
+
+    @Test
+    void clusterZoomIsLoweredForLargeBox() {
+        int zoom = stationClusterService.clusterZoom(-80.0, -170.0, 80.0, 170.0, 15);
+
+        assertEquals(4, zoom);
+        assertTrue(340.0 / StationClusterRepository.cellDegrees(zoom) <= StationClusterService.MAX_CELLS_PER_SIDE);
+    }
+}
@@ -0,0 +1,176 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.geo.PointGrid;
+import io.tashtabash.charging.repository.StationLocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+class StationSearchCacheTest {
+    private StationSearchCache stationSearchCache;
+
+    private StationSearchCache.LocationLoader loader;
+
+    private final List<StationLocation> locations = new ArrayList<>();
+
+    private static StationLocation stationLocation(long id, double latitude, double longitude) {
+        return new StationLocation() {
+            @Override
+            public long getId() {
+                return id;
+            }
+
+            @Override
+            public double getLatitude() {
+                return latitude;
+            }
+
+            @Override
+            public double getLongitude() {
+                return longitude;
+            }
+        };
+    }
+
+    private static List<Long> ids(List<PointGrid.Hit> hits) {
+        return hits.stream()
+                .map(PointGrid.Hit::id)
+                .toList();
+    }
+
+    // Filters by the distance in Java, like the database would
+    @BeforeEach
+    void setUp() {
+        stationSearchCache = new StationSearchCache(true, 0.01, 100, Duration.ofMinutes(5));
+        loader = mock(StationSearchCache.LocationLoader.class);
+        when(loader.findLocationsInRadius(anyDouble(), anyDouble(), anyDouble()))
+                .thenAnswer(invocation -> {
+                    double latitude = invocation.getArgument(0);
+                    double longitude = invocation.getArgument(1);
+                    double radiusKm = invocation.getArgument(2);
+
+                    return locations.stream()
+                            .filter(location -> GeoPoint.distanceKm(
+                                    latitude,
+                                    longitude,
+                                    location.getLatitude(),
+                                    location.getLongitude()
+                            ) <= radiusKm)
+                            .toList();
+                });
+        locations.add(stationLocation(1, 52.0, 13.0));
+        locations.add(stationLocation(2, 52.02, 13.0));
+        locations.add(stationLocation(3, 52.1, 13.0));
+        locations.add(stationLocation(4, 48.0, 2.0));
+    }
+
+    @Test
+    void searchInRadiusReturnsExactResultsOrderedByDistance() {
+        var hits = stationSearchCache.searchInRadius(52.021, 13.0, 5.0, loader);
+
+        assertEquals(List.of(2L, 1L), ids(hits));
+        assertEquals(GeoPoint.distanceKm(52.021, 13.0, 52.02, 13.0), hits.get(0).distanceKm(), 1e-9);
+    }
+
+    @Test
+    void searchInRadiusReusesEntryForCenterInSameCell() {
+        var first = stationSearchCache.searchInRadius(52.001, 13.0, 1.5, loader);
+        var second = stationSearchCache.searchInRadius(52.009, 13.0, 2.0, loader);
+
+        verify(loader, times(1))
+                .findLocationsInRadius(anyDouble(), anyDouble(), anyDouble());
+        assertEquals(List.of(1L), ids(first));
+        assertEquals(List.of(1L, 2L), ids(second));
+    }
+
+    @Test
+    void searchInRadiusLoadsAgainForAnotherRadiusBucket() {
+        stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+        var hits = stationSearchCache.searchInRadius(52.0, 13.0, 20.0, loader);
+
+        verify(loader, times(2))
+                .findLocationsInRadius(anyDouble(), anyDouble(), anyDouble());
+        assertEquals(List.of(1L, 2L, 3L), ids(hits));
+    }
+
+    @Test
+    void stationChangeEvictsOnlyCoveringEntries() {
+        stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+        stationSearchCache.searchInRadius(48.0, 2.0, 3.0, loader);
+        locations.add(stationLocation(5, 52.001, 13.0));
+
+        stationSearchCache.onStationChanged(StationChangedEvent.created(5, new GeoPoint(52.001, 13.0)));
+        var hits = stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+        stationSearchCache.searchInRadius(48.0, 2.0, 3.0, loader);
+
+        verify(loader, times(3))
+                .findLocationsInRadius(anyDouble(), anyDouble(), anyDouble());
+        assertThat(ids(hits)).containsExactly(1L, 5L, 2L);
+    }
+
+    @Test
+    void stationChangeEvictsWideEntryAwayFromItsCenter() {
+        stationSearchCache.searchInRadius(52.0, 13.0, 300.0, loader);
+        locations.add(stationLocation(5, 50.0, 13.0));
+
+        stationSearchCache.onStationChanged(StationChangedEvent.created(5, new GeoPoint(50.0, 13.0)));
+        var hits = stationSearchCache.searchInRadius(52.0, 13.0, 300.0, loader);
+
+        verify(loader, times(2))
+                .findLocationsInRadius(anyDouble(), anyDouble(), anyDouble());
+        assertThat(ids(hits)).containsExactly(1L, 2L, 3L, 5L);
+    }
+
+    @Test
+    void stationChangeEvictsReloadedEntry() {
+        stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+        stationSearchCache.onStationChanged(StationChangedEvent.updated(
+                1,
+                new GeoPoint(52.0, 13.0),
+                new GeoPoint(52.0, 13.0)
+        ));
+        stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+        locations.add(stationLocation(5, 52.001, 13.0));
+
+        stationSearchCache.onStationChanged(StationChangedEvent.created(5, new GeoPoint(52.001, 13.0)));
+        var hits = stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+
+        verify(loader, times(3))
+                .findLocationsInRadius(anyDouble(), anyDouble(), anyDouble());
+        assertThat(ids(hits)).containsExactly(1L, 5L, 2L);
+    }
+
+    @Test
+    void resultReadAcrossInvalidationIsNotStored() {
+        when(loader.findLocationsInRadius(anyDouble(), anyDouble(), anyDouble()))
+                .thenAnswer(invocation -> {
+                    stationSearchCache.onStationsChanged(new StationsChangedEvent(List.of(
+                            StationChangedEvent.deleted(4, new GeoPoint(48.0, 2.0))
+                    )));
+
+                    return List.of(locations.get(0));
+                });
+
+        stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+        stationSearchCache.searchInRadius(52.0, 13.0, 3.0, loader);
+
+        verify(loader, times(2))
+                .findLocationsInRadius(anyDouble(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    void acceptsOnlyRadiiUpToMax() {
+        assertTrue(stationSearchCache.accepts(StationSearchCache.MAX_RADIUS_KM));
+        assertFalse(stationSearchCache.accepts(StationSearchCache.MAX_RADIUS_KM + 1));
+        assertFalse(new StationSearchCache(false, 0.01, 100, Duration.ofMinutes(5)).accepts(1.0));
+    }
+}
@@ -1,16 +1,41 @@
 package io.tashtabash.charging.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.tashtabash.charging.entity.Company;
 import io.tashtabash.charging.entity.Station;
+import io.tashtabash.charging.geo.GeoPoint;
+import io.tashtabash.charging.geo.PointGrid;
+import io.tashtabash.charging.repository.ChangeLogEntry;
+import io.tashtabash.charging.repository.ChangeLogRepository;
+import io.tashtabash.charging.repository.PatchedStation;
+import io.tashtabash.charging.repository.StationBulkRepository;
+import io.tashtabash.charging.repository.StationCluster;
+import io.tashtabash.charging.repository.StationDistance;
 import io.tashtabash.charging.repository.StationRepository;
+import io.tashtabash.charging.repository.StationWriteRepository;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -23,12 +48,56 @@ class StationServiceUnitTest {
     @Mock
     StationRepository stationRepository;
 
+    @Mock
+    StationBulkRepository stationBulkRepository;
+
+    @Mock
+    StationWriteRepository stationWriteRepository;
+
+    @Mock
+    ChangeLogRepository changeLogRepository;
+
     @Mock
     CompanyService companyService;
 
+    @Mock
+    StationIndex stationIndex;
+
+    @Mock
+    StationSearchCache stationSearchCache;
+
+    @Mock
+    StationClusterService stationClusterService;
+
+    @Mock
+    ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    EntityManager entityManager;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @Spy
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     StationService stationService;
 
+    private static StationDistance stationDistance(long id, double distanceKm) {
+        return new StationDistance() {
+            @Override
+            public long getId() {
+                return id;
+            }
+
+            @Override
+            public double getDistanceKm() {
+                return distanceKm;
+            }
+        };
+    }
+
     @Test
     void saveStation() {
         var company = new Company(5, "Test Name", null);
@@ -131,6 +200,22 @@ class StationServiceUnitTest {
         );
     }
 
+    @Test
+    void updateStationKeepsCurrentVersion() {
+        var company = new Company(5, "Parent", null);
+        var station = new Station(1, "SName", 0.0, 1.1, company);
+        station.setVersion(3);
+        var newStation = new Station(1, "SName New", 0.1, -10.1, company);
+        when(stationRepository.findById(station.getId()))
+                .thenReturn(Optional.of(station));
+        when(stationRepository.save(newStation))
+                .thenReturn(newStation);
+
+        stationService.updateStation(newStation);
+
+        assertEquals(3, newStation.getVersion());
+    }
+
     @Test
     void updateStationThrowsNotFoundExceptionOnAbsentId() {
         var company = new Company(1, "Parent", null);
@@ -141,26 +226,115 @@ class StationServiceUnitTest {
         );
     }
 
+    @Test
+    void patchStation() {
+        var station = new Station(1, "SName", 0.1, -10.1, new Company(2, null, null));
+        when(stationWriteRepository.update(1, null, 0.1, -10.1, 2L))
+                .thenReturn(Optional.of(new PatchedStation(station, new GeoPoint(0.0, 1.1))));
+
+        Station patchedStation = stationService.patchStation(1, null, 0.1, -10.1, 2L);
+
+        assertEquals(station, patchedStation);
+        verify(eventPublisher, times(1))
+                .publishEvent(StationChangedEvent.updated(1, new GeoPoint(0.0, 1.1), new GeoPoint(0.1, -10.1)));
+        verify(changeLogRepository, times(1))
+                .append(ChangeLogEntry.EntityType.STATION, ChangeLogEntry.Operation.UPDATE, List.of(1L));
+        verify(stationRepository, never())
+                .findById(anyLong());
+    }
+
+    @Test
+    void patchStationThrowsUnprocessableExceptionOnUnknownCompany() {
+        when(stationWriteRepository.update(1, null, null, null, 2L))
+                .thenThrow(new DataIntegrityViolationException(
+                        "fk_company_id",
+                        new SQLException("fk_company_id", "23503")
+                ));
+
+        assertThrows(
+                UnprocessableStationException.class,
+                () -> stationService.patchStation(1, null, null, null, 2L)
+        );
+        verify(eventPublisher, never())
+                .publishEvent(any());
+    }
+
+    @Test
+    void patchStationRethrowsOtherIntegrityViolations() {
+        when(stationWriteRepository.update(1, "Name", null, null, null))
+                .thenThrow(new DataIntegrityViolationException(
+                        "station_pkey",
+                        new SQLException("station_pkey", "23505")
+                ));
+
+        assertThrows(
+                DataIntegrityViolationException.class,
+                () -> stationService.patchStation(1, "Name", null, null, null)
+        );
+    }
+
+    @Test
+    void patchStationThrowsIncorrectFormatExceptionOnLongName() {
+        String name = "N".repeat(Station.MAX_NAME_LENGTH + 1);
+
+        assertThrows(
+                IncorrectStationFormatException.class,
+                () -> stationService.patchStation(1, name, null, null, null)
+        );
+        verify(stationWriteRepository, never())
+                .update(anyLong(), any(), any(), any(), any());
+    }
+
+    @Test
+    void patchStationThrowsNotFoundExceptionOnAbsentId() {
+        when(stationWriteRepository.update(1, "Name", null, null, null))
+                .thenReturn(Optional.empty());
+
+        assertThrows(
+                NoStationFoundException.class,
+                () -> stationService.patchStation(1, "Name", null, null, null)
+        );
+    }
+
     @Test
     void deleteStation() {
-        var company = new Company(5, "Parent", null);
-        var station = new Station(1, "SName", 0.0, 1.1, company);
-        doNothing()
-                .when(stationRepository)
-                .deleteById(station.getId());
-        when(stationRepository.findById(station.getId()))
-                .thenReturn(Optional.of(station));
+        when(stationWriteRepository.delete(1))
+                .thenReturn(Optional.of(new GeoPoint(0.0, 1.1)));
 
-        stationService.deleteStation(station.getId());
+        stationService.deleteStation(1);
 
-        verify(stationRepository, times(1))
-                .deleteById(station.getId());
+        verify(stationWriteRepository, times(1))
+                .delete(1);
+        verify(stationRepository, never())
+                .findById(anyLong());
+    }
+
+    @Test
+    void deleteStationPublishesEvent() {
+        when(stationWriteRepository.delete(1))
+                .thenReturn(Optional.of(new GeoPoint(0.0, 1.1)));
+
+        stationService.deleteStation(1);
+
+        verify(eventPublisher, times(1))
+                .publishEvent(StationChangedEvent.deleted(1, new GeoPoint(0.0, 1.1)));
+    }
+
+    @Test
+    void deleteStationLogsChange() {
+        when(stationWriteRepository.delete(1))
+                .thenReturn(Optional.of(new GeoPoint(0.0, 1.1)));
+
+        stationService.deleteStation(1);
+
+        verify(changeLogRepository, times(1))
+                .append(ChangeLogEntry.EntityType.STATION, ChangeLogEntry.Operation.DELETE, List.of(1L));
     }
 
     @Test
     void deleteStationThrowsNotFoundExceptionOnAbsentId() {
         long id = 1;
-        when(stationRepository.findById(id))
+        when(stationWriteRepository.delete(id))
                 .thenReturn(Optional.empty());
 
         assertThrows(
@@ -179,6 +353,8 @@ class StationServiceUnitTest {
         );
         when(stationRepository.searchInRadiusOrderByDistance(0.0, 0.0, 200.0))
                 .thenReturn(expectedStations);
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
+                .thenReturn(expectedStations);
 
         var foundStations = stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
 
@@ -187,6 +363,219 @@ class StationServiceUnitTest {
         assertThat(foundStations).containsExactlyElementsOf(expectedStations);
     }
 
+    @Test
+    void searchInRadiusOrderByDistanceWithPostgis() {
+        var company = new Company(1, "Test Name", null);
+        var expectedStations = List.of(new Station(1, "SName", 1.0, 0.0, company));
+        ReflectionTestUtils.setField(stationService, "geoBackend", GeoBackend.POSTGIS);
+        when(stationRepository.searchInRadiusOrderByDistancePostgis(0.0, 0.0, 200.0))
+                .thenReturn(expectedStations);
+        when(stationRepository.findAllByIdInOrder(List.of(1L)))
+                .thenReturn(expectedStations);
+
+        var foundStations = stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+
+        verify(stationRepository, never())
+                .searchInRadiusOrderByDistance(anyDouble(), anyDouble(), anyDouble());
+        assertThat(foundStations).containsExactlyElementsOf(expectedStations);
+    }
+
+    @Test
+    void searchInRadiusOrderByDistanceUsesIndex() {
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 1.0, 0.0, company);
+        var station2 = new Station(2, "SName", 1.0, 1.0, company);
+        when(stationIndex.isReady())
+                .thenReturn(true);
+        when(stationIndex.searchInRadius(0.0, 0.0, 200.0))
+                .thenReturn(List.of(new PointGrid.Hit(1, 111.2), new PointGrid.Hit(2, 157.2)));
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
+                .thenReturn(List.of(station1, station2));
+
+        var foundStations = stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+
+        verify(stationRepository, never())
+                .searchInRadiusOrderByDistance(anyDouble(), anyDouble(), anyDouble());
+        assertThat(foundStations).containsExactly(station1, station2);
+    }
+
+    @Test
+    void searchInRadiusOrderByDistanceRecordsResultSize() {
+        var company = new Company(1, "Test Name", null);
+        when(stationIndex.isReady())
+                .thenReturn(true);
+        when(stationIndex.searchInRadius(0.0, 0.0, 200.0))
+                .thenReturn(List.of(new PointGrid.Hit(1, 111.2), new PointGrid.Hit(2, 157.2)));
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
+                .thenReturn(List.of(
+                        new Station(1, "SName", 1.0, 0.0, company),
+                        new Station(2, "SName", 1.0, 1.0, company)
+                ));
+
+        stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+
+        var results = meterRegistry.get("charging.station.search.results")
+                .tag("query", "radius")
+                .summary();
+        assertEquals(1, results.count());
+        assertEquals(2.0, results.totalAmount());
+    }
+
+    @Test
+    void searchInRadiusOrderByDistanceUsesSearchCache() {
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 1.0, 0.0, company);
+        var station2 = new Station(2, "SName", 1.0, 1.0, company);
+        when(stationSearchCache.accepts(200.0))
+                .thenReturn(true);
+        when(stationSearchCache.searchInRadius(eq(0.0), eq(0.0), eq(200.0), any()))
+                .thenReturn(List.of(new PointGrid.Hit(1, 111.2), new PointGrid.Hit(2, 157.2)));
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
+                .thenReturn(List.of(station1, station2));
+
+        var foundStations = stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+
+        verify(stationRepository, never())
+                .searchInRadiusOrderByDistance(anyDouble(), anyDouble(), anyDouble());
+        assertThat(foundStations).containsExactly(station1, station2);
+    }
+
+    @Test
+    void searchInRadiusOrderByDistanceSkipsAndUnindexesMissingStations() {
+        var company = new Company(1, "Test Name", null);
+        var station = new Station(2, "SName", 1.0, 1.0, company);
+        when(stationIndex.isReady())
+                .thenReturn(true);
+        when(stationIndex.searchInRadius(0.0, 0.0, 200.0))
+                .thenReturn(List.of(new PointGrid.Hit(1, 111.2), new PointGrid.Hit(2, 157.2)));
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
+                .thenReturn(Arrays.asList(null, station));
+
+        var foundStations = stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+
+        verify(stationIndex, times(1))
+                .remove(1);
+        assertThat(foundStations).containsExactly(station);
+    }
+
+    @Test
+    void searchInRadiusOrderByDistanceCoalescesConcurrentSearches() throws Exception {
+        var company = new Company(1, "Test Name", null);
+        var expectedStations = List.of(new Station(1, "SName", 1.0, 0.0, company));
+        var searchStarted = new CountDownLatch(1);
+        var searchReleased = new CountDownLatch(1);
+        when(stationRepository.searchInRadiusOrderByDistance(0.0, 0.0, 200.0))
+                .thenAnswer(invocation -> {
+                    searchStarted.countDown();
+                    searchReleased.await();
+                    return expectedStations;
+                });
+        when(stationRepository.findAllByIdInOrder(List.of(1L)))
+                .thenReturn(expectedStations);
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            var leader = executor.submit(() -> stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0));
+            searchStarted.await();
+            var follower = executor.submit(() -> stationService.searchInRadiusOrderByDistance(0.0, 0.0, 200.0));
+            // Gives the follower time to join the search in flight
+            Thread.sleep(100);
+            searchReleased.countDown();
+
+            assertThat(leader.get()).containsExactlyElementsOf(expectedStations);
+            assertThat(follower.get()).containsExactlyElementsOf(expectedStations);
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(stationRepository, times(1))
+                .searchInRadiusOrderByDistance(0.0, 0.0, 200.0);
+    }
+
+    @Test
+    void searchNearest() {
+        var company = new Company(1, "Test Name", null);
+        var station1 = new Station(1, "SName", 1.0, 0.0, company);
+        var station2 = new Station(2, "SName", 1.0, 1.0, company);
+        when(stationRepository.findNearest(0.0, 0.0, 2))
+                .thenReturn(List.of(stationDistance(1, 111.2), stationDistance(2, 157.2)));
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
+                .thenReturn(List.of(station1, station2));
+
+        var foundStations = stationService.searchNearest(0.0, 0.0, 2);
+
+        assertThat(foundStations).containsExactly(
+                new NearbyStation(station1, 111.2),
+                new NearbyStation(station2, 157.2)
+        );
+    }
+
+    @Test
+    void searchNearestUsesIndex() {
+        var company = new Company(1, "Test Name", null);
+        var station = new Station(1, "SName", 1.0, 0.0, company);
+        when(stationIndex.isReady())
+                .thenReturn(true);
+        when(stationIndex.nearest(0.0, 0.0, 1))
+                .thenReturn(List.of(new PointGrid.Hit(1, 111.2)));
+        when(stationRepository.findAllByIdInOrder(List.of(1L)))
+                .thenReturn(List.of(station));
+
+        var foundStations = stationService.searchNearest(0.0, 0.0, 1);
+
+        verify(stationRepository, never())
+                .findNearest(anyDouble(), anyDouble(), anyInt());
+        assertThat(foundStations).containsExactly(new NearbyStation(station, 111.2));
+    }
+
+    @Test
+    void searchViewportReturnsStationsAtHighZoom() {
+        var company = new Company(1, "Test Name", null);
+        var stations = List.of(new Station(1, "SName", 1.0, 1.001, company));
+        when(stationRepository.searchInBox(1.0, 1.0, 1.01, 1.01, StationService.MAX_VIEWPORT_STATIONS + 1))
+                .thenReturn(stations);
+
+        var viewport = stationService.searchViewport(1.0, 1.0, 1.01, 1.01, 18);
+
+        assertEquals(new StationViewport(18, List.of(), stations), viewport);
+        verify(stationClusterService, never())
+                .findClusters(anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyInt());
+    }
+
+    @Test
+    void searchViewportReturnsClustersForDenseArea() {
+        var company = new Company(1, "Test Name", null);
+        var stations = Collections.nCopies(
+                StationService.MAX_VIEWPORT_STATIONS + 1,
+                new Station(1, "SName", 1.0, 1.001, company)
+        );
+        var clusters = List.of(new StationCluster(1001, 1.0, 1.001));
+        when(stationRepository.searchInBox(1.0, 1.0, 1.01, 1.01, StationService.MAX_VIEWPORT_STATIONS + 1))
+                .thenReturn(stations);
+        when(stationClusterService.clusterZoom(1.0, 1.0, 1.01, 1.01, 18))
+                .thenReturn(15);
+        when(stationClusterService.findClusters(1.0, 1.0, 1.01, 1.01, 15))
+                .thenReturn(clusters);
+
+        var viewport = stationService.searchViewport(1.0, 1.0, 1.01, 1.01, 18);
+
+        assertEquals(new StationViewport(15, clusters, List.of()), viewport);
+    }
+
+    @Test
+    void searchViewportReturnsClustersAtLowZoom() {
+        var clusters = List.of(new StationCluster(3, 1.0, 1.0));
+        when(stationClusterService.clusterZoom(0.0, 0.0, 10.0, 10.0, 3))
+                .thenReturn(3);
+        when(stationClusterService.findClusters(0.0, 0.0, 10.0, 10.0, 3))
+                .thenReturn(clusters);
+
+        var viewport = stationService.searchViewport(0.0, 0.0, 10.0, 10.0, 3);
+
+        assertEquals(new StationViewport(3, clusters, List.of()), viewport);
+        verify(stationRepository, never())
+                .searchInBox(anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyInt());
+    }
+
     @Test
     @Transactional
     void searchOwnedStations() {
@@ -197,16 +586,82 @@ class StationServiceUnitTest {
         );
         when(companyService.getCompany(company.getId()))
                 .thenReturn(company);
-        when(stationRepository.searchByCompany(company.getId()))
+        when(stationRepository.findIdsByCompany(company.getId()))
+                .thenReturn(List.of(1L, 2L));
+        when(stationRepository.findAllByIdInOrder(List.of(1L, 2L)))
                 .thenReturn(expectedStations);
 
         List<Station> foundStations = stationService.searchByCompany(company.getId());
 
         verify(stationRepository, times(1))
-                .searchByCompany(company.getId());
+                .findIdsByCompany(company.getId());
         assertThat(foundStations).containsExactlyElementsOf(expectedStations);
     }
 
+    @Test
+    void searchOwnedStationsPage() {
+        var company = new Company(1, "Test Name", null);
+        var expectedStations = List.of(new Station(5, "SName", 1.0, 0.0, company));
+        when(companyService.getCompany(company.getId()))
+                .thenReturn(company);
+        when(stationRepository.searchByCompany(company.getId(), 4, 10))
+                .thenReturn(expectedStations);
+
+        List<Station> foundStations = stationService.searchByCompany(company.getId(), 4, 10);
+
+        assertThat(foundStations).containsExactlyElementsOf(expectedStations);
+    }
+
+    @Test
+    void importStations() {
+        var company = new Company(1, "Test Name", null);
+        var rows = List.of(
+                new StationImportRow(1, "First", 1.0, 2.0, 1),
+                new StationImportRow(2, "Second", 3.0, 4.0, 5),
+                new StationImportRow(3, "Third", 5.0, 6.0, 1)
+        );
+        when(companyService.getCompaniesById(Set.of(1L, 5L)))
+                .thenReturn(Map.of(company.getId(), company));
+        when(stationBulkRepository.insertAll(List.of(
+                new Station("First", 1.0, 2.0, company),
+                new Station("Third", 5.0, 6.0, company)
+        ))).thenReturn(List.of(10L, 11L));
+
+        var result = stationService.importStations(rows);
+
+        assertEquals(
+                new StationImportResult(2, List.of(new StationImportError(2, "Company with id 5 doesn't exist"))),
+                result
+        );
+        verify(companyService, times(1))
+                .getCompaniesById(any());
+        verify(eventPublisher, times(1))
+                .publishEvent(new StationsChangedEvent(List.of(
+                        StationChangedEvent.created(10, new GeoPoint(1.0, 2.0)),
+                        StationChangedEvent.created(11, new GeoPoint(5.0, 6.0))
+                )));
+    }
+
+    @Test
+    void streamOwnedStationsDetachesStations() {
+        var company = new Company(1, "Test Name", null);
+        var expectedStations = List.of(
+                new Station(1, "SName", 1.0, 0.0, company),
+                new Station(2, "SName", 1.0, 1.0, company)
+        );
+        when(stationRepository.streamByCompany(company.getId()))
+                .thenReturn(expectedStations.stream());
+        List<Station> streamedStations = new ArrayList<>();
+
+        stationService.streamByCompany(company.getId(), streamedStations::add);
+
+        assertEquals(expectedStations, streamedStations);
+        for (var station : expectedStations) {
+            verify(entityManager, times(1))
+                    .detach(station);
+        }
+    }
+
     @Test
     @Transactional
     void searchOwnedStationsThrowsNotFoundExceptionOnNonExistentCompany() {
@@ -0,0 +1,162 @@
+package io.tashtabash.charging.service;
+
+import io.tashtabash.charging.geo.GeoPoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class StationSubscriptionsTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    // Runs the deliveries only when the test asks to
+    private final Executor executor = tasks::add;
+
+    private StationSubscriptions stationSubscriptions;
+
+    @BeforeEach
+    void init() {
+        tasks.clear();
+        stationSubscriptions = new StationSubscriptions(executor, 0.25, 10);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    @Test
+    void notifiesOnlyMatchingSubscriptions() {
+        var near = new ArrayList<StationNotification>();
+        var far = new ArrayList<StationNotification>();
+        stationSubscriptions.subscribe(0.0, 0.0, 50.0, near::add, () -> {});
+        stationSubscriptions.subscribe(10.0, 10.0, 50.0, far::add, () -> {});
+
+        stationSubscriptions.onStationChanged(StationChangedEvent.created(1, new GeoPoint(0.1, 0.0)));
+        runTasks();
+
+        assertEquals(1, near.size());
+        assertEquals(StationNotification.Kind.ADDED, near.get(0).kind());
+        assertEquals(1, near.get(0).stationId());
+        assertEquals(11.1, near.get(0).distanceKm(), 0.1);
+        assertEquals(List.of(), far);
+    }
+
+    @Test
+    void notificationKindDependsOnTheArea() {
+        var notifications = new ArrayList<StationNotification>();
+        stationSubscriptions.subscribe(0.0, 0.0, 50.0, notifications::add, () -> {});
+        var inside = new GeoPoint(0.1, 0.0);
+        var alsoInside = new GeoPoint(0.2, 0.0);
+        var outside = new GeoPoint(5.0, 0.0);
+
+        stationSubscriptions.onStationsChanged(new StationsChangedEvent(List.of(
+                StationChangedEvent.updated(1, outside, inside),
+                StationChangedEvent.updated(1, inside, alsoInside),
+                StationChangedEvent.updated(1, alsoInside, outside),
+                StationChangedEvent.updated(2, outside, outside),
+                StationChangedEvent.created(3, inside),
+                StationChangedEvent.deleted(3, inside)
+        )));
+        runTasks();
+
+        assertEquals(
+                List.of(
+                        new StationNotification(StationNotification.Kind.ADDED, 1, inside, inside.distanceKmTo(new GeoPoint(0.0, 0.0))),
+                        new StationNotification(StationNotification.Kind.UPDATED, 1, alsoInside, alsoInside.distanceKmTo(new GeoPoint(0.0, 0.0))),
+                        new StationNotification(StationNotification.Kind.REMOVED, 1, alsoInside, alsoInside.distanceKmTo(new GeoPoint(0.0, 0.0))),
+                        new StationNotification(StationNotification.Kind.ADDED, 3, inside, inside.distanceKmTo(new GeoPoint(0.0, 0.0))),
+                        new StationNotification(StationNotification.Kind.REMOVED, 3, inside, inside.distanceKmTo(new GeoPoint(0.0, 0.0)))
+                ),
+                notifications
+        );
+    }
+
+    @Test
+    void deliversOnOneTaskAtATime() {
+        var notifications = new ArrayList<StationNotification>();
+        stationSubscriptions.subscribe(0.0, 0.0, 50.0, notifications::add, () -> {});
+
+        stationSubscriptions.onStationChanged(StationChangedEvent.created(1, new GeoPoint(0.1, 0.0)));
+        stationSubscriptions.onStationChanged(StationChangedEvent.created(2, new GeoPoint(0.1, 0.0)));
+
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertEquals(2, notifications.size());
+    }
+
+    @Test
+    void closeStopsNotifications() {
+        var notifications = new ArrayList<StationNotification>();
+        var subscription = stationSubscriptions.subscribe(0.0, 0.0, 50.0, notifications::add, () -> {});
+
+        stationSubscriptions.onStationChanged(StationChangedEvent.created(1, new GeoPoint(0.1, 0.0)));
+        subscription.close();
+        stationSubscriptions.onStationChanged(StationChangedEvent.created(2, new GeoPoint(0.1, 0.0)));
+        runTasks();
+
+        assertEquals(List.of(), notifications);
+        assertEquals(0, stationSubscriptions.size());
+    }
+
+    @Test
+    void dropsSubscriptionFallingBehind() {
+        var notifications = new ArrayList<StationNotification>();
+        var dropped = new ArrayList<Boolean>();
+        stationSubscriptions.subscribe(0.0, 0.0, 50.0, notifications::add, () -> dropped.add(true));
+
+        for (int i = 0; i < 11; i++) {
+            stationSubscriptions.onStationChanged(StationChangedEvent.created(i, new GeoPoint(0.1, 0.0)));
+        }
+        runTasks();
+
+        assertEquals(List.of(true), dropped);
+        assertEquals(List.of(), notifications);
+        assertEquals(0, stationSubscriptions.size());
+    }
+
+    @Test
+    void dropsSubscriptionOnConsumerFailure() {
+        var dropped = new ArrayList<Boolean>();
+        stationSubscriptions.subscribe(
+                0.0,
+                0.0,
+                50.0,
+                notification -> {
+                    throw new IllegalStateException("Client disconnected");
+                },
+                () -> dropped.add(true)
+        );
+
+        stationSubscriptions.onStationChanged(StationChangedEvent.created(1, new GeoPoint(0.1, 0.0)));
+        runTasks();
+
+        assertEquals(List.of(true), dropped);
+        assertEquals(0, stationSubscriptions.size());
+    }
+
+    @Test
+    void dropsSubscriptionWhenDeliveriesAreRejected() {
+        var dropped = new ArrayList<Boolean>();
+        var fullSubscriptions = new StationSubscriptions(
+                task -> {
+                    throw new RejectedExecutionException("Delivery queue is full");
+                },
+                0.25,
+                10
+        );
+        fullSubscriptions.subscribe(0.0, 0.0, 50.0, notification -> {}, () -> dropped.add(true));
+
+        fullSubscriptions.onStationChanged(StationChangedEvent.created(1, new GeoPoint(0.1, 0.0)));
+
+        assertEquals(List.of(true), dropped);
+        assertEquals(0, fullSubscriptions.size());
+    }
+}
@@ -1,27 +1,152 @@
+CREATE EXTENSION IF NOT EXISTS cube;
+CREATE EXTENSION IF NOT EXISTS earthdistance;
+
+-- Hibernate and the bulk repositories take a block of ids per nextval, the increment is the entities' ID_ALLOCATION_SIZE
+CREATE SEQUENCE IF NOT EXISTS company_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS station_seq INCREMENT BY 50;
 
 CREATE TABLE IF NOT EXISTS Company
 (
-    id   BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id   BIGINT DEFAULT nextval('company_seq') PRIMARY KEY,
     name VARCHAR(255) NOT NULL,
     parent_company_id BIGINT,
+    version BIGINT NOT NULL DEFAULT 0,
     CONSTRAINT fk_parent_id
         FOREIGN KEY(parent_company_id)
             REFERENCES Company(id)
-            ON DELETE CASCADE
+        ON DELETE CASCADE
 );
 
 CREATE TABLE IF NOT EXISTS Station
 (
-    id   BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id   BIGINT DEFAULT nextval('station_seq') PRIMARY KEY,
     name VARCHAR(255) NOT NULL,
     latitude double precision NOT NULL,
     longitude double precision NOT NULL,
     company_id BIGINT NOT NULL,
+    version BIGINT NOT NULL DEFAULT 0,
     CONSTRAINT fk_company_id
         FOREIGN KEY(company_id)
             REFERENCES Company(id)
+        ON DELETE CASCADE
+);
+
+-- Databases created before the version columns
+ALTER TABLE Company ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE Station ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- Databases created with IDENTITY ids, the sequences continue after their rows
+ALTER TABLE Company ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE Company ALTER COLUMN id SET DEFAULT nextval('company_seq');
+ALTER SEQUENCE company_seq OWNED BY Company.id;
+SELECT setval('company_seq', max(id)) FROM Company HAVING max(id) >= (SELECT last_value FROM company_seq);
+ALTER TABLE Station ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE Station ALTER COLUMN id SET DEFAULT nextval('station_seq');
+ALTER SEQUENCE station_seq OWNED BY Station.id;
+SELECT setval('station_seq', max(id)) FROM Station HAVING max(id) >= (SELECT last_value FROM station_seq);
+
+CREATE INDEX IF NOT EXISTS station_location_idx ON Station USING gist (ll_to_earth(latitude, longitude));
+CREATE INDEX IF NOT EXISTS station_latitude_longitude_idx ON Station (latitude, longitude);
+
+CREATE TABLE IF NOT EXISTS StationCluster
+(
+    zoom INT NOT NULL,
+    cell_latitude INT NOT NULL,
+    cell_longitude INT NOT NULL,
+    station_count BIGINT NOT NULL,
+    latitude_sum double precision NOT NULL,
+    longitude_sum double precision NOT NULL,
+    PRIMARY KEY (zoom, cell_latitude, cell_longitude)
+);
+
+-- Station moves not folded into StationCluster yet, appended by the writes and drained by StationClusterFolder
+CREATE TABLE IF NOT EXISTS StationClusterDelta
+(
+    seq BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    latitude double precision NOT NULL,
+    longitude double precision NOT NULL,
+    delta SMALLINT NOT NULL
+);
+
+-- Same cells as StationClusterRepository: 4 cells per map tile side, zoom levels up to 15.
+-- The seed counts the Stations as they are, so it drops the pending deltas in the same snapshot
+WITH pending AS (DELETE FROM StationClusterDelta WHERE NOT EXISTS (SELECT 1 FROM StationCluster))
+INSERT INTO StationCluster (zoom, cell_latitude, cell_longitude, station_count, latitude_sum, longitude_sum)
+SELECT z.zoom,
+       floor((latitude + 90) / (360.0 / (4 * 2 ^ z.zoom)))::int,
+       floor((longitude + 180) / (360.0 / (4 * 2 ^ z.zoom)))::int,
+       count(*), sum(latitude), sum(longitude)
+FROM Station CROSS JOIN generate_series(0, 15) AS z(zoom)
+WHERE NOT EXISTS (SELECT 1 FROM StationCluster)
+GROUP BY 1, 2, 3;
+
+CREATE INDEX IF NOT EXISTS company_parent_company_id_idx ON Company (parent_company_id);
+CREATE INDEX IF NOT EXISTS station_company_id_idx ON Station (company_id);
+
+-- Every (ancestor, descendant) pair of the Company tree, including (id, id) pairs
+CREATE TABLE IF NOT EXISTS CompanyClosure
+(
+    ancestor_id BIGINT NOT NULL,
+    descendant_id BIGINT NOT NULL,
+    depth INT NOT NULL,
+    PRIMARY KEY (ancestor_id, descendant_id),
+    CONSTRAINT fk_ancestor_id
+        FOREIGN KEY(ancestor_id)
+            REFERENCES Company(id)
+            ON DELETE CASCADE,
+    CONSTRAINT fk_descendant_id
+        FOREIGN KEY(descendant_id)
+            REFERENCES Company(id)
             ON DELETE CASCADE
 );
 
-CREATE EXTENSION IF NOT EXISTS cube;
-CREATE EXTENSION IF NOT EXISTS earthdistance;
+CREATE INDEX IF NOT EXISTS company_closure_descendant_id_idx ON CompanyClosure (descendant_id);
+
+WITH RECURSIVE paths AS (
+    SELECT id AS ancestor_id, id AS descendant_id, 0 AS depth FROM Company
+    UNION ALL
+    SELECT paths.ancestor_id, child.id, paths.depth + 1 FROM paths
+        INNER JOIN Company child ON child.parent_company_id = paths.descendant_id
+)
+INSERT INTO CompanyClosure (ancestor_id, descendant_id, depth)
+SELECT * FROM paths
+WHERE NOT EXISTS (SELECT 1 FROM CompanyClosure);
+
+-- Appended to, and compacted past the retention. Concurrent transactions interleave their seqs, so entries are
+-- read in the order of the appending transaction's xid and served once no older transaction is in progress
+CREATE TABLE IF NOT EXISTS ChangeLog
+(
+    seq BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    xid xid8 NOT NULL DEFAULT pg_current_xact_id(),
+    entity_type VARCHAR(16) NOT NULL,
+    entity_id BIGINT NOT NULL,
+    operation VARCHAR(16) NOT NULL,
+    changed_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
+
+-- Databases created before the xid column, their entries keep the seq order
+ALTER TABLE ChangeLog ADD COLUMN IF NOT EXISTS xid xid8 NOT NULL DEFAULT pg_current_xact_id();
+
+CREATE INDEX IF NOT EXISTS changelog_xid_seq_idx ON ChangeLog (xid, seq);
+CREATE INDEX IF NOT EXISTS changelog_entity_idx ON ChangeLog (entity_type, entity_id);
+
+-- Position of the latest deletion dropped by the compaction, pollers behind it may have missed deletions
+CREATE TABLE IF NOT EXISTS ChangeLogHorizon
+(
+    id BOOLEAN PRIMARY KEY DEFAULT TRUE CHECK (id),
+    xid xid8 NOT NULL,
+    seq BIGINT NOT NULL
+);
+
+INSERT INTO ChangeLogHorizon (xid, seq) VALUES ('0', 0) ON CONFLICT DO NOTHING;
+
+-- Existing data is logged as inserts, so reading from the start syncs everything. Parents go before their children
+INSERT INTO ChangeLog (entity_type, entity_id, operation)
+SELECT existing.entity_type, existing.entity_id, 'INSERT' FROM (
+    SELECT 'COMPANY' AS entity_type, descendant_id AS entity_id, max(depth) AS depth FROM CompanyClosure
+    GROUP BY descendant_id
+    UNION ALL
+    SELECT 'STATION', id, NULL FROM Station
+) existing
+WHERE NOT EXISTS (SELECT 1 FROM ChangeLog)
+ORDER BY existing.entity_type, existing.depth, existing.entity_id;